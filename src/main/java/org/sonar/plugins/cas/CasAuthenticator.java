@@ -19,6 +19,7 @@
  */
 package org.sonar.plugins.cas;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import org.apache.commons.lang.StringUtils;
@@ -33,12 +34,22 @@ import org.sonar.api.security.Authenticator;
 import org.sonar.api.security.UserDetails;
 import org.sonar.api.server.ServerSide;
 import org.sonar.api.server.http.HttpRequest;
-import org.sonar.plugins.cas.util.CasAuthenticationException;
+import org.sonar.plugins.cas.util.AssertionCache;
+import org.sonar.plugins.cas.util.CasUnavailableException;
+import org.sonar.plugins.cas.util.CredentialFingerprint;
 import org.sonar.plugins.cas.util.HttpRequestAttributeWrapper;
+import org.sonar.plugins.cas.util.ProxyTicketCache;
+import org.sonar.plugins.cas.util.SingleFlight;
 import org.sonar.plugins.cas.util.SonarCasProperties;
 
 import javax.servlet.http.HttpServletRequest;
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The {@link CasAuthenticator} authenticates the user against the CAS Rest API with the provided username and password
@@ -49,6 +60,22 @@ import java.util.Map;
  * stored in the request by the {@link CasUserProvider}, are populated with the now available information from the
  * assertion.
  * </p>
+ * <p>
+ * If the {@link AssertionCache} is enabled, the assertion of username and password is reused for a short time instead
+ * of requesting and validating a new service ticket. The {@link ProxyTicketCache} decides whether API calls with the
+ * same proxy ticket share its validation.
+ * </p>
+ * <p>
+ * Concurrent calls with the same username and password, e.g. the parallel requests of a dashboard, are grouped by a
+ * {@link SingleFlight}: only one of them requests and validates a service ticket, the others wait for its assertion.
+ * The service ticket is requested asynchronously and awaited only up to a deadline, so that a slow CAS server does not
+ * hold the web server threads for longer.
+ * </p>
+ * <p>
+ * While CAS is unavailable, e.g. because the circuit breaker of the {@link CasHttpClientPool} is open, API calls cannot
+ * be authenticated and SonarQube answers them with <code>401 Unauthorized</code>. This is logged once when it starts
+ * and once when CAS answers again, not for every rejected call.
+ * </p>
  *
  * @author Sebastian Sdorra, Cloudogu GmbH
  */
@@ -57,23 +84,47 @@ public class CasAuthenticator extends Authenticator {
 
     private static final Logger LOG = LoggerFactory.getLogger(CasAuthenticator.class);
     private static final String PROXY_TICKET_STARTER = "ProxyTicket===:";
+    static final int DEFAULT_AUTHENTICATION_TIMEOUT_MILLIS = 15000;
 
     private final Configuration configuration;
     private final CasAttributeSettings attributeSettings;
 
     private final TicketValidatorFactory ticketValidatorFactory;
     private final CasRestClient casRestClient;
+    private final AssertionCache assertionCache;
+    private final ProxyTicketCache proxyTicketCache;
+    private final SingleFlight<CredentialFingerprint, Assertion> credentialFlights;
+    private final Duration authenticationTimeout;
+    /**
+     * <code>true</code> while API calls are rejected because CAS is unavailable
+     */
+    private final AtomicBoolean casUnavailable = new AtomicBoolean();
+
+    CasAuthenticator(Configuration configuration, CasAttributeSettings attributeSettings,
+                     TicketValidatorFactory ticketValidatorFactory, CasRestClientFactory casRestClientFactory) {
+        this(configuration, attributeSettings, ticketValidatorFactory, casRestClientFactory, AssertionCache.disabled(),
+                ProxyTicketCache.disabled());
+    }
 
     /**
      * called with injection by SonarQube during server initialization
      */
     CasAuthenticator(Configuration configuration, CasAttributeSettings attributeSettings,
-                     TicketValidatorFactory ticketValidatorFactory, CasRestClientFactory casRestClientFactory) {
+                     TicketValidatorFactory ticketValidatorFactory, CasRestClientFactory casRestClientFactory,
+                     AssertionCache assertionCache, ProxyTicketCache proxyTicketCache) {
         this.configuration = configuration;
         this.attributeSettings = attributeSettings;
 
         this.ticketValidatorFactory = ticketValidatorFactory;
         this.casRestClient = casRestClientFactory.create();
+        this.assertionCache = assertionCache;
+        this.proxyTicketCache = proxyTicketCache;
+        this.authenticationTimeout = Duration.ofMillis(SonarCasProperties.REST_CLIENT_AUTHENTICATION_TIMEOUT_MILLIS
+                .getInteger(configuration, DEFAULT_AUTHENTICATION_TIMEOUT_MILLIS));
+        // the service ticket request and the validation of the ticket run one after the other
+        Duration longestAuthentication = authenticationTimeout.plus(CasHttpClientSettings.fromConfiguration(configuration)
+                .getLongestRequest());
+        this.credentialFlights = new SingleFlight<>(SingleFlight.getTimeout(configuration, longestAuthentication));
     }
 
     @Override
@@ -98,9 +149,8 @@ public class CasAuthenticator extends Authenticator {
 
     private boolean handleProxyTicketing(Context context) {
         String proxyTicket = getProxyTicket(context.getPassword());
-        TicketValidator validator = ticketValidatorFactory.createForProxy();
-
-        Assertion assertion = validateTicketAssertion(validator, proxyTicket);
+        Assertion assertion = proxyTicketCache.get(proxyTicket,
+                () -> validateTicketAssertion(ticketValidatorFactory.createForProxy(), proxyTicket));
         if (assertion == null) {
             return false;
         }
@@ -113,17 +163,25 @@ public class CasAuthenticator extends Authenticator {
     private boolean handleServiceTicketing(Context context) {
         String username = context.getUsername();
         String password = context.getPassword();
-        String serviceTicket;
 
+        Assertion cachedAssertion = assertionCache.get(username, password);
+        if (cachedAssertion != null) {
+            LOG.debug("Reusing the cached CAS assertion of user {}", username);
+            enrichSuccessfullyAuthenticatedRequest(context, cachedAssertion);
+            return true;
+        }
+
+        Assertion assertion;
         try {
-            serviceTicket = casRestClient.createServiceTicket(username, password);
-        } catch (CasAuthenticationException ex) {
-            LOG.warn("CAS authentication failed", ex);
+            assertion = credentialFlights.execute(CredentialFingerprint.of(username, password),
+                    () -> requestAssertion(username, password));
+        } catch (TimeoutException ex) {
+            LOG.warn("The running CAS authentication of user {} did not finish in time", username);
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
             return false;
         }
-        TicketValidator validator = ticketValidatorFactory.create();
-
-        Assertion assertion = validateTicketAssertion(validator, serviceTicket);
         if (assertion == null) {
             return false;
         }
@@ -133,14 +191,75 @@ public class CasAuthenticator extends Authenticator {
         return true;
     }
 
+    private Assertion requestAssertion(String username, String password) {
+        String serviceTicket = awaitServiceTicket(username, password);
+        if (serviceTicket == null) {
+            return null;
+        }
+        TicketValidator validator = ticketValidatorFactory.create();
+
+        Assertion assertion = validateTicketAssertion(validator, serviceTicket);
+        if (assertion != null) {
+            assertionCache.put(username, password, assertion);
+        }
+        return assertion;
+    }
+
+    private String awaitServiceTicket(String username, String password) {
+        CompletableFuture<String> serviceTicket = casRestClient.createServiceTicketAsync(username, password);
+        try {
+            String ticket = serviceTicket.get(authenticationTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            onCasAvailable();
+            return ticket;
+        } catch (ExecutionException ex) {
+            CasUnavailableException unavailable = CasUnavailableException.find(ex);
+            if (unavailable != null) {
+                onCasUnavailable("CAS authentication skipped", unavailable);
+                return null;
+            }
+            LOG.warn("CAS authentication failed", ex.getCause());
+            return null;
+        } catch (TimeoutException ex) {
+            serviceTicket.cancel(true);
+            LOG.warn("CAS did not issue a service ticket for user {} within {} ms", username,
+                    authenticationTimeout.toMillis());
+            return null;
+        } catch (InterruptedException ex) {
+            serviceTicket.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of basic authentications which were sent to CAS and which were shared between concurrent calls
+     */
+    public SingleFlight.Statistics getCredentialFlightStatistics() {
+        return credentialFlights.getStatistics();
+    }
+
+    @VisibleForTesting
+    SingleFlight<CredentialFingerprint, Assertion> getCredentialFlights() {
+        return credentialFlights;
+    }
+
     Assertion validateTicketAssertion(TicketValidator validator, String ticket) {
         String serviceUrl = getServiceUrl();
         Assertion assertion;
         try {
             assertion = validator.validate(ticket, serviceUrl);
+            onCasAvailable();
         } catch (TicketValidationException ex) {
+            onCasAvailable();
             LOG.warn("Ticket validation failed", ex);
             return null;
+        } catch (RuntimeException ex) {
+            CasUnavailableException unavailable = CasUnavailableException.find(ex);
+            if (unavailable == null) {
+                throw ex;
+            }
+            onCasUnavailable("Ticket validation skipped", unavailable);
+            return null;
         }
 
         if (assertion == null) {
@@ -156,6 +275,29 @@ public class CasAuthenticator extends Authenticator {
         return assertion;
     }
 
+    private void onCasUnavailable(String skippedStep, CasUnavailableException unavailable) {
+        if (casUnavailable.compareAndSet(false, true)) {
+            LOG.warn("CAS is unavailable: {}. API calls with basic authentication or proxy tickets are answered with "
+                    + "401 Unauthorized until CAS answers again", unavailable.getMessage());
+        } else {
+            LOG.debug("{}: {}", skippedStep, unavailable.getMessage());
+        }
+    }
+
+    private void onCasAvailable() {
+        if (casUnavailable.compareAndSet(true, false)) {
+            LOG.info("CAS answers again. API calls are authenticated at CAS again");
+        }
+    }
+
+    /**
+     * @return <code>true</code> while API calls are rejected because CAS is unavailable
+     */
+    @VisibleForTesting
+    boolean isCasUnavailable() {
+        return casUnavailable.get();
+    }
+
     private void enrichSuccessfullyAuthenticatedRequest(Context context, Assertion assertion) {
         populateUserDetails(context.getHttpRequest(), assertion);
     }
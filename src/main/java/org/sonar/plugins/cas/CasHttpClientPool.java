@@ -0,0 +1,369 @@
+package org.sonar.plugins.cas;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+import org.sonar.plugins.cas.util.CasUnavailableException;
+import org.sonar.plugins.cas.util.CircuitBreaker;
+import org.sonar.plugins.cas.util.IgnoreCert;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class sends the requests of the {@link CasRestClient} and of the ticket validators over one shared
+ * {@link HttpClient}. The client keeps connections to CAS alive between requests and negotiates HTTP/2 if CAS supports
+ * it, so that log-ins and API calls with basic authentication do not pay for a new TCP and TLS handshake each.
+ *
+ * <p>The number of parallel requests per route (scheme, host and port) is limited. Blocking requests which find no free
+ * connection wait up to the read timeout, asynchronous requests fail at once. This limit keeps a slow CAS from
+ * tying up more request threads of SonarQube. In addition, all requests pass a {@link CircuitBreaker} which rejects
+ * them with a {@link CasUnavailableException} while CAS fails or responds slowly. Responses with a status of 500 and
+ * above count as failures. Instances are thread-safe.</p>
+ */
+@ServerSide
+public final class CasHttpClientPool {
+    private static final Logger LOG = LoggerFactory.getLogger(CasHttpClientPool.class);
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+    /**
+     * The JDK client sets these headers itself and rejects them in requests.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "content-length", "expect", "host", "upgrade"));
+
+    private final HttpClient client;
+    private final CasHttpClientSettings settings;
+    private final CircuitBreaker circuitBreaker;
+    private final ConcurrentMap<String, Semaphore> routes = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder http2Responses = new LongAdder();
+    private final LongAdder waitingRequests = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+
+    /** This constructor is used with Dependency Injection during SonarQube start-up time */
+    public CasHttpClientPool(Configuration configuration) {
+        this(CasHttpClientSettings.fromConfiguration(configuration), CircuitBreaker.fromConfiguration(configuration));
+    }
+
+    CasHttpClientPool(CasHttpClientSettings settings) {
+        this(settings, CircuitBreaker.withDefaults());
+    }
+
+    CasHttpClientPool(CasHttpClientSettings settings, CircuitBreaker circuitBreaker) {
+        this.settings = settings;
+        this.circuitBreaker = circuitBreaker;
+        this.client = createClient(settings);
+    }
+
+    private static HttpClient createClient(CasHttpClientSettings settings) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(settings.isHttp2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(settings.getConnectTimeout())
+                .followRedirects(HttpClient.Redirect.NEVER);
+
+        if (settings.isCertValidationDisabled()) {
+            try {
+                builder.sslContext(IgnoreCert.createTrustAllContext());
+            } catch (GeneralSecurityException e) {
+                LOG.error("Could not disable the certificate validation of the CAS HTTP client", e);
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Posts a form to CAS.
+     *
+     * @param url      the URL of the CAS REST endpoint
+     * @param formBody the URL encoded form
+     * @return the response of CAS with its body as string
+     * @throws IOException if no connection becomes free in time, CAS cannot be reached or does not respond in time;
+     *                     a {@link CasUnavailableException} if the circuit breaker is open
+     */
+    HttpResponse<String> post(String url, String formBody) throws IOException {
+        return send(createFormRequest(url, formBody), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Posts a form to CAS without blocking the calling thread. The request does not wait for a free connection: if
+     * all connections of the route are busy, the returned future fails at once.
+     *
+     * @param url      the URL of the CAS REST endpoint
+     * @param formBody the URL encoded form
+     * @return the response of CAS with its body as string; the future fails with an {@link IOException} if no
+     * connection is free, CAS cannot be reached or does not respond in time, and with a
+     * {@link CasUnavailableException} if the circuit breaker is open
+     */
+    CompletableFuture<HttpResponse<String>> postAsync(String url, String formBody) {
+        HttpRequest request = createFormRequest(url, formBody).timeout(settings.getReadTimeout()).build();
+        String route = routeOf(request.uri());
+        Semaphore connections = getConnections(route);
+
+        CircuitBreaker.Permit permit;
+        try {
+            permit = circuitBreaker.acquire();
+        } catch (CasUnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        requests.increment();
+        if (!connections.tryAcquire()) {
+            permit.release();
+            rejectedRequests.increment();
+            return CompletableFuture.failedFuture(new IOException("All " + settings.getMaxConnectionsPerRoute()
+                    + " connections to " + route + " are busy"));
+        }
+
+        CompletableFuture<HttpResponse<String>> response;
+        try {
+            response = client.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            connections.release();
+            permit.onFailure();
+            failedRequests.increment();
+            throw e;
+        }
+        return response.whenComplete((completed, error) -> {
+            connections.release();
+            if (error != null) {
+                permit.onFailure();
+                failedRequests.increment();
+                return;
+            }
+            record(permit, completed);
+            if (completed.version() == HttpClient.Version.HTTP_2) {
+                http2Responses.increment();
+            }
+        });
+    }
+
+    private static HttpRequest.Builder createFormRequest(String url, String formBody) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", FORM_CONTENT_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofString(formBody, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends an arbitrary request to CAS. Headers which the client sets itself, e.g. <code>Content-Length</code>, are
+     * ignored.
+     *
+     * @param method  the HTTP method
+     * @param url     the URL of the CAS endpoint
+     * @param headers the request headers
+     * @param body    the request body or <code>null</code>
+     * @return the response of CAS with its body as bytes
+     * @throws IOException if no connection becomes free in time, CAS cannot be reached or does not respond in time;
+     *                     a {@link CasUnavailableException} if the circuit breaker is open
+     */
+    HttpResponse<byte[]> send(String method, String url, Map<String, List<String>> headers, byte[] body)
+            throws IOException {
+        HttpRequest.BodyPublisher publisher = body == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(body);
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).method(method, publisher);
+        headers.forEach((name, values) -> {
+            if (name != null && !RESTRICTED_HEADERS.contains(name.toLowerCase(Locale.ENGLISH))) {
+                values.forEach(value -> request.header(name, value));
+            }
+        });
+
+        return send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest.Builder requestBuilder, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException {
+        HttpRequest request = requestBuilder.timeout(settings.getReadTimeout()).build();
+        String route = routeOf(request.uri());
+        Semaphore connections = getConnections(route);
+
+        CircuitBreaker.Permit permit = circuitBreaker.acquire();
+        requests.increment();
+        try {
+            acquire(connections, route);
+        } catch (IOException e) {
+            permit.release();
+            throw e;
+        }
+        try {
+            HttpResponse<T> response = client.send(request, bodyHandler);
+            record(permit, response);
+            if (response.version() == HttpClient.Version.HTTP_2) {
+                http2Responses.increment();
+            }
+            return response;
+        } catch (IOException e) {
+            permit.onFailure();
+            failedRequests.increment();
+            throw e;
+        } catch (InterruptedException e) {
+            failedRequests.increment();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response of " + route);
+        } finally {
+            connections.release();
+            // frees the trial slot of calls without outcome, e.g. interrupted ones
+            permit.release();
+        }
+    }
+
+    private static void record(CircuitBreaker.Permit permit, HttpResponse<?> response) {
+        if (response.statusCode() >= 500) {
+            permit.onFailure();
+        } else {
+            permit.onSuccess();
+        }
+    }
+
+    private Semaphore getConnections(String route) {
+        return routes.computeIfAbsent(route, key -> new Semaphore(settings.getMaxConnectionsPerRoute(), true));
+    }
+
+    private void acquire(Semaphore connections, String route) throws IOException {
+        if (connections.tryAcquire()) {
+            return;
+        }
+
+        waitingRequests.increment();
+        try {
+            if (!connections.tryAcquire(settings.getReadTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                rejectedRequests.increment();
+                throw new IOException("No connection to " + route + " became free within "
+                        + settings.getReadTimeout().toMillis() + " ms");
+            }
+        } catch (InterruptedException e) {
+            rejectedRequests.increment();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + route);
+        }
+    }
+
+    private static String routeOf(URI uri) {
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getScheme() + "://" + uri.getHost() + ":" + port;
+    }
+
+    /**
+     * @return a snapshot of the request counters and of the busy connections per route
+     */
+    public Statistics getStatistics() {
+        Map<String, Integer> busyConnections = new TreeMap<>();
+        routes.forEach((route, connections) ->
+                busyConnections.put(route, settings.getMaxConnectionsPerRoute() - connections.availablePermits()));
+
+        return new Statistics(requests.sum(), http2Responses.sum(), waitingRequests.sum(), rejectedRequests.sum(),
+                failedRequests.sum(), busyConnections);
+    }
+
+    /**
+     * @return a snapshot of the state of the circuit breaker around the requests to CAS
+     */
+    public CircuitBreaker.Statistics getCircuitBreakerStatistics() {
+        return circuitBreaker.getStatistics();
+    }
+
+    /**
+     * @return the longest time a synchronous request to CAS takes until it fails with the configured timeouts
+     */
+    public Duration getLongestRequest() {
+        return settings.getLongestRequest();
+    }
+
+    /**
+     * The counters of a {@link CasHttpClientPool} since server start.
+     */
+    public static final class Statistics {
+        private final long requests;
+        private final long http2Responses;
+        private final long waitingRequests;
+        private final long rejectedRequests;
+        private final long failedRequests;
+        private final Map<String, Integer> busyConnections;
+
+        Statistics(long requests, long http2Responses, long waitingRequests, long rejectedRequests,
+                   long failedRequests, Map<String, Integer> busyConnections) {
+            this.requests = requests;
+            this.http2Responses = http2Responses;
+            this.waitingRequests = waitingRequests;
+            this.rejectedRequests = rejectedRequests;
+            this.failedRequests = failedRequests;
+            this.busyConnections = Collections.unmodifiableMap(busyConnections);
+        }
+
+        /**
+         * @return the number of requests to CAS
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return the number of responses which CAS sent over HTTP/2
+         */
+        public long getHttp2Responses() {
+            return http2Responses;
+        }
+
+        /**
+         * @return the number of requests which had to wait for a free connection
+         */
+        public long getWaitingRequests() {
+            return waitingRequests;
+        }
+
+        /**
+         * @return the number of requests which found no free connection within the read timeout, or at once for
+         * asynchronous requests
+         */
+        public long getRejectedRequests() {
+            return rejectedRequests;
+        }
+
+        /**
+         * @return the number of requests which failed with an I/O error or a timeout
+         */
+        public long getFailedRequests() {
+            return failedRequests;
+        }
+
+        /**
+         * @return the number of connections which are currently in use, by route
+         */
+        public Map<String, Integer> getBusyConnections() {
+            return busyConnections;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests + ", http2Responses=" + http2Responses + ", waitingRequests="
+                    + waitingRequests + ", rejectedRequests=" + rejectedRequests + ", failedRequests="
+                    + failedRequests + ", busyConnections=" + busyConnections;
+        }
+    }
+}
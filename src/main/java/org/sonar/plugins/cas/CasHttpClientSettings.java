@@ -0,0 +1,102 @@
+package org.sonar.plugins.cas;
+
+import org.sonar.api.config.Configuration;
+import org.sonar.plugins.cas.util.SonarCasProperties;
+
+import java.time.Duration;
+
+/**
+ * This class holds the connection settings of the HTTP client which calls the CAS REST API and validates tickets.
+ */
+final class CasHttpClientSettings {
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+    static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final int maxConnectionsPerRoute;
+    private final boolean http2;
+    private final boolean certValidationDisabled;
+
+    CasHttpClientSettings(Duration connectTimeout, Duration readTimeout, int maxConnectionsPerRoute, boolean http2,
+                          boolean certValidationDisabled) {
+        if (connectTimeout.isZero() || connectTimeout.isNegative()) {
+            throw new IllegalArgumentException("The CAS HTTP client connect timeout must be positive but was " + connectTimeout);
+        }
+        if (readTimeout.isZero() || readTimeout.isNegative()) {
+            throw new IllegalArgumentException("The CAS HTTP client read timeout must be positive but was " + readTimeout);
+        }
+        if (maxConnectionsPerRoute <= 0) {
+            throw new IllegalArgumentException("The CAS HTTP client connections per route must be positive but was "
+                    + maxConnectionsPerRoute);
+        }
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.http2 = http2;
+        this.certValidationDisabled = certValidationDisabled;
+    }
+
+    static CasHttpClientSettings defaults() {
+        return new CasHttpClientSettings(Duration.ofMillis(DEFAULT_CONNECT_TIMEOUT_MILLIS),
+                Duration.ofMillis(DEFAULT_READ_TIMEOUT_MILLIS), DEFAULT_MAX_CONNECTIONS_PER_ROUTE, true, false);
+    }
+
+    static CasHttpClientSettings fromConfiguration(Configuration configuration) {
+        int connectTimeout = SonarCasProperties.HTTP_CLIENT_CONNECT_TIMEOUT_MILLIS
+                .getInteger(configuration, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+        int readTimeout = SonarCasProperties.HTTP_CLIENT_READ_TIMEOUT_MILLIS
+                .getInteger(configuration, DEFAULT_READ_TIMEOUT_MILLIS);
+        int maxConnectionsPerRoute = SonarCasProperties.HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE
+                .getInteger(configuration, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+        boolean http2 = SonarCasProperties.HTTP_CLIENT_HTTP2.getBoolean(configuration, true);
+        boolean certValidationDisabled = SonarCasProperties.DISABLE_CERT_VALIDATION.getBoolean(configuration, false);
+
+        return new CasHttpClientSettings(Duration.ofMillis(connectTimeout), Duration.ofMillis(readTimeout),
+                maxConnectionsPerRoute, http2, certValidationDisabled);
+    }
+
+    /**
+     * @return the time to establish a new connection to CAS
+     */
+    Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @return the time to wait for a free connection and for the response of CAS
+     */
+    Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @return the longest time a synchronous request takes until it fails: the wait for a free connection and the wait
+     * for the response of CAS, each limited by the read timeout
+     */
+    Duration getLongestRequest() {
+        return readTimeout.multipliedBy(2);
+    }
+
+    /**
+     * @return the maximal number of parallel requests to the same scheme, host and port
+     */
+    int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return <code>true</code> if the client offers HTTP/2 to CAS and falls back to HTTP/1.1
+     */
+    boolean isHttp2() {
+        return http2;
+    }
+
+    /**
+     * @return <code>true</code> if the client trusts every certificate (development only)
+     */
+    boolean isCertValidationDisabled() {
+        return certValidationDisabled;
+    }
+}
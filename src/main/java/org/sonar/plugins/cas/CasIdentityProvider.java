@@ -8,10 +8,14 @@ import org.sonar.api.server.ServerSide;
 import org.sonar.api.server.authentication.BaseIdentityProvider;
 import org.sonar.api.server.authentication.Display;
 import org.sonar.api.server.http.HttpRequest;
+import org.sonar.api.server.http.HttpResponse;
 import org.sonar.plugins.cas.logout.CasSonarSignOutInjectorFilter;
 import org.sonar.plugins.cas.logout.LogoutHandler;
+import org.sonar.plugins.cas.util.CasUnavailableException;
 import org.sonar.plugins.cas.util.SonarCasProperties;
 
+import java.io.IOException;
+
 /**
  * The {@link CasIdentityProvider} is responsible for the browser based cas sso authentication. The authentication
  * workflow for an unauthenticated user is as follows:
@@ -39,6 +43,9 @@ import org.sonar.plugins.cas.util.SonarCasProperties;
  * </li>
  * <li>The user with an existing JWT cannot re-use existing JWT</li>
  * </ol>
+ *
+ * <p>If the ticket cannot be validated because CAS is currently unavailable, the user receives
+ * <code>503 Service Unavailable</code> with a <code>Retry-After</code> header.</p>
  */
 @ServerSide
 public class CasIdentityProvider implements BaseIdentityProvider {
@@ -73,10 +80,29 @@ public class CasIdentityProvider implements BaseIdentityProvider {
                 LOG.debug("CasIdentityProvider found an unexpected case. Ignoring this request to {}", request.getRequestURL());
             }
         } catch (Exception e) {
+            CasUnavailableException unavailable = CasUnavailableException.find(e);
+            if (unavailable != null) {
+                LOG.warn("CAS login failed: {}", unavailable.getMessage());
+                respondUnavailable(context.getHttpResponse(), unavailable);
+                return;
+            }
             LOG.debug("authentication or logout failed", e);
         }
     }
 
+    private static void respondUnavailable(HttpResponse response, CasUnavailableException unavailable) {
+        long retryAfterSeconds = Math.max(1, (unavailable.getRetryAfter().toMillis() + 999) / 1000);
+        response.setStatus(503);
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        response.setContentType("text/plain");
+        try {
+            response.getWriter().write("CAS is currently unavailable. Please try again in " + retryAfterSeconds
+                    + " seconds.");
+        } catch (IOException e) {
+            LOG.debug("could not write the unavailability response", e);
+        }
+    }
+
     private boolean isLogin(HttpRequest request) {
         String ticket = request.getParameter("ticket");
         String requestMethod = request.getMethod();
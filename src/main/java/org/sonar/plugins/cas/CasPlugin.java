@@ -29,6 +29,9 @@ import org.sonar.plugins.cas.logout.CasSonarSignOutInjectorFilter;
 import org.sonar.plugins.cas.logout.LogoutHandler;
 import org.sonar.plugins.cas.session.CasSessionStoreFactory;
 import org.sonar.plugins.cas.session.SessionStoreCleaner;
+import org.sonar.plugins.cas.util.AssertionCache;
+import org.sonar.plugins.cas.util.ProxyTicketCache;
+import org.sonar.plugins.cas.util.TicketGrantingTicketCache;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -69,8 +72,13 @@ public final class CasPlugin implements Plugin {
         extensions.add(DevelopmentServerStartHandler.class);
         extensions.add(CasAttributeSettings.class);
 
+        extensions.add(CasHttpClientPool.class);
         extensions.add(CasTicketValidatorFactory.class);
+        extensions.add(TicketGrantingTicketCache.class);
+        extensions.add(AssertionCache.class);
+        extensions.add(ProxyTicketCache.class);
         extensions.add(CasRestClientFactory.class);
+        extensions.add(CasStatisticsLogger.class);
         extensions.add(CasSessionStoreFactory.class);
         extensions.add(SessionStoreCleaner.class);
 
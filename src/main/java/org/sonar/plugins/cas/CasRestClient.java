@@ -23,16 +23,18 @@ import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.plugins.cas.util.CasAuthenticationException;
+import org.sonar.plugins.cas.util.TicketGrantingTicketCache;
 
 import javax.servlet.http.HttpServletResponse;
-import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
- * Client for the CAS REST API.
+ * Client for the CAS REST API. The requests share the connections of a {@link CasHttpClientPool}. Ticket granting
+ * tickets are reused from a {@link TicketGrantingTicketCache}. Service tickets are requested asynchronously.
  *
  * @author Sebastian Sdorra, TRIOLOGY GmbH
  * @see <a href="https://apereo.github.io/cas/6.0.x/protocol/REST-Protocol.html">CAS RESTful API</a>
@@ -43,147 +45,150 @@ public class CasRestClient {
 
     private final String casServerUrl;
     private final String serviceUrl;
+    private final CasHttpClientPool httpClientPool;
+    private final TicketGrantingTicketCache ticketGrantingTicketCache;
 
     public CasRestClient(String casServerUrl, String serviceUrl) {
+        this(casServerUrl, serviceUrl, new CasHttpClientPool(CasHttpClientSettings.defaults()),
+                TicketGrantingTicketCache.disabled());
+    }
+
+    CasRestClient(String casServerUrl, String serviceUrl, CasHttpClientPool httpClientPool,
+                  TicketGrantingTicketCache ticketGrantingTicketCache) {
         this.casServerUrl = casServerUrl;
         this.serviceUrl = serviceUrl;
+        this.httpClientPool = httpClientPool;
+        this.ticketGrantingTicketCache = ticketGrantingTicketCache;
     }
 
     /**
-     * Creates a service ticket for the given username and password.
+     * Creates a service ticket for the given username and password without blocking the calling thread. A cached TGT
+     * of the credentials is used if possible. If CAS does not know the cached TGT anymore, a new TGT is created once.
      *
      * @param username username the username provided by the basic authentication
      * @param password password the password provided by the basic authentication
-     * @return the service ticket identifier
-     * @throws CasAuthenticationException if any service call or connection fails this exception is thrown
+     * @return the service ticket identifier; the future fails with a {@link CasAuthenticationException} if any
+     * service call or connection fails
      */
-    public String createServiceTicket(final String username, final String password) throws CasAuthenticationException {
-        String tgt = createGrantingTicket(casServerUrl, username, password);
-
-        LOG.debug("TGT is: {}", tgt);
-
-        String st = createServiceTicket(tgt);
-
-        LOG.debug("ST is: {}", st);
-
-        return st;
+    public CompletableFuture<String> createServiceTicketAsync(final String username, final String password) {
+        TicketGrantingTicketCache.Loader loader = () -> createGrantingTicketAsync(username, password);
+
+        return ticketGrantingTicketCache.get(username, password, loader).thenCompose(tgt -> {
+            LOG.debug("TGT is: {}", tgt);
+            return createServiceTicketAsync(tgt).handle((st, error) -> {
+                if (error != null && unwrap(error) instanceof UnknownGrantingTicketException) {
+                    LOG.debug("CAS does not know the TGT anymore, creating a new one");
+                    ticketGrantingTicketCache.invalidate(username, password, tgt);
+                    return ticketGrantingTicketCache.get(username, password, loader)
+                            .thenCompose(this::createServiceTicketAsync);
+                }
+                if (error != null) {
+                    return CompletableFuture.<String>failedFuture(unwrap(error));
+                }
+                return CompletableFuture.completedFuture(st);
+            }).thenCompose(st -> st);
+        });
     }
 
-    private void appendServiceUrl(HttpURLConnection connection) throws IOException, CasAuthenticationException {
-        String encodedServiceURL = "service=".concat(encode(serviceUrl));
-
-        LOG.debug("Service url is: {}", encodedServiceURL);
-
-        try (BufferedWriter writer = createWriter(connection)) {
-            writer.write(encodedServiceURL);
-            writer.flush();
+    private CompletableFuture<String> createGrantingTicketAsync(String username, String password) {
+        String form;
+        try {
+            form = createCredentialsForm(encode(username), encode(password));
+        } catch (CasAuthenticationException e) {
+            return CompletableFuture.failedFuture(e);
         }
-    }
 
-    private void safelyClose(HttpURLConnection c) {
-        if (c != null) {
-            c.disconnect();
-        }
+        return postAsync(casServerUrl + "/v1/tickets", form).handle((response, error) -> {
+            try {
+                if (error != null) {
+                    throw new CasAuthenticationException("Could not create Granting Ticket.", unwrap(error));
+                }
+                return CompletableFuture.completedFuture(readGrantingTicket(response));
+            } catch (CasAuthenticationException e) {
+                return CompletableFuture.<String>failedFuture(e);
+            }
+        }).thenCompose(tgt -> tgt);
     }
 
-    String createGrantingTicket(String casServerUrl, String username, String password)
-            throws CasAuthenticationException {
-        HttpURLConnection connection = null;
-
+    private CompletableFuture<String> createServiceTicketAsync(String tgt) {
+        String form;
         try {
-            connection = open(casServerUrl + "/v1/tickets");
-
-            String encodedUsername = encode(username);
-            String encodedPassword = encode(password);
-            appendCredentials(connection, encodedUsername, encodedPassword);
-
-            int rc = connection.getResponseCode();
+            form = createServiceUrlForm();
+        } catch (CasAuthenticationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
 
-            if (rc != HttpServletResponse.SC_CREATED) {
-                throw new CasAuthenticationException(
-                        "could not create granting ticket, web service returned " + rc);
+        return postAsync(createServiceTicketUrl(tgt), form).handle((response, error) -> {
+            try {
+                if (error != null) {
+                    throw new CasAuthenticationException("Could not create Service Ticket.", unwrap(error));
+                }
+                String st = readServiceTicket(response);
+                LOG.debug("ST is: {}", st);
+                return CompletableFuture.completedFuture(st);
+            } catch (CasAuthenticationException e) {
+                return CompletableFuture.<String>failedFuture(e);
             }
+        }).thenCompose(st -> st);
+    }
 
-            String location = connection.getHeaderField("Location");
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
 
-            if (Strings.isNullOrEmpty(location)) {
-                throw new CasAuthenticationException(
-                        "could not create granting ticket, web service returned no location header");
-            }
+    private String createServiceUrlForm() throws CasAuthenticationException {
+        String encodedServiceURL = "service=".concat(encode(serviceUrl));
 
-            return extractTgtFromLocation(location);
-        } catch (Exception e) {
-            throw new CasAuthenticationException("Could not create Granting Ticket.", e);
-        } finally {
-            safelyClose(connection);
-        }
+        LOG.debug("Service url is: {}", encodedServiceURL);
+
+        return encodedServiceURL;
     }
 
-    void appendCredentials(HttpURLConnection connection, String encodedUsername, String encodedPassword)
-            throws IOException {
-        String encodedCredentials = "username=".concat(encodedUsername).concat("&password=").concat(encodedPassword);
+    private String readGrantingTicket(HttpResponse<String> response) throws CasAuthenticationException {
+        int rc = response.statusCode();
 
-        try (BufferedWriter bwr = createWriter(connection)) {
-            bwr.write(encodedCredentials);
-            bwr.flush();
+        if (rc != HttpServletResponse.SC_CREATED) {
+            throw new CasAuthenticationException(
+                    "could not create granting ticket, web service returned " + rc);
         }
-    }
-
-    private BufferedReader createReader(HttpURLConnection connection) throws IOException {
-        InputStream stream = connection.getInputStream();
-        InputStreamReader in = new InputStreamReader(stream, StandardCharsets.UTF_8);
-        return new BufferedReader(in);
-    }
 
-    String createServiceTicket(String tgt) throws CasAuthenticationException {
-        String st;
-        HttpURLConnection connection = null;
+        String location = response.headers().firstValue("Location").orElse(null);
 
-        try {
-            connection = open(createServiceTicketUrl(tgt));
-            appendServiceUrl(connection);
+        if (Strings.isNullOrEmpty(location)) {
+            throw new CasAuthenticationException(
+                    "could not create granting ticket, web service returned no location header");
+        }
 
-            int rc = connection.getResponseCode();
+        return extractTgtFromLocation(location);
+    }
 
-            if (rc != HttpServletResponse.SC_OK) {
-                throw new CasAuthenticationException("could not create service ticket, web service returned " + rc);
-            }
+    String createCredentialsForm(String encodedUsername, String encodedPassword) {
+        return "username=".concat(encodedUsername).concat("&password=").concat(encodedPassword);
+    }
 
-            String content;
-            StringBuilder contentBuilder = new StringBuilder();
-            char[] readBuffer = new char[256];
+    private String readServiceTicket(HttpResponse<String> response) throws CasAuthenticationException {
+        int rc = response.statusCode();
 
-            try (BufferedReader reader = createReader(connection)) {
-                while (reader.read(readBuffer) != -1) {
-                    contentBuilder.append(readBuffer);
-                }
-                content = contentBuilder.toString().trim();
-            }
+        if (rc == HttpServletResponse.SC_NOT_FOUND) {
+            throw new UnknownGrantingTicketException();
+        }
+        if (rc != HttpServletResponse.SC_OK) {
+            throw new CasAuthenticationException("could not create service ticket, web service returned " + rc);
+        }
 
-            if (Strings.isNullOrEmpty(content)) {
-                throw new CasAuthenticationException("could not create service ticket, body is empty");
-            }
+        String content = Strings.nullToEmpty(response.body()).trim();
 
-            st = content;
-        } catch (Exception e) {
-            throw new CasAuthenticationException("Could not create Service Ticket.", e);
-        } finally {
-            safelyClose(connection);
+        if (Strings.isNullOrEmpty(content)) {
+            throw new CasAuthenticationException("could not create service ticket, body is empty");
         }
 
-        return st;
+        return content;
     }
 
     private String createServiceTicketUrl(String tgt) {
         return casServerUrl + "/v1/tickets/" + tgt;
     }
 
-    private BufferedWriter createWriter(HttpURLConnection connection) throws IOException {
-        OutputStream stream = connection.getOutputStream();
-        OutputStreamWriter out = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
-        return new BufferedWriter(out);
-    }
-
     private String encode(String value) throws CasAuthenticationException {
         try {
             return URLEncoder.encode(value, "UTF-8");
@@ -203,14 +208,16 @@ public class CasRestClient {
         return location.substring(index + 1);
     }
 
-    HttpURLConnection open(final String url) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-
-        connection.setRequestMethod("POST");
-        connection.setDoInput(true);
-        connection.setDoOutput(true);
-        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+    CompletableFuture<HttpResponse<String>> postAsync(final String url, final String formBody) {
+        return httpClientPool.postAsync(url, formBody);
+    }
 
-        return connection;
+    /**
+     * CAS answers the service ticket request with 404 if the TGT expired or was destroyed by a logout.
+     */
+    static final class UnknownGrantingTicketException extends CasAuthenticationException {
+        UnknownGrantingTicketException() {
+            super("could not create service ticket, web service does not know the granting ticket");
+        }
     }
 }
@@ -3,21 +3,32 @@ package org.sonar.plugins.cas;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.server.ServerSide;
 import org.sonar.plugins.cas.util.SonarCasProperties;
+import org.sonar.plugins.cas.util.TicketGrantingTicketCache;
 
 @ServerSide
 public final class CasRestClientFactory {
     private CasRestClient impl;
     private Configuration configuration;
+    /**
+     * All REST clients and ticket validators share the connections of this pool.
+     */
+    private final CasHttpClientPool httpClientPool;
+    private final TicketGrantingTicketCache ticketGrantingTicketCache;
 
     /** This constructor is used with Dependency Injection during SonarQube start-up time*/
     @SuppressWarnings("unused")
-    public CasRestClientFactory(Configuration configuration) {
+    public CasRestClientFactory(Configuration configuration, TicketGrantingTicketCache ticketGrantingTicketCache,
+                                CasHttpClientPool httpClientPool) {
         this.configuration = configuration;
+        this.httpClientPool = httpClientPool;
+        this.ticketGrantingTicketCache = ticketGrantingTicketCache;
     }
 
     CasRestClientFactory(Configuration configuration, CasRestClient impl) {
         this.configuration = configuration;
         this.impl = impl;
+        this.httpClientPool = new CasHttpClientPool(CasHttpClientSettings.defaults());
+        this.ticketGrantingTicketCache = TicketGrantingTicketCache.disabled();
     }
 
     CasRestClient create() {
@@ -27,7 +38,7 @@ public final class CasRestClientFactory {
 
         String casServerUrlPrefix = getCasServerUrlPrefix();
         String serviceUrl = getServiceUrl();
-        return new CasRestClient(casServerUrlPrefix, serviceUrl);
+        return new CasRestClient(casServerUrlPrefix, serviceUrl, httpClientPool, ticketGrantingTicketCache);
     }
 
     private String getCasServerUrlPrefix() {
@@ -24,6 +24,9 @@ import org.sonar.api.security.Authenticator;
 import org.sonar.api.security.ExternalGroupsProvider;
 import org.sonar.api.security.ExternalUsersProvider;
 import org.sonar.api.security.SecurityRealm;
+import org.sonar.plugins.cas.util.AssertionCache;
+import org.sonar.plugins.cas.util.ProxyTicketCache;
+import org.sonar.plugins.cas.util.SingleFlight;
 
 /**
  * The {@link CasSecurityRealm} is only used for the authentication with username and password. The authentication
@@ -51,9 +54,11 @@ public class CasSecurityRealm extends SecurityRealm {
 
   /** This constructor is called by dependency injection framework of sonarqube, */
   public CasSecurityRealm(Configuration configuration, CasAttributeSettings attributes,
-                          TicketValidatorFactory ticketValidatorFactory, CasRestClientFactory restClientFactory) {
+                          TicketValidatorFactory ticketValidatorFactory, CasRestClientFactory restClientFactory,
+                          AssertionCache assertionCache, ProxyTicketCache proxyTicketCache) {
     this.userProvider = new CasUserProvider();
-    this.authenticator = new CasAuthenticator(configuration, attributes, ticketValidatorFactory, restClientFactory);
+    this.authenticator = new CasAuthenticator(configuration, attributes, ticketValidatorFactory, restClientFactory,
+            assertionCache, proxyTicketCache);
     this.groupsProvider = new CasGroupsProvider(attributes);
   }
 
@@ -76,4 +81,8 @@ public class CasSecurityRealm extends SecurityRealm {
   public String getName() {
     return KEY;
   }
+
+  SingleFlight.Statistics getCredentialFlightStatistics() {
+    return authenticator.getCredentialFlightStatistics();
+  }
 }
@@ -0,0 +1,109 @@
+package org.sonar.plugins.cas;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.platform.Server;
+import org.sonar.api.platform.ServerStartHandler;
+import org.sonar.api.server.ServerSide;
+import org.sonar.plugins.cas.util.AssertionCache;
+import org.sonar.plugins.cas.util.ProxyTicketCache;
+import org.sonar.plugins.cas.util.SonarCasProperties;
+import org.sonar.plugins.cas.util.TicketGrantingTicketCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class logs the counters of the connections to CAS in a fixed interval so that operators can see how the plugin
+ * uses CAS without attaching a debugger or a profiler.
+ *
+ * <p>All counters are totals since the server start. A failing run is logged and does not stop further runs.</p>
+ */
+@ServerSide
+public final class CasStatisticsLogger implements ServerStartHandler, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(CasStatisticsLogger.class);
+    private static final int STATISTICS_LOG_INTERVAL_IN_SECS_DEFAULT = (int) TimeUnit.MINUTES.toSeconds(15);
+    private static final int STATISTICS_LOG_DISABLED = 0;
+
+    private final CasHttpClientPool httpClientPool;
+    private final TicketGrantingTicketCache ticketGrantingTicketCache;
+    private final AssertionCache assertionCache;
+    private final ProxyTicketCache proxyTicketCache;
+    private final CasSecurityRealm securityRealm;
+    private final int logIntervalInSeconds;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * called with injection by SonarQube during server initialization
+     */
+    public CasStatisticsLogger(Configuration configuration, CasHttpClientPool httpClientPool,
+                               TicketGrantingTicketCache ticketGrantingTicketCache, AssertionCache assertionCache,
+                               ProxyTicketCache proxyTicketCache, CasSecurityRealm securityRealm) {
+        this.httpClientPool = httpClientPool;
+        this.ticketGrantingTicketCache = ticketGrantingTicketCache;
+        this.assertionCache = assertionCache;
+        this.proxyTicketCache = proxyTicketCache;
+        this.securityRealm = securityRealm;
+        this.logIntervalInSeconds = SonarCasProperties.STATISTICS_LOG_INTERVAL_IN_SECS
+                .getInteger(configuration, STATISTICS_LOG_INTERVAL_IN_SECS_DEFAULT);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("cas-statistics-logger")
+                .setDaemon(true)
+                .build());
+    }
+
+    @Override
+    public void onServerStart(Server server) {
+        if (logIntervalInSeconds <= STATISTICS_LOG_DISABLED) {
+            LOG.debug("CAS statistics log is disabled");
+            return;
+        }
+
+        scheduler.scheduleWithFixedDelay(this::logStatistics, logIntervalInSeconds, logIntervalInSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() throws Exception {
+        scheduler.shutdownNow();
+        if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+            LOG.warn("CAS statistics logger did not stop within 10 seconds");
+        }
+    }
+
+    void logStatistics() {
+        try {
+            for (String line : describeStatistics()) {
+                LOG.info(line);
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Could not log the CAS statistics", e);
+        }
+    }
+
+    /**
+     * @return one line per component which talks to CAS
+     */
+    List<String> describeStatistics() {
+        List<String> lines = new ArrayList<>();
+        lines.add("CAS connection pool: " + httpClientPool.getStatistics());
+        lines.add("CAS circuit breaker: " + httpClientPool.getCircuitBreakerStatistics());
+        lines.add("CAS ticket granting ticket cache: " + describe(ticketGrantingTicketCache.stats()));
+        lines.add("CAS assertion cache: " + describe(assertionCache.stats()));
+        lines.add("CAS proxy ticket validations: " + proxyTicketCache.getValidationStatistics());
+        lines.add("CAS proxy ticket cache: " + describe(proxyTicketCache.stats()));
+        lines.add("CAS basic authentications: " + securityRealm.getCredentialFlightStatistics());
+        return lines;
+    }
+
+    static String describe(CacheStats stats) {
+        return "hits=" + stats.hitCount() + ", misses=" + stats.missCount() + ", hitRate="
+                + Math.round(stats.hitRate() * 100) + "%, evictions=" + stats.evictionCount();
+    }
+}
@@ -8,6 +8,7 @@ import org.sonar.plugins.cas.util.SonarCasProperties;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 
 import static org.sonar.plugins.cas.util.SonarCasProperties.CAS_PROXY_TICKETING_SERVICES_REGEXP;
 
@@ -26,39 +27,89 @@ import static org.sonar.plugins.cas.util.SonarCasProperties.CAS_PROXY_TICKETING_
  *     URL (configurable by setting <code>sonar.cas.casServerUrlPrefix</code> is needed in order to redirect SonarQube's
  *     validation request .
  * </p>
+ *
+ * <p>
+ *     Validators are thread-safe once they are configured. This factory therefore builds each validator once and hands
+ *     out the same instance until one of the settings above changes. All validators send their requests over the shared
+ *     {@link CasHttpClientPool}, so that the connection to CAS is kept alive between validations.
+ * </p>
  */
 @ServerSide
 public final class CasTicketValidatorFactory implements TicketValidatorFactory {
     private static final String DEFAULT_CAS_PROTOCOL = "cas3";
     private final Configuration configuration;
+    private final PooledUrlConnectionFactory urlConnectionFactory;
+    private volatile CachedValidator<TicketValidator> serviceValidator;
+    private volatile CachedValidator<Cas30ProxyTicketValidator> proxyValidator;
 
-    public CasTicketValidatorFactory(Configuration configuration) {
+    /** This constructor is used with Dependency Injection during SonarQube start-up time */
+    public CasTicketValidatorFactory(Configuration configuration, CasHttpClientPool httpClientPool) {
         this.configuration = configuration;
+        this.urlConnectionFactory = new PooledUrlConnectionFactory(httpClientPool);
     }
 
+    CasTicketValidatorFactory(Configuration configuration) {
+        this(configuration, new CasHttpClientPool(CasHttpClientSettings.defaults()));
+    }
+
+    /**
+     * @return the shared service ticket validator of the current settings
+     */
     public TicketValidator create() {
-        String protocol = getCasProtocol();
-        TicketValidator validator;
+        ValidatorSettings settings = readSettings();
+        CachedValidator<TicketValidator> cached = serviceValidator;
+        if (cached == null || !cached.settings.equals(settings)) {
+            cached = new CachedValidator<>(settings, createServiceTicketValidator(settings));
+            serviceValidator = cached;
+        }
+        return cached.validator;
+    }
+
+    /**
+     * @return the shared proxy ticket validator of the current settings
+     */
+    public Cas30ProxyTicketValidator createForProxy() {
+        ValidatorSettings settings = readSettings();
+        CachedValidator<Cas30ProxyTicketValidator> cached = proxyValidator;
+        if (cached == null || !cached.settings.equals(settings)) {
+            cached = new CachedValidator<>(settings, createProxyTicketValidator(settings));
+            proxyValidator = cached;
+        }
+        return cached.validator;
+    }
+
+    private ValidatorSettings readSettings() {
+        return new ValidatorSettings(
+                SonarCasProperties.CAS_PROTOCOL.getString(configuration, DEFAULT_CAS_PROTOCOL),
+                getCasServerUrlPrefix(),
+                SonarCasProperties.SAML11_TIME_TOLERANCE.getInteger(configuration, -1),
+                CAS_PROXY_TICKETING_SERVICES_REGEXP.getString(configuration, null));
+    }
+
+    private TicketValidator createServiceTicketValidator(ValidatorSettings settings) {
+        String protocol = settings.getProtocol();
+        AbstractUrlBasedTicketValidator validator;
         if ("saml11".equals(protocol)) {
-            validator = createSaml11TicketValidator();
-        } else if ("cas1".equalsIgnoreCase(protocol)) {
-            validator = createCas10TicketValidator();
-        } else if ("cas2".equalsIgnoreCase(protocol)) {
-            validator = createCas20ServiceTicketValidator();
-        } else if ("cas3".equalsIgnoreCase(protocol)) {
-            validator = createCas20ServiceTicketValidator();
+            validator = createSaml11TicketValidator(settings);
+        } else if ("cas1".equals(protocol)) {
+            validator = createCas10TicketValidator(settings);
+        } else if ("cas2".equals(protocol)) {
+            validator = createCas20ServiceTicketValidator(settings);
+        } else if ("cas3".equals(protocol)) {
+            validator = createCas20ServiceTicketValidator(settings);
         } else {
             throw new IllegalStateException("Could not create service ticket validator: unsupported CAS protocol ".concat(protocol));
         }
+        validator.setURLConnectionFactory(urlConnectionFactory);
         return validator;
     }
 
-    public Cas30ProxyTicketValidator createForProxy() {
-        String protocol = getCasProtocol();
+    private Cas30ProxyTicketValidator createProxyTicketValidator(ValidatorSettings settings) {
+        String protocol = settings.getProtocol();
         Cas30ProxyTicketValidator validator;
 
-        if ("cas3".equalsIgnoreCase(protocol)) {
-            validator = createCas30ProxyTicketValidator();
+        if ("cas3".equals(protocol)) {
+            validator = createCas30ProxyTicketValidator(settings);
             validator.setAcceptAnyProxy(false);
             String proxyServiceRegExp = CAS_PROXY_TICKETING_SERVICES_REGEXP.mustGetString(this.configuration);
 
@@ -69,23 +120,20 @@ public final class CasTicketValidatorFactory implements TicketValidatorFactory {
         } else {
             throw new IllegalStateException("Could not create proxy ticket validator: unsupported CAS protocol ".concat(protocol));
         }
+        validator.setURLConnectionFactory(urlConnectionFactory);
         return validator;
     }
 
-    private String getCasProtocol() {
-        return SonarCasProperties.CAS_PROTOCOL.getString(configuration, DEFAULT_CAS_PROTOCOL).toLowerCase(Locale.ENGLISH);
-    }
-
     private String getCasServerUrlPrefix() {
         return SonarCasProperties.CAS_SERVER_URL_PREFIX.mustGetString(configuration);
     }
 
-    private Saml11TicketValidator createSaml11TicketValidator() {
-        Saml11TicketValidator saml11TicketValidator = new Saml11TicketValidator(getCasServerUrlPrefix());
+    private Saml11TicketValidator createSaml11TicketValidator(ValidatorSettings settings) {
+        Saml11TicketValidator saml11TicketValidator = new Saml11TicketValidator(settings.casServerUrlPrefix);
 
         // the validator's internal tolerance is already at 1000 millis so the drifting tolerance does not
         // need to be set at any circumstance.
-        int tolerance = SonarCasProperties.SAML11_TIME_TOLERANCE.getInteger(configuration, -1);
+        int tolerance = settings.saml11Tolerance;
         if (tolerance != -1) {
             saml11TicketValidator.setTolerance(tolerance);
         }
@@ -93,19 +141,67 @@ public final class CasTicketValidatorFactory implements TicketValidatorFactory {
         return saml11TicketValidator;
     }
 
-    private Cas10TicketValidator createCas10TicketValidator() {
-        return new Cas10TicketValidator(getCasServerUrlPrefix());
+    private Cas10TicketValidator createCas10TicketValidator(ValidatorSettings settings) {
+        return new Cas10TicketValidator(settings.casServerUrlPrefix);
     }
 
-    private Cas20ServiceTicketValidator createCas20ServiceTicketValidator() {
-        return new Cas30ServiceTicketValidator(getCasServerUrlPrefix());
+    private Cas20ServiceTicketValidator createCas20ServiceTicketValidator(ValidatorSettings settings) {
+        return new Cas30ServiceTicketValidator(settings.casServerUrlPrefix);
     }
 
-    private Cas20ProxyTicketValidator createCas20ProxyTicketValidator() {
-        return new Cas20ProxyTicketValidator(getCasServerUrlPrefix());
+    private Cas30ProxyTicketValidator createCas30ProxyTicketValidator(ValidatorSettings settings) {
+        return new Cas30ProxyTicketValidator(settings.casServerUrlPrefix);
+    }
+
+    private static final class CachedValidator<T extends TicketValidator> {
+        private final ValidatorSettings settings;
+        private final T validator;
+
+        private CachedValidator(ValidatorSettings settings, T validator) {
+            this.settings = settings;
+            this.validator = validator;
+        }
     }
 
-    private Cas30ProxyTicketValidator createCas30ProxyTicketValidator() {
-        return new Cas30ProxyTicketValidator(getCasServerUrlPrefix());
+    /**
+     * The settings which a validator is built from. A validator is rebuilt only if they change.
+     */
+    private static final class ValidatorSettings {
+        private final String protocol;
+        private final String casServerUrlPrefix;
+        private final int saml11Tolerance;
+        private final String proxyServiceRegExp;
+
+        private ValidatorSettings(String protocol, String casServerUrlPrefix, int saml11Tolerance,
+                                  String proxyServiceRegExp) {
+            this.protocol = protocol;
+            this.casServerUrlPrefix = casServerUrlPrefix;
+            this.saml11Tolerance = saml11Tolerance;
+            this.proxyServiceRegExp = proxyServiceRegExp;
+        }
+
+        private String getProtocol() {
+            return protocol.toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ValidatorSettings)) {
+                return false;
+            }
+            ValidatorSettings other = (ValidatorSettings) o;
+            return saml11Tolerance == other.saml11Tolerance
+                    && protocol.equals(other.protocol)
+                    && casServerUrlPrefix.equals(other.casServerUrlPrefix)
+                    && Objects.equals(proxyServiceRegExp, other.proxyServiceRegExp);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(protocol, casServerUrlPrefix, saml11Tolerance, proxyServiceRegExp);
+        }
     }
 }
@@ -1,26 +1,51 @@
 package org.sonar.plugins.cas;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.server.http.HttpRequest;
 import org.sonar.api.server.http.HttpResponse;
 import org.sonar.api.web.FilterChain;
 import org.sonar.api.web.HttpFilter;
+import org.sonar.plugins.cas.session.CasSessionStore;
 import org.sonar.plugins.cas.session.CasSessionStoreFactory;
 import org.sonar.plugins.cas.util.JwtProcessor;
 import org.sonar.plugins.cas.util.SimpleJwt;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.sonar.plugins.cas.util.Cookies.JWT_SESSION_COOKIE;
 
 /**
  * This class updates the JWT with a newer expiration date in the session store when SonarQube sends a newer JWT.
+ *
+ * <p>SonarQube sets the refreshed JWT cookie while it processes the request, so the response is inspected after the
+ * filter chain. JWTs are only parsed if the response actually sets a JWT cookie. Parallel requests of the same browser
+ * session often receive the same refreshed JWT; only the first of them writes it to the session store.</p>
+ *
+ * <p>JWTs which are not in the session store, e.g. those of local users, are not refreshed. The response is already
+ * committed when the store is updated, so a failed refresh is only logged and retried with the next response.</p>
  */
 public class CasTokenRefreshFilter extends HttpFilter {
     private static final Logger LOG = LoggerFactory.getLogger(CasTokenRefreshFilter.class);
+    private static final int MAX_REMEMBERED_REFRESHES = 4096;
+    private static final Duration REFRESH_MEMORY = Duration.ofMinutes(5);
+    private static final String JWT_COOKIE_PREFIX = JWT_SESSION_COOKIE + "=";
+
     private final CasSessionStoreFactory sessionStoreFactory;
+    /**
+     * The latest expiration date which was written to the store for a JWT ID.
+     */
+    private final Cache<String, Instant> refreshedExpirations = CacheBuilder.newBuilder()
+            .maximumSize(MAX_REMEMBERED_REFRESHES)
+            .expireAfterWrite(REFRESH_MEMORY)
+            .build();
 
     public CasTokenRefreshFilter(CasSessionStoreFactory sessionStoreFactory) {
         this.sessionStoreFactory = sessionStoreFactory;
@@ -33,21 +58,32 @@ public class CasTokenRefreshFilter extends HttpFilter {
 
     public void doFilter(HttpRequest request, HttpResponse response, FilterChain chain)
             throws IOException {
+        chain.doFilter(request, response);
 
-        SimpleJwt requestJwt = JwtProcessor.getJwtTokenFromCookies(request.getCookies());
         SimpleJwt responseJwt = getJwtFromResponse(response);
+        if (responseJwt.isNullObject()) {
+            return;
+        }
 
         // only during a refresh JWTs exist both in the same time in request AND response
+        SimpleJwt requestJwt = getJwtFromRequest(request);
         if (isTokenRefreshed(responseJwt, requestJwt)) {
-            LOG.debug("Refresh JWT {} with updated expiration date", requestJwt.getJwtId());
-            sessionStoreFactory.getInstance().refreshJwt(responseJwt);
+            refresh(responseJwt);
         }
-        chain.doFilter(request, response);
+    }
+
+    private SimpleJwt getJwtFromRequest(HttpRequest request) {
+        // reuse the cookie of a request which was already classified by the ForceCasLoginFilter
+        RequestClassification classification = RequestClassification.attachedTo(request);
+        if (classification != null && classification.isJwtInspected()) {
+            return classification.getJwt();
+        }
+        return JwtProcessor.getJwtTokenFromCookies(request.getCookies());
     }
 
     private SimpleJwt getJwtFromResponse(HttpResponse response) {
         Collection<String> headers = response.getHeaders("Set-Cookie");
-        if (headers == null || headers.size() == 0) {
+        if (headers == null || headers.isEmpty()) {
             return SimpleJwt.getNullObject();
         }
 
@@ -58,15 +94,14 @@ public class CasTokenRefreshFilter extends HttpFilter {
         return JwtProcessor.getJwtTokenFromResponseHeaders(headers);
     }
 
-    private boolean containsRefreshJwtCookie(Collection<String> headers) {
-        String refreshedTokenHeader = null;
+    @VisibleForTesting
+    static boolean containsRefreshJwtCookie(Collection<String> headers) {
         for (String header : headers) {
-            if (header.contains(JWT_SESSION_COOKIE)) {
-                refreshedTokenHeader = header;
-                break;
+            if (header.startsWith(JWT_COOKIE_PREFIX)) {
+                return true;
             }
         }
-        return refreshedTokenHeader == null;
+        return false;
     }
 
     boolean isTokenRefreshed(SimpleJwt responseJwt, SimpleJwt requestJwt) {
@@ -82,6 +117,42 @@ public class CasTokenRefreshFilter extends HttpFilter {
         return equalIds && !equalJwts;
     }
 
+    /**
+     * Writes the refreshed JWT to the store unless the same or a later expiration date was already written for it.
+     */
+    private void refresh(SimpleJwt responseJwt) {
+        String jwtId = responseJwt.getJwtId();
+        CasSessionStore sessionStore = sessionStoreFactory.getInstance();
+        if (!sessionStore.isJwtStored(responseJwt)) {
+            LOG.debug("JWT {} is not in the CAS session store and is not refreshed", jwtId);
+            return;
+        }
+
+        Instant expiration = responseJwt.getExpiration();
+        AtomicBoolean isFirstRefresh = new AtomicBoolean();
+        refreshedExpirations.asMap().compute(jwtId, (id, refreshed) -> {
+            if (refreshed != null && !refreshed.isBefore(expiration)) {
+                return refreshed;
+            }
+            isFirstRefresh.set(true);
+            return expiration;
+        });
+
+        if (!isFirstRefresh.get()) {
+            LOG.debug("JWT {} was already refreshed until {}", jwtId, expiration);
+            return;
+        }
+
+        LOG.debug("Refresh JWT {} with updated expiration date", jwtId);
+        try {
+            sessionStore.refreshJwt(responseJwt);
+        } catch (IOException | RuntimeException e) {
+            // let the next request try again
+            refreshedExpirations.asMap().remove(jwtId, expiration);
+            LOG.warn("Could not refresh JWT " + jwtId + " in the CAS session store", e);
+        }
+    }
+
     @Override
     public void destroy() {
         // nothing to destroy
@@ -27,13 +27,11 @@ import org.sonar.api.server.http.HttpResponse;
 import org.sonar.api.web.FilterChain;
 import org.sonar.api.web.HttpFilter;
 import org.sonar.plugins.cas.logout.LogoutHandler;
+import org.sonar.plugins.cas.util.AllowList;
 import org.sonar.plugins.cas.util.HttpStreams;
 import org.sonar.plugins.cas.util.SonarCasProperties;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.sonar.plugins.cas.AuthenticationFilter.SONAR_LOGIN_URL_PATH;
@@ -51,14 +49,10 @@ import static org.sonar.plugins.cas.AuthenticationFilter.SONAR_LOGIN_URL_PATH;
 public class ForceCasLoginFilter extends HttpFilter {
     private static final Logger LOG = LoggerFactory.getLogger(ForceCasLoginFilter.class);
     private static final int DEFAULT_CAS_REDIRECT_COOKIE_AGE = (int) TimeUnit.MINUTES.toSeconds(5);
-    /**
-     * Array of request URLS that should not be redirected to the login page.
-     */
-    private static final List<String> ALLOW_LIST = Arrays.asList(
-            "/js/", "/images/", "/favicon.ico", "/static", "/sessions/", "/api/", "/batch_bootstrap/", "/deploy/", "/batch");
 
     private final Configuration configuration;
     private final LogoutHandler logoutHandler;
+    private final RequestClassifier requestClassifier;
 
     /**
      * called with injection by SonarQube during server initialization
@@ -66,6 +60,7 @@ public class ForceCasLoginFilter extends HttpFilter {
     public ForceCasLoginFilter(Configuration configuration, LogoutHandler logoutHandler) {
         this.configuration = configuration;
         this.logoutHandler = logoutHandler;
+        this.requestClassifier = new RequestClassifier(AllowList.fromConfiguration(configuration), logoutHandler);
     }
 
     public void init() {
@@ -79,13 +74,17 @@ public class ForceCasLoginFilter extends HttpFilter {
         int maxRedirectCookieAge = getMaxCookieAge(configuration);
         LOG.debug("ForceCasLoginFilter.doFilter(): {} ", requestedURL);
 
-        if (isInAllowList(request.getServletPath()) || isAuthenticated(request)) {
+        RequestClassification classification = requestClassifier.classify(request);
+        if (classification.isPermitted()) {
             LOG.debug("Found permitted request to {}", requestedURL);
 
-            if (logoutHandler.isUserLoggedOutAndLogsInAgain(request)) {
+            if (classification.isUserLoggedOutAndLogsInAgain()) {
                 LOG.debug("Redirecting logged-out user to log-in page");
                 HttpStreams.saveRequestedURLInCookie(request, response, maxRedirectCookieAge, configuration);
-                logoutHandler.handleInvalidJwtCookie(request, response);
+                // Security advice:
+                // Do NOT remove the user's token from the session store. It must stay blacklisted until it is removed
+                // during the expiration date check.
+                logoutHandler.removeAuthCookies(response, request.getContextPath());
                 redirectToLogin(request, response);
             } else {
                 LOG.debug("Continue request processing...");
@@ -110,25 +109,6 @@ public class ForceCasLoginFilter extends HttpFilter {
         response.sendRedirect(request.getContextPath() + SONAR_LOGIN_URL_PATH);
     }
 
-    private boolean isAuthenticated(HttpRequest request) {
-        // https://github.com/SonarSource/sonarqube/blob/9973bacbfa4a945e509bf1b574d7e5aae4ba155a/server/sonar-server/src/main/java/org/sonar/server/authentication/UserSessionInitializer.java#L138
-        Object delegate;
-        String login = "";
-        try {
-            Method getDelegate = request.getClass().getMethod("getDelegate");
-            delegate = getDelegate.invoke(request);
-
-            Method getAttribute  = delegate.getClass().getMethod("getAttribute", String.class);
-            login = (String) getAttribute.invoke(delegate, "LOGIN");
-
-        } catch (Exception e) {
-            // This exception can be ignored as it is expected that the LOGIN attribute is not set
-            // Unfortunately, java Reflection throws an error in this case
-        }
-        LOG.debug("login value: {}", login);
-        return !"-".equals(login) && !"".equals(login);
-    }
-
     /**
      * Looks for the given value if it or parts of it are containing in the white list.
      *
@@ -136,16 +116,7 @@ public class ForceCasLoginFilter extends HttpFilter {
      * @return true if found, false otherwise.
      */
     boolean isInAllowList(final String servletPath) {
-        if (null == servletPath) {
-            return false;
-        }
-
-        for (final String item : ALLOW_LIST) {
-            if (servletPath.contains(item)) {
-                return true;
-            }
-        }
-        return false;
+        return requestClassifier.isInAllowList(servletPath);
     }
 
     public void destroy() {
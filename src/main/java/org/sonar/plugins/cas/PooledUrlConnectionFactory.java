@@ -0,0 +1,138 @@
+package org.sonar.plugins.cas;
+
+import org.jasig.cas.client.ssl.HttpURLConnectionFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URLConnection;
+import java.net.http.HttpResponse;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class lets the ticket validators of the CAS client library send their requests over the shared
+ * {@link CasHttpClientPool}.
+ *
+ * <p>The validators open a new {@link HttpURLConnection} for each ticket and disconnect it afterwards, which closes the
+ * socket. The connections of this factory hand the request to the pool instead, so that the TCP and TLS connection to
+ * CAS stays alive between validations. Disconnecting them does nothing.</p>
+ */
+final class PooledUrlConnectionFactory implements HttpURLConnectionFactory {
+    private static final long serialVersionUID = 1L;
+
+    private final transient CasHttpClientPool httpClientPool;
+
+    PooledUrlConnectionFactory(CasHttpClientPool httpClientPool) {
+        this.httpClientPool = httpClientPool;
+    }
+
+    @Override
+    public HttpURLConnection buildHttpURLConnection(URLConnection connection) {
+        return new PooledHttpURLConnection(connection, httpClientPool);
+    }
+
+    /**
+     * A connection which sends its request when the response is read for the first time.
+     */
+    static final class PooledHttpURLConnection extends HttpURLConnection {
+        private final CasHttpClientPool httpClientPool;
+        private ByteArrayOutputStream requestBody;
+        private HttpResponse<byte[]> response;
+
+        PooledHttpURLConnection(URLConnection connection, CasHttpClientPool httpClientPool) {
+            super(connection.getURL());
+            this.httpClientPool = httpClientPool;
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public void disconnect() {
+            // the pool keeps the connection alive
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            if (!doOutput) {
+                throw new ProtocolException("The connection to " + url + " does not allow output");
+            }
+            if (requestBody == null) {
+                requestBody = new ByteArrayOutputStream();
+            }
+            return requestBody;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            HttpResponse<byte[]> casResponse = exchange();
+            if (casResponse.statusCode() == HTTP_NOT_FOUND) {
+                throw new FileNotFoundException(url.toString());
+            }
+            if (casResponse.statusCode() >= HTTP_BAD_REQUEST) {
+                throw new IOException("CAS responded with HTTP " + casResponse.statusCode() + " for " + url);
+            }
+            return new ByteArrayInputStream(casResponse.body());
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            if (response == null || response.statusCode() < HTTP_BAD_REQUEST) {
+                return null;
+            }
+            return new ByteArrayInputStream(response.body());
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return exchange().statusCode();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            if (response == null || name == null) {
+                return null;
+            }
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            if (response == null) {
+                return Collections.emptyMap();
+            }
+            return response.headers().map();
+        }
+
+        private HttpResponse<byte[]> exchange() throws IOException {
+            if (response != null) {
+                return response;
+            }
+
+            // request properties cannot be read anymore once the connection is connected
+            Map<String, List<String>> headers = new LinkedHashMap<>(getRequestProperties());
+            connect();
+
+            byte[] body = requestBody == null ? null : requestBody.toByteArray();
+            String requestMethod = body != null && "GET".equals(method) ? "POST" : method;
+            response = httpClientPool.send(requestMethod, url.toString(), headers, body);
+            responseCode = response.statusCode();
+            return response;
+        }
+    }
+}
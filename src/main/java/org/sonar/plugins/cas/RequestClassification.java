@@ -0,0 +1,99 @@
+package org.sonar.plugins.cas;
+
+import org.sonar.api.server.http.HttpRequest;
+import org.sonar.plugins.cas.util.RequestAttributes;
+import org.sonar.plugins.cas.util.SimpleJwt;
+
+/**
+ * This class holds the decision of the {@link RequestClassifier} about a single request. It is attached to the request
+ * so that the following CAS filters can reuse the parsed JWT cookie and the session store lookup instead of doing it
+ * again.
+ */
+final class RequestClassification {
+    static final String ATTRIBUTE = RequestClassification.class.getName();
+
+    private final boolean allowListed;
+    private final boolean authenticated;
+    private final boolean loginPageRequest;
+    private final SimpleJwt jwt;
+    private final boolean loggedOut;
+
+    RequestClassification(boolean allowListed, boolean authenticated, boolean loginPageRequest, SimpleJwt jwt,
+                          boolean loggedOut) {
+        this.allowListed = allowListed;
+        this.authenticated = authenticated;
+        this.loginPageRequest = loginPageRequest;
+        this.jwt = jwt;
+        this.loggedOut = loggedOut;
+    }
+
+    /**
+     * @return the classification which was attached to the request or <code>null</code> if the request was not
+     * classified yet
+     */
+    static RequestClassification attachedTo(HttpRequest request) {
+        Object attribute = RequestAttributes.getAttribute(request, ATTRIBUTE);
+        if (attribute instanceof RequestClassification) {
+            return (RequestClassification) attribute;
+        }
+        return null;
+    }
+
+    void attachTo(HttpRequest request) {
+        request.setAttribute(ATTRIBUTE, this);
+    }
+
+    /**
+     * @return <code>true</code> if the request may pass without a redirect to the log-in page
+     */
+    boolean isPermitted() {
+        return allowListed || authenticated;
+    }
+
+    boolean isAllowListed() {
+        return allowListed;
+    }
+
+    boolean isAuthenticated() {
+        return authenticated;
+    }
+
+    boolean isLoginPageRequest() {
+        return loginPageRequest;
+    }
+
+    /**
+     * @return <code>true</code> if the JWT cookie was inspected. Cookies of requests which are redirected to the log-in
+     * page anyway are not inspected.
+     */
+    boolean isJwtInspected() {
+        return jwt != null;
+    }
+
+    /**
+     * @return the JWT of the request's cookie, the JWT null object if there is none, or <code>null</code> if the cookie
+     * was not inspected
+     */
+    SimpleJwt getJwt() {
+        return jwt;
+    }
+
+    /**
+     * @return <code>true</code> if the user sends a blacklisted JWT cookie AND requests a page other than the log-in
+     * page
+     */
+    boolean isUserLoggedOutAndLogsInAgain() {
+        return loggedOut;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestClassification{" +
+                "allowListed=" + allowListed +
+                ", authenticated=" + authenticated +
+                ", loginPageRequest=" + loginPageRequest +
+                ", jwt=" + jwt +
+                ", loggedOut=" + loggedOut +
+                '}';
+    }
+}
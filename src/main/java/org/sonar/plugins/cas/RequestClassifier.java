@@ -0,0 +1,84 @@
+package org.sonar.plugins.cas;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.server.http.Cookie;
+import org.sonar.api.server.http.HttpRequest;
+import org.sonar.plugins.cas.logout.LogoutHandler;
+import org.sonar.plugins.cas.util.AllowList;
+import org.sonar.plugins.cas.util.JwtProcessor;
+import org.sonar.plugins.cas.util.RequestAttributes;
+import org.sonar.plugins.cas.util.SimpleJwt;
+
+/**
+ * This class classifies a request once for all CAS filters: whether it is allow-listed, whether the user is
+ * authenticated and whether the user sends the JWT of a session which was logged out. The JWT cookie is parsed and
+ * looked up in the session store at most once per request.
+ */
+class RequestClassifier {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestClassifier.class);
+    /**
+     * The request attribute in which SonarQube keeps the user's login. It is "-" for anonymous users.
+     */
+    private static final String LOGIN_ATTRIBUTE = "LOGIN";
+
+    private final AllowList allowList;
+    private final LogoutHandler logoutHandler;
+
+    RequestClassifier(AllowList allowList, LogoutHandler logoutHandler) {
+        this.allowList = allowList;
+        this.logoutHandler = logoutHandler;
+    }
+
+    /**
+     * Returns the classification attached to the request or classifies the request and attaches the result.
+     */
+    RequestClassification classify(HttpRequest request) {
+        RequestClassification classification = RequestClassification.attachedTo(request);
+        if (classification != null) {
+            return classification;
+        }
+
+        boolean allowListed = isInAllowList(request.getServletPath());
+        boolean authenticated = isAuthenticated(request);
+        boolean loginPageRequest = logoutHandler.isRequestToLoginPage(request);
+
+        SimpleJwt jwt = null;
+        boolean loggedOut = false;
+        if (allowListed || authenticated) {
+            jwt = getJwtFromCookies(request.getCookies());
+            // the log-in page must stay reachable for logged-out users, so the store is of no interest there
+            loggedOut = !loginPageRequest && !jwt.isNullObject() && logoutHandler.isJwtBlacklisted(jwt);
+        }
+
+        classification = new RequestClassification(allowListed, authenticated, loginPageRequest, jwt, loggedOut);
+        LOG.debug("Classified request to {}: {}", request.getRequestURL(), classification);
+        classification.attachTo(request);
+        return classification;
+    }
+
+    /**
+     * Checks the servlet path against the built-in and the configured allow list entries.
+     *
+     * @param servletPath Entry to look for in allow list.
+     * @return true if found, false otherwise.
+     */
+    boolean isInAllowList(String servletPath) {
+        return allowList.isAllowed(servletPath);
+    }
+
+    private boolean isAuthenticated(HttpRequest request) {
+        // https://github.com/SonarSource/sonarqube/blob/9973bacbfa4a945e509bf1b574d7e5aae4ba155a/server/sonar-server/src/main/java/org/sonar/server/authentication/UserSessionInitializer.java#L138
+        // a login which cannot be read counts as anonymous while a login which is not set does not
+        Object login = RequestAttributes.getAttribute(request, LOGIN_ATTRIBUTE, "");
+        LOG.debug("login value: {}", login);
+        return login == null || login instanceof String && !"-".equals(login) && !"".equals(login);
+    }
+
+    private SimpleJwt getJwtFromCookies(Cookie[] cookies) {
+        if (cookies == null || cookies.length == 0) {
+            return SimpleJwt.getNullObject();
+        }
+        return JwtProcessor.getJwtTokenFromCookies(cookies);
+    }
+}
@@ -12,15 +12,15 @@ import org.jasig.cas.client.validation.TicketValidator;
  */
 interface TicketValidatorFactory {
     /**
-     * Creates a new {@link TicketValidator} that validates session tickets
-     * @return a new {@link TicketValidator}
+     * Returns a {@link TicketValidator} that validates session tickets. Implementations may share it between threads.
+     * @return a thread-safe {@link TicketValidator}
      */
     TicketValidator create();
 
     /**
-     * Creates a new {@link TicketValidator} that validates proxy tickets
+     * Returns a {@link TicketValidator} that validates proxy tickets. Implementations may share it between threads.
      *
-     * @return a new {@link TicketValidator}
+     * @return a thread-safe {@link TicketValidator}
      */
     TicketValidator createForProxy();
 }
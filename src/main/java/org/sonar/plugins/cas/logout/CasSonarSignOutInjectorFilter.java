@@ -21,35 +21,65 @@ package org.sonar.plugins.cas.logout;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
 import org.sonar.api.server.http.HttpRequest;
 import org.sonar.api.server.http.HttpResponse;
 import org.sonar.api.web.FilterChain;
 import org.sonar.api.web.HttpFilter;
+import org.sonar.plugins.cas.util.SonarCasProperties;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
 
 
 /**
  * This class injects the CAS logout URL into SonarQube's original logout button in order to call CAS backchannel
  * logout.
+ *
+ * <p>Whether a response gets the script is decided from the request before the filter chain runs. The script tag is
+ * encoded once and written with a single write. With {@link SonarCasProperties#LOGOUT_SCRIPT_INJECTION} set to
+ * <code>none</code> the HTML bodies are left untouched, e.g. if a reverse proxy already delivers the script.</p>
  */
 public final class CasSonarSignOutInjectorFilter extends HttpFilter {
 
     private static final Logger LOG = LoggerFactory.getLogger(CasSonarSignOutInjectorFilter.class);
+    static final String INJECTION_MODE_BODY = "body";
+    static final String INJECTION_MODE_NONE = "none";
+    /**
+     * The encoded script tag. It is shared by all requests and must never be modified.
+     */
+    private static final byte[] LOGOUT_SCRIPT = "<script type='text/javascript' src='js/casLogoutUrl.js' ></script>"
+            .getBytes(StandardCharsets.UTF_8);
     ClassLoader resourceClassloader;
+    private final boolean injectionEnabled;
 
     /**
      * called with injection by SonarQube during server initialization
      */
-    public CasSonarSignOutInjectorFilter() {
-        this.resourceClassloader = CasSonarSignOutInjectorFilter.class.getClassLoader();
+    public CasSonarSignOutInjectorFilter(Configuration configuration) {
+        this(configuration, CasSonarSignOutInjectorFilter.class.getClassLoader());
     }
 
     /**
      * for testing
      */
-    CasSonarSignOutInjectorFilter(ClassLoader resourceClassloader) {
+    CasSonarSignOutInjectorFilter(Configuration configuration, ClassLoader resourceClassloader) {
         this.resourceClassloader = resourceClassloader;
+        this.injectionEnabled = isInjectionEnabled(configuration);
+    }
+
+    private static boolean isInjectionEnabled(Configuration configuration) {
+        String mode = SonarCasProperties.LOGOUT_SCRIPT_INJECTION.getString(configuration, INJECTION_MODE_BODY)
+                .toLowerCase(Locale.ENGLISH);
+        if (INJECTION_MODE_BODY.equals(mode)) {
+            return true;
+        }
+        if (INJECTION_MODE_NONE.equals(mode)) {
+            LOG.info("CAS logout javascript will not be injected into HTML responses");
+            return false;
+        }
+        throw new IllegalStateException("Could not configure CAS logout javascript injection: unsupported mode ".concat(mode));
     }
 
     @Override
@@ -61,20 +91,23 @@ public final class CasSonarSignOutInjectorFilter extends HttpFilter {
                          final FilterChain filterChain) {
 
         try {
+            String requestedUrl = request.getRequestURL();
+            boolean logoutRequest = requestedUrl.contains("sessions/logout");
+            boolean injectScript = !logoutRequest && injectionEnabled && isInjectable(request, requestedUrl);
+
             // recursively call the filter chain exactly once per filter, otherwise it may lead to double content per request
             filterChain.doFilter(request, response);
             // redirect logout requests directly
-            if (request.getRequestURL().contains("sessions/logout")) {
+            if (logoutRequest) {
                 response.sendRedirect("/cas/logout");
                 return;
             }
 
-            if (isResourceBlacklisted(request) || !acceptsHtml(request)) {
+            if (!injectScript) {
                 LOG.debug("Requested resource does not accept HTML-ish content. Javascript will not be injected");
                 return;
             }
 
-            String requestedUrl = request.getRequestURL();
             appendJavascriptInjectionToHtmlStream(requestedUrl, response);
         } catch (Exception e) {
             LOG.error("doFilter failed", e);
@@ -84,18 +117,20 @@ public final class CasSonarSignOutInjectorFilter extends HttpFilter {
 
     private void appendJavascriptInjectionToHtmlStream(String requestURL, HttpResponse response) throws IOException {
         LOG.debug("Inject CAS logout javascript into {}", requestURL);
-        response.getOutputStream().write(("<script type='text/javascript' src='js/casLogoutUrl.js' >").getBytes());
-        response.getOutputStream().write("</script>".getBytes());
+        response.getOutputStream().write(LOGOUT_SCRIPT);
+    }
+
+    private boolean isInjectable(HttpRequest request, String requestedUrl) {
+        return !isResourceBlacklisted(requestedUrl) && acceptsHtml(request, requestedUrl);
     }
 
-    private boolean isResourceBlacklisted(HttpRequest request) {
-        String url = request.getRequestURL();
+    private boolean isResourceBlacklisted(String url) {
         return url.contains("favicon.ico");
     }
 
-    private boolean acceptsHtml(HttpRequest request) {
+    private boolean acceptsHtml(HttpRequest request, String requestedUrl) {
         String acceptable = request.getHeader("accept");
-        LOG.debug("Resource {} accepts {}", request.getRequestURL(), acceptable);
+        LOG.debug("Resource {} accepts {}", requestedUrl, acceptable);
         return acceptable != null && acceptable.contains("html");
     }
 
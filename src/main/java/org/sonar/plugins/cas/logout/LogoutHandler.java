@@ -11,6 +11,7 @@ import org.sonar.plugins.cas.session.CasSessionStore;
 import org.sonar.plugins.cas.session.CasSessionStoreFactory;
 import org.sonar.plugins.cas.util.*;
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import javax.xml.bind.annotation.XmlAccessType;
@@ -33,10 +34,15 @@ public class LogoutHandler {
 
     private final Configuration configuration;
     private final CasSessionStore casSessionStore;
+    private final TicketGrantingTicketCache ticketGrantingTicketCache;
+    private final AssertionCache assertionCache;
 
-    public LogoutHandler(Configuration configuration, CasSessionStoreFactory casSessionStoreFactory) {
+    public LogoutHandler(Configuration configuration, CasSessionStoreFactory casSessionStoreFactory,
+                         TicketGrantingTicketCache ticketGrantingTicketCache, AssertionCache assertionCache) {
         this.configuration = configuration;
         this.casSessionStore = casSessionStoreFactory.getInstance();
+        this.ticketGrantingTicketCache = ticketGrantingTicketCache;
+        this.assertionCache = assertionCache;
     }
 
     public void logout(HttpRequest request, HttpResponse response) throws IOException, ParserConfigurationException, SAXException {
@@ -50,6 +56,9 @@ public class LogoutHandler {
             LogoutRequest unmarshalled = new LogoutRequest();
             unmarshalled.sessionId = sessionId;
 
+            // before the session store, so that a failing store does not keep the user's API credentials usable
+            invalidateApiCredentials(root);
+
             String jwtId = casSessionStore.invalidateJwt(unmarshalled.sessionId);
             LOG.debug("Invalidate JWT {} with Service Ticket {}", jwtId, unmarshalled.sessionId);
 
@@ -58,64 +67,32 @@ public class LogoutHandler {
     }
 
     /**
-     * Checks for a blacklisted JWT cookie and the requested URL
-     *
-     * @param request the request to check for user cookies
-     * @return true if the user contains a blacklisted JWT cookie AND requests a page other than the login-page
+     * The user logged out from CAS, so the TGTs and assertions of the user's API calls must not be reused either. The
+     * user is identified by the NameID of the logout request.
      */
-    public boolean isUserLoggedOutAndLogsInAgain(HttpRequest request) {
-        boolean shouldUserBeLoggedOut = shouldUserBeLoggedOut(request.getCookies());
-        boolean requestToLoginPage = isRequestToLoginPage(request);
-        if (requestToLoginPage) {
-            LOG.debug("User is already being redirected to the log-in page. Will do nothing.");
+    private void invalidateApiCredentials(Element root) {
+        NodeList nameIds = root.getElementsByTagName("saml:NameID");
+        if (nameIds.getLength() > 0) {
+            String username = nameIds.item(0).getTextContent().trim();
+            ticketGrantingTicketCache.invalidateUser(username);
+            assertionCache.invalidateUser(username);
         }
-
-        return shouldUserBeLoggedOut && !requestToLoginPage;
     }
 
     /**
-     * Cleans up user's authentication cookies if the user accesses a non-login resource.
-     * <p>
-     * A user's cookies must be reset if and only if an invalid JWT token was found in the cookies. Otherwise it would
-     * remove logged-in users authentication.
-     *
-     * @param request  the HTTP request is inspected for cookies and the context path in case of a redirect.
-     * @param response the HTTP response that is going to be modified with delete-cookies if an invalid JWT cookie was
-     *                 found. Also the a redirect to the log-in page is added.
+     * @return true if the request goes to the log-in page which must stay reachable for logged-out users
      */
-    public void handleInvalidJwtCookie(HttpRequest request, HttpResponse response) {
-        boolean requestToLoginPage = isRequestToLoginPage(request);
-        if (requestToLoginPage) {
-            LOG.debug("User is already being redirected to the log-in page. Will do nothing.");
-            return;
-        }
-
-        if (isUserLoggedOutAndLogsInAgain(request)) {
-            LOG.debug("User authentication cookies will be removed because an invalid JWT token was found");
-            // Security advice:
-            // Do NOT remove the user's token from the session store. It must stay blacklisted until it is removed
-            // during the expiration date check.
-            removeAuthCookies(response, request.getContextPath());
-        }
-    }
-
-    private boolean isRequestToLoginPage(HttpRequest request) {
+    public boolean isRequestToLoginPage(HttpRequest request) {
         return request.getRequestURL().contains("/sessions/new");
     }
 
     /**
-     * Checks for an invalid (blacklisted) JWT cookie.
+     * Checks whether the JWT belongs to a session which was logged out.
      *
-     * @param cookies all sent cookies that are supposed to be inspected
-     * @return <code>true</code> if a JWT token was found in the cookies which is also invalid, otherwise false.
+     * @param jwt the JWT from the user's cookie
+     * @return <code>true</code> if the JWT is stored and was invalidated, otherwise false.
      */
-    private boolean shouldUserBeLoggedOut(Cookie[] cookies) {
-        if (cookies == null || cookies.length == 0) {
-            return false;
-        }
-
-        SimpleJwt jwt = JwtProcessor.getJwtTokenFromCookies(cookies);
-
+    public boolean isJwtBlacklisted(SimpleJwt jwt) {
         boolean isStored = casSessionStore.isJwtStored(jwt);
         if (!isStored) {
             return false;
@@ -127,7 +104,13 @@ public class LogoutHandler {
         return storedJwt.isInvalid();
     }
 
-    private void removeAuthCookies(HttpResponse response, String contextPath) {
+    /**
+     * Adds delete-cookies for the user's authentication cookies to the response.
+     *
+     * @param response    the HTTP response that is going to be modified with delete-cookies
+     * @param contextPath the context path for which the cookies were set
+     */
+    public void removeAuthCookies(HttpResponse response, String contextPath) {
         boolean useSecureCookies = SonarCasProperties.USE_SECURE_REDIRECT_COOKIES.getBoolean(configuration, true);
 
         Cookie jwtCookie = Cookies.createDeletionCookie(JWT_SESSION_COOKIE, contextPath, useSecureCookies);
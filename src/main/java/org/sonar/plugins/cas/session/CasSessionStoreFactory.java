@@ -9,18 +9,51 @@ import org.sonar.api.server.ServerSide;
 import org.sonar.plugins.cas.util.SonarCasProperties;
 
 import java.io.IOException;
+import java.util.Locale;
 
 @ServerSide
-public class CasSessionStoreFactory implements ServerStartHandler {
+public class CasSessionStoreFactory implements ServerStartHandler, AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(CasSessionStoreFactory.class);
+    private static final String SESSION_STORE_TYPE_FILE = "file";
+    private static final String SESSION_STORE_TYPE_JOURNAL = "journal";
+    private static final String SESSION_STORE_TYPE_MAPPED = "mapped";
     private final CasSessionStore impl;
 
     /** called with injection by SonarQube during server initialization */
     public CasSessionStoreFactory(Configuration configuration) {
         String sessionStorePath = SonarCasProperties.SESSION_STORE_PATH.mustGetString(configuration);
+        String sessionStoreType = SonarCasProperties.SESSION_STORE_TYPE
+                .getString(configuration, SESSION_STORE_TYPE_FILE).toLowerCase(Locale.ENGLISH);
 
-        LOG.debug("creating instance of CAS file session writeJwtFile implementation");
-        impl = new FileSessionStore(sessionStorePath);
+        if (SESSION_STORE_TYPE_FILE.equals(sessionStoreType)) {
+            LOG.debug("creating instance of CAS file session store implementation");
+            int refreshQueueSize = SonarCasProperties.SESSION_STORE_REFRESH_QUEUE_SIZE
+                    .getInteger(configuration, FileSessionStore.DEFAULT_REFRESH_QUEUE_SIZE);
+            impl = new FileSessionStore(sessionStorePath, SessionCleanUpSettings.fromConfiguration(configuration),
+                    refreshQueueSize);
+        } else if (SESSION_STORE_TYPE_JOURNAL.equals(sessionStoreType)) {
+            LOG.debug("creating instance of CAS journal session store implementation");
+            impl = new JournalSessionStore(sessionStorePath);
+        } else if (SESSION_STORE_TYPE_MAPPED.equals(sessionStoreType)) {
+            LOG.debug("creating instance of CAS memory-mapped session store implementation");
+            impl = createMappedSessionStore(configuration, sessionStorePath);
+        } else {
+            throw new IllegalStateException("Could not create CAS session store: unsupported type ".concat(sessionStoreType));
+        }
+    }
+
+    private static MappedSessionStore createMappedSessionStore(Configuration configuration, String sessionStorePath) {
+        int initialCapacity = SonarCasProperties.SESSION_STORE_MAPPED_INITIAL_CAPACITY
+                .getInteger(configuration, MappedSessionStore.DEFAULT_INITIAL_CAPACITY);
+        int maxLoadPercent = SonarCasProperties.SESSION_STORE_MAPPED_MAX_LOAD_PERCENT
+                .getInteger(configuration, MappedSessionStore.DEFAULT_MAX_LOAD_PERCENT);
+        int maxJwtIdLength = SonarCasProperties.SESSION_STORE_MAPPED_MAX_JWT_ID_LENGTH
+                .getInteger(configuration, MappedSessionStore.DEFAULT_MAX_JWT_ID_LENGTH);
+        int maxServiceTicketLength = SonarCasProperties.SESSION_STORE_MAPPED_MAX_SERVICE_TICKET_LENGTH
+                .getInteger(configuration, MappedSessionStore.DEFAULT_MAX_SERVICE_TICKET_LENGTH);
+
+        return new MappedSessionStore(sessionStorePath, initialCapacity, maxLoadPercent, maxJwtIdLength,
+                maxServiceTicketLength);
     }
 
     public CasSessionStore getInstance() {
@@ -36,6 +69,13 @@ public class CasSessionStoreFactory implements ServerStartHandler {
         }
     }
 
+    @Override
+    public void close() throws Exception {
+        if (impl instanceof AutoCloseable) {
+            ((AutoCloseable) impl).close();
+        }
+    }
+
     private class CasSessionStoreInitializationException extends RuntimeException {
         private CasSessionStoreInitializationException(IOException e) {
             super("Could not prepare CAS session writeJwtFile for work.", e);
@@ -0,0 +1,154 @@
+package org.sonar.plugins.cas.session;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * This class files sessions into time buckets by the expiration date of their JWT so that the clean-up only needs to
+ * drop the buckets whose time has passed instead of looking at every stored JWT.
+ *
+ * <p>Each bucket covers <code>bucketWidthInSeconds</code>. A bucket is handed out by {@link #pollExpired(long)} once
+ * its end lies in the past. At this time every session in it is expired. Sessions may therefore be removed up to one
+ * bucket width after their expiration.</p>
+ *
+ * <p>All methods are synchronized. Moving a session to another bucket with {@link #reschedule(String, long)} is
+ * atomic with respect to {@link #pollExpired(long)}: a session is either polled with its old expiration date or kept
+ * with its new one.</p>
+ */
+final class ExpirationWheel {
+    static final long DEFAULT_BUCKET_WIDTH_IN_SECONDS = 60;
+
+    private final long bucketWidthInSeconds;
+    private final NavigableMap<Long, Map<String, ExpiringSession>> buckets = new TreeMap<>();
+    private final Map<String, Long> bucketByJwtId = new HashMap<>();
+
+    ExpirationWheel() {
+        this(DEFAULT_BUCKET_WIDTH_IN_SECONDS);
+    }
+
+    ExpirationWheel(long bucketWidthInSeconds) {
+        if (bucketWidthInSeconds <= 0) {
+            throw new IllegalArgumentException("The bucket width must be positive but was " + bucketWidthInSeconds);
+        }
+        this.bucketWidthInSeconds = bucketWidthInSeconds;
+    }
+
+    /**
+     * Files a session into the bucket of its expiration date. A session which is already scheduled is replaced.
+     *
+     * @param jwtId         the ID of the session's JWT
+     * @param serviceTicket the service ticket of the session or an empty string if it is unknown
+     * @param expiration    the expiration date of the JWT in epoch seconds
+     */
+    synchronized void schedule(String jwtId, String serviceTicket, long expiration) {
+        cancel(jwtId);
+        add(new ExpiringSession(jwtId, serviceTicket, expiration));
+    }
+
+    /**
+     * Moves a scheduled session into the bucket of its new expiration date. Unknown sessions are ignored.
+     */
+    synchronized void reschedule(String jwtId, long expiration) {
+        ExpiringSession session = cancel(jwtId);
+        if (session != null) {
+            add(new ExpiringSession(jwtId, session.getServiceTicket(), expiration));
+        }
+    }
+
+    /**
+     * Removes a session from its bucket.
+     *
+     * @return the removed session or <code>null</code> if the session was not scheduled
+     */
+    synchronized ExpiringSession cancel(String jwtId) {
+        Long bucket = bucketByJwtId.remove(jwtId);
+        if (bucket == null) {
+            return null;
+        }
+
+        Map<String, ExpiringSession> sessions = buckets.get(bucket);
+        ExpiringSession session = sessions.remove(jwtId);
+        if (sessions.isEmpty()) {
+            buckets.remove(bucket);
+        }
+        return session;
+    }
+
+    /**
+     * Removes all buckets which ended before the given time.
+     *
+     * @param nowInEpochSeconds the current time
+     * @return the expired sessions in the order of their expiration
+     */
+    synchronized List<ExpiringSession> pollExpired(long nowInEpochSeconds) {
+        NavigableMap<Long, Map<String, ExpiringSession>> expiredBuckets =
+                buckets.headMap(bucketOf(nowInEpochSeconds), false);
+
+        List<ExpiringSession> expired = new ArrayList<>();
+        for (Map<String, ExpiringSession> sessions : expiredBuckets.values()) {
+            expired.addAll(sessions.values());
+            sessions.keySet().forEach(bucketByJwtId::remove);
+        }
+        expiredBuckets.clear();
+
+        return expired;
+    }
+
+    synchronized int size() {
+        return bucketByJwtId.size();
+    }
+
+    private void add(ExpiringSession session) {
+        long bucket = bucketOf(session.getExpiration());
+        buckets.computeIfAbsent(bucket, key -> new LinkedHashMap<>()).put(session.getJwtId(), session);
+        bucketByJwtId.put(session.getJwtId(), bucket);
+    }
+
+    private long bucketOf(long epochSeconds) {
+        return Math.floorDiv(epochSeconds, bucketWidthInSeconds);
+    }
+
+    /**
+     * A session which is scheduled for removal. Instances are immutable.
+     */
+    static final class ExpiringSession {
+        private final String jwtId;
+        private final String serviceTicket;
+        private final long expiration;
+
+        ExpiringSession(String jwtId, String serviceTicket, long expiration) {
+            this.jwtId = jwtId;
+            this.serviceTicket = serviceTicket;
+            this.expiration = expiration;
+        }
+
+        String getJwtId() {
+            return jwtId;
+        }
+
+        /**
+         * @return the service ticket of the session or an empty string if it is unknown
+         */
+        String getServiceTicket() {
+            return serviceTicket;
+        }
+
+        long getExpiration() {
+            return expiration;
+        }
+
+        @Override
+        public String toString() {
+            return "ExpiringSession{" +
+                    "jti=" + jwtId +
+                    ", st=" + serviceTicket +
+                    ", exp=" + expiration +
+                    '}';
+        }
+    }
+}
@@ -1,35 +1,100 @@
 package org.sonar.plugins.cas.session;
 
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.plugins.cas.util.JwtFiles;
 import org.sonar.plugins.cas.util.SimpleJwt;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
-public final class FileSessionStore implements CasSessionStore {
+public final class FileSessionStore implements CasSessionStore, AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(FileSessionStore.class);
+    private static final long SHUTDOWN_TIMEOUT_IN_SECS = 10;
+    static final int DEFAULT_REFRESH_QUEUE_SIZE = 1024;
+    static final int REFRESH_QUEUE_DISABLED = 0;
     private final String sessionStorePath;
+    private final SessionCleanUpSettings cleanUpSettings;
+    private final int refreshQueueSize;
+    private SessionFileHandler fileHandler;
+    /**
+     * Persists refreshed JWTs in the background. It is <code>null</code> before {@link #prepareForWork()} and if the
+     * queue is disabled, so that refreshes are written synchronously.
+     */
+    private volatile JwtRefreshWriter refreshWriter;
+    /**
+     * Runs the workers of a parallel clean-up. It is created by {@link #prepareForWork()} if the clean-up runs on more
+     * than one thread and is reused by all clean-up runs.
+     */
+    private ExecutorService cleanUpExecutor;
 
     /**
      * This map provides the CAS plugin with information about a JWT's validity. This collection is hit on every Sonar
      * request and must be super-fast.
+     *
+     * <p>The index is written through: every change is persisted to the session files first and then put into the
+     * index. Refreshes are the exception: they are put into the index at once and persisted by the
+     * {@link JwtRefreshWriter} shortly after. The files stay the source of truth across restarts and are read into the
+     * index during {@link #prepareForWork()}.</p>
      */
-    private SessionFileHandler fileHandler;
+    private final Map<String, SimpleJwt> jwtIndex = new ConcurrentHashMap<>();
+    /**
+     * Files all stored sessions by their expiration date so that the clean-up finds expired sessions without listing
+     * or parsing the session files.
+     */
+    private final ExpirationWheel expirationWheel = new ExpirationWheel();
+    /**
+     * Serializes all changes of the same JWT so that a refresh, an invalidation and the clean-up of one session do not
+     * overwrite each other. Lookups only read the index and never take a lock.
+     */
+    private final Striped<Lock> jwtLocks = Striped.lock(Runtime.getRuntime().availableProcessors() * 4);
 
     /**
      * default visibility constructor for testing
      */
     FileSessionStore(String sessionStorePath) {
+        this(sessionStorePath, SessionCleanUpSettings.defaults());
+    }
+
+    FileSessionStore(String sessionStorePath, SessionCleanUpSettings cleanUpSettings) {
+        this(sessionStorePath, cleanUpSettings, DEFAULT_REFRESH_QUEUE_SIZE);
+    }
+
+    FileSessionStore(String sessionStorePath, SessionCleanUpSettings cleanUpSettings, int refreshQueueSize) {
         this.sessionStorePath = sessionStorePath;
+        this.cleanUpSettings = cleanUpSettings;
+        this.refreshQueueSize = refreshQueueSize;
         this.fileHandler = new SessionFileHandler(sessionStorePath);
     }
 
     public void prepareForWork() {
         try {
             createSessionDirectory();
+            loadJwtIndex();
+            if (refreshQueueSize > REFRESH_QUEUE_DISABLED && refreshWriter == null) {
+                refreshWriter = new JwtRefreshWriter(refreshQueueSize, this::writeRefreshedJwt);
+            }
+            if (cleanUpSettings.getParallelism() > 1 && cleanUpExecutor == null) {
+                cleanUpExecutor = Executors.newFixedThreadPool(cleanUpSettings.getParallelism(), new ThreadFactoryBuilder()
+                        .setNameFormat("cas-session-cleanup-%d")
+                        .setDaemon(true)
+                        .build());
+            }
         } catch (IOException e) {
             throw new CasInitializationException(e);
         }
@@ -42,19 +107,36 @@ public final class FileSessionStore implements CasSessionStore {
         Files.createDirectories(sessionStoreDir);
     }
 
+    private void loadJwtIndex() throws IOException {
+        List<JwtFiles.JwtFileContent> storedJwtFiles = fileHandler.readAllJwtFiles();
+        for (JwtFiles.JwtFileContent jwtFile : storedJwtFiles) {
+            SimpleJwt jwt = jwtFile.getJwt();
+            jwtIndex.put(jwt.getJwtId(), jwt);
+            expirationWheel.schedule(jwt.getJwtId(), jwtFile.getServiceTicket(), jwt.getExpiration().getEpochSecond());
+        }
+
+        LOG.info("Loaded {} JWTs from CAS session store", jwtIndex.size());
+    }
+
     public void store(String ticket, SimpleJwt jwt) {
         LOG.debug("writeJwtFile ticket {} to token {}", ticket, jwt.getJwtId());
+        Lock lock = jwtLocks.get(jwt.getJwtId());
+        lock.lock();
         try {
             fileHandler.createServiceTicketFile(ticket, jwt);
-            fileHandler.writeJwtFile(jwt.getJwtId(), jwt);
+            fileHandler.writeJwtFile(jwt.getJwtId(), jwt, ticket);
+            jwtIndex.put(jwt.getJwtId(), jwt);
+            expirationWheel.schedule(jwt.getJwtId(), ticket, jwt.getExpiration().getEpochSecond());
         } catch (IOException e) {
             LOG.error("Could not writeJwtFile JWT " + jwt.getJwtId() + "to storage path.", e);
             throw new CasIOAuthenticationException("An authentication problem occurred. Please let your SonarQube administrator know.");
+        } finally {
+            lock.unlock();
         }
     }
 
     public boolean isJwtStored(SimpleJwt jwt) {
-        boolean stored = fileHandler.isJwtStored(jwt.getJwtId());
+        boolean stored = jwtIndex.containsKey(jwt.getJwtId());
         LOG.debug("check if JWT {} is stored: {}", jwt.getJwtId(), stored);
 
         return stored;
@@ -63,13 +145,7 @@ public final class FileSessionStore implements CasSessionStore {
     public SimpleJwt fetchStoredJwt(SimpleJwt jwt) {
         LOG.debug("get token {}", jwt.getJwtId());
 
-        SimpleJwt result;
-        try {
-            result = fileHandler.readJwtFile(jwt.getJwtId());
-        } catch (Exception e) {
-            LOG.error("Could not return JWT file " + jwt.getJwtId(), e);
-            throw new CasIOAuthenticationException("An authentication problem occurred. Please let your SonarQube administrator know.");
-        }
+        SimpleJwt result = jwtIndex.get(jwt.getJwtId());
         if (result == null) {
             result = SimpleJwt.getNullObject();
         }
@@ -80,28 +156,34 @@ public final class FileSessionStore implements CasSessionStore {
     public String invalidateJwt(String serviceTicketId) {
         LOG.debug("invalidate token by ticket {}", serviceTicketId);
 
-        SimpleJwt jwt;
+        String jwtId;
         try {
-            String jwtId = fileHandler.readServiceTicketFile(serviceTicketId);
-            jwt = fileHandler.readJwtFile(jwtId);
+            jwtId = fileHandler.readServiceTicketFile(serviceTicketId);
         } catch (IOException e) {
             LOG.error("Could not invalidate JWT with granting ticket " + serviceTicketId, e);
             throw new CasIOAuthenticationException("An authentication problem occurred. Please let your SonarQube administrator know.");
         }
-        if (jwt == null) {
-            return "no ticket found";
-        }
-
-        SimpleJwt invalidated = jwt.cloneAsInvalidated();
 
+        SimpleJwt invalidated;
+        Lock lock = jwtLocks.get(jwtId);
+        lock.lock();
         try {
-            fileHandler.replaceJwtFile(jwt.getJwtId(), invalidated);
+            SimpleJwt jwt = jwtIndex.get(jwtId);
+            if (jwt == null) {
+                return "no ticket found";
+            }
+
+            invalidated = jwt.cloneAsInvalidated();
+            fileHandler.replaceJwtFile(jwtId, invalidated);
+            jwtIndex.put(jwtId, invalidated);
         } catch (IOException e) {
-            LOG.error("Could not invalidate JWT file " + jwt.getJwtId(), e);
+            LOG.error("Could not invalidate JWT file " + jwtId, e);
             throw new CasIOAuthenticationException("An authentication problem occurred. Please let your SonarQube administrator know.");
+        } finally {
+            lock.unlock();
         }
 
-        LOG.debug("successfully invalidated token {} by ticket {}", jwt.getJwtId(), serviceTicketId);
+        LOG.debug("successfully invalidated token {} by ticket {}", jwtId, serviceTicketId);
 
         return invalidated.getJwtId();
     }
@@ -111,18 +193,127 @@ public final class FileSessionStore implements CasSessionStore {
         String jwtId = jwtWithLongerExpirationDate.getJwtId();
         LOG.debug("refresh token {}", jwtId);
 
+        Lock lock = jwtLocks.get(jwtId);
+        lock.lock();
         try {
-            fileHandler.replaceJwtFile(jwtId, jwtWithLongerExpirationDate);
+            SimpleJwt stored = jwtIndex.get(jwtId);
+            if (stored == null) {
+                // JWTs of local users and sessions removed by the clean-up have no files which could be refreshed
+                LOG.debug("Ignoring refresh of unknown token {}", jwtId);
+                return;
+            }
+
+            SimpleJwt refreshed = jwtWithLongerExpirationDate;
+            if (stored.isInvalid()) {
+                // a refresh racing with a log-out must never lift the blacklisting
+                refreshed = refreshed.cloneAsInvalidated();
+            }
+
+            JwtRefreshWriter writer = refreshWriter;
+            if (writer == null) {
+                fileHandler.replaceJwtFile(jwtId, refreshed);
+            }
+            jwtIndex.put(jwtId, refreshed);
+            expirationWheel.reschedule(jwtId, refreshed.getExpiration().getEpochSecond());
+            if (writer != null && !writer.enqueue(jwtId)) {
+                // back pressure: the request waits for the disk if the writer falls behind
+                fileHandler.replaceJwtFile(jwtId, refreshed);
+            }
         } catch (IOException e) {
             LOG.error("Could not invalidate JWT file " + jwtId, e);
             throw new CasIOAuthenticationException("An authentication problem occurred. Please let your SonarQube administrator know.");
+        } finally {
+            lock.unlock();
         }
 
         LOG.debug("successfully refreshed token {}", jwtId);
     }
 
+    /**
+     * Persists the current state of a refreshed JWT. A JWT which was removed by the clean-up in the meantime is not
+     * written again.
+     */
+    private void writeRefreshedJwt(String jwtId) {
+        Lock lock = jwtLocks.get(jwtId);
+        lock.lock();
+        try {
+            SimpleJwt jwt = jwtIndex.get(jwtId);
+            if (jwt != null) {
+                fileHandler.replaceJwtFile(jwtId, jwt);
+            }
+        } catch (NoSuchFileException e) {
+            LOG.debug("JWT file {} was removed before its refresh was written", jwtId);
+        } catch (IOException e) {
+            LOG.error("Could not write refreshed JWT file " + jwtId, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public int removeExpiredEntries() {
-        return new SessionFileRemover(sessionStorePath).cleanUp();
+        List<ExpirationWheel.ExpiringSession> expiredSessions = expirationWheel.pollExpired(Instant.now().getEpochSecond());
+        Queue<ExpirationWheel.ExpiringSession> sessionsToBeRemoved = new ConcurrentLinkedQueue<>(expiredSessions);
+
+        SessionFileRemover remover = new SessionFileRemover(sessionStorePath, cleanUpSettings, jwtLocks,
+                new IndexRemovalGuard(), cleanUpExecutor);
+        int removedFiles = remover.removeSessions(sessionsToBeRemoved);
+
+        // sessions left over by the clean-up limits stay in the index until the next run removes their files
+        for (ExpirationWheel.ExpiringSession leftOver : sessionsToBeRemoved) {
+            expirationWheel.schedule(leftOver.getJwtId(), leftOver.getServiceTicket(), leftOver.getExpiration());
+        }
+
+        return removedFiles;
+    }
+
+    /**
+     * Removes expired sessions from the index together with their files. A session which was refreshed after it had
+     * been taken from the expiration wheel keeps its files and is scheduled again.
+     */
+    private class IndexRemovalGuard implements SessionFileRemover.RemovalGuard {
+        @Override
+        public boolean isRemovable(ExpirationWheel.ExpiringSession session) {
+            SimpleJwt stored = jwtIndex.get(session.getJwtId());
+            if (stored == null || stored.isExpired()) {
+                return true;
+            }
+            expirationWheel.schedule(session.getJwtId(), session.getServiceTicket(), stored.getExpiration().getEpochSecond());
+            return false;
+        }
+
+        @Override
+        public void onRemoved(ExpirationWheel.ExpiringSession session) {
+            jwtIndex.remove(session.getJwtId());
+        }
+    }
+
+    /**
+     * Writes all refreshes which are still queued and stops the clean-up threads.
+     */
+    @Override
+    public void close() {
+        JwtRefreshWriter writer = refreshWriter;
+        if (writer != null) {
+            writer.close();
+            refreshWriter = null;
+        }
+        stopCleanUpExecutor();
+    }
+
+    private void stopCleanUpExecutor() {
+        ExecutorService executor = cleanUpExecutor;
+        if (executor == null) {
+            return;
+        }
+        cleanUpExecutor = null;
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_IN_SECS, TimeUnit.SECONDS)) {
+                LOG.warn("CAS session clean-up threads did not stop within {} seconds", SHUTDOWN_TIMEOUT_IN_SECS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private static class CasIOAuthenticationException extends RuntimeException {
@@ -0,0 +1,99 @@
+package org.sonar.plugins.cas.session;
+
+import org.sonar.plugins.cas.util.SimpleJwt;
+
+/**
+ * A single entry of the {@link SessionJournal}. Each record describes one change of the session store state.
+ * <p>
+ * Instances are immutable and thread-safe.
+ * </p>
+ */
+final class JournalRecord {
+    enum Type {
+        /**
+         * A new JWT was issued for a service ticket. Carries ticket, JWT ID and expiration.
+         */
+        STORE(1),
+        /**
+         * A JWT was blacklisted during log-out. Carries the JWT ID.
+         */
+        INVALIDATE(2),
+        /**
+         * A JWT received a newer expiration date. Carries JWT ID and expiration.
+         */
+        REFRESH(3),
+        /**
+         * A JWT and its service ticket were removed after their expiration. Carries the JWT ID.
+         */
+        EXPIRE(4);
+
+        final byte code;
+
+        Type(int code) {
+            this.code = (byte) code;
+        }
+
+        static Type fromCode(byte code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown journal record type " + code);
+        }
+    }
+
+    private final Type type;
+    private final String serviceTicket;
+    private final String jwtId;
+    private final long expiration;
+
+    JournalRecord(Type type, String serviceTicket, String jwtId, long expiration) {
+        this.type = type;
+        this.serviceTicket = serviceTicket;
+        this.jwtId = jwtId;
+        this.expiration = expiration;
+    }
+
+    static JournalRecord store(String serviceTicket, SimpleJwt jwt) {
+        return new JournalRecord(Type.STORE, serviceTicket, jwt.getJwtId(), jwt.getExpiration().getEpochSecond());
+    }
+
+    static JournalRecord invalidate(String jwtId) {
+        return new JournalRecord(Type.INVALIDATE, "", jwtId, 0L);
+    }
+
+    static JournalRecord refresh(SimpleJwt jwt) {
+        return new JournalRecord(Type.REFRESH, "", jwt.getJwtId(), jwt.getExpiration().getEpochSecond());
+    }
+
+    static JournalRecord expire(String jwtId) {
+        return new JournalRecord(Type.EXPIRE, "", jwtId, 0L);
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    String getServiceTicket() {
+        return serviceTicket;
+    }
+
+    String getJwtId() {
+        return jwtId;
+    }
+
+    long getExpiration() {
+        return expiration;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalRecord{" +
+                "type=" + type +
+                ", st=" + serviceTicket +
+                ", jti=" + jwtId +
+                ", exp=" + expiration +
+                '}';
+    }
+}
@@ -0,0 +1,263 @@
+package org.sonar.plugins.cas.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.cas.util.SimpleJwt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This session store keeps all JWTs and service tickets in memory and persists every change into a single append-only
+ * journal file (see {@link SessionJournal}) instead of creating two files per log-in like the {@link FileSessionStore}.
+ *
+ * <p>The journal is replayed into memory in {@link #prepareForWork()}. Expired entries are recorded in the journal by
+ * {@link #removeExpiredEntries()} which also compacts the journal once it consists mostly of outdated records. Because
+ * the clean up runs in the background so does the compaction. Log-ins and refreshes wait only while the live records
+ * are collected and while the compacted journal replaces the old one, not while the compacted journal is written.</p>
+ */
+public final class JournalSessionStore implements CasSessionStore, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(JournalSessionStore.class);
+    /**
+     * Compaction is skipped for small journals because rewriting them does not pay off.
+     */
+    private static final int COMPACTION_MIN_RECORDS = 1000;
+    /**
+     * The journal is compacted when it holds this many times more records than there are live entries.
+     */
+    private static final int COMPACTION_RATIO = 2;
+
+    private final String sessionStorePath;
+    private final SessionJournal journal;
+    /**
+     * All changes are applied to the journal and the in-memory state in the same order.
+     */
+    private final Object mutationLock = new Object();
+
+    /**
+     * This map provides the CAS plugin with information about a JWT's validity. This collection is hit on every Sonar
+     * request and must be super-fast.
+     */
+    private final Map<String, SimpleJwt> jwts = new ConcurrentHashMap<>();
+    private final Map<String, String> serviceTicketToJwtId = new ConcurrentHashMap<>();
+    private final Map<String, String> jwtIdToServiceTicket = new ConcurrentHashMap<>();
+    /**
+     * Files all JWTs by their expiration date so that the clean-up does not need to look at every JWT.
+     */
+    private final ExpirationWheel expirationWheel = new ExpirationWheel();
+
+    /**
+     * default visibility constructor for testing
+     */
+    JournalSessionStore(String sessionStorePath) {
+        this.sessionStorePath = sessionStorePath;
+        this.journal = new SessionJournal(Paths.get(sessionStorePath));
+    }
+
+    @Override
+    public void prepareForWork() throws IOException {
+        Path sessionStoreDir = Paths.get(sessionStorePath);
+        LOG.info("Creating CAS session journal with path {}", sessionStoreDir);
+        Files.createDirectories(sessionStoreDir);
+
+        synchronized (mutationLock) {
+            journal.open(this::apply);
+            LOG.info("Loaded {} JWTs from CAS session journal", jwts.size());
+
+            SessionJournal.Compaction compaction = startCompactionIfNecessary();
+            if (compaction != null) {
+                journal.writeCompaction(compaction);
+                journal.finishCompaction(compaction);
+            }
+        }
+    }
+
+    @Override
+    public void store(String ticket, SimpleJwt jwt) {
+        LOG.debug("store ticket {} to token {}", ticket, jwt.getJwtId());
+
+        write(JournalRecord.store(ticket, jwt));
+    }
+
+    @Override
+    public boolean isJwtStored(SimpleJwt jwt) {
+        boolean stored = jwts.containsKey(jwt.getJwtId());
+        LOG.debug("check if JWT {} is stored: {}", jwt.getJwtId(), stored);
+
+        return stored;
+    }
+
+    @Override
+    public SimpleJwt fetchStoredJwt(SimpleJwt jwt) {
+        LOG.debug("get token {}", jwt.getJwtId());
+
+        SimpleJwt result = jwts.get(jwt.getJwtId());
+        if (result == null) {
+            result = SimpleJwt.getNullObject();
+        }
+
+        return result;
+    }
+
+    @Override
+    public String invalidateJwt(String serviceTicketId) {
+        LOG.debug("invalidate token by ticket {}", serviceTicketId);
+
+        String jwtId = serviceTicketToJwtId.get(serviceTicketId);
+        if (jwtId == null || !jwts.containsKey(jwtId)) {
+            return "no ticket found";
+        }
+
+        write(JournalRecord.invalidate(jwtId));
+        LOG.debug("successfully invalidated token {} by ticket {}", jwtId, serviceTicketId);
+
+        return jwtId;
+    }
+
+    @Override
+    public void refreshJwt(SimpleJwt jwtWithLongerExpirationDate) {
+        String jwtId = jwtWithLongerExpirationDate.getJwtId();
+        LOG.debug("refresh token {}", jwtId);
+
+        if (!jwts.containsKey(jwtId)) {
+            // JWTs of local users and expired sessions must not grow the journal
+            LOG.debug("Ignoring refresh of unknown token {}", jwtId);
+            return;
+        }
+
+        write(JournalRecord.refresh(jwtWithLongerExpirationDate));
+        LOG.debug("successfully refreshed token {}", jwtId);
+    }
+
+    @Override
+    public int removeExpiredEntries() {
+        int removedEntries = 0;
+        long position = 0;
+
+        try {
+            SessionJournal.Compaction compaction;
+            synchronized (mutationLock) {
+                long now = Instant.now().getEpochSecond();
+                for (ExpirationWheel.ExpiringSession session : expirationWheel.pollExpired(now)) {
+                    JournalRecord record = JournalRecord.expire(session.getJwtId());
+                    position = journal.append(record);
+                    removedEntries += apply(record);
+                }
+
+                compaction = startCompactionIfNecessary();
+            }
+            journal.sync(position);
+
+            if (compaction != null) {
+                // records appended in the meantime are carried over when the compacted journal replaces the old one
+                journal.writeCompaction(compaction);
+                journal.finishCompaction(compaction);
+            }
+        } catch (IOException e) {
+            LOG.error("Could not remove expired entries from the CAS session journal", e);
+        }
+
+        return removedEntries;
+    }
+
+    @Override
+    public void close() throws IOException {
+        LOG.info("Closing CAS session journal");
+        journal.close();
+    }
+
+    private void write(JournalRecord record) {
+        try {
+            long position;
+            synchronized (mutationLock) {
+                position = journal.append(record);
+                apply(record);
+            }
+            journal.sync(position);
+        } catch (IOException e) {
+            LOG.error("Could not write record " + record + " to the CAS session journal", e);
+            throw new CasIOAuthenticationException("An authentication problem occurred. Please let your SonarQube administrator know.");
+        }
+    }
+
+    /**
+     * Applies a journal record to the in-memory state.
+     *
+     * @return the number of removed JWTs and service tickets
+     */
+    private int apply(JournalRecord record) {
+        String jwtId = record.getJwtId();
+
+        switch (record.getType()) {
+            case STORE:
+                jwts.put(jwtId, SimpleJwt.fromIdAndExpiration(jwtId, record.getExpiration()));
+                serviceTicketToJwtId.put(record.getServiceTicket(), jwtId);
+                jwtIdToServiceTicket.put(jwtId, record.getServiceTicket());
+                expirationWheel.schedule(jwtId, record.getServiceTicket(), record.getExpiration());
+                return 0;
+            case INVALIDATE:
+                jwts.computeIfPresent(jwtId, (id, jwt) -> jwt.cloneAsInvalidated());
+                return 0;
+            case REFRESH:
+                jwts.computeIfPresent(jwtId, (id, jwt) -> refreshed(jwt, record.getExpiration()));
+                expirationWheel.reschedule(jwtId, record.getExpiration());
+                return 0;
+            case EXPIRE:
+                expirationWheel.cancel(jwtId);
+                int removed = jwts.remove(jwtId) != null ? 1 : 0;
+                String serviceTicket = jwtIdToServiceTicket.remove(jwtId);
+                if (serviceTicket != null && serviceTicketToJwtId.remove(serviceTicket) != null) {
+                    removed++;
+                }
+                return removed;
+            default:
+                throw new IllegalStateException("Unsupported journal record type " + record.getType());
+        }
+    }
+
+    /**
+     * A refresh must never lift the blacklisting of an invalidated JWT.
+     */
+    private static SimpleJwt refreshed(SimpleJwt current, long expiration) {
+        SimpleJwt refreshed = SimpleJwt.fromIdAndExpiration(current.getJwtId(), expiration);
+        return current.isInvalid() ? refreshed.cloneAsInvalidated() : refreshed;
+    }
+
+    /**
+     * Collects the live records for a compaction. Must be called while the mutation lock is held so that the records
+     * match the journal position at which the compaction starts.
+     *
+     * @return the started compaction or <code>null</code> if the journal does not need to be compacted
+     */
+    private SessionJournal.Compaction startCompactionIfNecessary() {
+        int recordCount = journal.getRecordCount();
+        if (recordCount < COMPACTION_MIN_RECORDS || recordCount < COMPACTION_RATIO * jwts.size()) {
+            return null;
+        }
+
+        List<JournalRecord> liveRecords = new ArrayList<>(jwts.size());
+        for (SimpleJwt jwt : jwts.values()) {
+            String serviceTicket = jwtIdToServiceTicket.getOrDefault(jwt.getJwtId(), "");
+            liveRecords.add(JournalRecord.store(serviceTicket, jwt));
+            if (jwt.isInvalid()) {
+                liveRecords.add(JournalRecord.invalidate(jwt.getJwtId()));
+            }
+        }
+
+        return journal.startCompaction(liveRecords);
+    }
+
+    private static class CasIOAuthenticationException extends RuntimeException {
+        CasIOAuthenticationException(String message) {
+            super(message);
+        }
+    }
+}
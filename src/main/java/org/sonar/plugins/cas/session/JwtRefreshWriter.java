@@ -0,0 +1,165 @@
+package org.sonar.plugins.cas.session;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * This class persists refreshed JWTs of the {@link FileSessionStore} in the background so that requests do not wait
+ * for the disk.
+ *
+ * <p>The queue only holds JWT IDs. The writer persists whatever the store's index holds for an ID at the time of the
+ * write, so several refreshes of the same JWT which arrive before the write are coalesced into one write of the latest
+ * state. When the queue is full, {@link #enqueue(String)} refuses the ID and the caller writes synchronously, which
+ * slows down requests instead of losing refreshes. Remaining IDs are written during {@link #close()}. An ID which
+ * arrives after the close is refused as well, so that no refresh is left in a queue which nobody writes anymore.</p>
+ */
+final class JwtRefreshWriter implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(JwtRefreshWriter.class);
+    private static final long SHUTDOWN_TIMEOUT_IN_SECS = 10;
+    private static final long POLL_TIMEOUT_IN_MILLIS = 200;
+
+    private final BlockingQueue<String> queue;
+    /**
+     * The JWT IDs which are in the queue and were not taken by the writer yet.
+     */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Consumer<String> writer;
+    private final ExecutorService executor;
+    private final LongAdder coalescedRefreshes = new LongAdder();
+    private final LongAdder rejectedRefreshes = new LongAdder();
+    /**
+     * Lets {@link #close()} wait for enqueues which passed the closed check but did not put their ID into the queue yet.
+     * Enqueues only share the read lock with each other.
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    /**
+     * @param capacity the maximal number of JWTs which wait for their write
+     * @param writer   persists the current state of the JWT with the given ID
+     */
+    JwtRefreshWriter(int capacity, Consumer<String> writer) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.writer = writer;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("cas-session-refresh-writer")
+                .setDaemon(true)
+                .build());
+        this.executor.execute(this::writeContinuously);
+    }
+
+    /**
+     * Schedules the write of a JWT. The caller must have updated the store's index before.
+     *
+     * @return <code>false</code> if the queue is full or closed; the caller must write the JWT itself then
+     */
+    boolean enqueue(String jwtId) {
+        closeLock.readLock().lock();
+        try {
+            return enqueueUnlessClosed(jwtId);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private boolean enqueueUnlessClosed(String jwtId) {
+        if (closed) {
+            return false;
+        }
+        if (!pending.add(jwtId)) {
+            // the waiting write will pick up the latest state
+            coalescedRefreshes.increment();
+            return true;
+        }
+        if (queue.offer(jwtId)) {
+            return true;
+        }
+
+        pending.remove(jwtId);
+        rejectedRefreshes.increment();
+        LOG.debug("Refresh queue is full, JWT {} is written synchronously", jwtId);
+        return false;
+    }
+
+    /**
+     * @return the number of refreshes which were merged into an already waiting write
+     */
+    long getCoalescedRefreshes() {
+        return coalescedRefreshes.sum();
+    }
+
+    /**
+     * @return the number of refreshes which were refused because the queue was full
+     */
+    long getRejectedRefreshes() {
+        return rejectedRefreshes.sum();
+    }
+
+    /**
+     * Lets the background writer write all queued JWTs and stops it. The writer is not interrupted because an
+     * interrupted file channel would fail the current write.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_IN_SECS, TimeUnit.SECONDS)) {
+                LOG.warn("CAS session refresh writer did not stop within {} seconds", SHUTDOWN_TIMEOUT_IN_SECS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // JWTs which were enqueued while the writer stopped
+        writeRemaining();
+    }
+
+    private void writeContinuously() {
+        try {
+            while (!closed) {
+                String jwtId = queue.poll(POLL_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+                if (jwtId != null) {
+                    write(jwtId);
+                }
+            }
+            writeRemaining();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeRemaining() {
+        String jwtId;
+        while ((jwtId = queue.poll()) != null) {
+            write(jwtId);
+        }
+    }
+
+    private void write(String jwtId) {
+        pending.remove(jwtId);
+        try {
+            writer.accept(jwtId);
+        } catch (RuntimeException e) {
+            LOG.error("Could not persist refreshed JWT {}", jwtId, e);
+        }
+    }
+}
@@ -0,0 +1,555 @@
+package org.sonar.plugins.cas.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * A hash table with fixed-size slots and open addressing (linear probing) which lives in a memory-mapped file.
+ *
+ * <p>Keys are ASCII strings (like JWT IDs and CAS tickets) up to a configured maximum length. Values are raw bytes of a
+ * fixed size which are read and written by the caller with the slot accessors. Lookups compare the key in place
+ * without allocating memory.</p>
+ *
+ * <p>The file starts with a header followed by <code>capacity</code> slots with this layout:</p>
+ * <pre>
+ * size          field
+ *    1          slot state: empty, occupied, or deleted
+ *    2          key length
+ *    maxKeySize key (ASCII)
+ *    valueSize  value
+ * </pre>
+ *
+ * <p>A slot is marked as occupied only after its key and value were written. Removed slots become tombstones which are
+ * purged when the table is rehashed. The table is rehashed into a new file once occupied and deleted slots exceed
+ * <code>maxLoadPercent</code> of the capacity. The capacity doubles if the live entries alone fill more than half of
+ * the allowed load.</p>
+ *
+ * <p>This class is not thread-safe. Callers must serialize writes and must not read during writes. Only
+ * {@link #force()} may run concurrently with other calls.</p>
+ */
+final class MappedHashTable implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedHashTable.class);
+    private static final int MAGIC = 0x434D4854;
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int KEY_SIZE_OFFSET = 12;
+    private static final int VALUE_SIZE_OFFSET = 16;
+    private static final int COUNT_OFFSET = 20;
+    private static final int USED_OFFSET = 24;
+
+    private static final byte EMPTY = 0;
+    private static final byte OCCUPIED = 1;
+    private static final byte DELETED = 2;
+    private static final int SLOT_KEY_LENGTH_OFFSET = 1;
+    private static final int SLOT_KEY_OFFSET = 3;
+    private static final int HASH_SEED = 0x811C9DC5;
+    private static final int HASH_PRIME = 0x01000193;
+
+    private final Path file;
+    private final int maxKeySize;
+    private final int valueSize;
+    private final int maxLoadPercent;
+    private final int slotSize;
+
+    private int capacity;
+    private int count;
+    private int used;
+    /**
+     * Counts all changes so that a copy made by {@link #copyWithoutTombstones()} is only swapped in if the table did
+     * not change in the meantime.
+     */
+    private long modificationCount;
+    /**
+     * Volatile because {@link #force()} may be called without the caller's lock.
+     */
+    private volatile MappedByteBuffer buffer;
+
+    /**
+     * @param file            the file which backs the table
+     * @param initialCapacity the number of slots of a new table. It is rounded up to the next power of two. An
+     *                        existing table keeps its capacity.
+     * @param maxKeySize      the maximal length of a key
+     * @param valueSize       the size of the value of each slot in bytes
+     * @param maxLoadPercent  the percentage of used slots which triggers a rehash
+     */
+    MappedHashTable(Path file, int initialCapacity, int maxKeySize, int valueSize, int maxLoadPercent) {
+        if (maxLoadPercent < 10 || maxLoadPercent > 95) {
+            throw new IllegalArgumentException("maxLoadPercent must be between 10 and 95 but was " + maxLoadPercent);
+        }
+        if (maxKeySize <= 0 || maxKeySize > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("maxKeySize must be between 1 and " + Short.MAX_VALUE + " but was " + maxKeySize);
+        }
+
+        this.file = file;
+        this.capacity = roundUpToPowerOfTwo(Math.max(initialCapacity, 16));
+        this.maxKeySize = maxKeySize;
+        this.valueSize = valueSize;
+        this.maxLoadPercent = maxLoadPercent;
+        this.slotSize = SLOT_KEY_OFFSET + maxKeySize + valueSize;
+    }
+
+    /**
+     * Maps an existing table file or creates a new one.
+     */
+    void open() throws IOException {
+        if (Files.exists(file) && Files.size(file) > 0) {
+            mapExisting();
+        } else {
+            create(file, capacity);
+            buffer = map(file, capacity);
+            count = 0;
+            used = 0;
+        }
+    }
+
+    private void mapExisting() throws IOException {
+        MappedByteBuffer header;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        }
+
+        if (header.getInt(0) != MAGIC || header.get(VERSION_OFFSET) != VERSION) {
+            throw new IOException("File " + file + " is not a CAS session table");
+        }
+        if (header.getInt(KEY_SIZE_OFFSET) != maxKeySize || header.getInt(VALUE_SIZE_OFFSET) != valueSize) {
+            throw new IOException("CAS session table " + file + " was created with a different slot layout (key size "
+                    + header.getInt(KEY_SIZE_OFFSET) + ", value size " + header.getInt(VALUE_SIZE_OFFSET) + ")");
+        }
+
+        capacity = header.getInt(CAPACITY_OFFSET);
+        buffer = map(file, capacity);
+        count = buffer.getInt(COUNT_OFFSET);
+        used = buffer.getInt(USED_OFFSET);
+        LOG.debug("Mapped CAS session table {} with {} of {} slots in use", file, count, capacity);
+    }
+
+    /**
+     * Returns the slot of the given key.
+     *
+     * @return the slot index or <code>-1</code> if the key is not stored
+     */
+    int find(String key) {
+        if (key.length() > maxKeySize || !isAscii(key)) {
+            // keys are stored as single bytes: a non-ASCII character could match another stored character
+            return -1;
+        }
+
+        int mask = capacity - 1;
+        int slot = hash(key) & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            byte state = buffer.get(slotOffset(slot));
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == OCCUPIED && keyEquals(slot, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the slot of a key which is encoded into a value of another table with
+     * {@link #encodeString(String, byte[], int, int)}. Unlike {@link #find(String)} this method does not allocate.
+     *
+     * @param source      the table which holds the encoded key
+     * @param sourceSlot  the slot of the encoded key in the source table
+     * @param valueOffset the offset of the encoded key within the value of the source table
+     * @return the slot index or <code>-1</code> if the key is not stored
+     */
+    int findEncoded(MappedHashTable source, int sourceSlot, int valueOffset) {
+        MappedByteBuffer sourceBuffer = source.buffer;
+        int keyOffset = source.valueOffset(sourceSlot) + valueOffset + 2;
+        int length = sourceBuffer.getShort(keyOffset - 2);
+        if (length <= 0 || length > maxKeySize) {
+            return -1;
+        }
+
+        int hash = HASH_SEED;
+        for (int i = 0; i < length; i++) {
+            hash ^= sourceBuffer.get(keyOffset + i) & 0xFF;
+            hash *= HASH_PRIME;
+        }
+
+        int mask = capacity - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            byte state = buffer.get(slotOffset(slot));
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == OCCUPIED && keyEquals(slot, sourceBuffer, keyOffset, length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the value for the given key. An existing value is overwritten.
+     *
+     * @param key   an ASCII key which is not longer than the configured maximum key size
+     * @param value the value which must be exactly as long as the configured value size
+     */
+    void put(String key, byte[] value) throws IOException {
+        checkKey(key);
+        if (value.length != valueSize) {
+            throw new IllegalArgumentException("Value must have " + valueSize + " bytes but has " + value.length);
+        }
+
+        int existing = find(key);
+        if (existing >= 0) {
+            writeValue(existing, value);
+            return;
+        }
+
+        if ((used + 1) * 100L > (long) capacity * maxLoadPercent) {
+            rehash();
+        }
+
+        int slot = findFreeSlot(key);
+        boolean reusesTombstone = buffer.get(slotOffset(slot)) == DELETED;
+        int offset = slotOffset(slot);
+        buffer.putShort(offset + SLOT_KEY_LENGTH_OFFSET, (short) key.length());
+        for (int i = 0; i < key.length(); i++) {
+            buffer.put(offset + SLOT_KEY_OFFSET + i, (byte) key.charAt(i));
+        }
+        writeValue(slot, value);
+        buffer.put(offset, OCCUPIED);
+
+        count++;
+        if (!reusesTombstone) {
+            used++;
+        }
+        writeCounters();
+        modificationCount++;
+    }
+
+    /**
+     * Marks the given slot as deleted.
+     */
+    void remove(int slot) {
+        int offset = slotOffset(slot);
+        if (buffer.get(offset) != OCCUPIED) {
+            return;
+        }
+        buffer.put(offset, DELETED);
+        count--;
+        writeCounters();
+        modificationCount++;
+    }
+
+    /**
+     * Returns the keys of all entries whose slot matches the given predicate. Only the keys of matching entries are
+     * allocated.
+     */
+    List<String> collectKeys(IntPredicate slotPredicate) {
+        List<String> keys = new ArrayList<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            if (buffer.get(slotOffset(slot)) == OCCUPIED && slotPredicate.test(slot)) {
+                keys.add(getKey(slot));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return a copy of the value of the given slot
+     */
+    byte[] getValue(int slot) {
+        byte[] value = new byte[valueSize];
+        int offset = valueOffset(slot);
+        for (int i = 0; i < valueSize; i++) {
+            value[i] = buffer.get(offset + i);
+        }
+        return value;
+    }
+
+    long getLong(int slot, int valueOffset) {
+        return buffer.getLong(valueOffset(slot) + valueOffset);
+    }
+
+    byte getByte(int slot, int valueOffset) {
+        return buffer.get(valueOffset(slot) + valueOffset);
+    }
+
+    void putLong(int slot, int valueOffset, long value) {
+        buffer.putLong(valueOffset(slot) + valueOffset, value);
+        modificationCount++;
+    }
+
+    void putByte(int slot, int valueOffset, byte value) {
+        buffer.put(valueOffset(slot) + valueOffset, value);
+        modificationCount++;
+    }
+
+    /**
+     * Reads a string which was encoded into a value with {@link #encodeString(String, byte[], int, int)}.
+     */
+    String getString(int slot, int valueOffset) {
+        int offset = valueOffset(slot) + valueOffset;
+        int length = buffer.getShort(offset);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encodes a string into a value as a length-prefixed sequence of ASCII bytes.
+     */
+    static void encodeString(String string, byte[] value, int valueOffset, int maxLength) {
+        if (string.length() > maxLength) {
+            throw new IllegalArgumentException("String " + string + " is longer than " + maxLength + " characters");
+        }
+        value[valueOffset] = (byte) (string.length() >> 8);
+        value[valueOffset + 1] = (byte) string.length();
+        for (int i = 0; i < string.length(); i++) {
+            value[valueOffset + 2 + i] = (byte) string.charAt(i);
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return <code>true</code> if deleted slots take up more than a quarter of the capacity
+     */
+    boolean hasTooManyTombstones() {
+        return (used - count) * 4L > capacity;
+    }
+
+    long getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Copies all entries into a new file without tombstones. This method only reads this table, so it may run while
+     * other threads read it. The copy must be swapped in with {@link #replaceWith(MappedHashTable, long)}.
+     */
+    MappedHashTable copyWithoutTombstones() throws IOException {
+        return copy(capacity);
+    }
+
+    /**
+     * Swaps in a copy of this table unless the table was changed after the copy had been started.
+     *
+     * @param copy                      the copy of this table
+     * @param modificationCountOfCopy   the {@link #getModificationCount()} when the copy was started
+     * @return <code>true</code> if the copy was swapped in, <code>false</code> if it was discarded
+     */
+    boolean replaceWith(MappedHashTable copy, long modificationCountOfCopy) throws IOException {
+        if (modificationCount != modificationCountOfCopy) {
+            Files.deleteIfExists(copy.file);
+            return false;
+        }
+        swap(copy);
+        return true;
+    }
+
+    /**
+     * Writes the changed pages of the mapped file back to the disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    private void rehash() throws IOException {
+        int newCapacity = capacity;
+        if ((count + 1) * 200L > (long) capacity * maxLoadPercent) {
+            newCapacity = capacity * 2;
+        }
+        swap(copy(newCapacity));
+    }
+
+    private MappedHashTable copy(int newCapacity) throws IOException {
+        LOG.info("Rehashing CAS session table {} with {} entries from {} to {} slots", file, count, capacity, newCapacity);
+
+        Path rehashFile = Paths.get(file + ".rehash");
+        MappedHashTable rehashed = new MappedHashTable(rehashFile, newCapacity, maxKeySize, valueSize, maxLoadPercent);
+        Files.deleteIfExists(rehashFile);
+        rehashed.open();
+
+        byte[] value = new byte[valueSize];
+        for (int slot = 0; slot < capacity; slot++) {
+            if (buffer.get(slotOffset(slot)) != OCCUPIED) {
+                continue;
+            }
+            int valueOffset = valueOffset(slot);
+            for (int i = 0; i < valueSize; i++) {
+                value[i] = buffer.get(valueOffset + i);
+            }
+            rehashed.put(getKey(slot), value);
+        }
+        rehashed.force();
+        return rehashed;
+    }
+
+    private void swap(MappedHashTable rehashed) throws IOException {
+        Files.move(rehashed.file, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        capacity = rehashed.capacity;
+        count = rehashed.count;
+        used = rehashed.used;
+        buffer = rehashed.buffer;
+        modificationCount++;
+    }
+
+    private int findFreeSlot(String key) {
+        int mask = capacity - 1;
+        int slot = hash(key) & mask;
+        while (buffer.get(slotOffset(slot)) == OCCUPIED) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean keyEquals(int slot, String key) {
+        int offset = slotOffset(slot);
+        if (buffer.getShort(offset + SLOT_KEY_LENGTH_OFFSET) != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (buffer.get(offset + SLOT_KEY_OFFSET + i) != (byte) key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean keyEquals(int slot, MappedByteBuffer source, int sourceOffset, int length) {
+        int offset = slotOffset(slot);
+        if (buffer.getShort(offset + SLOT_KEY_LENGTH_OFFSET) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + SLOT_KEY_OFFSET + i) != source.get(sourceOffset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the key of an occupied slot
+     */
+    String getKey(int slot) {
+        int offset = slotOffset(slot);
+        int length = buffer.getShort(offset + SLOT_KEY_LENGTH_OFFSET);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + SLOT_KEY_OFFSET + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private void writeValue(int slot, byte[] value) {
+        int offset = valueOffset(slot);
+        for (int i = 0; i < value.length; i++) {
+            buffer.put(offset + i, value[i]);
+        }
+    }
+
+    private void writeCounters() {
+        buffer.putInt(COUNT_OFFSET, count);
+        buffer.putInt(USED_OFFSET, used);
+    }
+
+    private void checkKey(String key) {
+        if (key.isEmpty() || key.length() > maxKeySize) {
+            throw new IllegalArgumentException("Key " + key + " must have between 1 and " + maxKeySize + " characters");
+        }
+        if (!isAscii(key)) {
+            throw new IllegalArgumentException("Key " + key + " must only contain ASCII characters");
+        }
+    }
+
+    private static boolean isAscii(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int slotOffset(int slot) {
+        return HEADER_SIZE + slot * slotSize;
+    }
+
+    private int valueOffset(int slot) {
+        return slotOffset(slot) + SLOT_KEY_OFFSET + maxKeySize;
+    }
+
+    private void create(Path target, int slots) throws IOException {
+        long size = HEADER_SIZE + (long) slots * slotSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("CAS session table " + target + " would exceed 2 GB with " + slots + " slots");
+        }
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            header.putInt(0, MAGIC);
+            header.put(VERSION_OFFSET, VERSION);
+            header.putInt(CAPACITY_OFFSET, slots);
+            header.putInt(KEY_SIZE_OFFSET, maxKeySize);
+            header.putInt(VALUE_SIZE_OFFSET, valueSize);
+            header.force();
+        }
+    }
+
+    private MappedByteBuffer map(Path target, int slots) throws IOException {
+        long size = HEADER_SIZE + (long) slots * slotSize;
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * FNV-1a hash over the characters of the key.
+     */
+    private static int hash(String key) {
+        int hash = HASH_SEED;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= HASH_PRIME;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        int highestBit = Integer.highestOneBit(value);
+        return highestBit == value ? value : highestBit << 1;
+    }
+}
@@ -0,0 +1,351 @@
+package org.sonar.plugins.cas.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.cas.util.SimpleJwt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * This session store keeps JWTs and service tickets in two memory-mapped hash tables (see {@link MappedHashTable})
+ * below the session store path:
+ *
+ * <ul>
+ * <li><code>jwt.table</code> maps a JWT ID to its expiration date and its invalidation flag</li>
+ * <li><code>ticket.table</code> maps a service ticket to the JWT ID it was issued for</li>
+ * </ul>
+ *
+ * <p>Lookups read the mapped files directly so that they neither need a replay phase after a restart nor allocate
+ * memory on the heap. Expired entries are removed in place by {@link #removeExpiredEntries()}. The clean up searches
+ * the tables while lookups go on and locks them out only for short batches of removals.</p>
+ *
+ * <p>The tables are written through the operating system's page cache. Their content survives a crash of SonarQube
+ * but may lose the latest changes if the whole machine fails before the pages were written back. The tables are
+ * flushed after each clean up and on shutdown.</p>
+ */
+public final class MappedSessionStore implements CasSessionStore, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedSessionStore.class);
+    static final String JWT_TABLE_FILE_NAME = "jwt.table";
+    static final String TICKET_TABLE_FILE_NAME = "ticket.table";
+    static final int DEFAULT_INITIAL_CAPACITY = 65536;
+    static final int DEFAULT_MAX_LOAD_PERCENT = 70;
+    static final int DEFAULT_MAX_JWT_ID_LENGTH = 64;
+    static final int DEFAULT_MAX_SERVICE_TICKET_LENGTH = 256;
+    static final int REMOVAL_BATCH_SIZE = 256;
+
+    /**
+     * JWT value layout: expiration (8), invalid flag (1)
+     */
+    private static final int JWT_EXPIRATION_OFFSET = 0;
+    private static final int JWT_INVALID_OFFSET = 8;
+    private static final int JWT_VALUE_SIZE = 9;
+    private static final byte VALID = 0;
+    private static final byte INVALID = 1;
+
+    private final String sessionStorePath;
+    private final int maxJwtIdLength;
+    private final MappedHashTable jwtTable;
+    private final MappedHashTable ticketTable;
+    /**
+     * Lookups may run in parallel while every change needs exclusive access to the tables.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * default visibility constructor for testing
+     */
+    MappedSessionStore(String sessionStorePath) {
+        this(sessionStorePath, DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_LOAD_PERCENT, DEFAULT_MAX_JWT_ID_LENGTH,
+                DEFAULT_MAX_SERVICE_TICKET_LENGTH);
+    }
+
+    MappedSessionStore(String sessionStorePath, int initialCapacity, int maxLoadPercent, int maxJwtIdLength,
+                       int maxServiceTicketLength) {
+        this.sessionStorePath = sessionStorePath;
+        this.maxJwtIdLength = maxJwtIdLength;
+
+        Path sessionStoreDir = Paths.get(sessionStorePath);
+        this.jwtTable = new MappedHashTable(sessionStoreDir.resolve(JWT_TABLE_FILE_NAME), initialCapacity,
+                maxJwtIdLength, JWT_VALUE_SIZE, maxLoadPercent);
+        this.ticketTable = new MappedHashTable(sessionStoreDir.resolve(TICKET_TABLE_FILE_NAME), initialCapacity,
+                maxServiceTicketLength, 2 + maxJwtIdLength, maxLoadPercent);
+    }
+
+    @Override
+    public void prepareForWork() throws IOException {
+        Path sessionStoreDir = Paths.get(sessionStorePath);
+        LOG.info("Creating CAS session tables with path {}", sessionStoreDir);
+        Files.createDirectories(sessionStoreDir);
+
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            jwtTable.open();
+            ticketTable.open();
+            LOG.info("Mapped {} JWTs from CAS session table", jwtTable.size());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void store(String ticket, SimpleJwt jwt) {
+        LOG.debug("store ticket {} to token {}", ticket, jwt.getJwtId());
+
+        byte[] jwtValue = new byte[JWT_VALUE_SIZE];
+        putLong(jwtValue, jwt.getExpiration().getEpochSecond());
+        jwtValue[JWT_INVALID_OFFSET] = jwt.isInvalid() ? INVALID : VALID;
+        byte[] ticketValue = new byte[2 + maxJwtIdLength];
+
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            MappedHashTable.encodeString(jwt.getJwtId(), ticketValue, 0, maxJwtIdLength);
+            int previousSlot = jwtTable.find(jwt.getJwtId());
+            byte[] previousJwtValue = previousSlot < 0 ? null : jwtTable.getValue(previousSlot);
+            jwtTable.put(jwt.getJwtId(), jwtValue);
+            try {
+                ticketTable.put(ticket, ticketValue);
+            } catch (IOException | IllegalArgumentException e) {
+                rollBackJwt(jwt.getJwtId(), previousJwtValue);
+                throw e;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Could not store ticket " + ticket + " to token " + jwt.getJwtId() + " in the CAS session tables", e);
+            throw new CasIOAuthenticationException("An authentication problem occurred. Please let your SonarQube administrator know.");
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void rollBackJwt(String jwtId, byte[] previousJwtValue) throws IOException {
+        if (previousJwtValue != null) {
+            jwtTable.put(jwtId, previousJwtValue);
+        } else {
+            jwtTable.remove(jwtTable.find(jwtId));
+        }
+    }
+
+    @Override
+    public boolean isJwtStored(SimpleJwt jwt) {
+        boolean stored;
+
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            stored = jwtTable.find(jwt.getJwtId()) >= 0;
+        } finally {
+            readLock.unlock();
+        }
+        LOG.debug("check if JWT {} is stored: {}", jwt.getJwtId(), stored);
+
+        return stored;
+    }
+
+    @Override
+    public SimpleJwt fetchStoredJwt(SimpleJwt jwt) {
+        LOG.debug("get token {}", jwt.getJwtId());
+
+        long expiration;
+        boolean invalid;
+
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            int slot = jwtTable.find(jwt.getJwtId());
+            if (slot < 0) {
+                return SimpleJwt.getNullObject();
+            }
+            expiration = jwtTable.getLong(slot, JWT_EXPIRATION_OFFSET);
+            invalid = jwtTable.getByte(slot, JWT_INVALID_OFFSET) == INVALID;
+        } finally {
+            readLock.unlock();
+        }
+
+        SimpleJwt result = SimpleJwt.fromIdAndExpiration(jwt.getJwtId(), expiration);
+        return invalid ? result.cloneAsInvalidated() : result;
+    }
+
+    @Override
+    public String invalidateJwt(String serviceTicketId) {
+        LOG.debug("invalidate token by ticket {}", serviceTicketId);
+
+        String jwtId;
+
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            int ticketSlot = ticketTable.find(serviceTicketId);
+            if (ticketSlot < 0) {
+                return "no ticket found";
+            }
+            jwtId = ticketTable.getString(ticketSlot, 0);
+
+            int jwtSlot = jwtTable.find(jwtId);
+            if (jwtSlot < 0) {
+                return "no ticket found";
+            }
+            jwtTable.putByte(jwtSlot, JWT_INVALID_OFFSET, INVALID);
+        } finally {
+            writeLock.unlock();
+        }
+        LOG.debug("successfully invalidated token {} by ticket {}", jwtId, serviceTicketId);
+
+        return jwtId;
+    }
+
+    @Override
+    public void refreshJwt(SimpleJwt jwtWithLongerExpirationDate) {
+        String jwtId = jwtWithLongerExpirationDate.getJwtId();
+        LOG.debug("refresh token {}", jwtId);
+
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            int slot = jwtTable.find(jwtId);
+            if (slot < 0) {
+                LOG.debug("token {} is not stored and cannot be refreshed", jwtId);
+                return;
+            }
+            // the invalidation flag stays untouched so that a refresh never lifts a blacklisting
+            jwtTable.putLong(slot, JWT_EXPIRATION_OFFSET, jwtWithLongerExpirationDate.getExpiration().getEpochSecond());
+        } finally {
+            writeLock.unlock();
+        }
+        LOG.debug("successfully refreshed token {}", jwtId);
+    }
+
+    @Override
+    public int removeExpiredEntries() {
+        long now = Instant.now().getEpochSecond();
+        int removedEntries = 0;
+
+        try {
+            List<String> expiredJwtIds = collectKeys(jwtTable, slot -> isExpired(slot, now));
+            removedEntries += removeInBatches(jwtTable, expiredJwtIds, slot -> isExpired(slot, now));
+
+            List<String> orphanedTickets = collectKeys(ticketTable, this::isOrphaned);
+            removedEntries += removeInBatches(ticketTable, orphanedTickets, this::isOrphaned);
+
+            purgeTombstonesIfNecessary(jwtTable);
+            purgeTombstonesIfNecessary(ticketTable);
+        } catch (IOException e) {
+            LOG.error("Could not purge removed entries from the CAS session tables", e);
+        }
+
+        // writing the pages back to the disk may take long and needs no lock
+        jwtTable.force();
+        ticketTable.force();
+
+        return removedEntries;
+    }
+
+    private boolean isExpired(int jwtSlot, long now) {
+        return jwtTable.getLong(jwtSlot, JWT_EXPIRATION_OFFSET) < now;
+    }
+
+    private boolean isOrphaned(int ticketSlot) {
+        return jwtTable.findEncoded(ticketTable, ticketSlot, 0) < 0;
+    }
+
+    private List<String> collectKeys(MappedHashTable table, IntPredicate slotPredicate) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return table.collectKeys(slotPredicate);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the given keys in batches so that lookups are never locked out for long. Each key is checked again
+     * because it may have been changed (e.g. refreshed) since it was collected.
+     */
+    private int removeInBatches(MappedHashTable table, List<String> keys, IntPredicate slotPredicate) {
+        int removedEntries = 0;
+        Lock writeLock = lock.writeLock();
+        for (int start = 0; start < keys.size(); start += REMOVAL_BATCH_SIZE) {
+            writeLock.lock();
+            try {
+                for (String key : keys.subList(start, Math.min(start + REMOVAL_BATCH_SIZE, keys.size()))) {
+                    int slot = table.find(key);
+                    if (slot >= 0 && slotPredicate.test(slot)) {
+                        table.remove(slot);
+                        removedEntries++;
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        return removedEntries;
+    }
+
+    /**
+     * Copies the table without its tombstones while lookups go on. The copy is discarded if the table was changed in
+     * the meantime; the next clean up tries again.
+     */
+    private void purgeTombstonesIfNecessary(MappedHashTable table) throws IOException {
+        MappedHashTable copy;
+        long modificationCount;
+
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            if (!table.hasTooManyTombstones()) {
+                return;
+            }
+            modificationCount = table.getModificationCount();
+            copy = table.copyWithoutTombstones();
+        } finally {
+            readLock.unlock();
+        }
+
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            if (!table.replaceWith(copy, modificationCount)) {
+                LOG.debug("CAS session table was changed while its tombstones were purged, trying again later");
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        LOG.info("Closing CAS session tables");
+
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            jwtTable.close();
+            ticketTable.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static void putLong(byte[] target, long value) {
+        for (int i = 0; i < 8; i++) {
+            target[JWT_EXPIRATION_OFFSET + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private static class CasIOAuthenticationException extends RuntimeException {
+        CasIOAuthenticationException(String message) {
+            super(message);
+        }
+    }
+}
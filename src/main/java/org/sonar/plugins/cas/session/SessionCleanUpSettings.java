@@ -0,0 +1,81 @@
+package org.sonar.plugins.cas.session;
+
+import org.sonar.api.config.Configuration;
+import org.sonar.plugins.cas.util.SonarCasProperties;
+
+/**
+ * This class holds the limits which keep the clean-up of the {@link FileSessionStore} from competing with log-ins for
+ * disk bandwidth.
+ */
+final class SessionCleanUpSettings {
+    static final int DEFAULT_BATCH_SIZE = 1000;
+    static final int UNLIMITED = 0;
+    static final int DEFAULT_PARALLELISM = 1;
+    /**
+     * A session consists of a JWT file and a service ticket file which are removed together.
+     */
+    static final int MIN_DELETES_PER_RUN = 2;
+
+    private final int batchSize;
+    private final int maxDeletesPerSecond;
+    private final int maxDeletesPerRun;
+    private final int parallelism;
+
+    SessionCleanUpSettings(int batchSize, int maxDeletesPerSecond, int maxDeletesPerRun, int parallelism) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The clean-up batch size must be positive but was " + batchSize);
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("The clean-up parallelism must be positive but was " + parallelism);
+        }
+        this.batchSize = batchSize;
+        this.maxDeletesPerSecond = Math.max(maxDeletesPerSecond, UNLIMITED);
+        this.maxDeletesPerRun = maxDeletesPerRun <= UNLIMITED ? UNLIMITED : Math.max(maxDeletesPerRun, MIN_DELETES_PER_RUN);
+        this.parallelism = parallelism;
+    }
+
+    static SessionCleanUpSettings defaults() {
+        return new SessionCleanUpSettings(DEFAULT_BATCH_SIZE, UNLIMITED, UNLIMITED, DEFAULT_PARALLELISM);
+    }
+
+    static SessionCleanUpSettings fromConfiguration(Configuration configuration) {
+        int batchSize = SonarCasProperties.SESSION_STORE_CLEANUP_BATCH_SIZE.getInteger(configuration, DEFAULT_BATCH_SIZE);
+        int maxDeletesPerSecond = SonarCasProperties.SESSION_STORE_CLEANUP_MAX_DELETES_PER_SECOND
+                .getInteger(configuration, UNLIMITED);
+        int maxDeletesPerRun = SonarCasProperties.SESSION_STORE_CLEANUP_MAX_DELETES_PER_RUN
+                .getInteger(configuration, UNLIMITED);
+        int parallelism = SonarCasProperties.SESSION_STORE_CLEANUP_PARALLELISM
+                .getInteger(configuration, DEFAULT_PARALLELISM);
+
+        return new SessionCleanUpSettings(batchSize, maxDeletesPerSecond, maxDeletesPerRun, parallelism);
+    }
+
+    /**
+     * @return the number of sessions which are removed before the clean-up yields
+     */
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the maximal number of deleted files per second or {@link #UNLIMITED}
+     */
+    int getMaxDeletesPerSecond() {
+        return maxDeletesPerSecond;
+    }
+
+    /**
+     * @return the maximal number of deleted files per clean-up run, at least {@link #MIN_DELETES_PER_RUN}, or
+     * {@link #UNLIMITED}
+     */
+    int getMaxDeletesPerRun() {
+        return maxDeletesPerRun;
+    }
+
+    /**
+     * @return the number of threads which delete files in parallel
+     */
+    int getParallelism() {
+        return parallelism;
+    }
+}
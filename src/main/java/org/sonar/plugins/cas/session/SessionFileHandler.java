@@ -1,18 +1,34 @@
 package org.sonar.plugins.cas.session;
 
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sonar.plugins.cas.util.JwtFiles;
 import org.sonar.plugins.cas.util.SimpleJwt;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class handles all the necessary file actions towards JWT and Service Ticket files for {@link FileSessionStore}.
  */
 class SessionFileHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionFileHandler.class);
+    static final String SERVICE_TICKET_PREFIX = "ST-";
+    /**
+     * JWT files are written to a file with this suffix first and then moved to their final name.
+     */
+    static final String TEMP_FILE_SUFFIX = ".tmp";
 
     private String sessionStorePath;
 
@@ -30,7 +46,91 @@ class SessionFileHandler {
         return JwtFiles.unmarshal(filePath);
     }
 
+    /**
+     * Reads all JWT files from the session store directory. Service ticket files and files which cannot be parsed as
+     * JWT are skipped. JWT files in the legacy XML format are migrated into the binary format on the way.
+     *
+     * @return all JWTs and their service tickets which are currently persisted in the session store directory
+     */
+    List<JwtFiles.JwtFileContent> readAllJwtFiles() throws IOException {
+        List<JwtFiles.JwtFileContent> jwts = new ArrayList<>();
+        Path dir = Paths.get(sessionStorePath);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, this::isJwtFileCandidate)) {
+            for (Path file : files) {
+                if (isTempFile(file)) {
+                    removeLeftOverTempFile(file);
+                    continue;
+                }
+                JwtFiles.JwtFileContent jwtFile;
+                try {
+                    jwtFile = JwtFiles.unmarshalWithServiceTicket(file);
+                } catch (Exception e) {
+                    LOG.warn("Could not read JWT file {}. The file will be ignored.", file);
+                    continue;
+                }
+                if (jwtFile.isLegacyFormat()) {
+                    migrateLegacyJwtFile(file, jwtFile.getJwt());
+                }
+                jwts.add(jwtFile);
+            }
+        }
+
+        return jwts;
+    }
+
+    private static boolean isTempFile(Path file) {
+        return file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX);
+    }
+
+    /**
+     * A temporary file is left over if the server stopped between writing and moving a JWT file. The JWT file itself
+     * still holds its previous content.
+     */
+    private static void removeLeftOverTempFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Could not remove left over temporary file {}", file, e);
+        }
+    }
+
+    /**
+     * Rewrites a JWT file of an older plugin version in the binary format so that subsequent reads do not involve any
+     * XML processing. The new file is synced before it replaces the XML file, so that a failed or interrupted migration
+     * leaves the readable XML file behind and the next server start tries again.
+     */
+    private void migrateLegacyJwtFile(Path file, SimpleJwt jwt) {
+        LOG.debug("Migrating legacy XML JWT file {} into the binary format", file);
+        Path tempPath = Paths.get(sessionStorePath, file.getFileName() + TEMP_FILE_SUFFIX);
+        try {
+            JwtFiles.marshalIntoNewFile(tempPath, jwt);
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            moveIntoPlace(tempPath, file);
+        } catch (Exception e) {
+            LOG.warn("Could not migrate legacy JWT file {}. The file stays in the XML format.", file, e);
+            removeLeftOverTempFile(tempPath);
+        }
+    }
+
+    private boolean isJwtFileCandidate(Path file) {
+        return Files.isRegularFile(file) && !file.getFileName().toString().startsWith(SERVICE_TICKET_PREFIX);
+    }
+
     void writeJwtFile(String jwtId, SimpleJwt jwt) {
+        writeJwtFile(jwtId, jwt, "");
+    }
+
+    /**
+     * Writes the JWT file together with the service ticket the JWT was issued for. The service ticket serves as
+     * reverse mapping so that the service ticket file can be removed without searching all service ticket files.
+     *
+     * <p>The file is written next to its final location and then moved atomically. A concurrent reader sees either the
+     * old or the new file but never a missing or half-written one.</p>
+     */
+    void writeJwtFile(String jwtId, SimpleJwt jwt, String serviceTicket) {
         if (StringUtils.isEmpty(jwtId)) {
             throw new IllegalArgumentException("Could not writeJwtFile JWT: jwtId must not be null");
         }
@@ -38,11 +138,33 @@ class SessionFileHandler {
             throw new IllegalArgumentException("Could not writeJwtFile JWT: jwt must not be null");
         }
 
+        try {
+            writeJwtFileAtomically(jwtId, jwt, serviceTicket);
+        } catch (IOException e) {
+            throw new JwtFileMoveException("Could not move JWT file " + jwtId + " into place", e);
+        }
+    }
+
+    private void writeJwtFileAtomically(String jwtId, SimpleJwt jwt, String serviceTicket) throws IOException {
         Path path = Paths.get(sessionStorePath, jwtId);
+        Path tempPath = Paths.get(sessionStorePath, jwtId + TEMP_FILE_SUFFIX);
 
-        JwtFiles.marshalIntoNewFile(path, jwt);
+        JwtFiles.marshalIntoNewFile(tempPath, jwt, serviceTicket);
+        moveIntoPlace(tempPath, path);
+    }
+
+    private static void moveIntoPlace(Path tempPath, Path path) throws IOException {
+        try {
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOG.debug("File system does not support atomic moves. Replacing {} non-atomically", path);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
+    /**
+     * Replaces an existing JWT file atomically and keeps its service ticket.
+     */
     void replaceJwtFile(String jwtId, SimpleJwt invalidated) throws IOException {
         if (StringUtils.isEmpty(jwtId)) {
             throw new IllegalArgumentException("Could not replaceJwtFile JWT: jwtId must not be null");
@@ -52,9 +174,24 @@ class SessionFileHandler {
         }
 
         Path path = Paths.get(sessionStorePath, jwtId);
-        Files.delete(path);
+        if (!Files.exists(path)) {
+            throw new NoSuchFileException(path.toString());
+        }
+        String serviceTicket = readServiceTicketOfJwtFile(path);
+
+        writeJwtFileAtomically(jwtId, invalidated, serviceTicket);
+    }
 
-        writeJwtFile(jwtId, invalidated);
+    /**
+     * Keeps the reverse mapping of a JWT file which is about to be replaced.
+     */
+    private String readServiceTicketOfJwtFile(Path path) {
+        try {
+            return JwtFiles.unmarshalWithServiceTicket(path).getServiceTicket();
+        } catch (Exception e) {
+            LOG.debug("Could not read service ticket of JWT file {}", path, e);
+            return "";
+        }
     }
 
     void createServiceTicketFile(String serviceTicket, SimpleJwt jwt) throws IOException {
@@ -75,4 +212,10 @@ class SessionFileHandler {
         byte[] bytes = Files.readAllBytes(path);
         return new String(bytes);
     }
+
+    private static class JwtFileMoveException extends RuntimeException {
+        JwtFileMoveException(String message, IOException cause) {
+            super(message, cause);
+        }
+    }
 }
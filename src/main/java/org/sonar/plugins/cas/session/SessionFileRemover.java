@@ -1,21 +1,26 @@
 package org.sonar.plugins.cas.session;
 
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Striped;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sonar.plugins.cas.util.JwtFiles;
-import org.sonar.plugins.cas.util.SimpleJwt;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 /**
  * This class cleans up expired files created by the {@link FileSessionStore}.
@@ -24,99 +29,269 @@ import java.util.stream.Stream;
  * creates both an JWT file and a Service Ticket file in order to manage the session. Once the JWT session is expired
  * (which is usually longer than the actual log-in duration) both files must be removed for house keeping reasons.
  * </p>
+ *
+ * <p>The FileSessionStore knows its expired sessions from its {@link ExpirationWheel} so that both files are removed
+ * without listing or parsing any other file. Only JWT files written by older plugin versions lack the service ticket.
+ * Their service tickets are searched among all service ticket files.</p>
+ *
+ * <p>The files of a session are deleted while the session's lock is held. The {@link RemovalGuard} checks the session
+ * again under this lock so that a session which was refreshed in the meantime keeps its files. The lock is shared with
+ * requests of other sessions, so the clean-up waits for the rate limit before it takes the lock.</p>
+ *
+ * <p>Deletions may be limited per second and per run. Before a session is removed, the clean-up reserves the deletes
+ * of all its files from the run's budget so that a session is either removed completely or left for the next run.
+ * Reserved deletes of files which did not exist are given back. The clean-up yields to other threads after each
+ * {@link SessionCleanUpSettings#getBatchSize()} sessions. With a {@link SessionCleanUpSettings#getParallelism()} above
+ * 1 several worker threads take sessions from the same queue and delete their files in parallel. The limits apply to
+ * all workers together. The worker threads belong to the caller so that they are reused by all clean-up runs.</p>
  */
 class SessionFileRemover {
     private static final Logger LOG = LoggerFactory.getLogger(SessionFileRemover.class);
-    private static final String SERVICE_TICKET_PREFIX = "ST-";
-    private static final String JWT_FILE_REGEX = "[a-zA-Z0-9]{20}";
-    private static final Pattern JWT_FILE_PATTERN = Pattern.compile(JWT_FILE_REGEX);
-    private String sessionStorePath;
+    private final String sessionStorePath;
+    private final SessionCleanUpSettings settings;
+    private final RateLimiter deleteRateLimiter;
+    private final Striped<Lock> sessionLocks;
+    private final RemovalGuard removalGuard;
+    private final ExecutorService executor;
+    private final AtomicInteger remainingDeletes = new AtomicInteger();
 
     SessionFileRemover(String sessionStorePath) {
+        this(sessionStorePath, SessionCleanUpSettings.defaults());
+    }
+
+    SessionFileRemover(String sessionStorePath, SessionCleanUpSettings settings) {
+        this(sessionStorePath, settings, null);
+    }
+
+    SessionFileRemover(String sessionStorePath, SessionCleanUpSettings settings, ExecutorService executor) {
+        this(sessionStorePath, settings, Striped.lock(1), RemovalGuard.ALWAYS, executor);
+    }
+
+    /**
+     * @param sessionLocks the locks which serialize all changes of a session, keyed by JWT ID
+     * @param removalGuard decides under the session's lock whether the session's files may be deleted
+     * @param executor     runs the workers of a parallel clean-up; the files are removed on the calling thread if
+     *                     <code>null</code>
+     */
+    SessionFileRemover(String sessionStorePath, SessionCleanUpSettings settings, Striped<Lock> sessionLocks,
+                       RemovalGuard removalGuard, ExecutorService executor) {
         this.sessionStorePath = sessionStorePath;
+        this.settings = settings;
+        this.sessionLocks = sessionLocks;
+        this.removalGuard = removalGuard;
+        this.executor = executor;
+        this.deleteRateLimiter = settings.getMaxDeletesPerSecond() == SessionCleanUpSettings.UNLIMITED
+                ? null : RateLimiter.create(settings.getMaxDeletesPerSecond());
     }
 
     /**
-     * Finds expired JWTs and removes associated JWT and Service Ticket files.
+     * Removes JWT and Service Ticket files of the given expired sessions. Sessions are taken from the queue as they
+     * are processed. Sessions which remain in the queue were not processed because the clean-up reached
+     * {@link SessionCleanUpSettings#getMaxDeletesPerRun()}.
+     *
+     * @param expiredSessions the sessions to be removed. The queue must be thread-safe if the clean-up runs in parallel.
      * @return the number of actually removed files for both JWT and service ticket files.
      */
-    int cleanUp() {
-    // TODO add batch sizes for chunk-wise processing
-        List<String> expiredJwtIds = findExpiredJwts();
+    int removeSessions(Queue<ExpirationWheel.ExpiringSession> expiredSessions) {
+        remainingDeletes.set(settings.getMaxDeletesPerRun() == SessionCleanUpSettings.UNLIMITED
+                ? Integer.MAX_VALUE : settings.getMaxDeletesPerRun());
+
+        Set<String> expiredJwtIdsWithoutServiceTicket = ConcurrentHashMap.newKeySet();
+        int removalCounter;
+        if (executor != null && settings.getParallelism() > 1) {
+            removalCounter = removeSessionsInParallel(expiredSessions, expiredJwtIdsWithoutServiceTicket);
+        } else {
+            removalCounter = removeSessionsFromQueue(expiredSessions, expiredJwtIdsWithoutServiceTicket);
+        }
 
-        Collection<Path> candidatesForRemoval = findFilesToBeRemoved(expiredJwtIds);
+        if (!expiredJwtIdsWithoutServiceTicket.isEmpty()) {
+            LOG.debug("Searching service tickets of {} JWT files without reverse mapping",
+                    expiredJwtIdsWithoutServiceTicket.size());
+            removalCounter += removeServiceTicketsByJwtId(expiredJwtIdsWithoutServiceTicket);
+        }
 
-        return removeFile(candidatesForRemoval);
+        if (!expiredSessions.isEmpty()) {
+            LOG.info("CAS session clean-up reached the limit of {} deleted files. {} sessions will be removed by the next run",
+                    settings.getMaxDeletesPerRun(), expiredSessions.size());
+        }
+
+        return removalCounter;
     }
 
-    private List<String> findExpiredJwts() {
-        Collection<Path> allJwtFiles = listAllJwtFiles();
-        // makes sure we really have JWTs at hand and don't delete anything else
-        List<SimpleJwt> jwts = parseJwtFiles(allJwtFiles);
+    private int removeSessionsInParallel(Queue<ExpirationWheel.ExpiringSession> expiredSessions,
+                                         Set<String> expiredJwtIdsWithoutServiceTicket) {
+        List<Future<Integer>> workers = new ArrayList<>(settings.getParallelism());
+        try {
+            for (int i = 0; i < settings.getParallelism(); i++) {
+                workers.add(executor.submit(() -> removeSessionsFromQueue(expiredSessions, expiredJwtIdsWithoutServiceTicket)));
+            }
 
-        jwts = findExpiredJwts(jwts);
+            int removalCounter = 0;
+            for (Future<Integer> worker : workers) {
+                removalCounter += waitForWorker(worker);
+            }
+            return removalCounter;
+        } finally {
+            // stops the workers if the clean-up was interrupted; finished workers are not affected
+            for (Future<Integer> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+    }
 
-        return convertJwtsToIds(jwts);
+    private int waitForWorker(Future<Integer> worker) {
+        try {
+            return worker.get();
+        } catch (InterruptedException e) {
+            LOG.warn("CAS session clean-up was interrupted");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("CAS session clean-up worker failed", e.getCause());
+        }
+        return 0;
     }
 
-    private int removeFile(Collection<Path> candidatesForRemoval) {
+    private int removeSessionsFromQueue(Queue<ExpirationWheel.ExpiringSession> expiredSessions,
+                                        Set<String> expiredJwtIdsWithoutServiceTicket) {
         int removalCounter = 0;
-        for (Path path : candidatesForRemoval) {
-            try {
-                Files.delete(path);
-            } catch (IOException e) {
-                LOG.error("Could not delete file.", e);
+        int processedSessions = 0;
+
+        while (!isDeleteBudgetExhausted() && !Thread.currentThread().isInterrupted()) {
+            ExpirationWheel.ExpiringSession session = expiredSessions.poll();
+            if (session == null) {
+                break;
+            }
+
+            int sessionFiles = isServiceTicketFileName(session.getServiceTicket()) ? 2 : 1;
+            if (!reserveDeletes(sessionFiles)) {
+                // the session is left for the next run
+                expiredSessions.offer(session);
+                break;
+            }
+
+            removalCounter += removeSession(session, sessionFiles, expiredJwtIdsWithoutServiceTicket);
+
+            if (++processedSessions % settings.getBatchSize() == 0) {
+                // give way to log-ins and requests before the next batch is processed
+                Thread.yield();
             }
-            ++removalCounter;
         }
 
         return removalCounter;
     }
 
-    private Collection<Path> findFilesToBeRemoved(List<String> expiredJwtIds) {
-        int expectedJwtAndServiceTicketCount = expiredJwtIds.size() * 2;
-        List<Path> candidatesForRemoval = new ArrayList<>(expectedJwtAndServiceTicketCount);
-
-        List<Path> jwtFiles = convertJwtIdsToPaths(expiredJwtIds);
-        candidatesForRemoval.addAll(jwtFiles);
+    /**
+     * @param sessionFiles the number of deletes which were reserved for the session
+     */
+    private int removeSession(ExpirationWheel.ExpiringSession session, int sessionFiles,
+                              Set<String> expiredJwtIdsWithoutServiceTicket) {
+        acquireDeletePermits(sessionFiles);
 
-        Collection<Path> ticketFiles = findServiceTicketFilesByJwtId(expiredJwtIds);
-        candidatesForRemoval.addAll(ticketFiles);
+        int removalCounter = 0;
+        Lock lock = sessionLocks.get(session.getJwtId());
+        lock.lock();
+        try {
+            if (!removalGuard.isRemovable(session)) {
+                LOG.debug("Keeping files of session {} which was refreshed during the clean-up", session.getJwtId());
+            } else {
+                String serviceTicket = session.getServiceTicket();
+                if (isServiceTicketFileName(serviceTicket)) {
+                    removalCounter += deleteIfExists(Paths.get(sessionStorePath, serviceTicket));
+                } else {
+                    expiredJwtIdsWithoutServiceTicket.add(session.getJwtId());
+                }
+                removalCounter += deleteIfExists(Paths.get(sessionStorePath, session.getJwtId()));
+                removalGuard.onRemoved(session);
+            }
+        } finally {
+            lock.unlock();
+        }
 
-        return candidatesForRemoval;
+        remainingDeletes.addAndGet(sessionFiles - removalCounter);
+        return removalCounter;
     }
 
-    List<String> convertJwtsToIds(List<SimpleJwt> jwts) {
-        return jwts.stream()
-                .map(SimpleJwt::getJwtId)
-                .collect(Collectors.toList());
+    private int removeServiceTicketsByJwtId(Set<String> expiredJwtIds) {
+        int removalCounter = 0;
+
+        try (DirectoryStream<Path> ticketFiles = Files.newDirectoryStream(Paths.get(sessionStorePath), SessionFileRemover::isServiceTicketFile)) {
+            for (Path ticketFile : ticketFiles) {
+                if (expiredJwtIds.isEmpty() || isDeleteBudgetExhausted()) {
+                    break;
+                }
+                if (isServiceTicketOfJwtIds(ticketFile, expiredJwtIds) && reserveDeletes(1)) {
+                    acquireDeletePermits(1);
+                    int removed = deleteIfExists(ticketFile);
+                    remainingDeletes.addAndGet(1 - removed);
+                    removalCounter += removed;
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Could not list service ticket files in CAS session store " + sessionStorePath, e);
+        }
+
+        return removalCounter;
     }
 
-    private List<Path> convertJwtIdsToPaths(List<String> expiredJwtIds) {
-        // from earlier listing and parsing we know these expired files exist
-        return expiredJwtIds.stream()
-                .map(expiredId -> Paths.get(sessionStorePath, expiredId))
-                .collect(Collectors.toList());
+    /**
+     * Service tickets are taken from file content. Make sure they cannot point outside of the session store.
+     */
+    private static boolean isServiceTicketFileName(String serviceTicket) {
+        return serviceTicket.startsWith(SessionFileHandler.SERVICE_TICKET_PREFIX)
+                && serviceTicket.indexOf('/') < 0
+                && serviceTicket.indexOf('\\') < 0;
     }
 
-    Collection<Path> findServiceTicketFilesByJwtId(List<String> expiredJwtIds) {
-        Collection<Path> allServiceTickets = listAllServiceTickets();
+    private static boolean isServiceTicketFile(Path file) {
+        return file.getFileName().toString().startsWith(SessionFileHandler.SERVICE_TICKET_PREFIX);
+    }
 
-        return filterServiceTicketsWithJwtIds(allServiceTickets, expiredJwtIds);
+    private boolean isDeleteBudgetExhausted() {
+        return remainingDeletes.get() <= 0;
     }
 
-    private Collection<Path> filterServiceTicketsWithJwtIds(Collection<Path> serviceTicketFiles, List<String> expiredJwtIds) {
-        List<Path> ticketsToBeRemoved = new ArrayList<>();
-        List<String> expiredJwtIdsCopy = new ArrayList<>(expiredJwtIds);
+    /**
+     * Takes the given number of deletes from the budget of the run.
+     *
+     * @return <code>false</code> if the budget does not suffice; nothing is taken then
+     */
+    private boolean reserveDeletes(int deletes) {
+        int remaining;
+        do {
+            remaining = remainingDeletes.get();
+            if (remaining < deletes) {
+                return false;
+            }
+        } while (!remainingDeletes.compareAndSet(remaining, remaining - deletes));
+        return true;
+    }
 
-        for (Path ticketFile : serviceTicketFiles) {
-            filterServiceTicketWithJwtIds(ticketsToBeRemoved, expiredJwtIdsCopy, ticketFile);
+    /**
+     * Waits until the given number of deletes fits into {@link SessionCleanUpSettings#getMaxDeletesPerSecond()}. Must
+     * not be called while a session lock is held.
+     */
+    private void acquireDeletePermits(int deletes) {
+        if (deleteRateLimiter != null) {
+            deleteRateLimiter.acquire(deletes);
         }
+    }
 
-        return ticketsToBeRemoved;
+    private static int deleteIfExists(Path file) {
+        try {
+            if (Files.deleteIfExists(file)) {
+                return 1;
+            }
+        } catch (IOException e) {
+            LOG.error("Could not delete file.", e);
+        }
+        return 0;
     }
 
-    private void filterServiceTicketWithJwtIds(List<Path> ticketsToBeRemoved, List<String> jwtIds, Path ticketFile) {
+    /**
+     * Checks whether the service ticket file points to one of the given JWT IDs. A matching JWT ID is removed from the
+     * set to reduce the search complexity.
+     */
+    private boolean isServiceTicketOfJwtIds(Path ticketFile, Set<String> jwtIds) {
         String ticketFileRaw = ticketFile.toString();
         String jwtIdToBeCompared;
 
@@ -126,70 +301,41 @@ class SessionFileRemover {
             jwtIdToBeCompared = new String(fileContent, StandardCharsets.US_ASCII).trim();
         } catch (IOException e) {
             LOG.error("Could not filter Service Ticket " + ticketFileRaw + " for removal", e);
-            return;
+            return false;
         }
 
-        if (jwtIds.contains(jwtIdToBeCompared)) {
+        if (jwtIds.remove(jwtIdToBeCompared)) {
             LOG.debug("Found Service Ticket {} for removal", ticketFileRaw);
-            ticketsToBeRemoved.add(ticketFile);
-            // reduce search complexity
-            jwtIds.remove(jwtIdToBeCompared);
-        }
-    }
-
-    Collection<Path> listAllServiceTickets() {
-        Stream<Path> list = listSessionStorePath();
-        return list.filter(file -> file.getFileName().toString().startsWith(SERVICE_TICKET_PREFIX))
-                .collect(Collectors.toList());
-    }
-
-    private Stream<Path> listSessionStorePath() {
-        Path dir = Paths.get(sessionStorePath);
-        try {
-            return Files.list(dir);
-        } catch (IOException e) {
-            throw new RuntimeException("Could not list files in CAS file session writeJwtFile", e);
+            return true;
         }
+        return false;
     }
 
-    void removeServiceTickets(String... serviceTicketFileNames) {
-        for (String serviceTicketFileName : serviceTicketFileNames) {
-            removeServiceTicket(serviceTicketFileName);
-        }
-    }
-
-    private void removeServiceTicket(String serviceTicketFileName) {
-        try {
-            Path file = Paths.get(sessionStorePath, serviceTicketFileName);
-            Files.delete(file);
-        } catch (IOException e) {
-            LOG.error("Could not delete Service Ticket file from file session writeJwtFile", e);
-        }
-    }
-
-    Collection<Path> listAllJwtFiles() {
-        return listSessionStorePath()
-                .filter(file -> JWT_FILE_PATTERN.matcher(file.getFileName().toString()).matches())
-                .collect(Collectors.toList());
-    }
-
-    List<SimpleJwt> parseJwtFiles(Collection<Path> foundFiles) {
-        List<SimpleJwt> list = new ArrayList<>(foundFiles.size());
+    /**
+     * Lets the session store take part in the removal of each expired session. Both methods are called while the
+     * session's lock is held.
+     */
+    interface RemovalGuard {
+        RemovalGuard ALWAYS = new RemovalGuard() {
+            @Override
+            public boolean isRemovable(ExpirationWheel.ExpiringSession session) {
+                return true;
+            }
 
-        for (Path file : foundFiles) {
-            try {
-                SimpleJwt jwt = JwtFiles.unmarshal(file);
-                list.add(jwt);
-            } catch(Exception e) {
-                LOG.error("Could not parse JWT file.", e);
+            @Override
+            public void onRemoved(ExpirationWheel.ExpiringSession session) {
+                // nothing to forget
             }
-        }
-        return list;
-    }
+        };
+
+        /**
+         * @return <code>true</code> if the session is still expired and its files may be deleted
+         */
+        boolean isRemovable(ExpirationWheel.ExpiringSession session);
 
-    List<SimpleJwt> findExpiredJwts(List<SimpleJwt> unfiltered) {
-        return unfiltered.stream()
-                .filter(SimpleJwt::isExpired)
-                .collect(Collectors.toList());
+        /**
+         * Is called after the files of the session were deleted.
+         */
+        void onRemoved(ExpirationWheel.ExpiringSession session);
     }
 }
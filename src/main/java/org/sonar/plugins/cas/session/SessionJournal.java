@@ -0,0 +1,337 @@
+package org.sonar.plugins.cas.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * This class maintains the append-only journal file of the {@link JournalSessionStore}.
+ *
+ * <p>The journal starts with a file header followed by any number of records with the following big-endian layout:</p>
+ * <pre>
+ * size  field
+ *    1  record type, see {@link JournalRecord.Type}
+ *    4  length p of the payload
+ *    p  payload: JWT ID length (2), JWT ID, expiration (8), service ticket length (2), service ticket
+ *    4  CRC32 checksum of type and payload
+ * </pre>
+ *
+ * <h2>Crash safety</h2>
+ * <p>
+ * A record is durable once {@link #sync(long)} returned for the position that {@link #append(JournalRecord)} returned.
+ * Concurrent callers share a single <code>fsync</code>: whoever syncs first flushes all records that were appended so
+ * far so that the other callers return without touching the disk again. A torn record at the end of the journal (for
+ * example after a power loss during a write) is detected by its length or checksum and cut off during replay.
+ * </p>
+ */
+class SessionJournal implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionJournal.class);
+    static final String JOURNAL_FILE_NAME = "session.journal";
+    private static final String COMPACTION_FILE_NAME = "session.journal.compact";
+    private static final int FILE_MAGIC = 0x434A524E;
+    private static final byte FILE_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 5;
+    private static final int RECORD_HEADER_SIZE = 5;
+    private static final int CHECKSUM_SIZE = 4;
+    /**
+     * Upper bound of a record payload. Anything larger can only be the result of a corrupted length field.
+     */
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+
+    private final Path journalFile;
+    private final Path compactionFile;
+    private final Object syncLock = new Object();
+
+    private FileChannel channel;
+    private volatile long appendPosition;
+    private volatile long syncedPosition;
+    private int recordCount;
+
+    SessionJournal(Path sessionStoreDir) {
+        this.journalFile = sessionStoreDir.resolve(JOURNAL_FILE_NAME);
+        this.compactionFile = sessionStoreDir.resolve(COMPACTION_FILE_NAME);
+    }
+
+    /**
+     * Opens the journal file and replays all existing records in the order of their occurrence. A new journal file is
+     * created if none exists.
+     *
+     * @param replayConsumer receives each record found in the journal
+     */
+    synchronized void open(Consumer<JournalRecord> replayConsumer) throws IOException {
+        Files.deleteIfExists(compactionFile);
+
+        boolean newJournal = !Files.exists(journalFile) || Files.size(journalFile) == 0;
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (newJournal) {
+            writeFileHeader(channel);
+            appendPosition = FILE_HEADER_SIZE;
+        } else {
+            appendPosition = replay(replayConsumer);
+            if (appendPosition < channel.size()) {
+                LOG.warn("Found a torn record at the end of the CAS session journal {}. Truncating the journal to {} bytes",
+                        journalFile, appendPosition);
+                channel.truncate(appendPosition);
+            }
+        }
+
+        channel.force(true);
+        syncedPosition = appendPosition;
+    }
+
+    private long replay(Consumer<JournalRecord> replayConsumer) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+
+        if (input.readInt() != FILE_MAGIC) {
+            throw new IOException("File " + journalFile + " is not a CAS session journal");
+        }
+        byte version = input.readByte();
+        if (version != FILE_VERSION) {
+            throw new IOException("CAS session journal " + journalFile + " has the unsupported version " + version);
+        }
+
+        long position = FILE_HEADER_SIZE;
+        recordCount = 0;
+        while (true) {
+            JournalRecord record;
+            int recordSize;
+            try {
+                byte type = input.readByte();
+                int payloadSize = input.readInt();
+                if (payloadSize < 0 || payloadSize > MAX_PAYLOAD_SIZE) {
+                    break;
+                }
+                byte[] payload = new byte[payloadSize];
+                input.readFully(payload);
+                int checksum = input.readInt();
+                if (checksum != checksum(type, payload)) {
+                    break;
+                }
+
+                record = decode(JournalRecord.Type.fromCode(type), payload);
+                recordSize = RECORD_HEADER_SIZE + payloadSize + CHECKSUM_SIZE;
+            } catch (EOFException e) {
+                break;
+            } catch (RuntimeException e) {
+                LOG.warn("Could not decode CAS session journal record at position " + position, e);
+                break;
+            }
+
+            replayConsumer.accept(record);
+            position += recordSize;
+            recordCount++;
+        }
+
+        LOG.debug("Replayed {} records from CAS session journal {}", recordCount, journalFile);
+        return position;
+    }
+
+    /**
+     * Appends a record to the journal. The record is not necessarily durable before {@link #sync(long)} was called.
+     *
+     * @param record the record to be appended
+     * @return the journal position after the appended record which can be passed to {@link #sync(long)}
+     */
+    synchronized long append(JournalRecord record) throws IOException {
+        ByteBuffer buffer = encode(record);
+        long position = appendPosition;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        appendPosition = position;
+        recordCount++;
+
+        return position;
+    }
+
+    /**
+     * Makes sure that all records up to the given position are persisted on the storage device.
+     *
+     * @param position a position as returned by {@link #append(JournalRecord)}
+     */
+    void sync(long position) throws IOException {
+        if (syncedPosition >= position) {
+            return;
+        }
+
+        synchronized (syncLock) {
+            if (syncedPosition >= position) {
+                return;
+            }
+
+            long appendedSoFar = appendPosition;
+            channel.force(false);
+            syncedPosition = appendedSoFar;
+        }
+    }
+
+    /**
+     * Starts to replace the whole journal with the given records. The compaction takes three steps so that appends are
+     * only blocked during the first and the last one:
+     * <ol>
+     *     <li>{@link #startCompaction(Collection)} remembers the current end of the journal. Callers must make sure that
+     *     no records are appended concurrently while they collect the live records and call this method.</li>
+     *     <li>{@link #writeCompaction(Compaction)} writes the live records into a temporary file while records are
+     *     still appended to the old journal.</li>
+     *     <li>{@link #finishCompaction(Compaction)} copies the records which were appended since the start behind the
+     *     live records and atomically replaces the old journal so that a crash during compaction leaves either the old
+     *     or the new journal.</li>
+     * </ol>
+     * Only one compaction may run at a time.
+     *
+     * @param liveRecords the records which describe the complete current state of the session store
+     */
+    synchronized Compaction startCompaction(Collection<JournalRecord> liveRecords) {
+        return new Compaction(liveRecords, appendPosition, recordCount);
+    }
+
+    void writeCompaction(Compaction compaction) throws IOException {
+        try (FileChannel compacted = FileChannel.open(compactionFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFileHeader(compacted);
+            long position = FILE_HEADER_SIZE;
+            for (JournalRecord record : compaction.liveRecords) {
+                ByteBuffer buffer = encode(record);
+                while (buffer.hasRemaining()) {
+                    position += compacted.write(buffer, position);
+                }
+            }
+            compacted.force(true);
+            compaction.compactedPosition = position;
+        } catch (IOException e) {
+            Files.deleteIfExists(compactionFile);
+            throw e;
+        }
+    }
+
+    synchronized void finishCompaction(Compaction compaction) throws IOException {
+        int oldRecordCount = recordCount;
+        long appendedSinceStart = appendPosition - compaction.startPosition;
+
+        long position = compaction.compactedPosition;
+        try (FileChannel compacted = FileChannel.open(compactionFile, StandardOpenOption.WRITE)) {
+            compacted.position(position);
+            long copied = 0;
+            while (copied < appendedSinceStart) {
+                copied += channel.transferTo(compaction.startPosition + copied, appendedSinceStart - copied, compacted);
+            }
+            compacted.force(true);
+            position += appendedSinceStart;
+        } catch (IOException e) {
+            Files.deleteIfExists(compactionFile);
+            throw e;
+        }
+
+        synchronized (syncLock) {
+            channel.close();
+            Files.move(compactionFile, journalFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            channel = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            appendPosition = position;
+            syncedPosition = position;
+            recordCount = compaction.liveRecords.size() + oldRecordCount - compaction.startRecordCount;
+        }
+
+        LOG.debug("Compacted CAS session journal from {} to {} records", oldRecordCount, recordCount);
+    }
+
+    synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    private static void writeFileHeader(FileChannel target) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(FILE_MAGIC).put(FILE_VERSION).flip();
+        target.write(header, 0);
+    }
+
+    static ByteBuffer encode(JournalRecord record) {
+        byte[] jwtId = record.getJwtId().getBytes(StandardCharsets.UTF_8);
+        byte[] ticket = record.getServiceTicket().getBytes(StandardCharsets.UTF_8);
+        if (jwtId.length > Short.MAX_VALUE || ticket.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Cannot write journal record " + record + ": an identifier is too long");
+        }
+
+        int payloadSize = 2 + jwtId.length + 8 + 2 + ticket.length;
+        ByteBuffer payload = ByteBuffer.allocate(payloadSize);
+        payload.putShort((short) jwtId.length)
+                .put(jwtId)
+                .putLong(record.getExpiration())
+                .putShort((short) ticket.length)
+                .put(ticket);
+
+        byte type = record.getType().code;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadSize + CHECKSUM_SIZE);
+        buffer.put(type)
+                .putInt(payloadSize)
+                .put(payload.array())
+                .putInt(checksum(type, payload.array()));
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static JournalRecord decode(JournalRecord.Type type, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        String jwtId = readString(buffer);
+        long expiration = buffer.getLong();
+        String ticket = readString(buffer);
+
+        return new JournalRecord(type, ticket, jwtId, expiration);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+
+        return value;
+    }
+
+    /**
+     * A compaction which was started by {@link #startCompaction(Collection)}.
+     */
+    static final class Compaction {
+        private final Collection<JournalRecord> liveRecords;
+        private final long startPosition;
+        private final int startRecordCount;
+        private long compactedPosition;
+
+        private Compaction(Collection<JournalRecord> liveRecords, long startPosition, int startRecordCount) {
+            this.liveRecords = liveRecords;
+            this.startPosition = startPosition;
+            this.startRecordCount = startRecordCount;
+        }
+    }
+
+    private static int checksum(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+}
@@ -1,5 +1,6 @@
 package org.sonar.plugins.cas.session;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.config.Configuration;
@@ -8,19 +9,47 @@ import org.sonar.api.platform.ServerStartHandler;
 import org.sonar.api.server.ServerSide;
 import org.sonar.plugins.cas.util.SonarCasProperties;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * This class removes expired entries from the CAS session store in the background.
+ *
+ * <p>Each clean-up run schedules the next one after it finished (fixed delay). Runs therefore never overlap and do not
+ * pile up after a long garbage collection or a suspended machine. A run that fails is logged and does not stop
+ * further runs.</p>
+ *
+ * <p>The delay adapts to the amount of work: it is halved down to
+ * {@link SonarCasProperties#SESSION_STORE_CLEANUP_MIN_INTERVAL_IN_SECS} after a run which removed many entries and
+ * doubled back up to the configured interval after a quiet run. Each delay is spread by a random jitter so that
+ * several SonarQube instances on the same storage do not clean up at the same time.</p>
+ */
 @ServerSide
 public final class SessionStoreCleaner implements ServerStartHandler, AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(SessionStoreCleaner.class);
     private static final int SESSION_STORE_CLEANUP_INTERVAL_IN_SECS_DEFAULT = (int) TimeUnit.MINUTES.toSeconds(30);
+    private static final int SESSION_STORE_CLEANUP_MIN_INTERVAL_IN_SECS_DEFAULT = (int) TimeUnit.MINUTES.toSeconds(1);
     private static final int SESSION_STORE_CLEANUP_DISABLED = 0;
+    /**
+     * A run which removed at least this number of entries shortens the interval until the next run.
+     */
+    static final int BUSY_RUN_THRESHOLD = 1000;
+    /**
+     * Spreads each delay by up to this fraction in both directions.
+     */
+    static final double JITTER_FRACTION = 0.1;
 
     private final CasSessionStoreFactory sessionStoreFactory;
     private final int cleanUpIntervalInSeconds;
-    private final Timer timer;
+    private final int minCleanUpIntervalInSeconds;
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Only the scheduler thread changes the interval. It is volatile so that it can be logged from other threads.
+     */
+    private volatile long currentIntervalInSeconds;
 
     /**
      * called with injection by SonarQube during server initialization
@@ -29,57 +58,110 @@ public final class SessionStoreCleaner implements ServerStartHandler, AutoClosea
         this.sessionStoreFactory = sessionStoreFactory;
         this.cleanUpIntervalInSeconds = SonarCasProperties.SESSION_STORE_CLEANUP_INTERVAL_IN_SECS
                 .getInteger(configuration, SESSION_STORE_CLEANUP_INTERVAL_IN_SECS_DEFAULT);
-        this.timer = new Timer();
+        int configuredMinInterval = SonarCasProperties.SESSION_STORE_CLEANUP_MIN_INTERVAL_IN_SECS
+                .getInteger(configuration, SESSION_STORE_CLEANUP_MIN_INTERVAL_IN_SECS_DEFAULT);
+        this.minCleanUpIntervalInSeconds = Math.max(1, Math.min(configuredMinInterval, cleanUpIntervalInSeconds));
+        this.currentIntervalInSeconds = cleanUpIntervalInSeconds;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("cas-session-cleaner")
+                .setDaemon(true)
+                .build());
     }
 
     @Override
     public void onServerStart(Server server) {
         LOG.debug("CAS session writeJwtFile cleaner was configured to an interval of {} seconds ", cleanUpIntervalInSeconds);
-        TimerTask task = createTask();
 
         if (isCleanUpDisabled()) {
             LOG.error("Found that CAS session writeJwtFile clean up was disabled. This should be done only in a development environment");
             return;
         }
 
-        runTask(task);
+        // The CAS session writeJwtFile is persistent. This means there _may be_ clean-up work to tend to after a server start
+        scheduleNextRun(0);
     }
 
     @Override
     public void close() throws Exception {
         LOG.info("Stopping CAS session cleaner");
-        timer.cancel();
+        scheduler.shutdownNow();
+        if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+            LOG.warn("CAS session cleaner did not stop within 10 seconds");
+            return;
+        }
         LOG.info("CAS session cleaner stopped");
     }
 
-    private TimerTask createTask() {
-        return new CasSessionStoreCleanerTask();
-    }
-
-    private void runTask(TimerTask task) {
-        // The CAS session writeJwtFile is persistent. This means there _may be_ clean-up work to tend to after a server start
-        long firstOccurrenceImmediate = 0;
-        long intervalInMillis = TimeUnit.SECONDS.toMillis(cleanUpIntervalInSeconds);
-        timer.scheduleAtFixedRate(task, firstOccurrenceImmediate, intervalInMillis);
+    private void scheduleNextRun(long delayInMillis) {
+        try {
+            scheduler.schedule(new CasSessionStoreCleanerTask(), delayInMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("CAS session cleaner is stopped and no further clean up is scheduled");
+        }
     }
 
     private boolean isCleanUpDisabled() {
         return cleanUpIntervalInSeconds == SESSION_STORE_CLEANUP_DISABLED;
     }
 
-    void cancelTimer() {
-        timer.cancel();
+    /**
+     * Computes the interval until the next run from the number of entries which the last run removed.
+     */
+    long adaptInterval(long intervalInSeconds, int removedEntries) {
+        if (removedEntries >= BUSY_RUN_THRESHOLD) {
+            return Math.max(minCleanUpIntervalInSeconds, intervalInSeconds / 2);
+        }
+        return Math.min(cleanUpIntervalInSeconds, intervalInSeconds * 2);
+    }
+
+    /**
+     * @param randomValue a random value between 0 (inclusive) and 1 (exclusive)
+     * @return the delay spread by up to {@link #JITTER_FRACTION} in both directions
+     */
+    static long withJitter(long delayInMillis, double randomValue) {
+        double jitter = (randomValue * 2 - 1) * JITTER_FRACTION;
+        return Math.round(delayInMillis * (1 + jitter));
+    }
+
+    long getCurrentIntervalInSeconds() {
+        return currentIntervalInSeconds;
+    }
+
+    void shutdownScheduler() {
+        scheduler.shutdownNow();
     }
 
-    class CasSessionStoreCleanerTask extends TimerTask {
+    class CasSessionStoreCleanerTask implements Runnable {
         @Override
         public void run() {
+            try {
+                cleanUp();
+            } catch (RuntimeException e) {
+                LOG.error("CAS session clean up failed and will be retried by the next run", e);
+            } finally {
+                scheduleFollowingRun();
+            }
+        }
+
+        private void scheduleFollowingRun() {
+            if (!isCleanUpDisabled()) {
+                long delayInMillis = TimeUnit.SECONDS.toMillis(currentIntervalInSeconds);
+                scheduleNextRun(withJitter(delayInMillis, ThreadLocalRandom.current().nextDouble()));
+            }
+        }
+
+        private void cleanUp() {
             LOG.debug("CAS session writeJwtFile clean up started.");
+            long start = System.nanoTime();
 
             CasSessionStore store = sessionStoreFactory.getInstance();
             int removedEntries = store.removeExpiredEntries();
 
-            LOG.debug("CAS session writeJwtFile clean up finished and removed {} entries.", removedEntries);
+            long durationInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long entriesPerSecond = removedEntries * 1000L / Math.max(durationInMillis, 1);
+            currentIntervalInSeconds = adaptInterval(currentIntervalInSeconds, removedEntries);
+            LOG.info("CAS session clean up removed {} entries in {} ms ({} entries/s). Next run in about {} seconds",
+                    removedEntries, durationInMillis, entriesPerSecond, currentIntervalInSeconds);
         }
     }
 }
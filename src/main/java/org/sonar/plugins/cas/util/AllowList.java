@@ -0,0 +1,196 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * This class decides which servlet paths may be requested without a redirect to the CAS log-in.
+ *
+ * <p>Besides the built-in entries, which are matched anywhere in the servlet path, administrators can configure
+ * additional allow and deny patterns with {@link SonarCasProperties#FORCE_CAS_LOGIN_ALLOW_LIST} and
+ * {@link SonarCasProperties#FORCE_CAS_LOGIN_DENY_LIST}. A pattern is either an Ant-style glob which must match the
+ * whole servlet path (<code>?</code> matches one character, <code>*</code> any characters except <code>/</code> and
+ * <code>**</code> any characters) or a regular expression with the prefix <code>regex:</code>. Deny patterns take
+ * precedence over all allow entries.</p>
+ *
+ * <p>All patterns of a kind are compiled once into a single expression. The matched rule of each servlet path is kept
+ * in a bounded cache.</p>
+ */
+public final class AllowList {
+    private static final Logger LOG = LoggerFactory.getLogger(AllowList.class);
+    /**
+     * Request URLS that should not be redirected to the login page.
+     */
+    public static final List<String> BUILT_IN_ENTRIES = Collections.unmodifiableList(Arrays.asList(
+            "/js/", "/images/", "/favicon.ico", "/static", "/sessions/", "/api/", "/batch_bootstrap/", "/deploy/", "/batch"));
+    static final int CACHE_SIZE = 10_000;
+    private static final String REGEX_PREFIX = "regex:";
+    private static final String GROUP_PREFIX = "casAllowListRule";
+
+    private final Rule builtInRule = new Rule(true);
+    private final Rule noMatchRule = new Rule(false);
+    private final SubstringMatcher builtInEntries = SubstringMatcher.of(BUILT_IN_ENTRIES);
+    private final RuleSet denyRules;
+    private final RuleSet allowRules;
+    private final Cache<String, Rule> decisions = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .build();
+
+    AllowList(List<String> allowPatterns, List<String> denyPatterns) {
+        this.allowRules = new RuleSet(SonarCasProperties.FORCE_CAS_LOGIN_ALLOW_LIST, allowPatterns, true);
+        this.denyRules = new RuleSet(SonarCasProperties.FORCE_CAS_LOGIN_DENY_LIST, denyPatterns, false);
+    }
+
+    /**
+     * Compiles the configured allow and deny patterns.
+     *
+     * @throws RuntimeException if a pattern is not a valid regular expression
+     */
+    public static AllowList fromConfiguration(Configuration configuration) {
+        List<String> allowPatterns = getPatterns(configuration, SonarCasProperties.FORCE_CAS_LOGIN_ALLOW_LIST);
+        List<String> denyPatterns = getPatterns(configuration, SonarCasProperties.FORCE_CAS_LOGIN_DENY_LIST);
+        LOG.debug("Using additional allow patterns {} and deny patterns {}", allowPatterns, denyPatterns);
+        return new AllowList(allowPatterns, denyPatterns);
+    }
+
+    /**
+     * @param servletPath the servlet path of a request
+     * @return true if the request may pass without a redirect to the log-in page
+     */
+    public boolean isAllowed(String servletPath) {
+        if (servletPath == null) {
+            return false;
+        }
+
+        Rule rule = decisions.getIfPresent(servletPath);
+        if (rule == null) {
+            rule = findRule(servletPath);
+            decisions.put(servletPath, rule);
+        }
+        return rule.allowed;
+    }
+
+    private Rule findRule(String servletPath) {
+        Rule rule = denyRules.find(servletPath);
+        if (rule != null) {
+            return rule;
+        }
+        rule = allowRules.find(servletPath);
+        if (rule != null) {
+            return rule;
+        }
+        return builtInEntries.containsAny(servletPath) ? builtInRule : noMatchRule;
+    }
+
+    private static List<String> getPatterns(Configuration configuration, SonarCasProperties property) {
+        String value = property.getString(configuration, "");
+        List<String> patterns = new ArrayList<>();
+        for (String pattern : value.split(",")) {
+            if (!pattern.trim().isEmpty()) {
+                patterns.add(pattern.trim());
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * Converts an Ant-style glob into a regular expression.
+     */
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c != '*' && c != '?') {
+                literal.append(c);
+                continue;
+            }
+
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+            if (c == '?') {
+                regex.append("[^/]");
+            } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else {
+                regex.append("[^/]*");
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+
+    /**
+     * All patterns of one property, compiled into a single alternation with one named group per pattern.
+     */
+    private static final class RuleSet {
+        private final List<Rule> rules = new ArrayList<>();
+        private final Pattern pattern;
+
+        RuleSet(SonarCasProperties property, List<String> patterns, boolean allowed) {
+            if (patterns.isEmpty()) {
+                this.pattern = null;
+                return;
+            }
+
+            StringBuilder alternation = new StringBuilder();
+            for (int i = 0; i < patterns.size(); i++) {
+                String pattern = patterns.get(i);
+                String regex = pattern.startsWith(REGEX_PREFIX) ? pattern.substring(REGEX_PREFIX.length()) : globToRegex(pattern);
+                if (i > 0) {
+                    alternation.append('|');
+                }
+                alternation.append("(?<").append(GROUP_PREFIX).append(i).append('>').append(regex).append(')');
+                rules.add(new Rule(allowed));
+            }
+
+            try {
+                this.pattern = Pattern.compile(alternation.toString());
+            } catch (PatternSyntaxException e) {
+                throw new SonarCasProperties.SonarCasPropertyMisconfigurationException(property.toString(),
+                        "Pattern is not valid: " + e.getMessage());
+            }
+        }
+
+        Rule find(String servletPath) {
+            if (pattern == null) {
+                return null;
+            }
+
+            Matcher matcher = pattern.matcher(servletPath);
+            if (!matcher.matches()) {
+                return null;
+            }
+            for (int i = 0; i < rules.size(); i++) {
+                if (matcher.start(GROUP_PREFIX + i) >= 0) {
+                    return rules.get(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Rule {
+        private final boolean allowed;
+
+        Rule(boolean allowed) {
+            this.allowed = allowed;
+        }
+    }
+}
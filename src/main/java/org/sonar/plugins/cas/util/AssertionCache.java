@@ -0,0 +1,110 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.jasig.cas.client.validation.Assertion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+
+import java.time.Duration;
+
+/**
+ * This class keeps the validated CAS assertions of basic authentication credentials for a short time, so that bursts
+ * of API calls with the same credentials are authenticated without CAS.
+ *
+ * <p>The cache is disabled unless a time to live is configured. Entries are keyed by a {@link CredentialFingerprint}.
+ * Assertions which are no longer valid are never handed out. CAS logouts of a user drop all assertions of this
+ * user.</p>
+ */
+@ServerSide
+public final class AssertionCache {
+    private static final Logger LOG = LoggerFactory.getLogger(AssertionCache.class);
+    static final int DEFAULT_MAXIMUM_SIZE = 1000;
+    static final int DISABLED = 0;
+
+    private final Cache<CredentialFingerprint, Assertion> cache;
+    private final boolean enabled;
+
+    /** This constructor is used with Dependency Injection during SonarQube start-up time */
+    public AssertionCache(Configuration configuration) {
+        this(SonarCasProperties.ASSERTION_CACHE_MAX_SIZE.getInteger(configuration, DEFAULT_MAXIMUM_SIZE),
+                Duration.ofSeconds(SonarCasProperties.ASSERTION_CACHE_TIME_TO_LIVE_SECONDS
+                        .getInteger(configuration, DISABLED)),
+                Ticker.systemTicker());
+
+        if (enabled) {
+            LOG.info("Validated CAS assertions of API calls are cached for {} seconds",
+                    SonarCasProperties.ASSERTION_CACHE_TIME_TO_LIVE_SECONDS.getInteger(configuration, DISABLED));
+        }
+    }
+
+    @VisibleForTesting
+    AssertionCache(int maximumSize, Duration timeToLive, Ticker ticker) {
+        this.enabled = maximumSize > 0 && !timeToLive.isZero() && !timeToLive.isNegative();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maximumSize, 0))
+                .expireAfterWrite(enabled ? timeToLive : Duration.ZERO)
+                .ticker(ticker)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return a cache which never keeps an assertion
+     */
+    public static AssertionCache disabled() {
+        return new AssertionCache(0, Duration.ZERO, Ticker.systemTicker());
+    }
+
+    /**
+     * @return the cached and still valid assertion of the credentials or <code>null</code>
+     */
+    public Assertion get(String username, String password) {
+        if (!enabled) {
+            return null;
+        }
+
+        CredentialFingerprint fingerprint = CredentialFingerprint.of(username, password);
+        Assertion assertion = cache.getIfPresent(fingerprint);
+        if (assertion != null && !assertion.isValid()) {
+            cache.asMap().remove(fingerprint, assertion);
+            return null;
+        }
+        return assertion;
+    }
+
+    /**
+     * Keeps the assertion which CAS issued for the credentials.
+     */
+    public void put(String username, String password, Assertion assertion) {
+        if (enabled && assertion.isValid()) {
+            cache.put(CredentialFingerprint.of(username, password), assertion);
+        }
+    }
+
+    /**
+     * Removes all assertions of the user, regardless of the password. The username is compared case-insensitively like
+     * in {@link TicketGrantingTicketCache#invalidateUser(String)}.
+     */
+    public void invalidateUser(String username) {
+        if (enabled && cache.asMap().keySet().removeIf(key -> key.getUsername().equalsIgnoreCase(username))) {
+            LOG.debug("Removed the cached assertions of user {}", username);
+        }
+    }
+
+    /**
+     * @return hit, miss and eviction counters since server start
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    long size() {
+        return cache.size();
+    }
+}
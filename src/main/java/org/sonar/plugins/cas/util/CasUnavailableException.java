@@ -0,0 +1,42 @@
+package org.sonar.plugins.cas.util;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * This exception is thrown instead of calling CAS while CAS is considered unavailable, e.g. because the
+ * {@link CircuitBreaker} is open. Callers should answer with <code>503 Service Unavailable</code>.
+ */
+public class CasUnavailableException extends IOException {
+    private final Duration retryAfter;
+
+    public CasUnavailableException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the time after which CAS is called again
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * The CAS client library wraps I/O errors of the ticket validation into other exceptions. This method finds the
+     * original exception in the chain of causes.
+     *
+     * @return the {@link CasUnavailableException} which caused the given exception or <code>null</code>
+     */
+    public static CasUnavailableException find(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CasUnavailableException) {
+                return (CasUnavailableException) cause;
+            }
+            if (cause.getCause() == cause) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
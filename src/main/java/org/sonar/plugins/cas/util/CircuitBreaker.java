@@ -0,0 +1,297 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class protects SonarQube from a CAS which fails or responds slowly. It records the outcome of the recent calls
+ * to CAS and lets further calls fail fast with a {@link CasUnavailableException} instead of waiting for timeouts:
+ * <ul>
+ *     <li><code>CLOSED</code>: all calls go to CAS. The breaker opens if the rate of failed or of slow calls among
+ *     the recent calls reaches its threshold.</li>
+ *     <li><code>OPEN</code>: all calls are rejected. After the wait duration the breaker becomes half-open.</li>
+ *     <li><code>HALF_OPEN</code>: a few trial calls go to CAS, further calls are rejected. The breaker closes if the
+ *     trial calls stay below the thresholds and opens again otherwise.</li>
+ * </ul>
+ *
+ * <p>Every call needs a {@link Permit} which must be completed with its outcome. State transitions are logged and
+ * counted. Instances are thread-safe.</p>
+ */
+public final class CircuitBreaker {
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final CircuitBreakerSettings settings;
+    private final Ticker ticker;
+    private final byte[] outcomes;
+    private final Map<State, Long> transitions = new EnumMap<>(State.class);
+    private State state = State.CLOSED;
+    /** identifies the current state so that calls which started in an earlier state are not counted */
+    private long generation;
+    private long openedAt;
+    private int trialCalls;
+    private int position;
+    private int recordedCalls;
+    private int failedCalls;
+    private int slowCalls;
+    private long rejectedCalls;
+
+    @VisibleForTesting
+    CircuitBreaker(CircuitBreakerSettings settings, Ticker ticker) {
+        this.settings = settings;
+        this.ticker = ticker;
+        this.outcomes = new byte[settings.getSlidingWindowSize()];
+        for (State target : State.values()) {
+            transitions.put(target, 0L);
+        }
+    }
+
+    /**
+     * @return a circuit breaker with the configured thresholds
+     */
+    public static CircuitBreaker fromConfiguration(Configuration configuration) {
+        CircuitBreakerSettings settings = CircuitBreakerSettings.fromConfiguration(configuration);
+        if (!settings.isEnabled()) {
+            LOG.info("The circuit breaker around calls to CAS is disabled");
+        }
+        return new CircuitBreaker(settings, Ticker.systemTicker());
+    }
+
+    /**
+     * @return a circuit breaker with the default thresholds
+     */
+    public static CircuitBreaker withDefaults() {
+        return new CircuitBreaker(CircuitBreakerSettings.defaults(), Ticker.systemTicker());
+    }
+
+    /**
+     * Asks for the permission to call CAS.
+     *
+     * @return the permit which must be completed after the call
+     * @throws CasUnavailableException if the circuit breaker is open or all trial calls of the half-open circuit
+     *                                 breaker are running
+     */
+    public Permit acquire() throws CasUnavailableException {
+        if (!settings.isEnabled()) {
+            return new Permit(-1, 0);
+        }
+
+        synchronized (this) {
+            long now = ticker.read();
+            if (state == State.OPEN) {
+                long remaining = openedAt + settings.getWaitDurationInOpenState().toNanos() - now;
+                if (remaining > 0) {
+                    rejectedCalls++;
+                    throw new CasUnavailableException("CAS is unavailable, calls to CAS are rejected for another "
+                            + TimeUnit.NANOSECONDS.toMillis(remaining) + " ms", Duration.ofNanos(remaining));
+                }
+                transitionTo(State.HALF_OPEN, now);
+                LOG.info("Letting {} trial calls through to CAS", settings.getPermittedCallsInHalfOpenState());
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialCalls >= settings.getPermittedCallsInHalfOpenState()) {
+                    rejectedCalls++;
+                    throw new CasUnavailableException("CAS is unavailable, the trial calls to CAS are still running",
+                            settings.getSlowCallDuration());
+                }
+                trialCalls++;
+            }
+            return new Permit(generation, now);
+        }
+    }
+
+    private synchronized void complete(Permit permit, boolean failed) {
+        if (permit.generation != generation || state == State.OPEN) {
+            return;
+        }
+
+        long now = ticker.read();
+        boolean slow = now - permit.startedAt >= settings.getSlowCallDuration().toNanos();
+        record((byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0)));
+
+        if (state == State.HALF_OPEN) {
+            if (recordedCalls < settings.getPermittedCallsInHalfOpenState()) {
+                return;
+            }
+            if (exceedsThresholds()) {
+                LOG.warn("CAS is still unavailable: {}; calls to CAS are rejected for another {} ms", describeRates(),
+                        settings.getWaitDurationInOpenState().toMillis());
+                transitionTo(State.OPEN, now);
+            } else {
+                LOG.info("CAS is available again: {}", describeRates());
+                transitionTo(State.CLOSED, now);
+            }
+        } else if (recordedCalls >= settings.getMinimumNumberOfCalls() && exceedsThresholds()) {
+            LOG.warn("CAS is unavailable: {}; calls to CAS are rejected for {} ms", describeRates(),
+                    settings.getWaitDurationInOpenState().toMillis());
+            transitionTo(State.OPEN, now);
+        }
+    }
+
+    private synchronized void release(Permit permit) {
+        if (permit.generation == generation && state == State.HALF_OPEN) {
+            trialCalls--;
+        }
+    }
+
+    private void record(byte outcome) {
+        if (recordedCalls == outcomes.length) {
+            byte evicted = outcomes[position];
+            failedCalls -= evicted & FAILED;
+            slowCalls -= (evicted & SLOW) >> 1;
+        } else {
+            recordedCalls++;
+        }
+        outcomes[position] = outcome;
+        failedCalls += outcome & FAILED;
+        slowCalls += (outcome & SLOW) >> 1;
+        position = (position + 1) % outcomes.length;
+    }
+
+    private boolean exceedsThresholds() {
+        return failedCalls * 100 >= settings.getFailureRateThreshold() * recordedCalls
+                || slowCalls * 100 >= settings.getSlowCallRateThreshold() * recordedCalls;
+    }
+
+    private String describeRates() {
+        return failedCalls + " of the last " + recordedCalls + " calls failed and " + slowCalls + " were slower than "
+                + settings.getSlowCallDuration().toMillis() + " ms";
+    }
+
+    private void transitionTo(State target, long now) {
+        state = target;
+        generation++;
+        openedAt = now;
+        trialCalls = 0;
+        position = 0;
+        recordedCalls = 0;
+        failedCalls = 0;
+        slowCalls = 0;
+        transitions.merge(target, 1L, Long::sum);
+    }
+
+    /**
+     * @return a snapshot of the state and of the counters since server start
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(settings.isEnabled(), state, rejectedCalls, new EnumMap<>(transitions));
+    }
+
+    /**
+     * The state of a {@link CircuitBreaker}.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * The permission for a single call to CAS. The permit must be completed exactly once with
+     * {@link #onSuccess()}, {@link #onFailure()} or {@link #release()}; further completions are ignored.
+     */
+    public final class Permit {
+        private final long generation;
+        private final long startedAt;
+        private boolean completed;
+
+        private Permit(long generation, long startedAt) {
+            this.generation = generation;
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * Records that CAS answered. The call still counts as slow if it took longer than the slow call duration.
+         */
+        public void onSuccess() {
+            if (take()) {
+                complete(this, false);
+            }
+        }
+
+        /**
+         * Records that CAS failed or could not be reached.
+         */
+        public void onFailure() {
+            if (take()) {
+                complete(this, true);
+            }
+        }
+
+        /**
+         * Returns the permit without recording an outcome, e.g. because the call did not reach CAS.
+         */
+        public void release() {
+            if (take()) {
+                CircuitBreaker.this.release(this);
+            }
+        }
+
+        private synchronized boolean take() {
+            if (completed || generation < 0) {
+                return false;
+            }
+            completed = true;
+            return true;
+        }
+    }
+
+    /**
+     * The state and counters of a {@link CircuitBreaker} since server start.
+     */
+    public static final class Statistics {
+        private final boolean enabled;
+        private final State state;
+        private final long rejectedCalls;
+        private final Map<State, Long> transitions;
+
+        Statistics(boolean enabled, State state, long rejectedCalls, Map<State, Long> transitions) {
+            this.enabled = enabled;
+            this.state = state;
+            this.rejectedCalls = rejectedCalls;
+            this.transitions = Collections.unmodifiableMap(transitions);
+        }
+
+        /**
+         * @return <code>false</code> if the circuit breaker lets every call through
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * @return the current state
+         */
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return the number of calls which were rejected without calling CAS
+         */
+        public long getRejectedCalls() {
+            return rejectedCalls;
+        }
+
+        /**
+         * @return the number of transitions into each state
+         */
+        public Map<State, Long> getTransitions() {
+            return transitions;
+        }
+
+        @Override
+        public String toString() {
+            return "enabled=" + enabled + ", state=" + state + ", rejectedCalls=" + rejectedCalls + ", transitions="
+                    + transitions;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.sonar.plugins.cas.util;
+
+import org.sonar.api.config.Configuration;
+
+import java.time.Duration;
+
+/**
+ * This class holds the thresholds of the {@link CircuitBreaker} around the calls to CAS.
+ */
+final class CircuitBreakerSettings {
+    static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    static final int DEFAULT_SLOW_CALL_RATE_THRESHOLD = 100;
+    static final int DEFAULT_SLOW_CALL_DURATION_MILLIS = 5000;
+    static final int DEFAULT_SLIDING_WINDOW_SIZE = 20;
+    static final int DEFAULT_MINIMUM_NUMBER_OF_CALLS = 10;
+    static final int DEFAULT_WAIT_DURATION_IN_OPEN_STATE_MILLIS = 30000;
+    static final int DEFAULT_PERMITTED_CALLS_IN_HALF_OPEN_STATE = 3;
+
+    private final boolean enabled;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final Duration slowCallDuration;
+    private final int slidingWindowSize;
+    private final int minimumNumberOfCalls;
+    private final Duration waitDurationInOpenState;
+    private final int permittedCallsInHalfOpenState;
+
+    CircuitBreakerSettings(boolean enabled, int failureRateThreshold, int slowCallRateThreshold,
+                           Duration slowCallDuration, int slidingWindowSize, int minimumNumberOfCalls,
+                           Duration waitDurationInOpenState, int permittedCallsInHalfOpenState) {
+        assertPercentage("failure rate threshold", failureRateThreshold);
+        assertPercentage("slow call rate threshold", slowCallRateThreshold);
+        if (slowCallDuration.isZero() || slowCallDuration.isNegative()) {
+            throw new IllegalArgumentException("The CAS circuit breaker slow call duration must be positive but was "
+                    + slowCallDuration);
+        }
+        if (slidingWindowSize <= 0) {
+            throw new IllegalArgumentException("The CAS circuit breaker sliding window size must be positive but was "
+                    + slidingWindowSize);
+        }
+        assertWithinWindow("minimum number of calls", minimumNumberOfCalls, slidingWindowSize);
+        if (waitDurationInOpenState.isZero() || waitDurationInOpenState.isNegative()) {
+            throw new IllegalArgumentException("The CAS circuit breaker wait duration in open state must be positive "
+                    + "but was " + waitDurationInOpenState);
+        }
+        assertWithinWindow("permitted calls in half-open state", permittedCallsInHalfOpenState, slidingWindowSize);
+
+        this.enabled = enabled;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.slidingWindowSize = slidingWindowSize;
+        this.minimumNumberOfCalls = minimumNumberOfCalls;
+        this.waitDurationInOpenState = waitDurationInOpenState;
+        this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+    }
+
+    private static void assertPercentage(String name, int value) {
+        if (value < 1 || value > 100) {
+            throw new IllegalArgumentException("The CAS circuit breaker " + name + " must be between 1 and 100 but was "
+                    + value);
+        }
+    }
+
+    private static void assertWithinWindow(String name, int value, int slidingWindowSize) {
+        if (value < 1 || value > slidingWindowSize) {
+            throw new IllegalArgumentException("The CAS circuit breaker " + name + " must be between 1 and the "
+                    + "sliding window size " + slidingWindowSize + " but was " + value);
+        }
+    }
+
+    static CircuitBreakerSettings defaults() {
+        return new CircuitBreakerSettings(true, DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_SLOW_CALL_RATE_THRESHOLD,
+                Duration.ofMillis(DEFAULT_SLOW_CALL_DURATION_MILLIS), DEFAULT_SLIDING_WINDOW_SIZE,
+                DEFAULT_MINIMUM_NUMBER_OF_CALLS, Duration.ofMillis(DEFAULT_WAIT_DURATION_IN_OPEN_STATE_MILLIS),
+                DEFAULT_PERMITTED_CALLS_IN_HALF_OPEN_STATE);
+    }
+
+    static CircuitBreakerSettings fromConfiguration(Configuration configuration) {
+        boolean enabled = SonarCasProperties.CIRCUIT_BREAKER_ENABLED.getBoolean(configuration, true);
+        int failureRateThreshold = SonarCasProperties.CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD
+                .getInteger(configuration, DEFAULT_FAILURE_RATE_THRESHOLD);
+        int slowCallRateThreshold = SonarCasProperties.CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD
+                .getInteger(configuration, DEFAULT_SLOW_CALL_RATE_THRESHOLD);
+        int slowCallDuration = SonarCasProperties.CIRCUIT_BREAKER_SLOW_CALL_DURATION_MILLIS
+                .getInteger(configuration, DEFAULT_SLOW_CALL_DURATION_MILLIS);
+        int slidingWindowSize = SonarCasProperties.CIRCUIT_BREAKER_SLIDING_WINDOW_SIZE
+                .getInteger(configuration, DEFAULT_SLIDING_WINDOW_SIZE);
+        int minimumNumberOfCalls = SonarCasProperties.CIRCUIT_BREAKER_MINIMUM_NUMBER_OF_CALLS
+                .getInteger(configuration, DEFAULT_MINIMUM_NUMBER_OF_CALLS);
+        int waitDurationInOpenState = SonarCasProperties.CIRCUIT_BREAKER_WAIT_DURATION_IN_OPEN_STATE_MILLIS
+                .getInteger(configuration, DEFAULT_WAIT_DURATION_IN_OPEN_STATE_MILLIS);
+        int permittedCallsInHalfOpenState = SonarCasProperties.CIRCUIT_BREAKER_PERMITTED_CALLS_IN_HALF_OPEN_STATE
+                .getInteger(configuration, DEFAULT_PERMITTED_CALLS_IN_HALF_OPEN_STATE);
+
+        return new CircuitBreakerSettings(enabled, failureRateThreshold, slowCallRateThreshold,
+                Duration.ofMillis(slowCallDuration), slidingWindowSize, minimumNumberOfCalls,
+                Duration.ofMillis(waitDurationInOpenState), permittedCallsInHalfOpenState);
+    }
+
+    /**
+     * @return <code>false</code> if every call goes to CAS
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the percentage of failed calls at which the circuit breaker opens
+     */
+    int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @return the percentage of slow calls at which the circuit breaker opens
+     */
+    int getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * @return the duration after which a call counts as slow
+     */
+    Duration getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * @return the number of recent calls from which the rates are computed
+     */
+    int getSlidingWindowSize() {
+        return slidingWindowSize;
+    }
+
+    /**
+     * @return the number of calls which are needed before the rates are computed
+     */
+    int getMinimumNumberOfCalls() {
+        return minimumNumberOfCalls;
+    }
+
+    /**
+     * @return the time for which an open circuit breaker rejects calls
+     */
+    Duration getWaitDurationInOpenState() {
+        return waitDurationInOpenState;
+    }
+
+    /**
+     * @return the number of trial calls of a half-open circuit breaker
+     */
+    int getPermittedCallsInHalfOpenState() {
+        return permittedCallsInHalfOpenState;
+    }
+}
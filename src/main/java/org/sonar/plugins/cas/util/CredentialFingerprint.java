@@ -0,0 +1,80 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.base.Strings;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * This class identifies basic authentication credentials without keeping the password. It holds the username and an
+ * HMAC of username and password.
+ *
+ * <p>The HMAC key is generated randomly when the class is loaded. Fingerprints therefore cannot be compared across
+ * server restarts and cannot be used to guess passwords offline.</p>
+ */
+public final class CredentialFingerprint {
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final SecretKeySpec KEY = createKey();
+
+    private final String username;
+    private final byte[] hmac;
+
+    private CredentialFingerprint(String username, byte[] hmac) {
+        this.username = username;
+        this.hmac = hmac;
+    }
+
+    /**
+     * @return the fingerprint of the credentials; missing values are treated as empty
+     */
+    public static CredentialFingerprint of(String username, String password) {
+        username = Strings.nullToEmpty(username);
+        password = Strings.nullToEmpty(password);
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(KEY);
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return new CredentialFingerprint(username, mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not create the fingerprint of the credentials", e);
+        }
+    }
+
+    private static SecretKeySpec createKey() {
+        byte[] keyBytes = new byte[32];
+        new SecureRandom().nextBytes(keyBytes);
+        return new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CredentialFingerprint)) {
+            return false;
+        }
+        CredentialFingerprint other = (CredentialFingerprint) o;
+        return username.equals(other.username) && Arrays.equals(hmac, other.hmac);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(username, Arrays.hashCode(hmac));
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialFingerprint{username=" + username + "}";
+    }
+}
@@ -0,0 +1,58 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * This class keeps recently decoded JWT cookies so that the requests of a browser session decode their
+ * <code>JWT-SESSION</code> cookie only once.
+ *
+ * <p>Entries are keyed by the complete raw cookie value. A hash of the value would need less memory but a collision
+ * would hand out the JWT ID of another session, which then is checked against the blacklist instead of the right one.
+ * The cache holds at most {@link #DEFAULT_MAXIMUM_SIZE} entries and drops entries which were not used for
+ * {@link #DEFAULT_IDLE_TIMEOUT}. A JWT is never kept beyond its own expiration date.</p>
+ */
+final class DecodedJwtCache {
+    static final int DEFAULT_MAXIMUM_SIZE = 4096;
+    static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(30);
+
+    private final Cache<String, SimpleJwt> cache;
+
+    DecodedJwtCache() {
+        this(DEFAULT_MAXIMUM_SIZE, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    DecodedJwtCache(int maximumSize, Duration idleTimeout) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(idleTimeout)
+                .build();
+    }
+
+    /**
+     * Returns the cached JWT of the raw cookie value or decodes and caches it. Exceptions of the decoder are passed
+     * through unchanged.
+     */
+    SimpleJwt get(String rawToken, Function<String, SimpleJwt> decoder) {
+        SimpleJwt jwt = cache.getIfPresent(rawToken);
+        if (jwt != null) {
+            if (jwt.isExpired()) {
+                cache.invalidate(rawToken);
+            }
+            return jwt;
+        }
+
+        jwt = decoder.apply(rawToken);
+        if (!jwt.isExpired()) {
+            cache.put(rawToken, jwt);
+        }
+        return jwt;
+    }
+
+    long size() {
+        return cache.size();
+    }
+}
@@ -23,6 +23,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.*;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
 import java.security.cert.X509Certificate;
 
 /**
@@ -41,22 +43,8 @@ public final class IgnoreCert {
 
     public static void disableSslVerification() {
         try {
-            // Create a trust manager that does not validate certificate chains
-            final TrustManager[] trustAllCerts = new TrustManager[]{new X509TrustManager() {
-                public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                    return null;
-                }
-
-                public void checkClientTrusted(final X509Certificate[] certs, final String authType) {
-                }
-
-                public void checkServerTrusted(final X509Certificate[] certs, final String authType) {
-                }
-            }};
-
             // Install the all-trusting trust manager
-            final SSLContext sc = SSLContext.getInstance("SSL");
-            sc.init(null, trustAllCerts, new java.security.SecureRandom());
+            final SSLContext sc = createTrustAllContext();
             HttpsURLConnection
                     .setDefaultSSLSocketFactory(sc.getSocketFactory());
 
@@ -73,4 +61,43 @@ public final class IgnoreCert {
             LOG.error("Error during SSL disabling", e);
         }
     }
+
+    /**
+     * Creates an SSL context which accepts every certificate chain and every host name, e.g. for clients which do not
+     * use the defaults of {@link HttpsURLConnection}.
+     *
+     * <p>The trust manager is an {@link X509ExtendedTrustManager}, so JSSE leaves the endpoint identification to it and
+     * does not check the host name of the certificate. This affects only the clients which use this context, e.g.
+     * <code>java.net.http.HttpClient</code>, which ignores the host name verifier of {@link HttpsURLConnection}.</p>
+     */
+    public static SSLContext createTrustAllContext() throws GeneralSecurityException {
+        // Create a trust manager that validates neither certificate chains nor host names
+        final TrustManager[] trustAllCerts = new TrustManager[]{new X509ExtendedTrustManager() {
+            public java.security.cert.X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+
+            public void checkClientTrusted(final X509Certificate[] certs, final String authType) {
+            }
+
+            public void checkServerTrusted(final X509Certificate[] certs, final String authType) {
+            }
+
+            public void checkClientTrusted(final X509Certificate[] certs, final String authType, final Socket socket) {
+            }
+
+            public void checkServerTrusted(final X509Certificate[] certs, final String authType, final Socket socket) {
+            }
+
+            public void checkClientTrusted(final X509Certificate[] certs, final String authType, final SSLEngine engine) {
+            }
+
+            public void checkServerTrusted(final X509Certificate[] certs, final String authType, final SSLEngine engine) {
+            }
+        }};
+
+        final SSLContext sc = SSLContext.getInstance("SSL");
+        sc.init(null, trustAllCerts, new java.security.SecureRandom());
+        return sc;
+    }
 }
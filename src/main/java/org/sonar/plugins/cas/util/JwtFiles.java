@@ -1,23 +1,56 @@
 package org.sonar.plugins.cas.util;
 
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
 
+/**
+ * This class reads and writes JWT files of the CAS session store.
+ *
+ * <p>JWT files are written as a compact binary record with the following big-endian layout:</p>
+ * <pre>
+ * offset  size  field
+ *      0     4  magic number "CJWT"
+ *      4     1  format version
+ *      5     1  flags (bit 0: invalid)
+ *      6     2  length n of the JWT id in bytes
+ *      8     8  expiration as epoch seconds
+ *     16     n  JWT id (UTF-8)
+ *   16+n     2  length m of the service ticket in bytes (since version 2)
+ *   18+n     m  service ticket (UTF-8, since version 2)
+ * 18+n+m     4  CRC32 checksum of all preceding bytes
+ * </pre>
+ *
+ * <p>The service ticket is the reverse mapping of the service ticket file. It allows to remove a JWT together with its
+ * service ticket without searching the service ticket files. Records of version 1 and legacy files have no service
+ * ticket.</p>
+ *
+ * <p>With SonarQube's 20 character JWT ids and a typical 40 character service ticket a record takes 82 bytes. Older
+ * plugin versions wrote JWT files as XML. These legacy files can still be read; {@link JwtFileContent#isLegacyFormat()}
+ * tells the caller that the file should be migrated into the binary format.</p>
+ */
 public final class JwtFiles {
+    static final int MAGIC = 0x434A5754;
+    static final byte FORMAT_VERSION = 2;
+    private static final byte FORMAT_VERSION_WITHOUT_SERVICE_TICKET = 1;
+    private static final int FLAG_INVALID = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SERVICE_TICKET_LENGTH_SIZE = 2;
+    private static final int CHECKSUM_SIZE = 4;
+    /**
+     * Upper bound for files to be read. Binary records are much smaller, legacy XML files are a few hundred bytes.
+     */
+    private static final int MAX_FILE_SIZE = 64 * 1024;
 
     private JwtFiles() {
     }
@@ -25,31 +58,60 @@ public final class JwtFiles {
     /**
      * Reads a file from <code>filePath</code> and returns a SimpleJwt for it.
      *
-     * @param filePath the path to a file which contains an XML representation of the object to be created. Must not
-     *                 be <code>null</code>.
+     * @param filePath the path to a file which contains a binary or a legacy XML representation of the object to be
+     *                 created. Must not be <code>null</code>.
      * @return a SimpleJwt for the data in the given file path.
      * @throws JwtFileConversionException Throws an exception if the file cannot be parsed as the desired type or when
      *                                    there happens errors during I/O.
      */
     public static SimpleJwt unmarshal(Path filePath) {
+        return unmarshalWithServiceTicket(filePath).getJwt();
+    }
+
+    /**
+     * Reads a file like {@link #unmarshal(Path)} does and returns the service ticket stored alongside the JWT.
+     *
+     * @param filePath the path to a JWT file. Must not be <code>null</code>.
+     * @return the JWT and its service ticket. The service ticket is empty for files that were written without one.
+     * @throws JwtFileConversionException Throws an exception if the file cannot be parsed as the desired type or when
+     *                                    there happens errors during I/O.
+     */
+    public static JwtFileContent unmarshalWithServiceTicket(Path filePath) {
         if (filePath == null) {
             throw new IllegalArgumentException("FilePath must not be null.");
         }
 
-        try (InputStream reader = Files.newInputStream(filePath)) {
-            SimpleJwt unmarshalled = unmarshal(reader);
-            if (unmarshalled.getJwtId() == null) {
-                String msg = "Cannot unmarshal path " + filePath + " to an instance of " +
-                        SimpleJwt.class.getSimpleName() + ". The file does not seem to contain valid JWT data.";
-                throw new JwtFileConversionException(msg);
-            }
-            return unmarshalled;
+        try {
+            ByteBuffer content = readFile(filePath);
+            return unmarshal(filePath, content);
+        } catch (JwtFileConversionException e) {
+            throw e;
         } catch (Exception e) {
             String msg = "Cannot unmarshal path " + filePath + " to an instance of " + SimpleJwt.class.getName();
             throw new JwtFileConversionException(msg, e);
         }
     }
 
+    private static JwtFileContent unmarshal(Path filePath, ByteBuffer content) {
+        JwtFileContent unmarshalled;
+        if (isBinaryRecord(content)) {
+            unmarshalled = decode(filePath, content);
+        } else {
+            InputStream input = new ByteArrayInputStream(content.array(), 0, content.limit());
+            unmarshalled = new JwtFileContent(unmarshal(input), "", true);
+        }
+
+        if (unmarshalled.getJwt().getJwtId() == null) {
+            String msg = "Cannot unmarshal path " + filePath + " to an instance of " +
+                    SimpleJwt.class.getSimpleName() + ". The file does not seem to contain valid JWT data.";
+            throw new JwtFileConversionException(msg);
+        }
+        return unmarshalled;
+    }
+
+    /**
+     * Reads the legacy XML representation of a JWT.
+     */
     protected static SimpleJwt unmarshal(InputStream input) {
         try {
             Element root = XMLParsing.getRootElementFromXML(input);
@@ -64,16 +126,32 @@ public final class JwtFiles {
     }
 
     /**
-     * Writes a file from <code>jaxbObject</code> into the path <code>filePath</code>.
+     * Writes a file from <code>jwt</code> into the path <code>filePath</code>. An already existing file will be
+     * overwritten.
      *
-     * @param filePath the path to a file which shall receive an XML representation of the object to be created. Must
-     *                 not be <code>null</code>.
-     * @param jwt      the object whose data is supposed to be serialized into an XML file. Must not be
-     *                 <code>null</code>.
+     * @param filePath the path to a file which shall receive a binary representation of the object to be created.
+     *                 Must not be <code>null</code>.
+     * @param jwt      the object whose data is supposed to be serialized into a file. Must not be <code>null</code>.
      * @throws JwtFileConversionException Throws an exception if the object cannot be parsed into the desired type or
      *                                    when there happens errors during I/O.
      */
     public static void marshalIntoNewFile(Path filePath, SimpleJwt jwt) {
+        marshalIntoNewFile(filePath, jwt, "");
+    }
+
+    /**
+     * Writes a file like {@link #marshalIntoNewFile(Path, SimpleJwt)} does and stores the service ticket that the JWT
+     * was issued for alongside.
+     *
+     * @param filePath      the path to a file which shall receive a binary representation of the object to be
+     *                      created. Must not be <code>null</code>.
+     * @param jwt           the object whose data is supposed to be serialized into a file. Must not be
+     *                      <code>null</code>.
+     * @param serviceTicket the service ticket of the JWT. May be empty if it is unknown.
+     * @throws JwtFileConversionException Throws an exception if the object cannot be parsed into the desired type or
+     *                                    when there happens errors during I/O.
+     */
+    public static void marshalIntoNewFile(Path filePath, SimpleJwt jwt, String serviceTicket) {
         if (filePath == null) {
             throw new IllegalArgumentException("FilePath must not be null.");
         }
@@ -81,37 +159,131 @@ public final class JwtFiles {
             throw new IllegalArgumentException("JWT must not be null.");
         }
 
-        try {
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            transformerFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-            transformerFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
-            transformerFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-            Transformer transformer = transformerFactory.newTransformer();
+        ByteBuffer record = encode(jwt, serviceTicket == null ? "" : serviceTicket);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (Exception e) {
+            String msg = "Cannot marshal object " + jwt + " into file " + filePath;
+            throw new JwtFileConversionException(msg, e);
+        }
+    }
+
+    static ByteBuffer encode(SimpleJwt jwt, String serviceTicket) {
+        byte[] jwtId = jwt.getJwtId().getBytes(StandardCharsets.UTF_8);
+        byte[] ticket = serviceTicket.getBytes(StandardCharsets.UTF_8);
+        if (jwtId.length > Short.MAX_VALUE || ticket.length > Short.MAX_VALUE) {
+            throw new JwtFileConversionException("Cannot marshal object " + jwt + ": the JWT id or service ticket is too long");
+        }
 
-            DocumentBuilder docBuilder = XMLParsing.createSecureBuilder();
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + jwtId.length + SERVICE_TICKET_LENGTH_SIZE + ticket.length
+                + CHECKSUM_SIZE);
+        record.putInt(MAGIC)
+                .put(FORMAT_VERSION)
+                .put((byte) (jwt.isInvalid() ? FLAG_INVALID : 0))
+                .putShort((short) jwtId.length)
+                .putLong(jwt.getExpiration().getEpochSecond())
+                .put(jwtId)
+                .putShort((short) ticket.length)
+                .put(ticket);
+        record.putInt(checksum(record.array(), record.position()));
+        record.flip();
 
-            Document doc = docBuilder.newDocument();
-            Element rootElement = doc.createElement("SimpleJwt");
-            doc.appendChild(rootElement);
+        return record;
+    }
 
-            Element id = doc.createElement("jwtId");
-            id.appendChild(doc.createTextNode(jwt.getJwtId()));
-            rootElement.appendChild(id);
+    private static JwtFileContent decode(Path filePath, ByteBuffer record) {
+        if (record.limit() < HEADER_SIZE + CHECKSUM_SIZE) {
+            throw new JwtFileConversionException("Cannot unmarshal path " + filePath + ": the record is truncated");
+        }
 
-            Element expiration = doc.createElement("expiration");
-            expiration.appendChild(doc.createTextNode(Long.toString(jwt.getExpiration().getEpochSecond())));
-            rootElement.appendChild(expiration);
+        byte version = record.get(4);
+        if (version != FORMAT_VERSION && version != FORMAT_VERSION_WITHOUT_SERVICE_TICKET) {
+            throw new JwtFileConversionException("Cannot unmarshal path " + filePath + ": unsupported format version " + version);
+        }
 
-            Element invalid = doc.createElement("invalid");
-            invalid.appendChild(doc.createTextNode(Boolean.toString(jwt.isInvalid())));
-            rootElement.appendChild(invalid);
+        byte flags = record.get(5);
+        int jwtIdLength = record.getShort(6);
+        long expiration = record.getLong(8);
+        int checksumOffset = HEADER_SIZE + jwtIdLength;
+        int ticketLength = 0;
+        if (version == FORMAT_VERSION && record.limit() >= checksumOffset + SERVICE_TICKET_LENGTH_SIZE) {
+            ticketLength = record.getShort(checksumOffset);
+            checksumOffset += SERVICE_TICKET_LENGTH_SIZE + ticketLength;
+        }
+        if (jwtIdLength <= 0 || ticketLength < 0 || record.limit() != checksumOffset + CHECKSUM_SIZE) {
+            throw new JwtFileConversionException("Cannot unmarshal path " + filePath + ": the record length does not match");
+        }
+        if (record.getInt(checksumOffset) != checksum(record.array(), checksumOffset)) {
+            throw new JwtFileConversionException("Cannot unmarshal path " + filePath + ": the checksum does not match");
+        }
 
-            DOMSource source = new DOMSource(doc);
-            StreamResult result = new StreamResult(new File(filePath.toString()));
-            transformer.transform(source, result);
-        } catch (Exception e) {
-            String msg = "Cannot marshal object " + jwt + " into file " + filePath;
-            throw new JwtFileConversionException(msg, e);
+        String jwtId = new String(record.array(), HEADER_SIZE, jwtIdLength, StandardCharsets.UTF_8);
+        String serviceTicket = new String(record.array(), checksumOffset - ticketLength, ticketLength, StandardCharsets.UTF_8);
+        boolean invalid = (flags & FLAG_INVALID) != 0;
+
+        return new JwtFileContent(new SimpleJwt(jwtId, expiration, invalid), serviceTicket, false);
+    }
+
+    private static boolean isBinaryRecord(ByteBuffer content) {
+        return content.limit() >= Integer.BYTES && content.getInt(0) == MAGIC;
+    }
+
+    private static int checksum(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static ByteBuffer readFile(Path filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_FILE_SIZE) {
+                throw new JwtFileConversionException("Cannot unmarshal path " + filePath + ": the file is too large");
+            }
+
+            ByteBuffer content = ByteBuffer.allocate((int) size);
+            while (content.hasRemaining() && channel.read(content) != -1) {
+                // read until the buffer is full or the end of the file was reached
+            }
+            content.flip();
+
+            return content;
+        }
+    }
+
+    /**
+     * The content of a JWT file: the JWT and the service ticket it was issued for.
+     */
+    public static final class JwtFileContent {
+        private final SimpleJwt jwt;
+        private final String serviceTicket;
+        private final boolean legacyFormat;
+
+        JwtFileContent(SimpleJwt jwt, String serviceTicket, boolean legacyFormat) {
+            this.jwt = jwt;
+            this.serviceTicket = serviceTicket;
+            this.legacyFormat = legacyFormat;
+        }
+
+        public SimpleJwt getJwt() {
+            return jwt;
+        }
+
+        /**
+         * @return the service ticket of the JWT or an empty string if the file does not contain one
+         */
+        public String getServiceTicket() {
+            return serviceTicket;
+        }
+
+        /**
+         * @return <code>true</code> if the file was written as XML by an older plugin version
+         */
+        public boolean isLegacyFormat() {
+            return legacyFormat;
         }
     }
 
@@ -0,0 +1,348 @@
+package org.sonar.plugins.cas.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class reads the JWT ID and the expiration date from the payload of a JWT without building intermediate strings
+ * or maps. A minimal JSON tokenizer scans the payload and only looks at the top-level <code>jti</code> and
+ * <code>exp</code> fields. The Base64 payload is decoded lazily into a scratch buffer per thread while the tokenizer
+ * advances, and scanning stops as soon as both fields were found.
+ *
+ * <p>The decoder accepts both the standard and the URL-safe Base64 alphabet with or without padding. Payloads it does
+ * not support (e.g. escaped characters in a field name or in the JWT ID, or an expiration date which is not an
+ * integer) are reported as <code>null</code> so that the caller can fall back to a full JSON parser. Like the
+ * fallback, the decoder does not verify the JWT's signature.</p>
+ */
+final class JwtPayloadDecoder {
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    /**
+     * Larger payloads are decoded but their buffer is not kept for the next call.
+     */
+    private static final int MAX_CACHED_BUFFER_SIZE = 16 * 1024;
+    private static final byte INVALID = -1;
+    private static final int GROUPS_PER_DECODE = 8;
+    private static final byte[] BASE64_VALUES = createBase64Values();
+    private static final byte[] JWT_ID = {'j', 't', 'i'};
+    private static final byte[] JWT_EXPIRATION_DATE = {'e', 'x', 'p'};
+    private static final ThreadLocal<byte[]> SCRATCH_BUFFER = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+
+    private JwtPayloadDecoder() {
+    }
+
+    /**
+     * Decodes the payload of a JWT.
+     *
+     * @param jwt the full Base64 encoded JWT
+     * @return the JWT with its ID and expiration date or <code>null</code> if the payload cannot be decoded by this
+     * class
+     */
+    static SimpleJwt decode(String jwt) {
+        int payloadStart = jwt.indexOf('.') + 1;
+        int payloadEnd = jwt.lastIndexOf('.');
+        if (payloadStart <= 0 || payloadEnd < payloadStart) {
+            return null;
+        }
+
+        byte[] buffer = scratchBuffer((payloadEnd - payloadStart) * 3 / 4 + 3);
+        return new PayloadScanner(jwt, payloadStart, payloadEnd, buffer).scan();
+    }
+
+    private static byte[] scratchBuffer(int minimumSize) {
+        byte[] buffer = SCRATCH_BUFFER.get();
+        if (buffer.length >= minimumSize) {
+            return buffer;
+        }
+
+        buffer = new byte[minimumSize];
+        if (minimumSize <= MAX_CACHED_BUFFER_SIZE) {
+            SCRATCH_BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+    private static int valueOf(char c) {
+        return c < BASE64_VALUES.length ? BASE64_VALUES[c] : INVALID;
+    }
+
+    private static byte[] createBase64Values() {
+        byte[] values = new byte[128];
+        Arrays.fill(values, INVALID);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        for (int i = 0; i < alphabet.length(); i++) {
+            values[alphabet.charAt(i)] = (byte) i;
+        }
+        values['+'] = 62;
+        values['-'] = 62;
+        values['/'] = 63;
+        values['_'] = 63;
+        return values;
+    }
+
+    /**
+     * Scans the JSON object in the payload. Every method returns <code>false</code> if the payload is malformed or uses
+     * a feature which the scanner does not support.
+     */
+    private static final class PayloadScanner {
+        private final String source;
+        private final int sourceEnd;
+        private int sourcePosition;
+        /**
+         * Holds the payload decoded so far.
+         */
+        private final byte[] json;
+        private int length;
+        private int position;
+        private String jwtId;
+        private long expiration = -1;
+
+        PayloadScanner(String source, int sourceStart, int sourceEnd, byte[] json) {
+            this.source = source;
+            this.sourcePosition = sourceStart;
+            this.sourceEnd = sourceEnd;
+            this.json = json;
+        }
+
+        SimpleJwt scan() {
+            if (!scanObject() || jwtId == null || expiration <= 0) {
+                return null;
+            }
+            return SimpleJwt.fromIdAndExpiration(jwtId, expiration);
+        }
+
+        private boolean scanObject() {
+            skipWhitespace();
+            if (!consume('{')) {
+                return false;
+            }
+            skipWhitespace();
+            if (consume('}')) {
+                return true;
+            }
+
+            while (true) {
+                int keyStart = position + 1;
+                if (!skipString(false)) {
+                    return false;
+                }
+                int keyEnd = position - 1;
+
+                skipWhitespace();
+                if (!consume(':')) {
+                    return false;
+                }
+                skipWhitespace();
+                if (!scanValue(keyStart, keyEnd)) {
+                    return false;
+                }
+                if (jwtId != null && expiration > 0) {
+                    // the remaining fields are of no interest
+                    return true;
+                }
+
+                skipWhitespace();
+                if (consume('}')) {
+                    return true;
+                }
+                if (!consume(',')) {
+                    return false;
+                }
+                skipWhitespace();
+            }
+        }
+
+        private boolean scanValue(int keyStart, int keyEnd) {
+            if (matches(keyStart, keyEnd, JWT_ID)) {
+                int valueStart = position + 1;
+                if (!skipString(false)) {
+                    return false;
+                }
+                jwtId = new String(json, valueStart, position - 1 - valueStart, StandardCharsets.UTF_8);
+                return true;
+            }
+            if (matches(keyStart, keyEnd, JWT_EXPIRATION_DATE)) {
+                return scanExpiration();
+            }
+            return skipValue();
+        }
+
+        private boolean scanExpiration() {
+            long value = 0;
+            int digits = 0;
+            while (available(position) && json[position] >= '0' && json[position] <= '9') {
+                if (++digits > 18) {
+                    return false;
+                }
+                value = value * 10 + (json[position++] - '0');
+            }
+            if (digits == 0 || (available(position) && isNumberContinuation(json[position]))) {
+                return false;
+            }
+            expiration = value;
+            return true;
+        }
+
+        private boolean skipValue() {
+            if (!available(position)) {
+                return false;
+            }
+
+            byte first = json[position];
+            if (first == '"') {
+                return skipString(true);
+            }
+            if (first == '{' || first == '[') {
+                return skipNested();
+            }
+
+            int start = position;
+            while (available(position) && !isValueEnd(json[position])) {
+                position++;
+            }
+            return position > start;
+        }
+
+        private boolean skipNested() {
+            int depth = 0;
+            while (available(position)) {
+                byte current = json[position];
+                if (current == '"') {
+                    if (!skipString(true)) {
+                        return false;
+                    }
+                    continue;
+                }
+                position++;
+                if (current == '{' || current == '[') {
+                    depth++;
+                } else if (current == '}' || current == ']') {
+                    if (--depth == 0) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves behind the closing quote of the string at the current position.
+         *
+         * @param allowEscapes whether escape sequences are skipped or rejected
+         */
+        private boolean skipString(boolean allowEscapes) {
+            if (!consume('"')) {
+                return false;
+            }
+            while (available(position)) {
+                byte current = json[position++];
+                if (current == '"') {
+                    return true;
+                }
+                if (current == '\\') {
+                    if (!allowEscapes) {
+                        return false;
+                    }
+                    position++;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Decodes the payload until the given index is available.
+         */
+        private boolean available(int index) {
+            if (index < length) {
+                return true;
+            }
+            // decode a few groups at once so that the scanner does not need to return here for every byte
+            int target = index + GROUPS_PER_DECODE * 3;
+            while (length < target && decodeNextGroup()) {
+                // continue decoding
+            }
+            return index < length;
+        }
+
+        /**
+         * Decodes the next group of up to four Base64 characters into up to three bytes.
+         */
+        private boolean decodeNextGroup() {
+            if (sourcePosition + 4 <= sourceEnd) {
+                int c0 = valueOf(source.charAt(sourcePosition));
+                int c1 = valueOf(source.charAt(sourcePosition + 1));
+                int c2 = valueOf(source.charAt(sourcePosition + 2));
+                int c3 = valueOf(source.charAt(sourcePosition + 3));
+                if ((c0 | c1 | c2 | c3) >= 0) {
+                    int bits = c0 << 18 | c1 << 12 | c2 << 6 | c3;
+                    json[length] = (byte) (bits >> 16);
+                    json[length + 1] = (byte) (bits >> 8);
+                    json[length + 2] = (byte) bits;
+                    length += 3;
+                    sourcePosition += 4;
+                    return true;
+                }
+            }
+
+            // the last group may be shortened, padded or contain invalid characters
+            int bits = 0;
+            int characters = 0;
+            while (characters < 4 && sourcePosition < sourceEnd) {
+                char c = source.charAt(sourcePosition);
+                int value = valueOf(c);
+                if (value == INVALID) {
+                    // padding and invalid characters both end the payload. The latter lets the scan fail.
+                    sourcePosition = sourceEnd;
+                    break;
+                }
+                bits = bits << 6 | value;
+                characters++;
+                sourcePosition++;
+            }
+
+            bits <<= 6 * (4 - characters);
+            int bytes = characters * 3 / 4;
+            for (int i = 0; i < bytes; i++) {
+                json[length++] = (byte) (bits >> (16 - 8 * i));
+            }
+            return bytes > 0;
+        }
+
+        private boolean matches(int start, int end, byte[] expected) {
+            if (end - start != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                if (json[start + i] != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean consume(char expected) {
+            if (available(position) && json[position] == expected) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (available(position) && isWhitespace(json[position])) {
+                position++;
+            }
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+        }
+
+        private static boolean isValueEnd(byte b) {
+            return b == ',' || b == '}' || b == ']' || isWhitespace(b);
+        }
+
+        private static boolean isNumberContinuation(byte b) {
+            return b == '.' || b == 'e' || b == 'E' || b == '-' || b == '+';
+        }
+    }
+}
@@ -16,13 +16,16 @@ public class JwtProcessor {
     private static final String JWT_ID = "jti";
     private static final String JWT_EXPIRATION_DATE = "exp";
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    /**
+     * The same cookie arrives with every request of a browser session. Decoding it once per session is enough.
+     */
+    private static final DecodedJwtCache COOKIE_CACHE = new DecodedJwtCache();
 
     public static SimpleJwt mustGetJwtTokenFromResponseHeaders(Collection<String> headers) {
         String rawToken = mustFilterJwtCookie(headers);
         String token = removeHeader(rawToken);
-        token = decodeJwtPayload(token);
 
-        return createJwt(token);
+        return parseJwt(token);
     }
 
     static String mustFilterJwtCookie(Collection<String> headers) {
@@ -35,15 +38,21 @@ public class JwtProcessor {
         return jwtCookie;
     }
 
+    /**
+     * @return the JWT of the JWT cookie in the response headers, or the null object if there is no JWT cookie or the
+     * JWT cookie is deleted
+     */
     public static SimpleJwt getJwtTokenFromResponseHeaders(Collection<String> headers) {
         String rawToken = filterJwtCookie(headers);
         if (rawToken.isEmpty()) {
             return SimpleJwt.getNullObject();
         }
-        String token = removeHeader(rawToken);
-        token = decodeJwtPayload(token);
+        String token = removeCookieAttributes(removeHeader(rawToken));
+        if (token.isEmpty()) {
+            return SimpleJwt.getNullObject();
+        }
 
-        return createJwt(token);
+        return parseJwt(token);
     }
 
     static String filterJwtCookie(Collection<String> headers) {
@@ -56,6 +65,30 @@ public class JwtProcessor {
         return rawToken.substring((JWT_SESSION_COOKIE + "=").length());
     }
 
+    private static String removeCookieAttributes(String cookieValue) {
+        int attributesStart = cookieValue.indexOf(';');
+        return attributesStart < 0 ? cookieValue.trim() : cookieValue.substring(0, attributesStart).trim();
+    }
+
+    /**
+     * Reads ID and expiration date from the JWT's payload. The common case is handled by the allocation-light
+     * {@link JwtPayloadDecoder}. Unusual payloads are parsed by Jackson.
+     *
+     * @param jwt the full base64 encoded JWT
+     */
+    private static SimpleJwt parseJwt(String jwt) {
+        SimpleJwt decoded = JwtPayloadDecoder.decode(jwt);
+        if (decoded != null) {
+            return decoded;
+        }
+
+        return parseJwtWithObjectMapper(jwt);
+    }
+
+    static SimpleJwt parseJwtWithObjectMapper(String jwt) {
+        return createJwt(decodeJwtPayload(jwt));
+    }
+
     /**
      * Convert the JWT and return its payload as JSON string.
      *
@@ -92,8 +125,6 @@ public class JwtProcessor {
             return SimpleJwt.getNullObject();
         }
 
-        String token = decodeJwtPayload(cookie.getValue());
-
-        return createJwt(token);
+        return COOKIE_CACHE.get(cookie.getValue(), JwtProcessor::parseJwt);
     }
 }
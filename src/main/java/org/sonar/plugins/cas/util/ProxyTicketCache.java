@@ -0,0 +1,187 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.jasig.cas.client.validation.Assertion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+import org.sonar.plugins.cas.CasHttpClientPool;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class shares the validation of proxy tickets between API calls which use the same proxy ticket.
+ *
+ * <p>CAS proxy tickets are single-use by default, so the behaviour is chosen by a policy:</p>
+ * <ul>
+ *     <li><code>none</code> (default): every API call validates its proxy ticket with CAS</li>
+ *     <li><code>inFlight</code>: concurrent API calls with the same proxy ticket wait for a single validation and
+ *     share its assertion. CAS sees each proxy ticket only once.</li>
+ *     <li><code>reuse</code>: like <code>inFlight</code>, and the assertion of a proxy ticket is additionally kept for
+ *     a short time. Use this only if CAS allows to use proxy tickets more than once.</li>
+ * </ul>
+ *
+ * <p>Concurrent calls are grouped by a {@link SingleFlight}. Failed validations are neither cached nor shared with later
+ * calls. Assertions which are no longer valid are never handed out.</p>
+ */
+@ServerSide
+public final class ProxyTicketCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyTicketCache.class);
+    static final String POLICY_NONE = "none";
+    static final String POLICY_IN_FLIGHT = "inflight";
+    static final String POLICY_REUSE = "reuse";
+    static final int DEFAULT_MAXIMUM_SIZE = 1000;
+    static final int DEFAULT_TIME_TO_LIVE_SECONDS = 10;
+
+    private final Policy policy;
+    private final Cache<String, Assertion> cache;
+    private final SingleFlight<String, Assertion> validations;
+
+    /** This constructor is used with Dependency Injection during SonarQube start-up time */
+    public ProxyTicketCache(Configuration configuration, CasHttpClientPool httpClientPool) {
+        this(parsePolicy(SonarCasProperties.PROXY_TICKET_CACHE_POLICY.getString(configuration, POLICY_NONE)),
+                SonarCasProperties.PROXY_TICKET_CACHE_MAX_SIZE.getInteger(configuration, DEFAULT_MAXIMUM_SIZE),
+                Duration.ofSeconds(SonarCasProperties.PROXY_TICKET_CACHE_TIME_TO_LIVE_SECONDS
+                        .getInteger(configuration, DEFAULT_TIME_TO_LIVE_SECONDS)),
+                SingleFlight.getTimeout(configuration, httpClientPool.getLongestRequest()), Ticker.systemTicker());
+
+        if (policy != Policy.NONE) {
+            LOG.info("Validations of CAS proxy tickets are shared with policy {}", policy);
+        }
+    }
+
+    @VisibleForTesting
+    ProxyTicketCache(Policy policy, int maximumSize, Duration timeToLive, Duration waitTimeout, Ticker ticker) {
+        if (policy == Policy.REUSE && (maximumSize <= 0 || timeToLive.isZero() || timeToLive.isNegative())) {
+            throw new IllegalArgumentException("The proxy ticket cache needs a positive size and time to live but was "
+                    + maximumSize + " and " + timeToLive);
+        }
+        this.policy = policy;
+        this.validations = new SingleFlight<>(policy == Policy.NONE ? Duration.ZERO : waitTimeout);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(policy == Policy.REUSE ? maximumSize : 0)
+                .expireAfterWrite(policy == Policy.REUSE ? timeToLive : Duration.ZERO)
+                .ticker(ticker)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return a cache which validates every proxy ticket with CAS
+     */
+    public static ProxyTicketCache disabled() {
+        return new ProxyTicketCache(Policy.NONE, 0, Duration.ZERO, Duration.ZERO, Ticker.systemTicker());
+    }
+
+    static Policy parsePolicy(String value) {
+        String policy = value.toLowerCase(Locale.ENGLISH);
+        if (POLICY_NONE.equals(policy)) {
+            return Policy.NONE;
+        }
+        if (POLICY_IN_FLIGHT.equals(policy)) {
+            return Policy.IN_FLIGHT;
+        }
+        if (POLICY_REUSE.equals(policy)) {
+            return Policy.REUSE;
+        }
+        throw new IllegalStateException("Could not configure the proxy ticket cache: unsupported policy ".concat(value));
+    }
+
+    /**
+     * Returns the assertion of the proxy ticket. Depending on the policy, the assertion comes from the cache, from a
+     * validation of the same ticket which is already running or from a new validation.
+     *
+     * @param proxyTicket the proxy ticket
+     * @param validator   validates the ticket with CAS and returns <code>null</code> if it is not valid
+     * @return the assertion or <code>null</code> if the ticket is not valid or the running validation of the ticket
+     * did not finish in time
+     */
+    public Assertion get(String proxyTicket, Validator validator) {
+        Assertion cached = getCached(proxyTicket);
+        if (cached != null) {
+            return cached;
+        }
+
+        try {
+            return validations.execute(proxyTicket, () -> validate(proxyTicket, validator));
+        } catch (TimeoutException e) {
+            LOG.warn("The running validation of a proxy ticket did not finish in time");
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private Assertion validate(String proxyTicket, Validator validator) {
+        // another call may have finished its validation between the cache look-up and the start of this one
+        Assertion assertion = getCached(proxyTicket);
+        if (assertion != null) {
+            return assertion;
+        }
+
+        assertion = validator.validate();
+        if (policy == Policy.REUSE && assertion != null && assertion.isValid()) {
+            cache.put(proxyTicket, assertion);
+        }
+        return assertion;
+    }
+
+    private Assertion getCached(String proxyTicket) {
+        if (policy != Policy.REUSE) {
+            return null;
+        }
+
+        Assertion assertion = cache.getIfPresent(proxyTicket);
+        if (assertion != null && !assertion.isValid()) {
+            cache.asMap().remove(proxyTicket, assertion);
+            return null;
+        }
+        return assertion;
+    }
+
+    /**
+     * @return the number of validations which were sent to CAS and which were shared between concurrent calls
+     */
+    public SingleFlight.Statistics getValidationStatistics() {
+        return validations.getStatistics();
+    }
+
+    @VisibleForTesting
+    SingleFlight<String, Assertion> getValidations() {
+        return validations;
+    }
+
+    /**
+     * @return hit, miss and eviction counters of the kept assertions since server start
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    /**
+     * Validates a proxy ticket with CAS.
+     */
+    @FunctionalInterface
+    public interface Validator {
+        /**
+         * @return the assertion of the ticket or <code>null</code> if the ticket is not valid
+         */
+        Assertion validate();
+    }
+
+    enum Policy {
+        NONE, IN_FLIGHT, REUSE
+    }
+}
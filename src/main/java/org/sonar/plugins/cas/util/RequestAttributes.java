@@ -0,0 +1,90 @@
+package org.sonar.plugins.cas.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.server.http.HttpRequest;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Optional;
+
+/**
+ * This class reads attributes of the servlet request behind SonarQube's {@link HttpRequest}. The interface only
+ * allows to set attributes, so they are read from the request's delegate.
+ *
+ * <p>The delegate and its <code>getAttribute</code> method are looked up once per request class and kept as
+ * {@link MethodHandle}s. Request classes without these methods are remembered as well so that requests without a
+ * delegate do not cause exceptions over and over.</p>
+ */
+public final class RequestAttributes {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestAttributes.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType ATTRIBUTE_GETTER_TYPE = MethodType.methodType(Object.class, Object.class, String.class);
+
+    private static final ClassValue<Optional<MethodHandle>> DELEGATE_GETTERS = new ClassValue<Optional<MethodHandle>>() {
+        @Override
+        protected Optional<MethodHandle> computeValue(Class<?> type) {
+            return findMethod(type, "getDelegate").map(handle -> handle.asType(GETTER_TYPE));
+        }
+    };
+    private static final ClassValue<Optional<MethodHandle>> ATTRIBUTE_GETTERS = new ClassValue<Optional<MethodHandle>>() {
+        @Override
+        protected Optional<MethodHandle> computeValue(Class<?> type) {
+            return findMethod(type, "getAttribute", String.class).map(handle -> handle.asType(ATTRIBUTE_GETTER_TYPE));
+        }
+    };
+
+    private RequestAttributes() {
+    }
+
+    /**
+     * @param request the request whose delegate holds the attribute
+     * @param name    the name of the attribute
+     * @return the attribute's value or <code>null</code> if the attribute is not set or cannot be read
+     */
+    public static Object getAttribute(HttpRequest request, String name) {
+        return getAttribute(request, name, null);
+    }
+
+    /**
+     * @param request         the request whose delegate holds the attribute
+     * @param name            the name of the attribute
+     * @param unreadableValue the value which is returned if the request has no delegate to read the attribute from
+     * @return the attribute's value, <code>null</code> if the attribute is not set, or <code>unreadableValue</code>
+     * if the attribute cannot be read
+     */
+    public static Object getAttribute(HttpRequest request, String name, Object unreadableValue) {
+        Optional<MethodHandle> delegateGetter = DELEGATE_GETTERS.get(request.getClass());
+        if (!delegateGetter.isPresent()) {
+            return unreadableValue;
+        }
+
+        try {
+            Object delegate = (Object) delegateGetter.get().invokeExact((Object) request);
+            if (delegate == null) {
+                return unreadableValue;
+            }
+
+            Optional<MethodHandle> attributeGetter = ATTRIBUTE_GETTERS.get(delegate.getClass());
+            if (!attributeGetter.isPresent()) {
+                return unreadableValue;
+            }
+            return (Object) attributeGetter.get().invokeExact(delegate, name);
+        } catch (Throwable e) {
+            LOG.debug("Could not read request attribute {}", name, e);
+            return unreadableValue;
+        }
+    }
+
+    private static Optional<MethodHandle> findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = type.getMethod(name, parameterTypes);
+            return Optional.of(MethodHandles.lookup().unreflect(method));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            LOG.debug("Request class {} does not provide an accessible method {}", type.getName(), name);
+            return Optional.empty();
+        }
+    }
+}
@@ -58,7 +58,7 @@ public final class SimpleJwt {
         return jwtId;
     }
 
-    Instant getExpiration() {
+    public Instant getExpiration() {
         return Instant.ofEpochSecond(expiration);
     }
 
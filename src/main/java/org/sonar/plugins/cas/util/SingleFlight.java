@@ -0,0 +1,170 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.sonar.api.config.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * This class groups concurrent calls with the same key, e.g. the calls to CAS for the same credentials or ticket. Only
+ * the first call runs, all further calls with this key wait for its result instead of running themselves.
+ *
+ * <p>The result is only shared while the first call is running, it is not cached. Exceptions of the first call are
+ * thrown to all waiting calls as well. Waiting calls give up after the configured timeout. A timeout of zero disables
+ * the grouping so that every call runs on its own. Instances are thread-safe.</p>
+ *
+ * @param <K> the type of the key which identifies equal calls
+ * @param <V> the type of the result
+ */
+public final class SingleFlight<K, V> {
+    private final Duration timeout;
+    private final ConcurrentMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+    private final LongAdder executedCalls = new LongAdder();
+    private final LongAdder sharedCalls = new LongAdder();
+    private final LongAdder timedOutCalls = new LongAdder();
+    /**
+     * Is told about every call which waits for a running call. Only tests replace it.
+     */
+    private volatile Runnable sharedCallListener = () -> {
+    };
+
+    /**
+     * @param timeout the time a call waits for the result of another call with the same key
+     */
+    public SingleFlight(Duration timeout) {
+        if (timeout.isNegative()) {
+            throw new IllegalArgumentException("The single flight timeout must not be negative but was " + timeout);
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param longestCall the longest time the grouped call to CAS takes with the configured timeouts
+     * @return the configured time a call waits for the result of another call to CAS. It defaults to the longest call
+     * so that waiting calls do not give up while the running call may still succeed.
+     */
+    public static Duration getTimeout(Configuration configuration, Duration longestCall) {
+        return Duration.ofMillis(SonarCasProperties.SINGLE_FLIGHT_TIMEOUT_MILLIS
+                .getInteger(configuration, (int) longestCall.toMillis()));
+    }
+
+    /**
+     * Runs the call or waits for the result of a running call with the same key.
+     *
+     * @param key  identifies equal calls
+     * @param call the call which runs if no call with the same key is running
+     * @return the result of this or of the running call
+     * @throws TimeoutException     if the running call did not finish within the timeout
+     * @throws InterruptedException if the thread was interrupted while waiting for the running call
+     */
+    public V execute(K key, Supplier<V> call) throws TimeoutException, InterruptedException {
+        if (timeout.isZero()) {
+            executedCalls.increment();
+            return call.get();
+        }
+
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            sharedCalls.increment();
+            sharedCallListener.run();
+            return await(running);
+        }
+
+        executedCalls.increment();
+        try {
+            V value = call.get();
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    private V await(CompletableFuture<V> running) throws TimeoutException, InterruptedException {
+        try {
+            return running.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timedOutCalls.increment();
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    @VisibleForTesting
+    void setSharedCallListener(Runnable sharedCallListener) {
+        this.sharedCallListener = sharedCallListener;
+    }
+
+    /**
+     * @return a snapshot of the call counters since server start
+     */
+    public Statistics getStatistics() {
+        return new Statistics(executedCalls.sum(), sharedCalls.sum(), timedOutCalls.sum());
+    }
+
+    /**
+     * The counters of a {@link SingleFlight} since server start.
+     */
+    public static final class Statistics {
+        private final long executedCalls;
+        private final long sharedCalls;
+        private final long timedOutCalls;
+
+        Statistics(long executedCalls, long sharedCalls, long timedOutCalls) {
+            this.executedCalls = executedCalls;
+            this.sharedCalls = sharedCalls;
+            this.timedOutCalls = timedOutCalls;
+        }
+
+        /**
+         * @return the number of calls which ran themselves
+         */
+        public long getExecutedCalls() {
+            return executedCalls;
+        }
+
+        /**
+         * @return the number of calls which waited for the result of a running call, including those which timed out
+         */
+        public long getSharedCalls() {
+            return sharedCalls;
+        }
+
+        /**
+         * @return the number of calls which gave up waiting for a running call
+         */
+        public long getTimedOutCalls() {
+            return timedOutCalls;
+        }
+
+        /**
+         * @return the share of all calls which did not run themselves, between 0 and 1
+         */
+        public double getDeduplicationRatio() {
+            long calls = executedCalls + sharedCalls;
+            return calls == 0 ? 0 : (double) sharedCalls / calls;
+        }
+
+        @Override
+        public String toString() {
+            return "executedCalls=" + executedCalls + ", sharedCalls=" + sharedCalls + ", timedOutCalls="
+                    + timedOutCalls + ", deduplicationRatio=" + getDeduplicationRatio();
+        }
+    }
+}
@@ -35,6 +35,17 @@ public enum SonarCasProperties {
      * Force CAS authentication (no anonymous access allowed)
      */
     FORCE_CAS_LOGIN("sonar.cas.forceCasLogin", SonarPropertyType.BOOLEAN),
+    /**
+     * Comma-separated patterns of servlet paths which are requested without a redirect to the CAS log-in, in addition to
+     * the built-in entries. A pattern is an Ant-style glob (e.g. <code>/api/ce/**</code>) or a regular expression with
+     * the prefix <code>regex:</code>.
+     */
+    FORCE_CAS_LOGIN_ALLOW_LIST("sonar.cas.forceCasLogin.allowList", SonarPropertyType.STRING),
+    /**
+     * Comma-separated patterns of servlet paths which are never requested without CAS log-in, even if an allow pattern
+     * or a built-in entry matches them. The syntax equals {@link #FORCE_CAS_LOGIN_ALLOW_LIST}.
+     */
+    FORCE_CAS_LOGIN_DENY_LIST("sonar.cas.forceCasLogin.denyList", SonarPropertyType.STRING),
     /**
      * cas1, cas2, cas3 or saml11
      */
@@ -92,6 +103,111 @@ public enum SonarCasProperties {
      * Ignore certification validation errors. CAUTION! NEVER USE IN PROD! SECURITY RISK!
      */
     DISABLE_CERT_VALIDATION("sonar.cas.disableCertValidation", SonarPropertyType.BOOLEAN),
+    /**
+     * The time in milliseconds to establish a connection to CAS. Default is 5000 milliseconds.
+     */
+    HTTP_CLIENT_CONNECT_TIMEOUT_MILLIS("sonar.cas.httpClient.connectTimeoutMillis", SonarPropertyType.INTEGER),
+    /**
+     * The time in milliseconds to wait for a free connection and for the response of CAS. Default is
+     * 10000 milliseconds.
+     */
+    HTTP_CLIENT_READ_TIMEOUT_MILLIS("sonar.cas.httpClient.readTimeoutMillis", SonarPropertyType.INTEGER),
+    /**
+     * The maximal number of parallel requests to CAS per scheme, host and port. Default is 20.
+     */
+    HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE("sonar.cas.httpClient.maxConnectionsPerRoute", SonarPropertyType.INTEGER),
+    /**
+     * Offer HTTP/2 to CAS. The client falls back to HTTP/1.1 if CAS does not support it. Default is true.
+     */
+    HTTP_CLIENT_HTTP2("sonar.cas.httpClient.http2", SonarPropertyType.BOOLEAN),
+    /**
+     * The maximal number of ticket granting tickets which are kept for basic authentication credentials so that
+     * further API calls only request a service ticket. A value of 0 disables the cache. Default is 1000.
+     */
+    REST_CLIENT_TGT_CACHE_MAX_SIZE("sonar.cas.restClient.ticketGrantingTicketCache.maxSize", SonarPropertyType.INTEGER),
+    /**
+     * The time in seconds after which a cached ticket granting ticket is replaced. Must not exceed the lifetime of
+     * ticket granting tickets on the CAS server. Default is 7200 seconds.
+     */
+    REST_CLIENT_TGT_CACHE_TIME_TO_LIVE_SECONDS("sonar.cas.restClient.ticketGrantingTicketCache.timeToLiveSeconds", SonarPropertyType.INTEGER),
+    /**
+     * The time in seconds for which the validated CAS assertion of basic authentication credentials is reused without
+     * asking CAS. Default is 0 which disables the cache.
+     */
+    ASSERTION_CACHE_TIME_TO_LIVE_SECONDS("sonar.cas.assertionCache.timeToLiveSeconds", SonarPropertyType.INTEGER),
+    /**
+     * The maximal number of validated CAS assertions which are kept for basic authentication credentials. Default is
+     * 1000.
+     */
+    ASSERTION_CACHE_MAX_SIZE("sonar.cas.assertionCache.maxSize", SonarPropertyType.INTEGER),
+    /**
+     * Determines how API calls with the same proxy ticket share its validation: <code>none</code> validates every
+     * call with CAS, <code>inFlight</code> lets concurrent calls wait for one validation and <code>reuse</code>
+     * additionally keeps the assertion for a short time. Default is <code>none</code>.
+     */
+    PROXY_TICKET_CACHE_POLICY("sonar.cas.proxyTicketCache.policy", SonarPropertyType.STRING),
+    /**
+     * The time in seconds for which the assertion of a proxy ticket is kept with the policy <code>reuse</code>.
+     * Default is 10.
+     */
+    PROXY_TICKET_CACHE_TIME_TO_LIVE_SECONDS("sonar.cas.proxyTicketCache.timeToLiveSeconds", SonarPropertyType.INTEGER),
+    /**
+     * The maximal number of proxy ticket assertions which are kept with the policy <code>reuse</code>. Default is
+     * 1000.
+     */
+    PROXY_TICKET_CACHE_MAX_SIZE("sonar.cas.proxyTicketCache.maxSize", SonarPropertyType.INTEGER),
+    /**
+     * The time in milliseconds for which a call waits for a running CAS call with the same credentials or proxy ticket
+     * instead of calling CAS itself. 0 lets every call ask CAS on its own. Defaults to the longest time of the running
+     * call with the configured timeouts: the authentication timeout plus twice the read timeout of the HTTP client for
+     * basic authentication (35000 with the default timeouts) and twice the read timeout for proxy tickets (20000).
+     */
+    SINGLE_FLIGHT_TIMEOUT_MILLIS("sonar.cas.singleFlight.timeoutMillis", SonarPropertyType.INTEGER),
+    /**
+     * The time in milliseconds within which CAS must issue the service ticket of an API call with basic
+     * authentication. The authentication fails afterwards without waiting for CAS any longer. Default is 15000.
+     */
+    REST_CLIENT_AUTHENTICATION_TIMEOUT_MILLIS("sonar.cas.restClient.authenticationTimeoutMillis", SonarPropertyType.INTEGER),
+    /**
+     * This value determines whether calls to CAS fail fast while CAS fails or responds slowly. Default is
+     * <code>true</code>.
+     */
+    CIRCUIT_BREAKER_ENABLED("sonar.cas.circuitBreaker.enabled", SonarPropertyType.BOOLEAN),
+    /**
+     * The percentage of failed calls among the recent calls to CAS at which the circuit breaker opens. Default is 50.
+     */
+    CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD("sonar.cas.circuitBreaker.failureRateThreshold", SonarPropertyType.INTEGER),
+    /**
+     * The percentage of slow calls among the recent calls to CAS at which the circuit breaker opens. Default is 100.
+     */
+    CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD("sonar.cas.circuitBreaker.slowCallRateThreshold", SonarPropertyType.INTEGER),
+    /**
+     * The time in milliseconds after which a call to CAS counts as slow. Default is 5000.
+     */
+    CIRCUIT_BREAKER_SLOW_CALL_DURATION_MILLIS("sonar.cas.circuitBreaker.slowCallDurationMillis", SonarPropertyType.INTEGER),
+    /**
+     * The number of recent calls to CAS from which the failure and slow call rates are computed. Default is 20.
+     */
+    CIRCUIT_BREAKER_SLIDING_WINDOW_SIZE("sonar.cas.circuitBreaker.slidingWindowSize", SonarPropertyType.INTEGER),
+    /**
+     * The number of calls to CAS which are needed before the circuit breaker computes the rates. Default is 10.
+     */
+    CIRCUIT_BREAKER_MINIMUM_NUMBER_OF_CALLS("sonar.cas.circuitBreaker.minimumNumberOfCalls", SonarPropertyType.INTEGER),
+    /**
+     * The time in milliseconds for which an open circuit breaker rejects calls to CAS before it lets trial calls
+     * through. Default is 30000.
+     */
+    CIRCUIT_BREAKER_WAIT_DURATION_IN_OPEN_STATE_MILLIS("sonar.cas.circuitBreaker.waitDurationInOpenStateMillis", SonarPropertyType.INTEGER),
+    /**
+     * The number of trial calls to CAS which decide whether a half-open circuit breaker closes or opens again. Default
+     * is 3.
+     */
+    CIRCUIT_BREAKER_PERMITTED_CALLS_IN_HALF_OPEN_STATE("sonar.cas.circuitBreaker.permittedCallsInHalfOpenState", SonarPropertyType.INTEGER),
+    /**
+     * The interval in seconds in which the counters of the connections to CAS are logged. 0 disables the log. Default
+     * is 900.
+     */
+    STATISTICS_LOG_INTERVAL_IN_SECS("sonar.cas.statisticsLog.intervalInSeconds", SonarPropertyType.INTEGER),
     /**
      * This value determines whether a Redirect Cookie after the CAS login uses the Secure-flag. Cookies with
      * <code>secure=true</code> will only work properly in conjunction with HTTPS.
@@ -99,6 +215,14 @@ public enum SonarCasProperties {
      * <p>default to <code>true</code></p>
      */
     USE_SECURE_REDIRECT_COOKIES("sonar.cas.userSecureRedirectCookies", SonarPropertyType.BOOLEAN),
+    /**
+     * Determines how the CAS logout javascript reaches SonarQube's pages. <code>body</code> appends the script tag to
+     * every HTML response. <code>none</code> leaves the responses untouched, e.g. if a reverse proxy delivers the
+     * script.
+     *
+     * <p>Defaults to "body".</p>
+     */
+    LOGOUT_SCRIPT_INJECTION("sonar.cas.logoutScriptInjection", SonarPropertyType.STRING),
     /**
      * The expiration time of the cookie which helps to restore the originally requested SonarQube URL over the CAS authentication
      */
@@ -111,6 +235,57 @@ public enum SonarCasProperties {
      */
     SESSION_STORE_PATH("sonar.cas.sessionStorePath", SonarPropertyType.STRING),
 
+    /**
+     * Selects the implementation of the CAS session store. <code>file</code> stores one file per JWT and per service
+     * ticket. <code>journal</code> keeps all entries in memory and persists changes in a single append-only journal
+     * file below {@link #SESSION_STORE_PATH}. <code>mapped</code> keeps all entries in memory-mapped hash table files
+     * below {@link #SESSION_STORE_PATH}.
+     *
+     * <p>Defaults to "file".</p>
+     */
+    SESSION_STORE_TYPE("sonar.cas.sessionStore.type", SonarPropertyType.STRING),
+
+    /**
+     * The number of refreshed JWTs which the <code>file</code> session store keeps in memory until a background thread
+     * writes them to disk. Requests wait for the disk when the queue is full. A value of 0 writes refreshes
+     * synchronously.
+     *
+     * <p>Defaults to 1024.</p>
+     */
+    SESSION_STORE_REFRESH_QUEUE_SIZE("sonar.cas.sessionStore.refreshQueueSize", SonarPropertyType.INTEGER),
+
+    /**
+     * The number of slots of each hash table when the <code>mapped</code> session store is created for the first time.
+     * The value is rounded up to the next power of two. Existing tables keep their size.
+     *
+     * <p>Defaults to 65536.</p>
+     */
+    SESSION_STORE_MAPPED_INITIAL_CAPACITY("sonar.cas.sessionStore.mapped.initialCapacity", SonarPropertyType.INTEGER),
+
+    /**
+     * The percentage of used slots at which a hash table of the <code>mapped</code> session store is rehashed into a
+     * bigger file. Must be between 10 and 95.
+     *
+     * <p>Defaults to 70.</p>
+     */
+    SESSION_STORE_MAPPED_MAX_LOAD_PERCENT("sonar.cas.sessionStore.mapped.maxLoadPercent", SonarPropertyType.INTEGER),
+
+    /**
+     * The maximal length of a JWT ID which can be stored in the <code>mapped</code> session store. Changing this value
+     * requires removing the existing table files.
+     *
+     * <p>Defaults to 64.</p>
+     */
+    SESSION_STORE_MAPPED_MAX_JWT_ID_LENGTH("sonar.cas.sessionStore.mapped.maxJwtIdLength", SonarPropertyType.INTEGER),
+
+    /**
+     * The maximal length of a service ticket which can be stored in the <code>mapped</code> session store. Changing
+     * this value requires removing the existing table files.
+     *
+     * <p>Defaults to 256.</p>
+     */
+    SESSION_STORE_MAPPED_MAX_SERVICE_TICKET_LENGTH("sonar.cas.sessionStore.mapped.maxServiceTicketLength", SonarPropertyType.INTEGER),
+
     /**
      * The CAS session store stores JWT tokens which have an expiration date. These are kept for black- and whitelisting
      * JWTs from a user in order to prohibit attackers which gained access to a user's old JWT tokens.
@@ -120,6 +295,47 @@ public enum SonarCasProperties {
      */
     SESSION_STORE_CLEANUP_INTERVAL_IN_SECS("sonar.cas.sessionStore.cleanUpIntervalInSeconds", SonarPropertyType.INTEGER),
 
+    /**
+     * The shortest interval in seconds between two clean up runs. The interval is shortened down to this value while
+     * the runs find many expired entries and grows back to
+     * <code>sonar.cas.sessionStore.cleanUpIntervalInSeconds</code> afterwards.
+     *
+     * <p>Defaults to 60.</p>
+     */
+    SESSION_STORE_CLEANUP_MIN_INTERVAL_IN_SECS("sonar.cas.sessionStore.cleanUp.minIntervalInSeconds", SonarPropertyType.INTEGER),
+
+    /**
+     * The number of expired sessions which the clean-up of the <code>file</code> session store removes before it yields
+     * to other threads.
+     *
+     * <p>Defaults to 1000.</p>
+     */
+    SESSION_STORE_CLEANUP_BATCH_SIZE("sonar.cas.sessionStore.cleanUp.batchSize", SonarPropertyType.INTEGER),
+
+    /**
+     * Limits the number of files which the clean-up of the <code>file</code> session store deletes per second so that
+     * the clean-up does not compete with log-ins for disk bandwidth.
+     *
+     * <p>Defaults to 0 (unlimited).</p>
+     */
+    SESSION_STORE_CLEANUP_MAX_DELETES_PER_SECOND("sonar.cas.sessionStore.cleanUp.maxDeletesPerSecond", SonarPropertyType.INTEGER),
+
+    /**
+     * Limits the number of files which a single clean-up run of the <code>file</code> session store deletes. Remaining
+     * files are deleted by the next run.
+     *
+     * <p>Defaults to 0 (unlimited).</p>
+     */
+    SESSION_STORE_CLEANUP_MAX_DELETES_PER_RUN("sonar.cas.sessionStore.cleanUp.maxDeletesPerRun", SonarPropertyType.INTEGER),
+
+    /**
+     * The number of threads which delete files during the clean-up of the <code>file</code> session store. Values
+     * above 1 pay off on storage which handles parallel I/O well, like SSDs.
+     *
+     * <p>Defaults to 1.</p>
+     */
+    SESSION_STORE_CLEANUP_PARALLELISM("sonar.cas.sessionStore.cleanUp.parallelism", SonarPropertyType.INTEGER),
+
     /**
      * Contains a regular expression that restricts URLs which are allowed to issue proxy tickets. The less specific this
      * regular expression is, the broader is the attack surface of CAS proxy ticketing. This key is mandatory if proxy
@@ -0,0 +1,150 @@
+package org.sonar.plugins.cas.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * This class checks whether a text contains any of a fixed set of patterns in a single pass over the text
+ * (Aho-Corasick).
+ *
+ * <p>The patterns are compiled into a deterministic automaton once. Its alphabet consists only of the characters
+ * which occur in the patterns. All other characters share one column of the transition table. Instances are
+ * immutable and thread-safe.</p>
+ */
+public final class SubstringMatcher {
+    private static final int ROOT = 0;
+    private static final int OTHER_CHARACTER = 0;
+
+    /**
+     * Maps ASCII characters to their column in the transition table.
+     */
+    private final int[] asciiColumns = new int[128];
+    /**
+     * Maps all other characters of the patterns to their column in the transition table.
+     */
+    private final Map<Character, Integer> otherColumns = new HashMap<>();
+    private final int[][] transitions;
+    private final boolean[] matching;
+
+    private SubstringMatcher(Collection<String> patterns) {
+        int columns = 1;
+        for (String pattern : patterns) {
+            for (char c : pattern.toCharArray()) {
+                if (columnOf(c) == OTHER_CHARACTER) {
+                    setColumn(c, columns++);
+                }
+            }
+        }
+
+        List<int[]> trie = new ArrayList<>();
+        List<Boolean> terminal = new ArrayList<>();
+        trie.add(newState(columns));
+        terminal.add(false);
+        for (String pattern : patterns) {
+            int state = ROOT;
+            for (char c : pattern.toCharArray()) {
+                int column = columnOf(c);
+                if (trie.get(state)[column] < 0) {
+                    trie.add(newState(columns));
+                    terminal.add(false);
+                    trie.get(state)[column] = trie.size() - 1;
+                }
+                state = trie.get(state)[column];
+            }
+            terminal.set(state, true);
+        }
+
+        this.transitions = trie.toArray(new int[0][]);
+        this.matching = new boolean[transitions.length];
+        for (int state = 0; state < matching.length; state++) {
+            matching[state] = terminal.get(state);
+        }
+        compile(columns);
+    }
+
+    /**
+     * @param patterns the substrings to look for. An empty pattern matches every text.
+     */
+    public static SubstringMatcher of(Collection<String> patterns) {
+        return new SubstringMatcher(patterns);
+    }
+
+    /**
+     * @return <code>true</code> if the text contains at least one of the patterns
+     */
+    public boolean containsAny(CharSequence text) {
+        int state = ROOT;
+        if (matching[state]) {
+            return true;
+        }
+
+        for (int i = 0; i < text.length(); i++) {
+            state = transitions[state][columnOf(text.charAt(i))];
+            if (matching[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Turns the trie into a deterministic automaton: missing transitions follow the failure link of their state, i.e.
+     * the state of the longest proper suffix which is also a prefix of a pattern.
+     */
+    private void compile(int columns) {
+        int[] failure = new int[transitions.length];
+        Queue<Integer> queue = new ArrayDeque<>();
+
+        for (int column = 0; column < columns; column++) {
+            int next = transitions[ROOT][column];
+            if (next < 0) {
+                transitions[ROOT][column] = ROOT;
+            } else {
+                failure[next] = ROOT;
+                queue.add(next);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            matching[state] |= matching[failure[state]];
+
+            for (int column = 0; column < columns; column++) {
+                int next = transitions[state][column];
+                if (next < 0) {
+                    transitions[state][column] = transitions[failure[state]][column];
+                } else {
+                    failure[next] = transitions[failure[state]][column];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private static int[] newState(int columns) {
+        int[] state = new int[columns];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    private int columnOf(char c) {
+        if (c < asciiColumns.length) {
+            return asciiColumns[c];
+        }
+        return otherColumns.getOrDefault(c, OTHER_CHARACTER);
+    }
+
+    private void setColumn(char c, int column) {
+        if (c < asciiColumns.length) {
+            asciiColumns[c] = column;
+        } else {
+            otherColumns.put(c, column);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps the ticket granting tickets (TGT) which the CAS REST API issued for basic authentication credentials,
+ * so that further API calls with the same credentials only request a service ticket.
+ *
+ * <p>Passwords are never stored. Entries are keyed by a {@link CredentialFingerprint}. A TGT is kept at most for the
+ * configured time to live which must not exceed the TGT lifetime of CAS. CAS logouts of a user drop all TGTs of this user. Concurrent requests with the same
+ * uncached credentials share the future of a single TGT request.</p>
+ */
+@ServerSide
+public final class TicketGrantingTicketCache {
+    private static final Logger LOG = LoggerFactory.getLogger(TicketGrantingTicketCache.class);
+    static final int DEFAULT_MAXIMUM_SIZE = 1000;
+    static final int DEFAULT_TIME_TO_LIVE_SECONDS = 7200;
+
+    private final Cache<CredentialFingerprint, String> cache;
+    /**
+     * The TGT requests which are still running. Their results are cached once they complete.
+     */
+    private final Map<CredentialFingerprint, CompletableFuture<String>> loading = new ConcurrentHashMap<>();
+    private final boolean enabled;
+
+    /** This constructor is used with Dependency Injection during SonarQube start-up time */
+    public TicketGrantingTicketCache(Configuration configuration) {
+        this(SonarCasProperties.REST_CLIENT_TGT_CACHE_MAX_SIZE.getInteger(configuration, DEFAULT_MAXIMUM_SIZE),
+                Duration.ofSeconds(SonarCasProperties.REST_CLIENT_TGT_CACHE_TIME_TO_LIVE_SECONDS
+                        .getInteger(configuration, DEFAULT_TIME_TO_LIVE_SECONDS)),
+                Ticker.systemTicker());
+
+        if (!enabled) {
+            LOG.info("The cache of ticket granting tickets for the CAS REST API is disabled");
+        }
+    }
+
+    @VisibleForTesting
+    TicketGrantingTicketCache(int maximumSize, Duration timeToLive, Ticker ticker) {
+        this.enabled = maximumSize > 0 && !timeToLive.isZero() && !timeToLive.isNegative();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maximumSize, 0))
+                .expireAfterWrite(enabled ? timeToLive : Duration.ZERO)
+                .ticker(ticker)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return a cache which always creates a new TGT
+     */
+    public static TicketGrantingTicketCache disabled() {
+        return new TicketGrantingTicketCache(0, Duration.ZERO, Ticker.systemTicker());
+    }
+
+    /**
+     * Returns the cached TGT of the credentials or creates and caches a new one. Concurrent calls with the same
+     * uncached credentials call the loader only once and share its result. Failures of the loader are passed through
+     * unchanged and are not cached.
+     */
+    public CompletableFuture<String> get(String username, String password, Loader loader) {
+        if (!enabled) {
+            return load(loader);
+        }
+
+        CredentialFingerprint fingerprint = CredentialFingerprint.of(username, password);
+        String cached = cache.getIfPresent(fingerprint);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> running = loading.putIfAbsent(fingerprint, created);
+        if (running != null) {
+            return running;
+        }
+        // another request may have cached its TGT between the lookup and the registration
+        cached = cache.asMap().get(fingerprint);
+        if (cached != null) {
+            loading.remove(fingerprint, created);
+            created.complete(cached);
+            return created;
+        }
+
+        load(loader).whenComplete((ticketGrantingTicket, error) -> {
+            // a logout of the user during the request removes the request so that its TGT is not cached
+            if (loading.remove(fingerprint, created) && error == null) {
+                cache.put(fingerprint, ticketGrantingTicket);
+            }
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(ticketGrantingTicket);
+            }
+        });
+        return created;
+    }
+
+    private static CompletableFuture<String> load(Loader loader) {
+        try {
+            return loader.createGrantingTicket();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Removes the TGT of the credentials if it is still the given one, e.g. after CAS did not know it anymore.
+     */
+    public void invalidate(String username, String password, String ticketGrantingTicket) {
+        if (enabled) {
+            cache.asMap().remove(CredentialFingerprint.of(username, password), ticketGrantingTicket);
+        }
+    }
+
+    /**
+     * Removes all TGTs of the user, regardless of the password. The username is compared case-insensitively because
+     * CAS may name the user in another case than the credentials of the API call. A TGT of another user with the same
+     * name in another case is removed as well, which only costs a new TGT request.
+     */
+    public void invalidateUser(String username) {
+        if (!enabled) {
+            return;
+        }
+        loading.keySet().removeIf(key -> key.getUsername().equalsIgnoreCase(username));
+        if (cache.asMap().keySet().removeIf(key -> key.getUsername().equalsIgnoreCase(username))) {
+            LOG.debug("Removed the cached ticket granting tickets of user {}", username);
+        }
+    }
+
+    /**
+     * @return hit, miss and eviction counters since server start
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    /**
+     * Requests a new TGT for the credentials.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * @return the new TGT; the future fails with a {@link CasAuthenticationException} if CAS did not issue a TGT
+         */
+        CompletableFuture<String> createGrantingTicket();
+    }
+}
@@ -27,7 +27,19 @@ import org.jasig.cas.client.validation.TicketValidator;
 import org.junit.Test;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.security.UserDetails;
+import org.sonar.plugins.cas.util.AssertionCache;
+import org.sonar.plugins.cas.util.CasUnavailableException;
 import org.sonar.plugins.cas.util.MockHttpRequest;
+import org.sonar.plugins.cas.util.ProxyTicketCache;
+import org.sonar.plugins.cas.util.SharedCallLatch;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Matchers.any;
@@ -78,6 +90,187 @@ public class CasAuthenticatorTest {
         verify(validator).validate(any(), any());
     }
 
+    @Test
+    public void userShouldAuthenticateRepeatedRestCallsByCachedAssertion() throws TicketValidationException {
+        // given
+        Configuration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.casServerUrlPrefix", CAS_SERVER_PREFIX)
+                .withAttribute("sonar.cas.sonarServerUrl", SONAR_SERVER_URL_PREFIX)
+                .withAttribute("sonar.cas.assertionCache.timeToLiveSeconds", "60");
+        CasAttributeSettings attributes = new CasAttributeSettings(configuration);
+
+        TicketValidator validator = mock(TicketValidator.class);
+        Assertion assertion = mock(Assertion.class);
+        when(assertion.getPrincipal()).thenReturn(new AttributePrincipalImpl("mrt"));
+        when(assertion.isValid()).thenReturn(true);
+        when(validator.validate(any(), any())).thenReturn(assertion);
+        TicketValidatorFactory ticketValidatorFactory = mock(TicketValidatorFactory.class);
+        when(ticketValidatorFactory.create()).thenReturn(validator);
+
+        CasRestClientFactory casRestClientFactory = new CasRestClientFactory(configuration, new EasyTicketTestCasRestClient());
+        AssertionCache assertionCache = new AssertionCache(configuration);
+        CasAuthenticator sut = new CasAuthenticator(configuration, attributes, ticketValidatorFactory,
+                casRestClientFactory, assertionCache, ProxyTicketCache.disabled());
+
+        // when
+        boolean first = sut.doAuthenticate(createBasicAuthContext("mrt", "secret"));
+        boolean second = sut.doAuthenticate(createBasicAuthContext("mrt", "secret"));
+        boolean otherPassword = sut.doAuthenticate(createBasicAuthContext("mrt", "guessed"));
+
+        // then
+        assertThat(first).isTrue();
+        assertThat(second).isTrue();
+        assertThat(otherPassword).isTrue();
+        verify(validator, times(2)).validate(any(), any());
+        assertThat(assertionCache.stats().hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void concurrentRestCallsWithTheSameCredentialsShouldShareOneAuthentication() throws Exception {
+        // given
+        Configuration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.casServerUrlPrefix", CAS_SERVER_PREFIX)
+                .withAttribute("sonar.cas.sonarServerUrl", SONAR_SERVER_URL_PREFIX);
+        CasAttributeSettings attributes = new CasAttributeSettings(configuration);
+
+        CountDownLatch validationStarted = new CountDownLatch(1);
+        CountDownLatch finishValidation = new CountDownLatch(1);
+        TicketValidator validator = mock(TicketValidator.class);
+        Assertion assertion = mock(Assertion.class);
+        when(assertion.getPrincipal()).thenReturn(new AttributePrincipalImpl("mrt"));
+        when(assertion.isValid()).thenReturn(true);
+        when(validator.validate(any(), any())).thenAnswer(invocation -> {
+            validationStarted.countDown();
+            finishValidation.await(5, TimeUnit.SECONDS);
+            return assertion;
+        });
+        TicketValidatorFactory ticketValidatorFactory = mock(TicketValidatorFactory.class);
+        when(ticketValidatorFactory.create()).thenReturn(validator);
+
+        CasRestClientFactory casRestClientFactory = new CasRestClientFactory(configuration, new EasyTicketTestCasRestClient());
+        CasAuthenticator sut = new CasAuthenticator(configuration, attributes, ticketValidatorFactory,
+                casRestClientFactory);
+        SharedCallLatch sharedAuthentication = SharedCallLatch.of(sut.getCredentialFlights(), 1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            // when
+            Future<Boolean> first = executor.submit(() -> sut.doAuthenticate(createBasicAuthContext("mrt", "secret")));
+            assertThat(validationStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<Boolean> second = executor.submit(() -> sut.doAuthenticate(createBasicAuthContext("mrt", "secret")));
+            sharedAuthentication.await();
+            finishValidation.countDown();
+
+            // then
+            assertThat(first.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(second.get(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(validator, times(1)).validate(any(), any());
+        assertThat(sut.getCredentialFlightStatistics().getSharedCalls()).isEqualTo(1);
+    }
+
+    @Test
+    public void userShouldNotBeAuthenticatedIfCasDoesNotIssueAServiceTicketInTime() {
+        // given
+        Configuration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.casServerUrlPrefix", CAS_SERVER_PREFIX)
+                .withAttribute("sonar.cas.sonarServerUrl", SONAR_SERVER_URL_PREFIX)
+                .withAttribute("sonar.cas.restClient.authenticationTimeoutMillis", "100");
+        CasAttributeSettings attributes = new CasAttributeSettings(configuration);
+        TicketValidatorFactory ticketValidatorFactory = mock(TicketValidatorFactory.class);
+
+        CompletableFuture<String> pendingServiceTicket = new CompletableFuture<>();
+        CasRestClient slowClient = new EasyTicketTestCasRestClient() {
+            @Override
+            public CompletableFuture<String> createServiceTicketAsync(String username, String password) {
+                return pendingServiceTicket;
+            }
+        };
+        CasRestClientFactory casRestClientFactory = new CasRestClientFactory(configuration, slowClient);
+        CasAuthenticator sut = new CasAuthenticator(configuration, attributes, ticketValidatorFactory,
+                casRestClientFactory);
+
+        // when
+        boolean actual = sut.doAuthenticate(createBasicAuthContext("mrt", "secret"));
+
+        // then
+        assertThat(actual).isFalse();
+        assertThat(pendingServiceTicket.isCancelled()).isTrue();
+        verify(ticketValidatorFactory, never()).create();
+    }
+
+    @Test
+    public void basicAuthShouldBeRejectedWhileCasIsUnavailable() {
+        // given
+        Configuration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.casServerUrlPrefix", CAS_SERVER_PREFIX)
+                .withAttribute("sonar.cas.sonarServerUrl", SONAR_SERVER_URL_PREFIX);
+        CasAttributeSettings attributes = new CasAttributeSettings(configuration);
+        TicketValidatorFactory ticketValidatorFactory = mock(TicketValidatorFactory.class);
+        CasRestClient unavailableClient = new EasyTicketTestCasRestClient() {
+            @Override
+            public CompletableFuture<String> createServiceTicketAsync(String username, String password) {
+                CompletableFuture<String> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(new CasUnavailableException("circuit breaker is open", Duration.ofSeconds(30)));
+                return rejected;
+            }
+        };
+        CasAuthenticator sut = new CasAuthenticator(configuration, attributes, ticketValidatorFactory,
+                new CasRestClientFactory(configuration, unavailableClient));
+
+        // when
+        boolean first = sut.doAuthenticate(createBasicAuthContext("mrt", "secret"));
+        boolean second = sut.doAuthenticate(createBasicAuthContext("mrt", "secret"));
+
+        // then
+        assertThat(first).isFalse();
+        assertThat(second).isFalse();
+        assertThat(sut.isCasUnavailable()).isTrue();
+        verify(ticketValidatorFactory, never()).create();
+    }
+
+    @Test
+    public void proxyTicketShouldBeRejectedWhileCasIsUnavailableAndAcceptedOnceCasAnswersAgain()
+            throws TicketValidationException {
+        // given
+        Configuration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.casServerUrlPrefix", CAS_SERVER_PREFIX)
+                .withAttribute("sonar.cas.sonarServerUrl", SONAR_SERVER_URL_PREFIX);
+        CasAttributeSettings attributes = new CasAttributeSettings(configuration);
+        TicketValidator validator = mock(TicketValidator.class);
+        Assertion assertion = mock(Assertion.class);
+        when(assertion.getPrincipal()).thenReturn(new AttributePrincipalImpl("mrt"));
+        when(assertion.isValid()).thenReturn(true);
+        when(validator.validate(any(), any()))
+                .thenThrow(new IllegalStateException(new CasUnavailableException("circuit breaker is open",
+                        Duration.ofSeconds(30))))
+                .thenReturn(assertion);
+        TicketValidatorFactory ticketValidatorFactory = mock(TicketValidatorFactory.class);
+        when(ticketValidatorFactory.createForProxy()).thenReturn(validator);
+        CasAuthenticator sut = new CasAuthenticator(configuration, attributes, ticketValidatorFactory,
+                new CasRestClientFactory(configuration, new EasyTicketTestCasRestClient()));
+
+        // when
+        boolean rejected = sut.doAuthenticate(createBasicAuthContext("mrt", "ProxyTicket===:ST-1234"));
+        boolean unavailableBeforeRecovery = sut.isCasUnavailable();
+        boolean accepted = sut.doAuthenticate(createBasicAuthContext("mrt", "ProxyTicket===:ST-5678"));
+
+        // then
+        assertThat(rejected).isFalse();
+        assertThat(unavailableBeforeRecovery).isTrue();
+        assertThat(accepted).isTrue();
+        assertThat(sut.isCasUnavailable()).isFalse();
+    }
+
+    private static CasAuthenticator.Context createBasicAuthContext(String username, String password) {
+        MockHttpRequest request = new MockHttpRequest();
+        request.requestURL = "https://sonar.server.com/api/endpoint";
+        request.setAttribute(UserDetails.class.getName(), new UserDetails());
+        return new CasAuthenticator.Context(username, password, request);
+    }
+
     @Test
     public void userShouldAuthenticateRestCallByProxyTicket() throws TicketValidationException {
         // given
@@ -117,6 +310,42 @@ public class CasAuthenticatorTest {
         verify(validator).validate(any(), any());
     }
 
+    @Test
+    public void userShouldAuthenticateRepeatedRestCallsWithTheSameProxyTicketByCachedAssertion()
+            throws TicketValidationException {
+        // given
+        Configuration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.casServerUrlPrefix", CAS_SERVER_PREFIX)
+                .withAttribute("sonar.cas.sonarServerUrl", SONAR_SERVER_URL_PREFIX)
+                .withAttribute("sonar.cas.proxyTicketCache.policy", "reuse");
+        CasAttributeSettings attributes = new CasAttributeSettings(configuration);
+
+        TicketValidator validator = mock(TicketValidator.class);
+        Assertion assertion = mock(Assertion.class);
+        when(assertion.getPrincipal()).thenReturn(new AttributePrincipalImpl("mrt"));
+        when(assertion.isValid()).thenReturn(true);
+        when(validator.validate(any(), any())).thenReturn(assertion);
+        TicketValidatorFactory ticketValidatorFactory = mock(TicketValidatorFactory.class);
+        when(ticketValidatorFactory.createForProxy()).thenReturn(validator);
+
+        CasRestClientFactory casRestClientFactory = new CasRestClientFactory(configuration, new EasyTicketTestCasRestClient());
+        ProxyTicketCache proxyTicketCache = new ProxyTicketCache(configuration, new CasHttpClientPool(configuration));
+        CasAuthenticator sut = new CasAuthenticator(configuration, attributes, ticketValidatorFactory,
+                casRestClientFactory, AssertionCache.disabled(), proxyTicketCache);
+
+        // when
+        boolean first = sut.doAuthenticate(createBasicAuthContext("mrt", "ProxyTicket===:PT-1234"));
+        boolean second = sut.doAuthenticate(createBasicAuthContext("mrt", "ProxyTicket===:PT-1234"));
+        boolean otherTicket = sut.doAuthenticate(createBasicAuthContext("mrt", "ProxyTicket===:PT-5678"));
+
+        // then
+        assertThat(first).isTrue();
+        assertThat(second).isTrue();
+        assertThat(otherTicket).isTrue();
+        verify(validator, times(2)).validate(any(), any());
+        assertThat(proxyTicketCache.stats().hitCount()).isEqualTo(1);
+    }
+
     @Test
     public void userShouldNotBeAuthenticated() {
         Configuration configuration = new SonarTestConfiguration()
@@ -232,8 +461,8 @@ public class CasAuthenticatorTest {
         }
 
         @Override
-        public String createServiceTicket(String username, String password) {
-            return "ST-1234";
+        public CompletableFuture<String> createServiceTicketAsync(String username, String password) {
+            return CompletableFuture.completedFuture("ST-1234");
         }
     }
 }
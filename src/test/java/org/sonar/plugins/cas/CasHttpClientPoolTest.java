@@ -0,0 +1,295 @@
+package org.sonar.plugins.cas;
+
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.cas.util.CasUnavailableException;
+import org.sonar.plugins.cas.util.CircuitBreaker;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class CasHttpClientPoolTest {
+    private static final char[] KEY_STORE_PASSWORD = "changeit".toCharArray();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch releaseSlowRequests = new CountDownLatch(1);
+    private final AtomicInteger brokenRequests = new AtomicInteger();
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/tickets", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            String form = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            byte[] body = form.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            // the request timeout ends with the response headers, the body keeps the connection busy
+            exchange.sendResponseHeaders(200, 0);
+            exchange.getResponseBody().flush();
+            try {
+                releaseSlowRequests.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.createContext("/broken", exchange -> {
+            brokenRequests.incrementAndGet();
+            // an unread request body makes the server close the connection which the client wants to reuse
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        releaseSlowRequests.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void postShouldReuseTheConnection() throws IOException {
+        CasHttpClientPool sut = new CasHttpClientPool(settings(4, Duration.ofSeconds(5)));
+
+        HttpResponse<String> first = sut.post(baseUrl + "/v1/tickets", "username=user&password=secret");
+        HttpResponse<String> second = sut.post(baseUrl + "/v1/tickets", "service=sonar");
+
+        assertThat(first.statusCode()).isEqualTo(200);
+        assertThat(first.body()).isEqualTo("username=user&password=secret");
+        assertThat(second.body()).isEqualTo("service=sonar");
+        assertThat(clientPorts).hasSize(1);
+        CasHttpClientPool.Statistics statistics = sut.getStatistics();
+        assertThat(statistics.getRequests()).isEqualTo(2);
+        assertThat(statistics.getFailedRequests()).isEqualTo(0);
+        assertThat(statistics.getBusyConnections().get(baseUrl)).isEqualTo(0);
+    }
+
+    @Test
+    public void postShouldRejectRequestsWhenNoConnectionBecomesFree() throws Exception {
+        CasHttpClientPool sut = new CasHttpClientPool(settings(1, Duration.ofMillis(300)));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> sut.post(baseUrl + "/slow", ""));
+            waitForBusyConnection(sut);
+
+            try {
+                sut.post(baseUrl + "/v1/tickets", "service=sonar");
+                fail("expected IOException");
+            } catch (IOException e) {
+                assertThat(e.getMessage()).contains("No connection to " + baseUrl);
+            }
+
+            CasHttpClientPool.Statistics statistics = sut.getStatistics();
+            assertThat(statistics.getWaitingRequests()).isEqualTo(1);
+            assertThat(statistics.getRejectedRequests()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void postAsyncShouldReuseTheConnection() throws Exception {
+        CasHttpClientPool sut = new CasHttpClientPool(settings(4, Duration.ofSeconds(5)));
+
+        HttpResponse<String> first = sut.postAsync(baseUrl + "/v1/tickets", "username=user&password=secret")
+                .get(5, TimeUnit.SECONDS);
+        HttpResponse<String> second = sut.post(baseUrl + "/v1/tickets", "service=sonar");
+
+        assertThat(first.body()).isEqualTo("username=user&password=secret");
+        assertThat(second.body()).isEqualTo("service=sonar");
+        assertThat(clientPorts).hasSize(1);
+        assertThat(sut.getStatistics().getRequests()).isEqualTo(2);
+        assertThat(sut.getStatistics().getBusyConnections().get(baseUrl)).isEqualTo(0);
+    }
+
+    @Test
+    public void postAsyncShouldFailAtOnceWhenNoConnectionIsFree() throws Exception {
+        CasHttpClientPool sut = new CasHttpClientPool(settings(1, Duration.ofSeconds(5)));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> sut.post(baseUrl + "/slow", ""));
+            waitForBusyConnection(sut);
+
+            try {
+                sut.postAsync(baseUrl + "/v1/tickets", "service=sonar").get(1, TimeUnit.SECONDS);
+                fail("expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(IOException.class);
+                assertThat(e.getCause().getMessage()).contains("connections to " + baseUrl + " are busy");
+            }
+
+            CasHttpClientPool.Statistics statistics = sut.getStatistics();
+            assertThat(statistics.getWaitingRequests()).isEqualTo(0);
+            assertThat(statistics.getRejectedRequests()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void postShouldCountFailedRequests() {
+        CasHttpClientPool sut = new CasHttpClientPool(settings(1, Duration.ofSeconds(5)));
+        server.stop(0);
+
+        try {
+            sut.post(baseUrl + "/v1/tickets", "service=sonar");
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertThat(sut.getStatistics().getFailedRequests()).isEqualTo(1);
+            assertThat(sut.getStatistics().getBusyConnections().get(baseUrl)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void requestsShouldFailFastWhileTheCircuitBreakerIsOpen() throws Exception {
+        CircuitBreaker circuitBreaker = CircuitBreaker.fromConfiguration(new SonarTestConfiguration()
+                .withAttribute("sonar.cas.circuitBreaker.slidingWindowSize", "2")
+                .withAttribute("sonar.cas.circuitBreaker.minimumNumberOfCalls", "2")
+                .withAttribute("sonar.cas.circuitBreaker.permittedCallsInHalfOpenState", "1"));
+        CasHttpClientPool sut = new CasHttpClientPool(settings(4, Duration.ofSeconds(5)), circuitBreaker);
+
+        assertThat(sut.post(baseUrl + "/broken", "").statusCode()).isEqualTo(503);
+        assertThat(sut.post(baseUrl + "/broken", "").statusCode()).isEqualTo(503);
+
+        try {
+            sut.post(baseUrl + "/v1/tickets", "service=sonar");
+            fail("expected CasUnavailableException");
+        } catch (CasUnavailableException e) {
+            assertThat(e.getRetryAfter().toMillis()).isGreaterThan(0);
+        }
+        try {
+            sut.postAsync(baseUrl + "/v1/tickets", "service=sonar").get(5, TimeUnit.SECONDS);
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(CasUnavailableException.class);
+        }
+
+        assertThat(brokenRequests.get()).isEqualTo(2);
+        assertThat(clientPorts).isEmpty();
+        assertThat(sut.getStatistics().getRequests()).isEqualTo(2);
+        CircuitBreaker.Statistics statistics = sut.getCircuitBreakerStatistics();
+        assertThat(statistics.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(statistics.getRejectedCalls()).isEqualTo(2);
+    }
+
+    @Test
+    public void postShouldAcceptACertificateOfAnotherHostIfCertValidationIsDisabled() throws Exception {
+        HttpsServer httpsServer = startHttpsServerWithCertificateFor("cas.invalid");
+        try {
+            CasHttpClientPool sut = new CasHttpClientPool(new CasHttpClientSettings(Duration.ofSeconds(1),
+                    Duration.ofSeconds(5), 1, false, true));
+
+            HttpResponse<String> response = sut.post(httpsUrl(httpsServer) + "/v1/tickets", "service=sonar");
+
+            assertThat(response.statusCode()).isEqualTo(200);
+        } finally {
+            httpsServer.stop(0);
+        }
+    }
+
+    @Test
+    public void postShouldRejectACertificateOfAnotherHostIfCertValidationIsEnabled() throws Exception {
+        HttpsServer httpsServer = startHttpsServerWithCertificateFor("cas.invalid");
+        try {
+            CasHttpClientPool sut = new CasHttpClientPool(new CasHttpClientSettings(Duration.ofSeconds(1),
+                    Duration.ofSeconds(5), 1, false, false));
+
+            sut.post(httpsUrl(httpsServer) + "/v1/tickets", "service=sonar");
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected: the certificate is neither trusted nor issued for 127.0.0.1
+        } finally {
+            httpsServer.stop(0);
+        }
+    }
+
+    private HttpsServer startHttpsServerWithCertificateFor(String hostName) throws Exception {
+        File keyStoreFile = new File(temporaryFolder.getRoot(), "cas.p12");
+        Process keytool = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "cas", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+                "-dname", "CN=" + hostName, "-ext", "SAN=dns:" + hostName, "-storetype", "PKCS12",
+                "-keystore", keyStoreFile.getPath(), "-storepass", "changeit", "-keypass", "changeit")
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        assertThat(keytool.waitFor(60, TimeUnit.SECONDS)).isTrue();
+        assertThat(keytool.exitValue()).isEqualTo(0);
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keyStoreFile)) {
+            keyStore.load(in, KEY_STORE_PASSWORD);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, KEY_STORE_PASSWORD);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), null, null);
+
+        HttpsServer httpsServer = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        httpsServer.createContext("/v1/tickets", exchange -> {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        httpsServer.start();
+        return httpsServer;
+    }
+
+    private static String httpsUrl(HttpsServer httpsServer) {
+        return "https://127.0.0.1:" + httpsServer.getAddress().getPort();
+    }
+
+    private static CasHttpClientSettings settings(int maxConnectionsPerRoute, Duration readTimeout) {
+        return new CasHttpClientSettings(Duration.ofSeconds(1), readTimeout, maxConnectionsPerRoute, false, false);
+    }
+
+    private void waitForBusyConnection(CasHttpClientPool sut) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (Integer.valueOf(1).equals(sut.getStatistics().getBusyConnections().get(baseUrl))) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        fail("the slow request did not start");
+    }
+}
@@ -12,12 +12,19 @@ import org.sonar.api.server.http.HttpResponse;
 import org.sonar.plugins.cas.logout.LogoutHandler;
 import org.sonar.plugins.cas.session.CasSessionStore;
 import org.sonar.plugins.cas.session.CasSessionStoreFactory;
+import org.sonar.plugins.cas.util.AssertionCache;
+import org.sonar.plugins.cas.util.CasUnavailableException;
+import org.sonar.plugins.cas.util.TicketGrantingTicketCache;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 import static org.sonar.plugins.cas.AuthTestData.getJwtToken;
 import static org.sonar.plugins.cas.util.Cookies.JWT_SESSION_COOKIE;
@@ -116,7 +123,8 @@ public class CasIdentityProviderTest {
         CasSessionStoreFactory sessionStoreFactory = mock(CasSessionStoreFactory.class);
         when(sessionStoreFactory.getInstance()).thenReturn(sessionStore);
 
-        LogoutHandler logoutHandler = new LogoutHandler(config, sessionStoreFactory);
+        LogoutHandler logoutHandler = new LogoutHandler(config, sessionStoreFactory, TicketGrantingTicketCache.disabled(),
+                AssertionCache.disabled());
         CasIdentityProvider sut = new CasIdentityProvider(config, null, logoutHandler);
 
         // when
@@ -126,4 +134,36 @@ public class CasIdentityProviderTest {
         String expectedRedirUrl = "sonar.url.com/sessions/init/sonarqube";
         verify(response).sendRedirect(expectedRedirUrl);
     }
+
+    @Test
+    public void init_shouldRespondServiceUnavailableIfCasIsUnavailable() throws Exception {
+        // given
+        HttpRequest request = mock(HttpRequest.class);
+        when(request.getRequestURL()).thenReturn("http://sonar.url.com/sonar/sessions/init/sonarqube");
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getParameter("ticket")).thenReturn("ST-1-123456789");
+
+        StringWriter body = new StringWriter();
+        HttpResponse response = mock(HttpResponse.class);
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+        BaseIdentityProvider.Context context = mock(BaseIdentityProvider.Context.class);
+        when(context.getHttpRequest()).thenReturn(request);
+        when(context.getHttpResponse()).thenReturn(response);
+
+        // the CAS client library wraps I/O errors of the validation into runtime exceptions
+        LoginHandler loginHandler = mock(LoginHandler.class);
+        doThrow(new RuntimeException(new CasUnavailableException("circuit breaker is open", Duration.ofMillis(1500))))
+                .when(loginHandler).handleLogin(context);
+        CasIdentityProvider sut = new CasIdentityProvider(new SonarTestConfiguration(), loginHandler, null);
+
+        // when
+        sut.init(context);
+
+        // then
+        verify(response).setStatus(503);
+        verify(response).setHeader("Retry-After", "2");
+        assertThat(body.toString()).contains("CAS is currently unavailable");
+        verify(context, never()).authenticate(any());
+    }
 }
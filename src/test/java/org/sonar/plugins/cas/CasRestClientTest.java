@@ -1,76 +1,196 @@
 package org.sonar.plugins.cas;
 
 import org.junit.Test;
+import org.sonar.plugins.cas.util.CasAuthenticationException;
+import org.sonar.plugins.cas.util.TicketGrantingTicketCache;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 public class CasRestClientTest {
 
     @Test
-    public void credentialsShouldBeWrittenIntoConnection() throws Exception {
-        HttpURLConnection connection = mock(HttpURLConnection.class);
-        ByteArrayOutputStream connectionStream = new ByteArrayOutputStream();
-        when(connection.getOutputStream()).thenReturn(connectionStream);
+    public void credentialsShouldBeWrittenIntoForm() {
         CasAuthenticatorTest.EasyTicketTestCasRestClient sut = new CasAuthenticatorTest.EasyTicketTestCasRestClient();
 
-        sut.appendCredentials(connection, "user", "secret");
+        String actual = sut.createCredentialsForm("user", "secret");
 
-        verify(connection).getOutputStream();
-        String firstZeroByte = "\u0000";
-        String expectedBytes = ("username=user&password=secret" + firstZeroByte);
-        assertThat(connectionStream.toString("UTF-8").contains(expectedBytes));
+        assertThat(actual).isEqualTo("username=user&password=secret");
     }
 
     @Test
-    public void createGrantingTicketShouldDoItsThing() throws Exception {
-        HttpURLConnection connection = mock(HttpURLConnection.class);
-        ByteArrayOutputStream connectionStream = new ByteArrayOutputStream();
-        when(connection.getOutputStream()).thenReturn(connectionStream);
-        when(connection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_CREATED);
-        when(connection.getHeaderField("Location")).thenReturn("server.url.com/");
-        EasyConnectionTestCasRestClient sut = new EasyConnectionTestCasRestClient(connection);
-
-        sut.createGrantingTicket("sonar.server", "user", "secret");
-
-        verify(connection).getOutputStream();
-        String firstZeroByte = "\u0000";
-        String expectedBytes = ("username=user&password=secret" + firstZeroByte);
-        assertThat(connectionStream.toString("UTF-8").contains(expectedBytes));
+    public void createServiceTicketAsyncShouldPostCredentialsAndService() throws Exception {
+        ScriptedCasRestClient sut = new ScriptedCasRestClient();
+        sut.responses.add(grantingTicketResponse("TGT-1234"));
+        sut.responses.add(mockResponse(HttpURLConnection.HTTP_OK, "ST-12-3456789\n", Collections.emptyMap()));
+
+        String actual = sut.createServiceTicketAsync("user", "secret").get();
+
+        assertThat(actual).isEqualTo("ST-12-3456789");
+        assertThat(sut.urls).containsExactly("https://cas.server.com/v1/tickets",
+                "https://cas.server.com/v1/tickets/TGT-1234");
+        assertThat(sut.formBodies).containsExactly("username=user&password=secret",
+                "service=https%3A%2F%2Fsonar.server.com");
     }
 
     @Test
-    public void createServiceTicketShouldReadFromConnection() throws Exception {
-        HttpURLConnection connection = mock(HttpURLConnection.class);
-        OutputStream outputStream = mock(OutputStream.class);
-        when(connection.getOutputStream()).thenReturn(outputStream);
-        InputStream inputStream = new ByteArrayInputStream("ST-12-3456789".getBytes());
-        when(connection.getInputStream()).thenReturn(inputStream);
-        when(connection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
-        EasyConnectionTestCasRestClient sut = new EasyConnectionTestCasRestClient(connection);
+    public void createServiceTicketAsyncShouldFailIfGrantingTicketHasNoLocation() throws Exception {
+        ScriptedCasRestClient sut = new ScriptedCasRestClient();
+        sut.responses.add(mockResponse(HttpURLConnection.HTTP_CREATED, "", Collections.emptyMap()));
+
+        try {
+            sut.createServiceTicketAsync("user", "secret").get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(CasAuthenticationException.class);
+            assertThat(e.getCause().getMessage()).contains("no location header");
+        }
+    }
 
-        String actual = sut.createServiceTicket("TGT=importantTGT");
+    @Test
+    public void createServiceTicketAsyncShouldFailOnUnexpectedStatus() throws Exception {
+        ScriptedCasRestClient sut = new ScriptedCasRestClient();
+        sut.responses.add(grantingTicketResponse("TGT-1"));
+        sut.responses.add(mockResponse(HttpURLConnection.HTTP_INTERNAL_ERROR, "", Collections.emptyMap()));
+
+        try {
+            sut.createServiceTicketAsync("user", "secret").get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(CasAuthenticationException.class);
+            assertThat(e.getCause().getMessage()).contains("returned 500");
+        }
+    }
 
-        assertThat(actual).isEqualTo("ST-12-3456789");
+    @Test
+    public void createServiceTicketAsyncShouldShareOneGrantingTicketRequestBetweenConcurrentCalls() throws Exception {
+        ScriptedCasRestClient sut = new ScriptedCasRestClient();
+        CompletableFuture<HttpResponse<String>> grantingTicket = new CompletableFuture<>();
+        sut.pendingResponses.add(grantingTicket);
+        sut.responses.add(mockResponse(HttpURLConnection.HTTP_OK, "ST-1", Collections.emptyMap()));
+        sut.responses.add(mockResponse(HttpURLConnection.HTTP_OK, "ST-2", Collections.emptyMap()));
+
+        CompletableFuture<String> first = sut.createServiceTicketAsync("user", "secret");
+        CompletableFuture<String> second = sut.createServiceTicketAsync("user", "secret");
+        grantingTicket.complete(grantingTicketResponse("TGT-1"));
+
+        assertThat(first.get()).isNotNull();
+        assertThat(second.get()).isNotNull();
+        assertThat(sut.urls).containsExactly("https://cas.server.com/v1/tickets",
+                "https://cas.server.com/v1/tickets/TGT-1", "https://cas.server.com/v1/tickets/TGT-1");
+    }
+
+    @Test
+    public void createServiceTicketAsyncShouldReuseTheGrantingTicket() throws Exception {
+        ScriptedCasRestClient sut = new ScriptedCasRestClient();
+        sut.responses.add(grantingTicketResponse("TGT-1"));
+        sut.responses.add(mockResponse(HttpURLConnection.HTTP_OK, "ST-1", Collections.emptyMap()));
+        sut.responses.add(mockResponse(HttpURLConnection.HTTP_OK, "ST-2\n", Collections.emptyMap()));
+
+        assertThat(sut.createServiceTicketAsync("user", "secret").get()).isEqualTo("ST-1");
+        assertThat(sut.createServiceTicketAsync("user", "secret").get()).isEqualTo("ST-2");
+
+        assertThat(sut.urls).containsExactly("https://cas.server.com/v1/tickets",
+                "https://cas.server.com/v1/tickets/TGT-1", "https://cas.server.com/v1/tickets/TGT-1");
     }
 
-    private class EasyConnectionTestCasRestClient extends CasRestClient {
-        private final HttpURLConnection mockedConnection;
+    @Test
+    public void createServiceTicketAsyncShouldCreateANewGrantingTicketIfCasDoesNotKnowIt() throws Exception {
+        ScriptedCasRestClient sut = new ScriptedCasRestClient();
+        sut.responses.add(grantingTicketResponse("TGT-1"));
+        sut.responses.add(mockResponse(HttpURLConnection.HTTP_OK, "ST-1", Collections.emptyMap()));
+        sut.responses.add(mockResponse(HttpURLConnection.HTTP_NOT_FOUND, "", Collections.emptyMap()));
+        sut.responses.add(grantingTicketResponse("TGT-2"));
+        sut.responses.add(mockResponse(HttpURLConnection.HTTP_OK, "ST-2", Collections.emptyMap()));
+        sut.createServiceTicketAsync("user", "secret").get();
+
+        String actual = sut.createServiceTicketAsync("user", "secret").get();
+
+        assertThat(actual).isEqualTo("ST-2");
+        assertThat(sut.urls.subList(2, 5)).containsExactly("https://cas.server.com/v1/tickets/TGT-1",
+                "https://cas.server.com/v1/tickets", "https://cas.server.com/v1/tickets/TGT-2");
+    }
+
+    @Test
+    public void createServiceTicketAsyncShouldFailWithCasAuthenticationException() throws Exception {
+        ScriptedCasRestClient sut = new ScriptedCasRestClient();
+        sut.responses.add(mockResponse(HttpURLConnection.HTTP_UNAUTHORIZED, "", Collections.emptyMap()));
+
+        try {
+            sut.createServiceTicketAsync("user", "wrong").get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(CasAuthenticationException.class);
+            assertThat(e.getCause().getMessage()).contains("returned 401");
+        }
+    }
+
+    @Test
+    public void createServiceTicketAsyncShouldWrapConnectionFailures() throws Exception {
+        ScriptedCasRestClient sut = new ScriptedCasRestClient();
+        sut.failure = new IOException("All 20 connections to https://cas.server.com:443 are busy");
+
+        try {
+            sut.createServiceTicketAsync("user", "secret").get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(CasAuthenticationException.class);
+            assertThat(e.getCause().getCause()).isSameAs(sut.failure);
+        }
+    }
+
+    private static HttpResponse<String> grantingTicketResponse(String tgt) {
+        return mockResponse(HttpURLConnection.HTTP_CREATED, "", Collections.singletonMap("Location",
+                Collections.singletonList("https://cas.server.com/v1/tickets/" + tgt)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<String> mockResponse(int status, String body, Map<String, List<String>> headers) {
+        HttpResponse<String> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(status);
+        when(response.body()).thenReturn(body);
+        when(response.headers()).thenReturn(HttpHeaders.of(headers, (name, value) -> true));
+        return response;
+    }
 
-        EasyConnectionTestCasRestClient(HttpURLConnection mockedConnection) {
-            super("https://sonar.server.com", "https://cas.server.com");
-            this.mockedConnection = mockedConnection;
+    private static class ScriptedCasRestClient extends CasRestClient {
+        private final Queue<CompletableFuture<HttpResponse<String>>> pendingResponses = new ArrayDeque<>();
+        private final Queue<HttpResponse<String>> responses = new ArrayDeque<>();
+        private final List<String> urls = new ArrayList<>();
+        private final List<String> formBodies = new ArrayList<>();
+        private IOException failure;
+
+        ScriptedCasRestClient() {
+            super("https://cas.server.com", "https://sonar.server.com",
+                    new CasHttpClientPool(CasHttpClientSettings.defaults()),
+                    new TicketGrantingTicketCache(new SonarTestConfiguration()));
         }
 
         @Override
-        HttpURLConnection open(String url) {
-            return mockedConnection;
+        CompletableFuture<HttpResponse<String>> postAsync(String url, String formBody) {
+            if (failure != null) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            urls.add(url);
+            formBodies.add(formBody);
+            if (!pendingResponses.isEmpty()) {
+                return pendingResponses.remove();
+            }
+            return CompletableFuture.completedFuture(responses.remove());
         }
     }
 }
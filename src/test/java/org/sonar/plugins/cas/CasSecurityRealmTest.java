@@ -21,6 +21,9 @@ package org.sonar.plugins.cas;
 
 import org.junit.Test;
 import org.sonar.api.config.Configuration;
+import org.sonar.plugins.cas.util.AssertionCache;
+import org.sonar.plugins.cas.util.ProxyTicketCache;
+import org.sonar.plugins.cas.util.TicketGrantingTicketCache;
 
 public class CasSecurityRealmTest {
     @Test
@@ -29,11 +32,14 @@ public class CasSecurityRealmTest {
                 .withAttribute("sonar.cas.casServerUrlPrefix", "")
                 .withAttribute("sonar.cas.sonarServerUrl", "");
         CasAttributeSettings attributes = new CasAttributeSettings(configuration);
-        TicketValidatorFactory validationFactory = new CasTicketValidatorFactory(configuration);
-        CasRestClientFactory clientFactory = new CasRestClientFactory(configuration);
+        CasHttpClientPool httpClientPool = new CasHttpClientPool(configuration);
+        TicketValidatorFactory validationFactory = new CasTicketValidatorFactory(configuration, httpClientPool);
+        CasRestClientFactory clientFactory = new CasRestClientFactory(configuration,
+                new TicketGrantingTicketCache(configuration), httpClientPool);
 
         // when
-        new CasSecurityRealm(configuration, attributes, validationFactory, clientFactory);
+        new CasSecurityRealm(configuration, attributes, validationFactory, clientFactory,
+                new AssertionCache(configuration), new ProxyTicketCache(configuration, httpClientPool));
 
     }
 }
@@ -0,0 +1,97 @@
+package org.sonar.plugins.cas;
+
+import com.google.common.cache.CacheStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.Configuration;
+import org.sonar.plugins.cas.util.AssertionCache;
+import org.sonar.plugins.cas.util.ProxyTicketCache;
+import org.sonar.plugins.cas.util.TicketGrantingTicketCache;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CasStatisticsLoggerTest {
+    private final CasHttpClientPool httpClientPool = new CasHttpClientPool(CasHttpClientSettings.defaults());
+    private CasStatisticsLogger sut;
+
+    @Before
+    public void setUp() {
+        Configuration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.casServerUrlPrefix", "")
+                .withAttribute("sonar.cas.sonarServerUrl", "");
+        TicketGrantingTicketCache ticketGrantingTicketCache = TicketGrantingTicketCache.disabled();
+        AssertionCache assertionCache = AssertionCache.disabled();
+        ProxyTicketCache proxyTicketCache = ProxyTicketCache.disabled();
+        CasSecurityRealm securityRealm = new CasSecurityRealm(configuration, new CasAttributeSettings(configuration),
+                new CasTicketValidatorFactory(configuration, httpClientPool),
+                new CasRestClientFactory(configuration, ticketGrantingTicketCache, httpClientPool),
+                assertionCache, proxyTicketCache);
+
+        sut = new CasStatisticsLogger(configuration, httpClientPool, ticketGrantingTicketCache, assertionCache,
+                proxyTicketCache, securityRealm);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut.close();
+    }
+
+    @Test
+    public void describeStatisticsShouldContainTheCircuitBreaker() {
+        List<String> actual = sut.describeStatistics();
+
+        assertThat(actual).contains("CAS circuit breaker: enabled=true, state=CLOSED, rejectedCalls=0, "
+                + "transitions={CLOSED=0, OPEN=0, HALF_OPEN=0}");
+    }
+
+    @Test
+    public void describeStatisticsShouldContainTheConnectionPool() {
+        List<String> actual = sut.describeStatistics();
+
+        assertThat(actual).contains("CAS connection pool: requests=0, http2Responses=0, waitingRequests=0, "
+                + "rejectedRequests=0, failedRequests=0, busyConnections={}");
+    }
+
+    @Test
+    public void describeStatisticsShouldContainTheTicketGrantingTicketCache() {
+        List<String> actual = sut.describeStatistics();
+
+        assertThat(actual).contains("CAS ticket granting ticket cache: hits=0, misses=0, hitRate=100%, evictions=0");
+    }
+
+    @Test
+    public void describeStatisticsShouldContainTheAssertionCache() {
+        List<String> actual = sut.describeStatistics();
+
+        assertThat(actual).contains("CAS assertion cache: hits=0, misses=0, hitRate=100%, evictions=0");
+    }
+
+    @Test
+    public void describeStatisticsShouldContainTheProxyTicketValidations() {
+        List<String> actual = sut.describeStatistics();
+
+        assertThat(actual).contains("CAS proxy ticket validations: executedCalls=0, sharedCalls=0, timedOutCalls=0, "
+                + "deduplicationRatio=0.0");
+        assertThat(actual).contains("CAS proxy ticket cache: hits=0, misses=0, hitRate=100%, evictions=0");
+    }
+
+    @Test
+    public void describeStatisticsShouldContainTheBasicAuthentications() {
+        List<String> actual = sut.describeStatistics();
+
+        assertThat(actual).contains("CAS basic authentications: executedCalls=0, sharedCalls=0, timedOutCalls=0, "
+                + "deduplicationRatio=0.0");
+    }
+
+    @Test
+    public void describeShouldFormatCacheCounters() {
+        CacheStats stats = new CacheStats(3, 1, 1, 0, 10, 2);
+
+        String actual = CasStatisticsLogger.describe(stats);
+
+        assertThat(actual).isEqualTo("hits=3, misses=1, hitRate=75%, evictions=2");
+    }
+}
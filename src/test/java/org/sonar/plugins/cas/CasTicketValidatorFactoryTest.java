@@ -1,8 +1,16 @@
 package org.sonar.plugins.cas;
 
+import com.sun.net.httpserver.HttpServer;
 import org.jasig.cas.client.validation.*;
 import org.junit.Test;
 
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static org.fest.assertions.Assertions.assertThat;
 
 public class CasTicketValidatorFactoryTest {
@@ -105,4 +113,70 @@ public class CasTicketValidatorFactoryTest {
 
         sut.createForProxy();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void createShouldReturnTheSameValidatorForUnchangedSettings() {
+        SonarTestConfiguration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.casServerUrlPrefix", "http://url.com")
+                .withAttribute("sonar.cas.protocol", "cas3")
+                .withAttribute("sonar.cas.proxyTicketing.services", "^https://test.de/.*$");
+        CasTicketValidatorFactory sut = new CasTicketValidatorFactory(configuration);
+
+        assertThat(sut.create()).isSameAs(sut.create());
+        assertThat(sut.createForProxy()).isSameAs(sut.createForProxy());
+    }
+
+    @Test
+    public void createShouldRebuildTheValidatorAfterSettingsChanged() {
+        SonarTestConfiguration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.casServerUrlPrefix", "http://url.com")
+                .withAttribute("sonar.cas.protocol", "cas3")
+                .withAttribute("sonar.cas.proxyTicketing.services", "^https://test.de/.*$");
+        CasTicketValidatorFactory sut = new CasTicketValidatorFactory(configuration);
+        TicketValidator serviceValidator = sut.create();
+        TicketValidator proxyValidator = sut.createForProxy();
+
+        configuration.withAttribute("sonar.cas.protocol", "cas2");
+        configuration.withAttribute("sonar.cas.proxyTicketing.services", "^https://other.de/.*$");
+
+        assertThat(sut.create()).isNotSameAs(serviceValidator).isInstanceOf(Cas20ServiceTicketValidator.class);
+        configuration.withAttribute("sonar.cas.protocol", "cas3");
+        assertThat(sut.createForProxy()).isNotSameAs(proxyValidator);
+    }
+
+    @Test
+    public void validatorShouldReuseTheConnectionToCas() throws Exception {
+        Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/p3/serviceValidate", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = ("<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>"
+                    + "<cas:authenticationSuccess><cas:user>admin</cas:user></cas:authenticationSuccess>"
+                    + "</cas:serviceResponse>").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            String casServerUrlPrefix = "http://127.0.0.1:" + server.getAddress().getPort();
+            SonarTestConfiguration configuration = new SonarTestConfiguration()
+                    .withAttribute("sonar.cas.casServerUrlPrefix", casServerUrlPrefix)
+                    .withAttribute("sonar.cas.protocol", "cas3");
+            CasHttpClientPool httpClientPool = new CasHttpClientPool(new CasHttpClientSettings(Duration.ofSeconds(1),
+                    Duration.ofSeconds(5), 4, false, false));
+            CasTicketValidatorFactory sut = new CasTicketValidatorFactory(configuration, httpClientPool);
+
+            Assertion first = sut.create().validate("ST-1", "http://sonar.url.com");
+            Assertion second = sut.create().validate("ST-2", "http://sonar.url.com");
+
+            assertThat(first.getPrincipal().getName()).isEqualTo("admin");
+            assertThat(second.getPrincipal().getName()).isEqualTo("admin");
+            assertThat(clientPorts).hasSize(1);
+            assertThat(httpClientPool.getStatistics().getRequests()).isEqualTo(2);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -1,11 +1,44 @@
 package org.sonar.plugins.cas;
 
+import org.junit.Before;
 import org.junit.Test;
+import org.sonar.api.server.http.Cookie;
+import org.sonar.api.server.http.HttpRequest;
+import org.sonar.api.server.http.HttpResponse;
+import org.sonar.api.web.FilterChain;
+import org.sonar.plugins.cas.session.CasSessionStore;
+import org.sonar.plugins.cas.session.CasSessionStoreFactory;
+import org.sonar.plugins.cas.util.Cookies;
 import org.sonar.plugins.cas.util.SimpleJwt;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
 
 public class CasTokenRefreshFilterTest {
+    private static final String JWT_ID = "AWjne4xYY4T-z3CxdIRY";
+    private static final long EXPIRATION = 4102444800L;
+
+    private CasSessionStore store;
+    private CasTokenRefreshFilter sut;
+
+    @Before
+    public void setUp() {
+        store = mock(CasSessionStore.class);
+        when(store.isJwtStored(any())).thenReturn(true);
+        CasSessionStoreFactory factory = mock(CasSessionStoreFactory.class);
+        when(factory.getInstance()).thenReturn(store);
+        sut = new CasTokenRefreshFilter(factory);
+    }
 
     @Test
     public void isTokenRefreshedShouldReturnTrueForEqualJwtIds() {
@@ -17,4 +50,121 @@ public class CasTokenRefreshFilterTest {
 
         assertThat(actual).isTrue();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void doFilterShouldRefreshJwtWhichIsSetDuringTheChain() throws IOException {
+        HttpRequest request = requestWithJwtCookie(createJwt(EXPIRATION));
+        HttpResponse response = new HeaderRecordingResponse();
+        FilterChain chain = setsCookieHeader(jwtCookieHeader(createJwt(EXPIRATION + 60)));
+
+        sut.doFilter(request, response, chain);
+
+        verify(store).refreshJwt(SimpleJwt.fromIdAndExpiration(JWT_ID, EXPIRATION + 60));
+    }
+
+    @Test
+    public void doFilterShouldWriteSameRefreshOnlyOnce() throws IOException {
+        FilterChain chain = setsCookieHeader(jwtCookieHeader(createJwt(EXPIRATION + 60)));
+
+        sut.doFilter(requestWithJwtCookie(createJwt(EXPIRATION)), new HeaderRecordingResponse(), chain);
+        sut.doFilter(requestWithJwtCookie(createJwt(EXPIRATION)), new HeaderRecordingResponse(), chain);
+        sut.doFilter(requestWithJwtCookie(createJwt(EXPIRATION)), new HeaderRecordingResponse(),
+                setsCookieHeader(jwtCookieHeader(createJwt(EXPIRATION + 120))));
+
+        verify(store, times(1)).refreshJwt(SimpleJwt.fromIdAndExpiration(JWT_ID, EXPIRATION + 60));
+        verify(store, times(1)).refreshJwt(SimpleJwt.fromIdAndExpiration(JWT_ID, EXPIRATION + 120));
+    }
+
+    @Test
+    public void doFilterShouldRetryRefreshAfterFailedWrite() throws IOException {
+        FilterChain chain = setsCookieHeader(jwtCookieHeader(createJwt(EXPIRATION + 60)));
+        doThrow(new IllegalStateException("disk full")).doNothing().when(store).refreshJwt(any());
+
+        // the response is already committed, so the failure must not break the request
+        sut.doFilter(requestWithJwtCookie(createJwt(EXPIRATION)), new HeaderRecordingResponse(), chain);
+        sut.doFilter(requestWithJwtCookie(createJwt(EXPIRATION)), new HeaderRecordingResponse(), chain);
+
+        verify(store, times(2)).refreshJwt(any());
+    }
+
+    @Test
+    public void doFilterShouldNotRefreshJwtWhichIsNotInTheStore() throws IOException {
+        when(store.isJwtStored(any())).thenReturn(false);
+        FilterChain chain = setsCookieHeader(jwtCookieHeader(createJwt(EXPIRATION + 60)));
+
+        sut.doFilter(requestWithJwtCookie(createJwt(EXPIRATION)), new HeaderRecordingResponse(), chain);
+
+        verify(store, never()).refreshJwt(any());
+    }
+
+    @Test
+    public void doFilterShouldNotInspectRequestWithoutJwtCookieInResponse() throws IOException {
+        HttpRequest request = mock(HttpRequest.class);
+        FilterChain chain = setsCookieHeader("XSRF-TOKEN=abc; Path=/");
+
+        sut.doFilter(request, new HeaderRecordingResponse(), chain);
+
+        verify(request, never()).getCookies();
+        verifyZeroInteractions(store);
+    }
+
+    @Test
+    public void doFilterShouldIgnoreDeletedJwtCookie() throws IOException {
+        HttpRequest request = requestWithJwtCookie(createJwt(EXPIRATION));
+        FilterChain chain = setsCookieHeader("JWT-SESSION=; Max-Age=0; Path=/");
+
+        sut.doFilter(request, new HeaderRecordingResponse(), chain);
+
+        verifyZeroInteractions(store);
+    }
+
+    @Test
+    public void containsRefreshJwtCookieShouldFindJwtCookie() {
+        assertThat(CasTokenRefreshFilter.containsRefreshJwtCookie(Arrays.asList("XSRF-TOKEN=abc", "JWT-SESSION=ey"))).isTrue();
+        assertThat(CasTokenRefreshFilter.containsRefreshJwtCookie(Collections.singletonList("XSRF-TOKEN=abc"))).isFalse();
+    }
+
+    private static String createJwt(long expiration) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = encoder.encodeToString("{\"alg\":\"HS256\"}".getBytes(StandardCharsets.UTF_8));
+        String payload = encoder.encodeToString(("{\"jti\":\"" + JWT_ID + "\",\"exp\":" + expiration + "}")
+                .getBytes(StandardCharsets.UTF_8));
+        return header + "." + payload + ".signature";
+    }
+
+    private static String jwtCookieHeader(String jwt) {
+        return "JWT-SESSION=" + jwt + "; Max-Age=259200; Domain=sonar.example.com; Path=/; HttpOnly";
+    }
+
+    private static HttpRequest requestWithJwtCookie(String jwt) {
+        Cookie cookie = new Cookies.HttpOnlyCookieBuilder()
+                .name(Cookies.JWT_SESSION_COOKIE)
+                .value(jwt)
+                .contextPath("/")
+                .maxAgeInSecs(100)
+                .build();
+        HttpRequest request = mock(HttpRequest.class);
+        when(request.getCookies()).thenReturn(new Cookie[]{cookie});
+        return request;
+    }
+
+    private static FilterChain setsCookieHeader(String header) {
+        return (request, response) -> response.addHeader("Set-Cookie", header);
+    }
+
+    private static class HeaderRecordingResponse extends org.sonar.plugins.cas.util.MockHttpResponse {
+        private final List<String> setCookieHeaders = new ArrayList<>();
+
+        @Override
+        public void addHeader(String name, String value) {
+            if ("Set-Cookie".equals(name)) {
+                setCookieHeaders.add(value);
+            }
+        }
+
+        @Override
+        public Collection<String> getHeaders(String name) {
+            return "Set-Cookie".equals(name) ? setCookieHeaders : Collections.emptyList();
+        }
+    }
+}
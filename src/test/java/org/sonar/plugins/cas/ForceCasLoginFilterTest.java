@@ -13,6 +13,8 @@ import org.sonar.plugins.cas.session.CasSessionStoreFactory;
 import org.sonar.plugins.cas.util.Cookies;
 import org.sonar.plugins.cas.util.MockHttpRequest;
 import org.sonar.plugins.cas.util.SimpleJwt;
+import org.sonar.plugins.cas.util.AssertionCache;
+import org.sonar.plugins.cas.util.TicketGrantingTicketCache;
 
 import javax.servlet.ServletException;
 import java.io.IOException;
@@ -32,7 +34,8 @@ public class ForceCasLoginFilterTest {
                 .withAttribute("sonar.cas.urlAfterCasRedirectCookieMaxAgeSeconds", "300")
                 .withAttribute("sonar.cas.sonarServerUrl", "http://sonar.com/sonar");
         CasSessionStoreFactory sessionStoreFactory = new CasSessionStoreFactory(config);
-        LogoutHandler logoutHandler = new LogoutHandler(config, sessionStoreFactory);
+        LogoutHandler logoutHandler = new LogoutHandler(config, sessionStoreFactory, TicketGrantingTicketCache.disabled(),
+                AssertionCache.disabled());
         ForceCasLoginFilter sut = new ForceCasLoginFilter(config, logoutHandler);
 
         CasSessionStore store = mock(CasSessionStore.class);
@@ -77,7 +80,8 @@ public class ForceCasLoginFilterTest {
                 .withAttribute("sonar.cas.urlAfterCasRedirectCookieMaxAgeSeconds", "100")
                 .withAttribute("sonar.cas.sonarServerUrl", "http://sonar.com/sonar");
         CasSessionStoreFactory sessionStoreFactory = new CasSessionStoreFactory(config);
-        LogoutHandler logoutHandler = new LogoutHandler(config, sessionStoreFactory);
+        LogoutHandler logoutHandler = new LogoutHandler(config, sessionStoreFactory, TicketGrantingTicketCache.disabled(),
+                AssertionCache.disabled());
         ForceCasLoginFilter sut = new ForceCasLoginFilter(config, logoutHandler);
 
         CasSessionStore store = mock(CasSessionStore.class);
@@ -118,7 +122,8 @@ public class ForceCasLoginFilterTest {
                 .withAttribute("sonar.cas.sessionStorePath", "/tmp")
                 .withAttribute("sonar.cas.urlAfterCasRedirectCookieMaxAgeSeconds", "100");
         CasSessionStoreFactory sessionStoreFactory = new CasSessionStoreFactory(config);
-        LogoutHandler logoutHandler = new LogoutHandler(config, sessionStoreFactory);
+        LogoutHandler logoutHandler = new LogoutHandler(config, sessionStoreFactory, TicketGrantingTicketCache.disabled(),
+                AssertionCache.disabled());
         ForceCasLoginFilter sut = new ForceCasLoginFilter(config, logoutHandler);
 
         int actual = sut.getMaxCookieAge(config);
@@ -131,7 +136,8 @@ public class ForceCasLoginFilterTest {
         Configuration config = new SonarTestConfiguration()
                 .withAttribute("sonar.cas.sessionStorePath", "/tmp"); // no max age was set
         CasSessionStoreFactory sessionStoreFactory = new CasSessionStoreFactory(config);
-        LogoutHandler logoutHandler = new LogoutHandler(config, sessionStoreFactory);
+        LogoutHandler logoutHandler = new LogoutHandler(config, sessionStoreFactory, TicketGrantingTicketCache.disabled(),
+                AssertionCache.disabled());
         ForceCasLoginFilter sut = new ForceCasLoginFilter(config, logoutHandler);
 
         int actualSeconds = sut.getMaxCookieAge(config);
@@ -141,7 +147,7 @@ public class ForceCasLoginFilterTest {
 
     @Test
     public void isInAllowListShouldReturnFalse() {
-        ForceCasLoginFilter sut = new ForceCasLoginFilter(null, null);
+        ForceCasLoginFilter sut = new ForceCasLoginFilter(new SonarTestConfiguration(), null);
 
         boolean actual = sut.isInAllowList("/ui/endpoint");
 
@@ -150,7 +156,7 @@ public class ForceCasLoginFilterTest {
 
     @Test
     public void isInAllowListShouldReturnTrue() {
-        ForceCasLoginFilter sut = new ForceCasLoginFilter(null, null);
+        ForceCasLoginFilter sut = new ForceCasLoginFilter(new SonarTestConfiguration(), null);
 
         assertThat(sut.isInAllowList("/sessions/init/sonarqube")).isTrue();
         assertThat(sut.isInAllowList("/api/endpoint/test")).isTrue();
@@ -0,0 +1,148 @@
+package org.sonar.plugins.cas;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.server.http.Cookie;
+import org.sonar.api.server.http.HttpRequest;
+import org.sonar.plugins.cas.logout.LogoutHandler;
+import org.sonar.plugins.cas.session.CasSessionStore;
+import org.sonar.plugins.cas.session.CasSessionStoreFactory;
+import org.sonar.plugins.cas.util.AllowList;
+import org.sonar.plugins.cas.util.AssertionCache;
+import org.sonar.plugins.cas.util.Cookies;
+import org.sonar.plugins.cas.util.MockHttpRequest;
+import org.sonar.plugins.cas.util.SimpleJwt;
+import org.sonar.plugins.cas.util.TicketGrantingTicketCache;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.sonar.plugins.cas.AuthTestData.JWT_TOKEN;
+import static org.sonar.plugins.cas.AuthTestData.getJwtToken;
+
+public class RequestClassifierTest {
+    private CasSessionStore store;
+    private RequestClassifier sut;
+
+    @Before
+    public void setUp() {
+        store = mock(CasSessionStore.class);
+        CasSessionStoreFactory factory = mock(CasSessionStoreFactory.class);
+        when(factory.getInstance()).thenReturn(store);
+        sut = new RequestClassifier(AllowList.fromConfiguration(new SonarTestConfiguration()), new LogoutHandler(new SonarTestConfiguration(), factory, TicketGrantingTicketCache.disabled(),
+                AssertionCache.disabled()));
+    }
+
+    @Test
+    public void classifyShouldDetectLoggedOutUser() {
+        when(store.isJwtStored(JWT_TOKEN)).thenReturn(true);
+        when(store.fetchStoredJwt(JWT_TOKEN)).thenReturn(JWT_TOKEN.cloneAsInvalidated());
+        MockHttpRequest request = requestWithJwtCookie("http://sonar.url.com/projects");
+        request.setAttribute("LOGIN", "admin");
+
+        RequestClassification actual = sut.classify(request);
+
+        assertThat(actual.isPermitted()).isTrue();
+        assertThat(actual.isAuthenticated()).isTrue();
+        assertThat(actual.getJwt()).isEqualTo(JWT_TOKEN);
+        assertThat(actual.isUserLoggedOutAndLogsInAgain()).isTrue();
+    }
+
+    @Test
+    public void classifyShouldLookUpTheSessionStoreOnlyOncePerRequest() {
+        when(store.isJwtStored(JWT_TOKEN)).thenReturn(true);
+        when(store.fetchStoredJwt(JWT_TOKEN)).thenReturn(JWT_TOKEN);
+        MockHttpRequest request = requestWithJwtCookie("http://sonar.url.com/projects");
+        request.setAttribute("LOGIN", "admin");
+
+        RequestClassification first = sut.classify(request);
+        RequestClassification second = sut.classify(request);
+
+        assertThat(second).isSameAs(first);
+        assertThat(RequestClassification.attachedTo(request)).isSameAs(first);
+        assertThat(first.isUserLoggedOutAndLogsInAgain()).isFalse();
+        verify(store, times(1)).isJwtStored(any());
+        verify(store, times(1)).fetchStoredJwt(any());
+    }
+
+    @Test
+    public void classifyShouldNotInspectCookiesOfUnauthenticatedRequests() {
+        MockHttpRequest request = requestWithJwtCookie("http://sonar.url.com/projects");
+        request.setAttribute("LOGIN", "-");
+
+        RequestClassification actual = sut.classify(request);
+
+        assertThat(actual.isPermitted()).isFalse();
+        assertThat(actual.isJwtInspected()).isFalse();
+        verifyZeroInteractions(store);
+    }
+
+    @Test
+    public void classifyShouldNotLookUpTheStoreForTheLoginPage() {
+        MockHttpRequest request = requestWithJwtCookie("http://sonar.url.com/sessions/new");
+
+        RequestClassification actual = sut.classify(request);
+
+        assertThat(actual.isAllowListed()).isTrue();
+        assertThat(actual.isLoginPageRequest()).isTrue();
+        assertThat(actual.isUserLoggedOutAndLogsInAgain()).isFalse();
+        verifyZeroInteractions(store);
+    }
+
+    @Test
+    public void classifyShouldReturnJwtNullObjectWithoutCookies() {
+        MockHttpRequest request = new MockHttpRequest();
+        request.setAttribute("LOGIN", "admin");
+
+        RequestClassification actual = sut.classify(request);
+
+        assertThat(actual.getJwt()).isEqualTo(SimpleJwt.getNullObject());
+        assertThat(actual.isUserLoggedOutAndLogsInAgain()).isFalse();
+        verifyZeroInteractions(store);
+    }
+
+    @Test
+    public void classifyShouldTreatRequestsWithoutLoginAttributeAsAuthenticated() {
+        MockHttpRequest request = new MockHttpRequest();
+
+        RequestClassification actual = sut.classify(request);
+
+        assertThat(actual.isAuthenticated()).isTrue();
+    }
+
+    @Test
+    public void classifyShouldTreatRequestsWithoutDelegateAsUnauthenticated() {
+        MockHttpRequest request = new MockHttpRequest() {
+            @Override
+            public HttpRequest getDelegate() {
+                return null;
+            }
+        };
+
+        RequestClassification actual = sut.classify(request);
+
+        assertThat(actual.isAuthenticated()).isFalse();
+    }
+
+    private MockHttpRequest requestWithJwtCookie(String requestURL) {
+        Cookie cookie = new Cookies.HttpOnlyCookieBuilder()
+                .name(Cookies.JWT_SESSION_COOKIE)
+                .value(getJwtToken())
+                .contextPath("/")
+                .maxAgeInSecs(100)
+                .build();
+        MockHttpRequest request = new MockHttpRequest() {
+            @Override
+            public Cookie[] getCookies() {
+                return new Cookie[]{cookie};
+            }
+
+            @Override
+            public String getServletPath() {
+                return requestURL.substring("http://sonar.url.com".length());
+            }
+        };
+        request.requestURL = requestURL;
+        return request;
+    }
+}
@@ -1,6 +1,7 @@
 package org.sonar.plugins.cas.logout;
 
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.server.http.HttpRequest;
 import org.sonar.api.server.http.HttpResponse;
@@ -9,7 +10,10 @@ import org.sonar.plugins.cas.SonarTestConfiguration;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 
+import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
 public class CasSonarSignOutInjectorFilterTest {
@@ -24,10 +28,10 @@ public class CasSonarSignOutInjectorFilterTest {
         when(mockRequest.getHeader("accept")).thenReturn("text/html");
 
         HttpResponse mockResponse = mock(HttpResponse.class);
-        when(mockResponse.getOutputStream()).thenReturn(createOutputStream());
+        when(mockResponse.getOutputStream()).thenReturn(createOutputStream(new ByteArrayOutputStream()));
         FilterChain mockFilterChain = mock(FilterChain.class);
 
-        CasSonarSignOutInjectorFilter sut = new CasSonarSignOutInjectorFilter(CasSonarSignOutInjectorFilter.class.getClassLoader());
+        CasSonarSignOutInjectorFilter sut = new CasSonarSignOutInjectorFilter(new SonarTestConfiguration(), CasSonarSignOutInjectorFilter.class.getClassLoader());
 
         // when: two request are processed there must be only one caching call
         sut.doFilter(mockRequest, mockResponse, mockFilterChain);
@@ -36,7 +40,76 @@ public class CasSonarSignOutInjectorFilterTest {
         verify(mockFilterChain, times(1)).doFilter(any(), any());
     }
 
-    private ServletOutputStream createOutputStream() {
+    @Test
+    public void doFilterShouldAppendScriptToHtmlResponses() throws Exception {
+        HttpRequest request = createRequest("http://sonar.url.com/sonar/projects", "text/html,application/xhtml+xml");
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpResponse response = mock(HttpResponse.class);
+        when(response.getOutputStream()).thenReturn(createOutputStream(body));
+        FilterChain filterChain = mock(FilterChain.class);
+
+        CasSonarSignOutInjectorFilter sut = new CasSonarSignOutInjectorFilter(new SonarTestConfiguration());
+        sut.doFilter(request, response, filterChain);
+
+        assertThat(new String(body.toByteArray(), StandardCharsets.UTF_8))
+                .isEqualTo("<script type='text/javascript' src='js/casLogoutUrl.js' ></script>");
+        // the decision is made before the response is produced
+        InOrder inOrder = inOrder(request, filterChain);
+        inOrder.verify(request).getHeader("accept");
+        inOrder.verify(filterChain).doFilter(request, response);
+    }
+
+    @Test
+    public void doFilterShouldNotAppendScriptToOtherResponses() throws Exception {
+        HttpResponse response = mock(HttpResponse.class);
+        CasSonarSignOutInjectorFilter sut = new CasSonarSignOutInjectorFilter(new SonarTestConfiguration());
+
+        sut.doFilter(createRequest("http://sonar.url.com/sonar/api/issues", "application/json"), response, mock(FilterChain.class));
+        sut.doFilter(createRequest("http://sonar.url.com/favicon.ico", "text/html"), response, mock(FilterChain.class));
+        sut.doFilter(createRequest("http://sonar.url.com/sonar/projects", null), response, mock(FilterChain.class));
+
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test
+    public void doFilterShouldNotAppendScriptIfInjectionIsDisabled() throws Exception {
+        Configuration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.logoutScriptInjection", "none");
+        HttpResponse response = mock(HttpResponse.class);
+        FilterChain filterChain = mock(FilterChain.class);
+
+        CasSonarSignOutInjectorFilter sut = new CasSonarSignOutInjectorFilter(configuration);
+        sut.doFilter(createRequest("http://sonar.url.com/sonar/projects", "text/html"), response, filterChain);
+
+        verify(filterChain).doFilter(any(), any());
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test
+    public void doFilterShouldRedirectLogoutRequests() throws Exception {
+        HttpResponse response = mock(HttpResponse.class);
+        CasSonarSignOutInjectorFilter sut = new CasSonarSignOutInjectorFilter(new SonarTestConfiguration());
+
+        sut.doFilter(createRequest("http://sonar.url.com/sonar/sessions/logout", "text/html"), response, mock(FilterChain.class));
+
+        verify(response).sendRedirect("/cas/logout");
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void constructorShouldFailOnUnsupportedInjectionMode() {
+        new CasSonarSignOutInjectorFilter(new SonarTestConfiguration()
+                .withAttribute("sonar.cas.logoutScriptInjection", "header"));
+    }
+
+    private HttpRequest createRequest(String requestURL, String accept) {
+        HttpRequest request = mock(HttpRequest.class);
+        when(request.getRequestURL()).thenReturn(requestURL);
+        when(request.getHeader("accept")).thenReturn(accept);
+        return request;
+    }
+
+    private ServletOutputStream createOutputStream(ByteArrayOutputStream target) {
         return new ServletOutputStream() {
             @Override
             public boolean isReady() {
@@ -50,7 +123,8 @@ public class CasSonarSignOutInjectorFilterTest {
 
             @Override
             public void write(int b) {
+                target.write(b);
             }
         };
     }
-}
\ No newline at end of file
+}
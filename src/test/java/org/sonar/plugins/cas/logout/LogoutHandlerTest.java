@@ -1,25 +1,25 @@
 package org.sonar.plugins.cas.logout;
 
+import org.jasig.cas.client.validation.Assertion;
 import org.junit.Test;
 import org.mockito.verification.VerificationMode;
-import org.sonar.api.server.http.Cookie;
 import org.sonar.api.server.http.HttpRequest;
 import org.sonar.api.server.http.HttpResponse;
 import org.sonar.plugins.cas.AuthTestData;
 import org.sonar.plugins.cas.SonarTestConfiguration;
 import org.sonar.plugins.cas.session.CasSessionStore;
 import org.sonar.plugins.cas.session.CasSessionStoreFactory;
-import org.sonar.plugins.cas.util.Cookies;
-import org.sonar.plugins.cas.util.SimpleJwt;
+import org.sonar.plugins.cas.util.AssertionCache;
+import org.sonar.plugins.cas.util.TicketGrantingTicketCache;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
-import static org.sonar.plugins.cas.AuthTestData.JWT_TOKEN;
-import static org.sonar.plugins.cas.AuthTestData.getJwtToken;
-import static org.sonar.plugins.cas.util.Cookies.JWT_SESSION_COOKIE;
 
 public class LogoutHandlerTest {
 
@@ -47,40 +47,79 @@ public class LogoutHandlerTest {
     }
 
     @Test
-    public void handleInvalidJwtCookie() {
+    public void logoutShouldInvalidateTicketGrantingTicketsOfTheUser() throws Exception {
         // given
         SonarTestConfiguration configuration = new SonarTestConfiguration()
-                .withAttribute("sonar.cas.urlAfterCasRedirectCookieMaxAgeSeconds", "300");
+                .withAttribute("sonar.cas.sonarServerUrl", "http://sonar.url.com")
+                .withAttribute("sonar.cas.assertionCache.timeToLiveSeconds", "60");
         CasSessionStore store = mock(CasSessionStore.class);
         CasSessionStoreFactory factory = mock(CasSessionStoreFactory.class);
         when(factory.getInstance()).thenReturn(store);
-        when(store.isJwtStored(JWT_TOKEN)).thenReturn(true);
-        SimpleJwt invalidJwtToken = JWT_TOKEN.cloneAsInvalidated();
-        when(store.fetchStoredJwt(JWT_TOKEN)).thenReturn(invalidJwtToken);
+        String ticketID = "ST-2-MCVscBHPvotTXcRW7kFF-45aa256f981c";
+        HttpRequest request = mock(HttpRequest.class);
+        when(request.getParameter("logoutRequest")).thenReturn(AuthTestData.getLogoutTicketForId(ticketID));
+        HttpResponse response = mock(HttpResponse.class);
+        TicketGrantingTicketCache tgtCache = new TicketGrantingTicketCache(configuration);
+        tgtCache.get("@NOT_USED@", "secret", () -> CompletableFuture.completedFuture("TGT-1")).get();
+        AssertionCache assertionCache = new AssertionCache(configuration);
+        Assertion assertion = mock(Assertion.class);
+        when(assertion.isValid()).thenReturn(true);
+        assertionCache.put("@NOT_USED@", "secret", assertion);
+        LogoutHandler sut = new LogoutHandler(configuration, factory, tgtCache, assertionCache);
+
+        // when
+        sut.logout(request, response);
+
+        // then
+        verify(store).invalidateJwt(ticketID);
+        verify(response).sendRedirect("http://sonar.url.com/sessions/init/sonarqube");
+        assertThat(tgtCache.get("@NOT_USED@", "secret", () -> CompletableFuture.completedFuture("TGT-2")).get())
+                .isEqualTo("TGT-2");
+        assertThat(assertionCache.get("@NOT_USED@", "secret")).isNull();
+    }
 
+    @Test
+    public void logoutShouldInvalidateTicketGrantingTicketsEvenIfTheSessionStoreFails() throws Exception {
+        // given
+        SonarTestConfiguration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.sonarServerUrl", "http://sonar.url.com");
+        CasSessionStore store = mock(CasSessionStore.class);
+        CasSessionStoreFactory factory = mock(CasSessionStoreFactory.class);
+        when(factory.getInstance()).thenReturn(store);
+        String ticketID = "ST-2-MCVscBHPvotTXcRW7kFF-45aa256f981c";
+        when(store.invalidateJwt(ticketID)).thenThrow(new IllegalStateException("Could not write JWT file"));
         HttpRequest request = mock(HttpRequest.class);
-        String jwtCookieDoughContent = getJwtToken();
-        Cookie httpOnlyCookie = new Cookies.HttpOnlyCookieBuilder()
-                .name(JWT_SESSION_COOKIE)
-                .value(jwtCookieDoughContent)
-                .maxAgeInSecs(100)
-                .contextPath("/sonar")
-                .build();
-        Cookie[] cookies = {httpOnlyCookie};
-        when(request.getCookies()).thenReturn(cookies);
-        when(request.getRequestURL()).thenReturn("http://sonar.url.com/somePageWhichIsNotLogin");
-        when(request.getContextPath()).thenReturn("/sonar");
+        when(request.getParameter("logoutRequest")).thenReturn(AuthTestData.getLogoutTicketForId(ticketID));
+        TicketGrantingTicketCache tgtCache = new TicketGrantingTicketCache(configuration);
+        tgtCache.get("@NOT_USED@", "secret", () -> CompletableFuture.completedFuture("TGT-1")).get();
+        LogoutHandler sut = new LogoutHandler(configuration, factory, tgtCache, AssertionCache.disabled());
 
+        // when
+        try {
+            sut.logout(request, mock(HttpResponse.class));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // then
+            assertThat(tgtCache.get("@NOT_USED@", "secret", () -> CompletableFuture.completedFuture("TGT-2")).get())
+                    .isEqualTo("TGT-2");
+        }
+    }
+
+    @Test
+    public void removeAuthCookiesShouldAddDeletionCookies() {
+        // given
+        SonarTestConfiguration configuration = new SonarTestConfiguration();
+        CasSessionStoreFactory factory = mock(CasSessionStoreFactory.class);
+        when(factory.getInstance()).thenReturn(mock(CasSessionStore.class));
         HttpResponse response = mock(HttpResponse.class);
-        LogoutHandler sut = new LogoutHandler(configuration, factory);
+        LogoutHandler sut = new LogoutHandler(configuration, factory, TicketGrantingTicketCache.disabled(),
+                AssertionCache.disabled());
 
         // when
-        sut.handleInvalidJwtCookie(request, response);
+        sut.removeAuthCookies(response, "/sonar");
 
         // then
-        verify(store).isJwtStored(JWT_TOKEN);
-        verify(store).fetchStoredJwt(JWT_TOKEN);
         VerificationMode addedCookies = times(2); //add deletion cookie for JWT and XSRF
         verify(response, addedCookies).addCookie(any());
     }
-}
\ No newline at end of file
+}
@@ -19,4 +19,38 @@ public class CasSessionStoreFactoryTest {
 
         assertThat(actual).isNotNull().isInstanceOf(CasSessionStore.class);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getInstanceShouldReturnJournalSessionStore() {
+        SonarTestConfiguration config = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.sessionStorePath", "/tmp")
+                .withAttribute("sonar.cas.sessionStore.type", "journal");
+        CasSessionStoreFactory sut = new CasSessionStoreFactory(config);
+
+        CasSessionStore actual = sut.getInstance();
+
+        assertThat(actual).isInstanceOf(JournalSessionStore.class);
+    }
+
+    @Test
+    public void getInstanceShouldReturnMappedSessionStore() {
+        SonarTestConfiguration config = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.sessionStorePath", "/tmp")
+                .withAttribute("sonar.cas.sessionStore.type", "mapped")
+                .withAttribute("sonar.cas.sessionStore.mapped.initialCapacity", "1024");
+        CasSessionStoreFactory sut = new CasSessionStoreFactory(config);
+
+        CasSessionStore actual = sut.getInstance();
+
+        assertThat(actual).isInstanceOf(MappedSessionStore.class);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void constructorShouldThrowExceptionOnUnknownType() {
+        SonarTestConfiguration config = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.sessionStorePath", "/tmp")
+                .withAttribute("sonar.cas.sessionStore.type", "banana");
+
+        new CasSessionStoreFactory(config);
+    }
+}
@@ -0,0 +1,59 @@
+package org.sonar.plugins.cas.session;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ExpirationWheelTest {
+
+    private final ExpirationWheel sut = new ExpirationWheel(60);
+
+    @Test
+    public void pollExpiredShouldReturnOnlyBucketsWhichEndedBeforeNow() {
+        sut.schedule("expired1", "ST-1", 1000);
+        sut.schedule("expired2", "ST-2", 1079);
+        sut.schedule("currentBucket", "ST-3", 1090);
+        sut.schedule("future", "ST-4", 5000);
+
+        List<ExpirationWheel.ExpiringSession> actual = sut.pollExpired(1100);
+
+        assertThat(actual).hasSize(2);
+        assertThat(actual.get(0).getJwtId()).isEqualTo("expired1");
+        assertThat(actual.get(1).getJwtId()).isEqualTo("expired2");
+        assertThat(actual.get(1).getServiceTicket()).isEqualTo("ST-2");
+        assertThat(sut.size()).isEqualTo(2);
+        assertThat(sut.pollExpired(1100)).isEmpty();
+    }
+
+    @Test
+    public void rescheduleShouldMoveSessionAndKeepServiceTicket() {
+        sut.schedule("jwt", "ST-1", 1000);
+
+        sut.reschedule("jwt", 5000);
+
+        assertThat(sut.pollExpired(1100)).isEmpty();
+        List<ExpirationWheel.ExpiringSession> actual = sut.pollExpired(6000);
+        assertThat(actual).hasSize(1);
+        assertThat(actual.get(0).getServiceTicket()).isEqualTo("ST-1");
+        assertThat(actual.get(0).getExpiration()).isEqualTo(5000);
+    }
+
+    @Test
+    public void rescheduleShouldIgnoreUnknownSession() {
+        sut.reschedule("unknown", 1000);
+
+        assertThat(sut.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void cancelShouldRemoveSession() {
+        sut.schedule("jwt", "ST-1", 1000);
+
+        ExpirationWheel.ExpiringSession actual = sut.cancel("jwt");
+
+        assertThat(actual.getJwtId()).isEqualTo("jwt");
+        assertThat(sut.pollExpired(6000)).isEmpty();
+    }
+}
@@ -0,0 +1,305 @@
+package org.sonar.plugins.cas.session;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.sonar.plugins.cas.util.SimpleJwt;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FileSessionStoreTest {
+
+    private static final String SERVICE_TICKET = "ST-55-HqpNCMS1MO2enGkAqwMo-a20226e06c07";
+    private static final String JWT_ID = "AWjne4xYY4T-z3CxdIRY";
+
+    private Path sessionStore;
+    private FileSessionStore sut;
+
+    @Before
+    public void setUp() throws Exception {
+        sessionStore = Files.createTempDirectory("sessionStore");
+        sut = new FileSessionStore(sessionStore.toString());
+        sut.prepareForWork();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut.close();
+        FileUtils.deleteDirectory(sessionStore.toFile());
+    }
+
+    @Test
+    public void storeShouldMakeJwtAvailable() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+
+        sut.store(SERVICE_TICKET, jwt);
+
+        assertThat(sut.isJwtStored(jwt)).isTrue();
+        assertThat(sut.fetchStoredJwt(jwt)).isEqualTo(jwt);
+        assertThat(Files.exists(sessionStore.resolve(JWT_ID))).isTrue();
+        assertThat(Files.exists(sessionStore.resolve(SERVICE_TICKET))).isTrue();
+    }
+
+    @Test
+    public void fetchStoredJwtShouldReturnNullObjectForUnknownJwt() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+
+        assertThat(sut.isJwtStored(jwt)).isFalse();
+        assertThat(sut.fetchStoredJwt(jwt).isNullObject()).isTrue();
+    }
+
+    @Test
+    public void invalidateJwtShouldBeVisibleWithoutReadingTheFile() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+
+        String actualId = sut.invalidateJwt(SERVICE_TICKET);
+
+        assertThat(actualId).isEqualTo(JWT_ID);
+        assertThat(sut.fetchStoredJwt(jwt).isInvalid()).isTrue();
+    }
+
+    @Test
+    public void refreshJwtShouldUpdateTheIndex() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        SimpleJwt refreshed = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute() + 60);
+
+        sut.refreshJwt(refreshed);
+
+        assertThat(sut.fetchStoredJwt(jwt)).isEqualTo(refreshed);
+    }
+
+    @Test
+    public void refreshJwtShouldBePersistedWhenTheStoreIsClosed() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        SimpleJwt refreshed = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute() + 60);
+
+        sut.refreshJwt(refreshed);
+        sut.close();
+
+        FileSessionStore restarted = new FileSessionStore(sessionStore.toString());
+        restarted.prepareForWork();
+        assertThat(restarted.fetchStoredJwt(jwt)).isEqualTo(refreshed);
+        restarted.close();
+    }
+
+    @Test
+    public void refreshJwtShouldWriteSynchronouslyWithoutQueue() {
+        sut.close();
+        sut = new FileSessionStore(sessionStore.toString(), SessionCleanUpSettings.defaults(),
+                FileSessionStore.REFRESH_QUEUE_DISABLED);
+        sut.prepareForWork();
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        SimpleJwt refreshed = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute() + 60);
+
+        sut.refreshJwt(refreshed);
+
+        FileSessionStore restarted = new FileSessionStore(sessionStore.toString());
+        restarted.prepareForWork();
+        assertThat(restarted.fetchStoredJwt(jwt)).isEqualTo(refreshed);
+        restarted.close();
+    }
+
+    @Test
+    public void refreshJwtShouldIgnoreUnknownJwts() {
+        SimpleJwt unknown = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+
+        sut.refreshJwt(unknown);
+        sut.close();
+
+        assertThat(sut.isJwtStored(unknown)).isFalse();
+        assertThat(Files.exists(sessionStore.resolve(JWT_ID))).isFalse();
+    }
+
+    @Test
+    public void refreshJwtShouldIgnoreUnknownJwtsWithoutQueue() {
+        sut.close();
+        sut = new FileSessionStore(sessionStore.toString(), SessionCleanUpSettings.defaults(),
+                FileSessionStore.REFRESH_QUEUE_DISABLED);
+        sut.prepareForWork();
+        SimpleJwt unknown = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+
+        sut.refreshJwt(unknown);
+
+        assertThat(sut.isJwtStored(unknown)).isFalse();
+    }
+
+    @Test
+    public void refreshJwtShouldKeepInvalidation() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        sut.invalidateJwt(SERVICE_TICKET);
+        SimpleJwt refreshed = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute() + 60);
+
+        sut.refreshJwt(refreshed);
+
+        SimpleJwt actual = sut.fetchStoredJwt(jwt);
+        assertThat(actual.isInvalid()).isTrue();
+        assertThat(actual.getExpiration()).isEqualTo(refreshed.getExpiration());
+    }
+
+    @Test(timeout = 30000L)
+    public void concurrentRefreshAndInvalidateShouldNotFail() throws Exception {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 20; i++) {
+                long expiration = inOneMinute() + i;
+                futures.add(executor.submit(() -> sut.refreshJwt(SimpleJwt.fromIdAndExpiration(JWT_ID, expiration))));
+                futures.add(executor.submit(() -> sut.fetchStoredJwt(jwt)));
+            }
+            futures.add(executor.submit(() -> sut.invalidateJwt(SERVICE_TICKET)));
+            for (int i = 0; i < 20; i++) {
+                futures.add(executor.submit(() -> sut.refreshJwt(SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute()))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(sut.fetchStoredJwt(jwt).isInvalid()).isTrue();
+        sut.close();
+        FileSessionStore restarted = new FileSessionStore(sessionStore.toString());
+        restarted.prepareForWork();
+        assertThat(restarted.fetchStoredJwt(jwt).isInvalid()).isTrue();
+    }
+
+    @Test
+    public void prepareForWorkShouldLoadPersistedJwts() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        sut.invalidateJwt(SERVICE_TICKET);
+
+        FileSessionStore restarted = new FileSessionStore(sessionStore.toString());
+        restarted.prepareForWork();
+
+        assertThat(restarted.isJwtStored(jwt)).isTrue();
+        assertThat(restarted.fetchStoredJwt(jwt).isInvalid()).isTrue();
+    }
+
+    @Test
+    public void removeExpiredEntriesShouldRemoveExpiredJwtsFromTheIndex() {
+        String expiredId = "AWkLDwrSoTPaa1Du9LQ4";
+        SimpleJwt expired = SimpleJwt.fromIdAndExpiration(expiredId, Instant.now().minusSeconds(60).getEpochSecond());
+        SimpleJwt valid = SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ1", inOneMinute());
+        sut.store("ST-1", expired);
+        sut.store("ST-2", valid);
+
+        sut.removeExpiredEntries();
+
+        assertThat(sut.isJwtStored(expired)).isFalse();
+        assertThat(sut.isJwtStored(valid)).isTrue();
+    }
+
+    @Test
+    public void removeExpiredEntriesShouldRemoveFilesOfExpiredSessions() throws IOException {
+        SimpleJwt expired = SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ4", Instant.now().minusSeconds(60).getEpochSecond());
+        SimpleJwt valid = SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ1", inOneMinute());
+        sut.store("ST-1", expired);
+        sut.store("ST-2", valid);
+
+        int actual = sut.removeExpiredEntries();
+
+        assertThat(actual).isEqualTo(2);
+        assertThat(Files.exists(sessionStore.resolve("ST-1"))).isFalse();
+        assertThat(Files.exists(sessionStore.resolve("AWkLDwrSoTPaa1Du9LQ4"))).isFalse();
+        assertThat(Files.exists(sessionStore.resolve("ST-2"))).isTrue();
+        assertThat(Files.exists(sessionStore.resolve("AWkLDwrSoTPaa1Du9LQ1"))).isTrue();
+    }
+
+    @Test
+    public void removeExpiredEntriesShouldKeepRefreshedSessions() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, Instant.now().minusSeconds(60).getEpochSecond());
+        sut.store(SERVICE_TICKET, jwt);
+        sut.refreshJwt(SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute()));
+
+        int actual = sut.removeExpiredEntries();
+
+        assertThat(actual).isEqualTo(0);
+        assertThat(sut.isJwtStored(jwt)).isTrue();
+    }
+
+    @Test
+    public void removeExpiredEntriesShouldRemoveSessionsLoadedDuringStart() {
+        SimpleJwt expired = SimpleJwt.fromIdAndExpiration(JWT_ID, Instant.now().minusSeconds(60).getEpochSecond());
+        sut.store(SERVICE_TICKET, expired);
+        sut = new FileSessionStore(sessionStore.toString());
+        sut.prepareForWork();
+
+        int actual = sut.removeExpiredEntries();
+
+        assertThat(actual).isEqualTo(2);
+        assertThat(sut.isJwtStored(expired)).isFalse();
+    }
+
+    @Test
+    public void removeExpiredEntriesShouldReuseCleanUpThreadsUntilClose() {
+        sut.close();
+        sut = new FileSessionStore(sessionStore.toString(), new SessionCleanUpSettings(10, 0, 0, 2));
+        sut.prepareForWork();
+        long expiration = Instant.now().minusSeconds(60).getEpochSecond();
+        for (int run = 0; run < 3; run++) {
+            sut.store("ST-" + run, SimpleJwt.fromIdAndExpiration(String.format("AWkLDwrSoTPa%08d", run), expiration));
+
+            assertThat(sut.removeExpiredEntries()).isEqualTo(2);
+        }
+
+        assertThat(countCleanUpThreads()).isLessThanOrEqualTo(2);
+
+        sut.close();
+
+        assertThat(countCleanUpThreads()).isEqualTo(0);
+    }
+
+    private static long countCleanUpThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("cas-session-cleanup-"))
+                .count();
+    }
+
+    @Test
+    @Ignore // benchmark which takes a while but can be called manually
+    public void benchmarkRemoveExpiredEntriesAgainstDirectorySize() {
+        long expired = Instant.now().minusSeconds(60).getEpochSecond();
+        long future = Instant.now().plusSeconds(3600).getEpochSecond();
+        int created = 0;
+
+        for (int directorySize : new int[]{1_000, 10_000, 50_000}) {
+            for (; created < directorySize; created++) {
+                // one in ten sessions is expired
+                long expiration = created % 10 == 0 ? expired : future;
+                sut.store("ST-" + created, SimpleJwt.fromIdAndExpiration(String.format("AWkLDwrSoTPa%08d", created), expiration));
+            }
+
+            long start = System.nanoTime();
+            int removed = sut.removeExpiredEntries();
+            long durationInMillis = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.printf("sessions: %6d, removed files: %5d, clean up: %5d ms%n", directorySize, removed, durationInMillis);
+        }
+    }
+
+    private static long inOneMinute() {
+        return Instant.now().plusSeconds(60).getEpochSecond();
+    }
+}
@@ -0,0 +1,186 @@
+package org.sonar.plugins.cas.session;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.plugins.cas.util.SimpleJwt;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JournalSessionStoreTest {
+
+    private static final String SERVICE_TICKET = "ST-55-HqpNCMS1MO2enGkAqwMo-a20226e06c07";
+    private static final String JWT_ID = "AWjne4xYY4T-z3CxdIRY";
+
+    private Path sessionStore;
+    private JournalSessionStore sut;
+
+    @Before
+    public void setUp() throws Exception {
+        sessionStore = Files.createTempDirectory("sessionStore");
+        sut = new JournalSessionStore(sessionStore.toString());
+        sut.prepareForWork();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut.close();
+        FileUtils.deleteDirectory(sessionStore.toFile());
+    }
+
+    @Test
+    public void storeShouldMakeJwtAvailable() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+
+        sut.store(SERVICE_TICKET, jwt);
+
+        assertThat(sut.isJwtStored(jwt)).isTrue();
+        assertThat(sut.fetchStoredJwt(jwt)).isEqualTo(jwt);
+    }
+
+    @Test
+    public void storeShouldNotCreateFilesPerLogin() throws IOException {
+        sut.store(SERVICE_TICKET, SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute()));
+        sut.store("ST-2", SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ1", inOneMinute()));
+
+        assertThat(Files.list(sessionStore).count()).isEqualTo(1L);
+    }
+
+    @Test
+    public void invalidateJwtShouldBlacklistJwt() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+
+        String actual = sut.invalidateJwt(SERVICE_TICKET);
+
+        assertThat(actual).isEqualTo(JWT_ID);
+        assertThat(sut.fetchStoredJwt(jwt).isInvalid()).isTrue();
+    }
+
+    @Test
+    public void invalidateJwtShouldIgnoreUnknownTicket() {
+        String actual = sut.invalidateJwt("ST-unknown");
+
+        assertThat(actual).isEqualTo("no ticket found");
+    }
+
+    @Test
+    public void refreshJwtShouldNotLiftInvalidation() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        sut.invalidateJwt(SERVICE_TICKET);
+
+        long newExpiration = inOneMinute() + 60;
+
+        sut.refreshJwt(SimpleJwt.fromIdAndExpiration(JWT_ID, newExpiration));
+
+        SimpleJwt actual = sut.fetchStoredJwt(jwt);
+        assertThat(actual.isInvalid()).isTrue();
+        assertThat(actual.getExpiration().getEpochSecond()).isEqualTo(newExpiration);
+    }
+
+    @Test
+    public void refreshJwtShouldIgnoreUnknownJwt() throws IOException {
+        Path journalFile = sessionStore.resolve(SessionJournal.JOURNAL_FILE_NAME);
+        long sizeBefore = Files.size(journalFile);
+
+        sut.refreshJwt(SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute()));
+
+        assertThat(Files.size(journalFile)).isEqualTo(sizeBefore);
+        assertThat(sut.isJwtStored(SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute()))).isFalse();
+    }
+
+    @Test
+    public void prepareForWorkShouldReplayJournal() throws IOException {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        SimpleJwt otherJwt = SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ1", inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        sut.store("ST-2", otherJwt);
+        sut.invalidateJwt(SERVICE_TICKET);
+        sut.close();
+
+        sut = new JournalSessionStore(sessionStore.toString());
+        sut.prepareForWork();
+
+        assertThat(sut.fetchStoredJwt(jwt).isInvalid()).isTrue();
+        assertThat(sut.fetchStoredJwt(otherJwt)).isEqualTo(otherJwt);
+        assertThat(sut.invalidateJwt("ST-2")).isEqualTo("AWkLDwrSoTPaa1Du9LQ1");
+    }
+
+    @Test
+    public void prepareForWorkShouldCutOffTornRecord() throws IOException {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        sut.store("ST-2", SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ1", inOneMinute()));
+        sut.close();
+        Path journalFile = sessionStore.resolve(SessionJournal.JOURNAL_FILE_NAME);
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        sut = new JournalSessionStore(sessionStore.toString());
+        sut.prepareForWork();
+
+        assertThat(sut.isJwtStored(jwt)).isTrue();
+        assertThat(sut.isJwtStored(SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ1", inOneMinute()))).isFalse();
+        SimpleJwt newJwt = SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ2", inOneMinute());
+        sut.store("ST-3", newJwt);
+        sut.close();
+        sut = new JournalSessionStore(sessionStore.toString());
+        sut.prepareForWork();
+        assertThat(sut.isJwtStored(newJwt)).isTrue();
+    }
+
+    @Test
+    public void removeExpiredEntriesShouldRemoveJwtsAndTickets() throws IOException {
+        SimpleJwt expired = SimpleJwt.fromIdAndExpiration(JWT_ID, Instant.now().minusSeconds(60).getEpochSecond());
+        SimpleJwt valid = SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ1", inOneMinute());
+        sut.store(SERVICE_TICKET, expired);
+        sut.store("ST-2", valid);
+
+        int actual = sut.removeExpiredEntries();
+
+        assertThat(actual).isEqualTo(2);
+        assertThat(sut.isJwtStored(expired)).isFalse();
+        assertThat(sut.isJwtStored(valid)).isTrue();
+        sut.close();
+        sut = new JournalSessionStore(sessionStore.toString());
+        sut.prepareForWork();
+        assertThat(sut.isJwtStored(expired)).isFalse();
+        assertThat(sut.isJwtStored(valid)).isTrue();
+    }
+
+    @Test
+    public void removeExpiredEntriesShouldCompactJournal() throws IOException {
+        long expiration = Instant.now().minusSeconds(60).getEpochSecond();
+        for (int i = 0; i < 1000; i++) {
+            sut.store("ST-" + i, SimpleJwt.fromIdAndExpiration("jwt" + i, expiration));
+        }
+        SimpleJwt valid = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, valid);
+        sut.invalidateJwt(SERVICE_TICKET);
+        Path journalFile = sessionStore.resolve(SessionJournal.JOURNAL_FILE_NAME);
+        long sizeBefore = Files.size(journalFile);
+
+        sut.removeExpiredEntries();
+
+        assertThat(Files.size(journalFile)).isLessThan(sizeBefore);
+        sut.close();
+        sut = new JournalSessionStore(sessionStore.toString());
+        sut.prepareForWork();
+        assertThat(sut.fetchStoredJwt(valid).isInvalid()).isTrue();
+        assertThat(sut.isJwtStored(SimpleJwt.fromIdAndExpiration("jwt1", expiration))).isFalse();
+    }
+
+    private static long inOneMinute() {
+        return Instant.now().plusSeconds(60).getEpochSecond();
+    }
+}
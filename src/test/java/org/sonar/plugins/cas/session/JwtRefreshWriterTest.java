@@ -0,0 +1,129 @@
+package org.sonar.plugins.cas.session;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JwtRefreshWriterTest {
+    private final List<String> writtenJwtIds = new CopyOnWriteArrayList<>();
+    private final CountDownLatch writerStarted = new CountDownLatch(1);
+    private final CountDownLatch writerReleased = new CountDownLatch(1);
+    private JwtRefreshWriter sut;
+
+    @After
+    public void tearDown() {
+        writerReleased.countDown();
+        if (sut != null) {
+            sut.close();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void enqueueShouldCoalesceWaitingRefreshesOfTheSameJwt() throws InterruptedException {
+        sut = new JwtRefreshWriter(10, this::blockingWrite);
+        sut.enqueue("blocker");
+        writerStarted.await();
+
+        assertThat(sut.enqueue("jwt1")).isTrue();
+        assertThat(sut.enqueue("jwt1")).isTrue();
+        assertThat(sut.enqueue("jwt1")).isTrue();
+        writerReleased.countDown();
+        sut.close();
+
+        assertThat(writtenJwtIds).containsExactly("blocker", "jwt1");
+        assertThat(sut.getCoalescedRefreshes()).isEqualTo(2);
+    }
+
+    @Test(timeout = 10000L)
+    public void enqueueShouldRefuseRefreshesWhenTheQueueIsFull() throws InterruptedException {
+        sut = new JwtRefreshWriter(1, this::blockingWrite);
+        sut.enqueue("blocker");
+        writerStarted.await();
+
+        assertThat(sut.enqueue("jwt1")).isTrue();
+        assertThat(sut.enqueue("jwt2")).isFalse();
+        assertThat(sut.getRejectedRefreshes()).isEqualTo(1);
+    }
+
+    @Test(timeout = 10000L)
+    public void closeShouldWriteRemainingRefreshes() throws InterruptedException {
+        sut = new JwtRefreshWriter(10, this::blockingWrite);
+        sut.enqueue("blocker");
+        writerStarted.await();
+        sut.enqueue("jwt1");
+        sut.enqueue("jwt2");
+
+        writerReleased.countDown();
+        sut.close();
+
+        assertThat(writtenJwtIds).containsExactly("blocker", "jwt1", "jwt2");
+        assertThat(sut.enqueue("jwt3")).isFalse();
+    }
+
+    @Test(timeout = 10000L)
+    public void closeShouldWriteAllRefreshesWhichWereAcceptedDuringTheClose() throws Exception {
+        sut = new JwtRefreshWriter(100_000, writtenJwtIds::add);
+        Set<String> acceptedJwtIds = ConcurrentHashMap.newKeySet();
+        ExecutorService requests = Executors.newFixedThreadPool(4);
+        CountDownLatch requestsStarted = new CountDownLatch(4);
+        try {
+            for (int thread = 0; thread < 4; thread++) {
+                int threadNumber = thread;
+                requests.execute(() -> {
+                    requestsStarted.countDown();
+                    for (int i = 0; ; i++) {
+                        String jwtId = threadNumber + "-" + i;
+                        if (!sut.enqueue(jwtId)) {
+                            return;
+                        }
+                        acceptedJwtIds.add(jwtId);
+                    }
+                });
+            }
+            requestsStarted.await();
+
+            sut.close();
+        } finally {
+            requests.shutdown();
+            requests.awaitTermination(5, TimeUnit.SECONDS);
+        }
+
+        assertThat(writtenJwtIds).containsOnly(acceptedJwtIds.toArray());
+    }
+
+    @Test(timeout = 10000L)
+    public void writerShouldContinueAfterFailedWrite() throws InterruptedException {
+        CountDownLatch written = new CountDownLatch(1);
+        sut = new JwtRefreshWriter(10, jwtId -> {
+            if ("broken".equals(jwtId)) {
+                throw new IllegalStateException("disk full");
+            }
+            written.countDown();
+        });
+
+        sut.enqueue("broken");
+        sut.enqueue("jwt1");
+
+        assertThat(written.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private void blockingWrite(String jwtId) {
+        writtenJwtIds.add(jwtId);
+        writerStarted.countDown();
+        try {
+            writerReleased.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
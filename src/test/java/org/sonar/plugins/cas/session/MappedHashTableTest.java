@@ -0,0 +1,136 @@
+package org.sonar.plugins.cas.session;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MappedHashTableTest {
+
+    private Path directory;
+    private MappedHashTable sut;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("mappedHashTable");
+        sut = new MappedHashTable(directory.resolve("test.table"), 16, 8, 1, 50);
+        sut.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut.close();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void putShouldOverwriteExistingValue() throws Exception {
+        sut.put("key", new byte[]{1});
+        sut.put("key", new byte[]{2});
+
+        assertThat(sut.size()).isEqualTo(1);
+        assertThat(sut.getByte(sut.find("key"), 0)).isEqualTo((byte) 2);
+    }
+
+    @Test
+    public void removeShouldKeepProbeChainIntact() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            sut.put("key" + i, new byte[]{(byte) i});
+        }
+
+        sut.remove(sut.find("key3"));
+
+        assertThat(sut.find("key3")).isEqualTo(-1);
+        for (int i = 0; i < 7; i++) {
+            if (i != 3) {
+                assertThat(sut.getByte(sut.find("key" + i), 0)).isEqualTo((byte) i);
+            }
+        }
+    }
+
+    @Test
+    public void putShouldDoubleCapacityAboveMaxLoad() throws Exception {
+        for (int i = 0; i < 9; i++) {
+            sut.put("key" + i, new byte[]{(byte) i});
+        }
+
+        assertThat(sut.capacity()).isEqualTo(32);
+        assertThat(sut.size()).isEqualTo(9);
+        assertThat(sut.getByte(sut.find("key8"), 0)).isEqualTo((byte) 8);
+    }
+
+    @Test
+    public void putShouldPurgeTombstonesWithoutGrowing() throws Exception {
+        for (int round = 0; round < 10; round++) {
+            sut.put("key" + round, new byte[]{1});
+            sut.remove(sut.find("key" + round));
+        }
+
+        assertThat(sut.capacity()).isEqualTo(16);
+        assertThat(sut.size()).isEqualTo(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void putShouldRejectNonAsciiKey() throws Exception {
+        sut.put("schlüssel", new byte[]{1});
+    }
+
+    @Test
+    public void findShouldNotMatchNonAsciiKeysWhoseLowByteMatches() throws Exception {
+        sut.put("A", new byte[]{1});
+
+        // every character ending with 0x41 would be stored as the byte of "A"
+        for (char c = '\u0141'; c < '\uFF41'; c += 0x100) {
+            assertThat(sut.find(String.valueOf(c))).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    public void findEncodedShouldFindKeyStoredInAnotherTable() throws Exception {
+        MappedHashTable source = new MappedHashTable(directory.resolve("source.table"), 16, 8, 10, 50);
+        source.open();
+        try {
+            byte[] value = new byte[10];
+            MappedHashTable.encodeString("key", value, 0, 8);
+            source.put("ticket", value);
+            MappedHashTable.encodeString("missing", value, 0, 8);
+            source.put("other", value);
+            sut.put("key", new byte[]{1});
+
+            assertThat(sut.findEncoded(source, source.find("ticket"), 0)).isEqualTo(sut.find("key"));
+            assertThat(sut.findEncoded(source, source.find("other"), 0)).isEqualTo(-1);
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void replaceWithShouldDiscardCopyOfChangedTable() throws Exception {
+        sut.put("key", new byte[]{1});
+        long modificationCount = sut.getModificationCount();
+        MappedHashTable copy = sut.copyWithoutTombstones();
+        sut.putByte(sut.find("key"), 0, (byte) 2);
+
+        assertThat(sut.replaceWith(copy, modificationCount)).isFalse();
+        assertThat(sut.getByte(sut.find("key"), 0)).isEqualTo((byte) 2);
+    }
+
+    @Test
+    public void replaceWithShouldSwapInCopyWithoutTombstones() throws Exception {
+        sut.put("key", new byte[]{1});
+        sut.put("gone", new byte[]{2});
+        sut.remove(sut.find("gone"));
+        long modificationCount = sut.getModificationCount();
+        MappedHashTable copy = sut.copyWithoutTombstones();
+
+        assertThat(sut.replaceWith(copy, modificationCount)).isTrue();
+        assertThat(sut.hasTooManyTombstones()).isFalse();
+        assertThat(sut.getByte(sut.find("key"), 0)).isEqualTo((byte) 1);
+        assertThat(sut.find("gone")).isEqualTo(-1);
+    }
+}
@@ -0,0 +1,192 @@
+package org.sonar.plugins.cas.session;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.plugins.cas.util.SimpleJwt;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class MappedSessionStoreTest {
+
+    private static final String SERVICE_TICKET = "ST-55-HqpNCMS1MO2enGkAqwMo-a20226e06c07";
+    private static final String JWT_ID = "AWjne4xYY4T-z3CxdIRY";
+
+    private Path sessionStore;
+    private MappedSessionStore sut;
+
+    @Before
+    public void setUp() throws Exception {
+        sessionStore = Files.createTempDirectory("sessionStore");
+        sut = new MappedSessionStore(sessionStore.toString(), 16, 70, 32, 64);
+        sut.prepareForWork();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut.close();
+        FileUtils.deleteDirectory(sessionStore.toFile());
+    }
+
+    @Test
+    public void storeShouldMakeJwtAvailable() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+
+        sut.store(SERVICE_TICKET, jwt);
+
+        assertThat(sut.isJwtStored(jwt)).isTrue();
+        assertThat(sut.fetchStoredJwt(jwt)).isEqualTo(jwt);
+    }
+
+    @Test
+    public void fetchStoredJwtShouldReturnNullObjectForUnknownJwt() {
+        SimpleJwt actual = sut.fetchStoredJwt(SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute()));
+
+        assertThat(actual.isNullObject()).isTrue();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void storeShouldThrowExceptionOnTooLongServiceTicket() {
+        String ticket = "ST-" + new String(new char[100]).replace('\0', 'x');
+
+        sut.store(ticket, SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute()));
+    }
+
+    @Test
+    public void storeShouldRollBackJwtIfServiceTicketCannotBeStored() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        String ticket = "ST-" + new String(new char[100]).replace('\0', 'x');
+
+        try {
+            sut.store(ticket, jwt);
+            fail("expected exception");
+        } catch (RuntimeException e) {
+            assertThat(sut.isJwtStored(jwt)).isFalse();
+        }
+    }
+
+    @Test
+    public void storeShouldRestorePreviousJwtIfServiceTicketCannotBeStored() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        sut.invalidateJwt(SERVICE_TICKET);
+        String ticket = "ST-" + new String(new char[100]).replace('\0', 'x');
+
+        try {
+            sut.store(ticket, SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute() + 60));
+            fail("expected exception");
+        } catch (RuntimeException e) {
+            SimpleJwt actual = sut.fetchStoredJwt(jwt);
+            assertThat(actual.isInvalid()).isTrue();
+            assertThat(actual.getExpiration()).isEqualTo(jwt.getExpiration());
+        }
+    }
+
+    @Test
+    public void invalidateJwtShouldBlacklistJwt() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+
+        String actual = sut.invalidateJwt(SERVICE_TICKET);
+
+        assertThat(actual).isEqualTo(JWT_ID);
+        assertThat(sut.fetchStoredJwt(jwt).isInvalid()).isTrue();
+        assertThat(sut.invalidateJwt("ST-unknown")).isEqualTo("no ticket found");
+    }
+
+    @Test
+    public void refreshJwtShouldNotLiftInvalidation() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        sut.invalidateJwt(SERVICE_TICKET);
+        long newExpiration = inOneMinute() + 60;
+
+        sut.refreshJwt(SimpleJwt.fromIdAndExpiration(JWT_ID, newExpiration));
+
+        SimpleJwt actual = sut.fetchStoredJwt(jwt);
+        assertThat(actual.isInvalid()).isTrue();
+        assertThat(actual.getExpiration().getEpochSecond()).isEqualTo(newExpiration);
+    }
+
+    @Test
+    public void prepareForWorkShouldMapExistingTables() throws IOException {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        SimpleJwt otherJwt = SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ1", inOneMinute());
+        sut.store(SERVICE_TICKET, jwt);
+        sut.store("ST-2", otherJwt);
+        sut.invalidateJwt(SERVICE_TICKET);
+        sut.close();
+
+        sut = new MappedSessionStore(sessionStore.toString(), 16, 70, 32, 64);
+        sut.prepareForWork();
+
+        assertThat(sut.fetchStoredJwt(jwt).isInvalid()).isTrue();
+        assertThat(sut.fetchStoredJwt(otherJwt)).isEqualTo(otherJwt);
+        assertThat(sut.invalidateJwt("ST-2")).isEqualTo("AWkLDwrSoTPaa1Du9LQ1");
+    }
+
+    @Test(expected = IOException.class)
+    public void prepareForWorkShouldRejectTablesWithDifferentLayout() throws IOException {
+        sut.close();
+
+        sut = new MappedSessionStore(sessionStore.toString(), 16, 70, 48, 64);
+        sut.prepareForWork();
+    }
+
+    @Test
+    public void storeShouldGrowTables() {
+        for (int i = 0; i < 100; i++) {
+            sut.store("ST-" + i, SimpleJwt.fromIdAndExpiration("jwt" + i, inOneMinute()));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(sut.isJwtStored(SimpleJwt.fromIdAndExpiration("jwt" + i, inOneMinute()))).isTrue();
+            assertThat(sut.invalidateJwt("ST-" + i)).isEqualTo("jwt" + i);
+        }
+    }
+
+    @Test
+    public void removeExpiredEntriesShouldRemoveJwtsAndTicketsInPlace() throws IOException {
+        SimpleJwt expired = SimpleJwt.fromIdAndExpiration(JWT_ID, Instant.now().minusSeconds(60).getEpochSecond());
+        SimpleJwt valid = SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ1", inOneMinute());
+        sut.store(SERVICE_TICKET, expired);
+        sut.store("ST-2", valid);
+
+        int actual = sut.removeExpiredEntries();
+
+        assertThat(actual).isEqualTo(2);
+        assertThat(sut.isJwtStored(expired)).isFalse();
+        assertThat(sut.invalidateJwt(SERVICE_TICKET)).isEqualTo("no ticket found");
+        assertThat(sut.isJwtStored(valid)).isTrue();
+        assertThat(Files.list(sessionStore).count()).isEqualTo(2L);
+    }
+
+    @Test
+    public void removeExpiredEntriesShouldRemoveMoreEntriesThanOneBatch() throws IOException {
+        long expiration = Instant.now().minusSeconds(60).getEpochSecond();
+        int entries = MappedSessionStore.REMOVAL_BATCH_SIZE + 10;
+        for (int i = 0; i < entries; i++) {
+            sut.store("ST-" + i, SimpleJwt.fromIdAndExpiration("jwt" + i, expiration));
+        }
+        SimpleJwt valid = SimpleJwt.fromIdAndExpiration(JWT_ID, inOneMinute());
+        sut.store(SERVICE_TICKET, valid);
+
+        int actual = sut.removeExpiredEntries();
+
+        assertThat(actual).isEqualTo(2 * entries);
+        assertThat(sut.isJwtStored(SimpleJwt.fromIdAndExpiration("jwt0", expiration))).isFalse();
+        assertThat(sut.invalidateJwt(SERVICE_TICKET)).isEqualTo(JWT_ID);
+        assertThat(Files.list(sessionStore).count()).isEqualTo(2L);
+    }
+
+    private static long inOneMinute() {
+        return Instant.now().plusSeconds(60).getEpochSecond();
+    }
+}
@@ -4,14 +4,17 @@ import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.sonar.plugins.cas.util.JwtFiles;
 import org.sonar.plugins.cas.util.SimpleJwt;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.List;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -101,6 +104,70 @@ public class SessionFileHandlerTest {
         assertThat(restoredUpdatedJwt).isNotEqualTo(originalJwt);
     }
 
+    @Test
+    public void replaceJwtFileShouldNotLeaveTemporaryFiles() throws IOException {
+        String jwtId = "AWjne4xYY4T-z3CxdIRY";
+        SimpleJwt originalJwt = SimpleJwt.fromIdAndExpiration(jwtId, Instant.now().getEpochSecond());
+        sut.writeJwtFile(jwtId, originalJwt, "ST-1");
+
+        sut.replaceJwtFile(jwtId, originalJwt.cloneAsInvalidated());
+
+        assertThat(Files.exists(sessionStore.resolve(jwtId + SessionFileHandler.TEMP_FILE_SUFFIX))).isFalse();
+        assertThat(sessionStore.toFile().list()).containsOnly(jwtId);
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void replaceJwtFileShouldFailForMissingFile() throws IOException {
+        String jwtId = "AWjne4xYY4T-z3CxdIRY";
+
+        sut.replaceJwtFile(jwtId, SimpleJwt.fromIdAndExpiration(jwtId, Instant.now().getEpochSecond()));
+    }
+
+    @Test
+    public void readAllJwtFilesShouldRemoveLeftOverTemporaryFiles() throws IOException {
+        String jwtId = "AWjne4xYY4T-z3CxdIRY";
+        sut.writeJwtFile(jwtId, SimpleJwt.fromIdAndExpiration(jwtId, Instant.now().getEpochSecond()));
+        Path tempFile = sessionStore.resolve(jwtId + SessionFileHandler.TEMP_FILE_SUFFIX);
+        Files.write(tempFile, new byte[]{1, 2, 3});
+
+        List<JwtFiles.JwtFileContent> actual = sut.readAllJwtFiles();
+
+        assertThat(actual).hasSize(1);
+        assertThat(Files.exists(tempFile)).isFalse();
+    }
+
+    @Test
+    public void readAllJwtFilesShouldMigrateLegacyXmlFiles() throws IOException {
+        String jwtId = "AWjne4xYY4T-z3CxdIRY";
+        Path file = writeLegacyXmlFile(jwtId, 1550331060L);
+
+        List<JwtFiles.JwtFileContent> actual = sut.readAllJwtFiles();
+
+        SimpleJwt expected = SimpleJwt.fromIdAndExpiration(jwtId, 1550331060L);
+        assertThat(actual).hasSize(1);
+        assertThat(actual.get(0).getJwt()).isEqualTo(expected);
+        assertThat(JwtFiles.unmarshalWithServiceTicket(file).isLegacyFormat()).isFalse();
+        assertThat(JwtFiles.unmarshal(file)).isEqualTo(expected);
+        assertThat(Files.exists(sessionStore.resolve(jwtId + SessionFileHandler.TEMP_FILE_SUFFIX))).isFalse();
+    }
+
+    @Test
+    public void readAllJwtFilesShouldKeepLegacyXmlFileIfTheMigrationFails() throws IOException {
+        String jwtId = "AWjne4xYY4T-z3CxdIRY";
+        Path file = writeLegacyXmlFile(jwtId, 1550331060L);
+        byte[] legacyContent = Files.readAllBytes(file);
+        // the temporary file of the migration cannot be written
+        Files.createDirectory(sessionStore.resolve(jwtId + SessionFileHandler.TEMP_FILE_SUFFIX));
+
+        List<JwtFiles.JwtFileContent> actual = sut.readAllJwtFiles();
+
+        SimpleJwt expected = SimpleJwt.fromIdAndExpiration(jwtId, 1550331060L);
+        assertThat(actual).hasSize(1);
+        assertThat(actual.get(0).getJwt()).isEqualTo(expected);
+        assertThat(Files.readAllBytes(file)).isEqualTo(legacyContent);
+        assertThat(JwtFiles.unmarshal(file)).isEqualTo(expected);
+    }
+
     @Test
     public void createServiceTicketFileShouldWriteSuccessfully() throws IOException {
         // given
@@ -138,4 +205,16 @@ public class SessionFileHandlerTest {
     public void readServiceTicketFileShouldThrowException() throws IOException {
         sut.readServiceTicketFile("banana");
     }
+
+    private Path writeLegacyXmlFile(String id, long expiration) throws IOException {
+        String jwtRaw = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>" +
+                "<SimpleJwt>" +
+                "<jwtId>" + id + "</jwtId>" +
+                "<expiration>" + expiration + "</expiration>" +
+                "<invalid>false</invalid>" +
+                "</SimpleJwt>";
+        Path file = sessionStore.resolve(id);
+        Files.write(file, jwtRaw.getBytes());
+        return file;
+    }
 }
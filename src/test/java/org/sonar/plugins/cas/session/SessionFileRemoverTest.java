@@ -1,5 +1,6 @@
 package org.sonar.plugins.cas.session;
 
+import com.google.common.util.concurrent.Striped;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -10,17 +11,25 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import static java.util.Collections.emptyList;
 import static org.fest.assertions.Assertions.assertThat;
 
 public class SessionFileRemoverTest {
 
     private static final String RANDOM_SERVICE_TICKET_PREFIX = "ST-1234567_";
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
     private Path sessionStore;
     private SessionFileRemover sut;
 
@@ -33,11 +42,12 @@ public class SessionFileRemoverTest {
 
     @After
     public void tearDown() throws Exception {
+        executor.shutdownNow();
         FileUtils.deleteDirectory(sessionStore.toFile());
     }
 
     @Test
-    public void cleanUpShouldRemoveJwtAndCorrespondingSTFiles() {
+    public void removeSessionsShouldSearchServiceTicketsOfSessionsWithoutServiceTicket() {
         long future = Instant.now().plusSeconds(60).getEpochSecond();
         String jwtFile1 = "AWkLDwrSoTPaa1Du9LQ1";
         String jwtFile2 = "AWkLDwrSoTPaa1Du9LQ2";
@@ -53,16 +63,16 @@ public class SessionFileRemoverTest {
         createServiceTicketFiles(jwtFile1, jwtFile2, jwtFile3, old1, old2, old3);
 
         // when
-        sut.cleanUp();
+        sut.removeSessions(expiredSessions(expired, "", old1, old2, old3));
 
         // then
-        Collection<Path> actualServiceTicketFiles = sut.listAllServiceTickets();
+        Collection<Path> actualServiceTicketFiles = listServiceTicketFiles();
         Path expectedST1 = createServiceTicketPath(jwtFile1);
         Path expectedST2 = createServiceTicketPath(jwtFile2);
         Path expectedST3 = createServiceTicketPath(jwtFile3);
         assertThat(actualServiceTicketFiles).containsOnly(expectedST1, expectedST2, expectedST3);
 
-        Collection<Path> actualJwtFiles = sut.listAllJwtFiles();
+        Collection<Path> actualJwtFiles = listJwtFiles();
         Path expectedJwt1 = sessionStore.resolve(jwtFile1);
         Path expectedJwt2 = sessionStore.resolve(jwtFile2);
         Path expectedJwt3 = sessionStore.resolve(jwtFile3);
@@ -70,231 +80,216 @@ public class SessionFileRemoverTest {
     }
 
     @Test
-    public void findServiceTicketsShouldIterateAllServiceTickets() throws IOException {
-        createServiceTicketFiles("id1", "id2", "id3");
-        Path path = sessionStore.resolve("theXFile");
-        Files.write(path, "I want to believe".getBytes());
-        assertThat(countExistingFiles()).isEqualTo(3 + 1);
-
-        Collection<Path> files = sut.listAllServiceTickets();
-
-        Path expected1 = createServiceTicketPath("id1");
-        Path expected2 = createServiceTicketPath("id2");
-        Path expected3 = createServiceTicketPath("id3");
-        assertThat(files).containsOnly(expected1, expected2, expected3);
+    public void removeSessionsShouldRemoveServiceTicketOfSession() throws IOException {
+        long expired = Instant.now().minusSeconds(60).getEpochSecond();
+        long future = Instant.now().plusSeconds(60).getEpochSecond();
+        SessionFileHandler fileHandler = new SessionFileHandler(sessionStore.toString());
+        String old = "AWkLDwrSoTPaa1Du9LQ4";
+        String valid = "AWkLDwrSoTPaa1Du9LQ1";
+        fileHandler.createServiceTicketFile("ST-old", SimpleJwt.fromIdAndExpiration(old, expired));
+        fileHandler.writeJwtFile(old, SimpleJwt.fromIdAndExpiration(old, expired), "ST-old");
+        fileHandler.createServiceTicketFile("ST-valid", SimpleJwt.fromIdAndExpiration(valid, future));
+        fileHandler.writeJwtFile(valid, SimpleJwt.fromIdAndExpiration(valid, future), "ST-valid");
+
+        int actual = sut.removeSessions(expiredSessions(expired, "ST-old", old));
+
+        assertThat(actual).isEqualTo(2);
+        assertThat(listServiceTicketFiles()).containsOnly(sessionStore.resolve("ST-valid"));
+        assertThat(listJwtFiles()).containsOnly(sessionStore.resolve(valid));
     }
 
     @Test
-    public void findServiceTicketsShouldIterateOnlyServiceTickets() {
-        createServiceTicketFiles("id1", "id2", "id3");
-        assertThat(countExistingFiles()).isEqualTo(3);
-
-        Collection<Path> files = sut.listAllServiceTickets();
+    public void removeSessionsShouldKeepFilesOfSessionsWhichAreNoLongerRemovable() throws IOException {
+        long expired = Instant.now().minusSeconds(60).getEpochSecond();
+        SessionFileHandler fileHandler = new SessionFileHandler(sessionStore.toString());
+        String refreshed = "AWkLDwrSoTPaa1Du9LQ1";
+        String old = "AWkLDwrSoTPaa1Du9LQ4";
+        fileHandler.createServiceTicketFile("ST-refreshed", SimpleJwt.fromIdAndExpiration(refreshed, expired));
+        fileHandler.writeJwtFile(refreshed, SimpleJwt.fromIdAndExpiration(refreshed, expired), "ST-refreshed");
+        fileHandler.createServiceTicketFile("ST-old", SimpleJwt.fromIdAndExpiration(old, expired));
+        fileHandler.writeJwtFile(old, SimpleJwt.fromIdAndExpiration(old, expired), "ST-old");
+        Striped<Lock> locks = Striped.lock(4);
+        List<String> removedJwtIds = new ArrayList<>();
+        SessionFileRemover.RemovalGuard guard = new SessionFileRemover.RemovalGuard() {
+            @Override
+            public boolean isRemovable(ExpirationWheel.ExpiringSession session) {
+                assertThat(((ReentrantLock) locks.get(session.getJwtId())).isHeldByCurrentThread()).isTrue();
+                return !refreshed.equals(session.getJwtId());
+            }
 
-        Path expected1 = createServiceTicketPath("id1");
-        Path expected2 = createServiceTicketPath("id2");
-        Path expected3 = createServiceTicketPath("id3");
-        assertThat(files).contains(expected1, expected2, expected3);
+            @Override
+            public void onRemoved(ExpirationWheel.ExpiringSession session) {
+                assertThat(((ReentrantLock) locks.get(session.getJwtId())).isHeldByCurrentThread()).isTrue();
+                removedJwtIds.add(session.getJwtId());
+            }
+        };
+        sut = new SessionFileRemover(sessionStore.toString(), SessionCleanUpSettings.defaults(), locks, guard, null);
+        Queue<ExpirationWheel.ExpiringSession> sessions = new ArrayDeque<>();
+        sessions.add(new ExpirationWheel.ExpiringSession(refreshed, "ST-refreshed", expired));
+        sessions.add(new ExpirationWheel.ExpiringSession(old, "ST-old", expired));
+
+        int actual = sut.removeSessions(sessions);
+
+        assertThat(actual).isEqualTo(2);
+        assertThat(removedJwtIds).containsOnly(old);
+        assertThat(Files.exists(sessionStore.resolve(refreshed))).isTrue();
+        assertThat(Files.exists(sessionStore.resolve("ST-refreshed"))).isTrue();
+        assertThat(Files.exists(sessionStore.resolve(old))).isFalse();
     }
 
     @Test
-    public void removeServiceTicketsShouldRemoveFile() {
-        createServiceTicketFiles("id1", "id2", "id3");
-
-        sut.removeServiceTickets(RANDOM_SERVICE_TICKET_PREFIX + "id2");
+    public void removeSessionsShouldProcessAllBatches() {
+        long expired = Instant.now().minusSeconds(60).getEpochSecond();
+        String[] jwtIds = {"AWkLDwrSoTPaa1Du9LQ1", "AWkLDwrSoTPaa1Du9LQ2", "AWkLDwrSoTPaa1Du9LQ3",
+                "AWkLDwrSoTPaa1Du9LQ4", "AWkLDwrSoTPaa1Du9LQ5"};
+        createJwtFiles(expired, jwtIds);
+        sut = new SessionFileRemover(sessionStore.toString(), new SessionCleanUpSettings(2, 0, 0, 1));
 
-        Collection<Path> files = sut.listAllServiceTickets();
-        Path expected1 = createServiceTicketPath("id1");
-        Path expected3 = createServiceTicketPath("id3");
-        assertThat(files).containsOnly(expected1, expected3);
-    }
+        int actual = sut.removeSessions(expiredSessions(expired, "", jwtIds));
 
-    private Path createServiceTicketPath(String id1) {
-        return sessionStore.resolve(RANDOM_SERVICE_TICKET_PREFIX + id1);
+        assertThat(actual).isEqualTo(5);
+        assertThat(countExistingFiles()).isEqualTo(0);
     }
 
     @Test
-    public void removeServiceTicketsShouldNotThrowExceptionWhenFileNotFound() {
-        createServiceTicketFiles("id1", "id2", "id3");
-
-        sut.removeServiceTickets(RANDOM_SERVICE_TICKET_PREFIX + "okthisisweird");
-
-        Collection<Path> files = sut.listAllServiceTickets();
-        Path expected1 = createServiceTicketPath("id1");
-        Path expected2 = createServiceTicketPath("id2");
-        Path expected3 = createServiceTicketPath("id3");
-        assertThat(files).containsOnly(expected1, expected2, expected3);
+    public void removeSessionsShouldStopAtMaxDeletesPerRun() {
+        long expired = Instant.now().minusSeconds(60).getEpochSecond();
+        String[] jwtIds = {"AWkLDwrSoTPaa1Du9LQ1", "AWkLDwrSoTPaa1Du9LQ2", "AWkLDwrSoTPaa1Du9LQ3",
+                "AWkLDwrSoTPaa1Du9LQ4", "AWkLDwrSoTPaa1Du9LQ5"};
+        createJwtFiles(expired, jwtIds);
+        sut = new SessionFileRemover(sessionStore.toString(), new SessionCleanUpSettings(2, 0, 3, 1));
+        Queue<ExpirationWheel.ExpiringSession> sessions = expiredSessions(expired, "", jwtIds);
+
+        int actual = sut.removeSessions(sessions);
+
+        assertThat(actual).isEqualTo(3);
+        assertThat(countExistingFiles()).isEqualTo(2);
+        assertThat(sessions).hasSize(2);
+        assertThat(sut.removeSessions(sessions)).isEqualTo(2);
     }
 
     @Test
-    public void removeServiceTicketsShouldRemoveSeveralFilesAtOnce() {
-        createServiceTicketFiles("id1", "id2", "id3");
+    public void removeSessionsShouldRemoveFilesInParallel() {
+        long expired = Instant.now().minusSeconds(60).getEpochSecond();
+        String[] jwtIds = new String[100];
+        for (int i = 0; i < jwtIds.length; i++) {
+            jwtIds[i] = String.format("AWkLDwrSoTPa%08d", i);
+        }
+        createJwtFiles(expired, jwtIds);
+        createServiceTicketFiles(jwtIds);
+        sut = new SessionFileRemover(sessionStore.toString(), new SessionCleanUpSettings(10, 0, 0, 4), executor);
+        Queue<ExpirationWheel.ExpiringSession> sessions = new ConcurrentLinkedQueue<>(expiredSessions(expired, "", jwtIds));
 
-        sut.removeServiceTickets(RANDOM_SERVICE_TICKET_PREFIX + "id2", RANDOM_SERVICE_TICKET_PREFIX + "id3");
+        int actual = sut.removeSessions(sessions);
 
-        Collection<Path> files = sut.listAllServiceTickets();
-        Path expected1 = createServiceTicketPath("id1");
-        assertThat(files).containsOnly(expected1);
+        assertThat(actual).isEqualTo(200);
+        assertThat(countExistingFiles()).isEqualTo(0);
     }
 
     @Test
-    public void listJwtFilesShouldListFilesMatchingAPattern() {
-        long now = Instant.now().getEpochSecond();
-        String id1 = "AWkLDwrSoTPaa1Du9LQ1";
-        String id2 = "AWkLDwrSoTPaa1Du9LQ2";
-        String id3 = "AWkLDwrSoTPaa1Du9LQ3";
-        createJwtFiles(now, id1, id2, id3);
-        assertThat(countExistingFiles()).isEqualTo(3);
-
-        Collection<Path> actual = sut.listAllJwtFiles();
-
-        Path expected1 = sessionStore.resolve(id1);
-        Path expected2 = sessionStore.resolve(id2);
-        Path expected3 = sessionStore.resolve(id3);
-        assertThat(actual).containsOnly(expected1, expected2, expected3);
-    }
+    public void removeSessionsShouldShareMaxDeletesPerRunBetweenWorkers() {
+        long expired = Instant.now().minusSeconds(60).getEpochSecond();
+        String[] jwtIds = new String[100];
+        for (int i = 0; i < jwtIds.length; i++) {
+            jwtIds[i] = String.format("AWkLDwrSoTPa%08d", i);
+        }
+        createJwtFiles(expired, jwtIds);
+        sut = new SessionFileRemover(sessionStore.toString(), new SessionCleanUpSettings(10, 0, 30, 4), executor);
+        Queue<ExpirationWheel.ExpiringSession> sessions = new ConcurrentLinkedQueue<>(expiredSessions(expired, "", jwtIds));
 
-    @Test
-    public void listJwtFilesShouldNotListServiceTickets() {
-        long now = Instant.now().getEpochSecond();
-        String id1 = "AWkLDwrSoTPaa1Du9LQ1";
-        String id2 = "AWkLDwrSoTPaa1Du9LQ2";
-        String id3 = "AWkLDwrSoTPaa1Du9LQ3";
-        createJwtFiles(now, id1, id2, id3);
-        createServiceTicketFiles("id4", "id5", "id6");
-        assertThat(countExistingFiles()).isEqualTo(3 + 3);
-
-        Collection<Path> actual = sut.listAllJwtFiles();
-
-        Path expected1 = sessionStore.resolve(id1);
-        Path expected2 = sessionStore.resolve(id2);
-        Path expected3 = sessionStore.resolve(id3);
-        assertThat(actual).containsOnly(expected1, expected2, expected3);
-    }
+        int actual = sut.removeSessions(sessions);
 
-    @Test
-    public void listJwtFilesShouldNotListSimilarUnknownFiles() {
-        long now = Instant.now().getEpochSecond();
-        String tooLong = "AWkLDwrSoTPaa1Du9LQ191aZzdhnaskdu27283jd";
-        String id1ShouldMatch = "AWkLDwrSoTPaa1Du9LQ1";
-        String oneCharTooShort = "AWkLDwrSoTPaa1Du9LQ";
-        String wayToShort = "A";
-        createJwtFiles(now, tooLong, id1ShouldMatch, oneCharTooShort, wayToShort);
-        createServiceTicketFiles("id4", "id5", "id6");
-        assertThat(countExistingFiles()).isEqualTo(4 + 3);
-
-        Collection<Path> actual = sut.listAllJwtFiles();
-
-        Path expected1 = sessionStore.resolve(id1ShouldMatch);
-        assertThat(actual).containsOnly(expected1);
+        assertThat(actual).isEqualTo(30);
+        assertThat(countExistingFiles()).isEqualTo(70);
+        assertThat(sessions).hasSize(70);
     }
 
     @Test
-    public void parseJwtFilesShouldReturnJwts() {
-        long now = Instant.now().getEpochSecond();
-        String jwtFile1 = "AWkLDwrSoTPaa1Du9LQ1";
-        String jwtFile2 = "AWkLDwrSoTPaa1Du9LQ2";
-        String jwtFile3 = "AWkLDwrSoTPaa1Du9LQ3";
-        createJwtFiles(now, jwtFile1, jwtFile2, jwtFile3);
-        Path inputFile1 = sessionStore.resolve(jwtFile1);
-        Path inputFile2 = sessionStore.resolve(jwtFile2);
-        Path inputFile3 = sessionStore.resolve(jwtFile3);
-        Collection<Path> foundFiles = Arrays.asList(inputFile1, inputFile2, inputFile3);
+    public void removeSessionsShouldNotExceedMaxDeletesPerRunWithServiceTicketFiles() {
+        long expired = Instant.now().minusSeconds(60).getEpochSecond();
+        String[] jwtIds = {"AWkLDwrSoTPaa1Du9LQ1", "AWkLDwrSoTPaa1Du9LQ2", "AWkLDwrSoTPaa1Du9LQ3"};
+        createJwtFiles(expired, jwtIds);
+        createServiceTicketFiles(jwtIds);
+        sut = new SessionFileRemover(sessionStore.toString(), new SessionCleanUpSettings(10, 0, 5, 1));
+        Queue<ExpirationWheel.ExpiringSession> sessions = new ArrayDeque<>();
+        for (String jwtId : jwtIds) {
+            sessions.add(new ExpirationWheel.ExpiringSession(jwtId, RANDOM_SERVICE_TICKET_PREFIX + jwtId, expired));
+        }
 
-        List<SimpleJwt> actual = sut.parseJwtFiles(foundFiles);
+        int actual = sut.removeSessions(sessions);
 
-        List<SimpleJwt> expected = createJwts(now, jwtFile1, jwtFile2, jwtFile3);
-        assertThat(actual.toArray()).containsOnly(expected.toArray());
+        // the third session needs two deletes but only one is left
+        assertThat(actual).isEqualTo(4);
+        assertThat(sessions).hasSize(1);
+        assertThat(listJwtFiles()).hasSize(1);
+        assertThat(listServiceTicketFiles()).hasSize(1);
     }
 
     @Test
-    public void findExpiredJwtsShouldReturnOnlyExpiredJwts() {
-        long future = Instant.now().plusSeconds(60).getEpochSecond();
-        String jwtFile1 = "AWkLDwrSoTPaa1Du9LQ1";
-        String jwtFile2 = "AWkLDwrSoTPaa1Du9LQ2";
-        String jwtFile3 = "AWkLDwrSoTPaa1Du9LQ3";
-        createJwtFiles(future, jwtFile1, jwtFile2, jwtFile3);
-
+    public void removeSessionsShouldGiveBackDeletesOfMissingFiles() throws IOException {
         long expired = Instant.now().minusSeconds(60).getEpochSecond();
-        String old1 = "AWkLDwrSoTPaa1Du9LQ4";
-        String old2 = "AWkLDwrSoTPaa1Du9LQ5";
-        String old3 = "AWkLDwrSoTPaa1Du9LQ6";
-        createJwtFiles(expired, old1, old2, old3);
-
-        Path inputFile1 = sessionStore.resolve(jwtFile1);
-        Path inputFile2 = sessionStore.resolve(jwtFile2);
-        Path inputFile3 = sessionStore.resolve(jwtFile3);
-        Path oldFile1 = sessionStore.resolve(old1);
-        Path oldFile2 = sessionStore.resolve(old2);
-        Path oldFile3 = sessionStore.resolve(old3);
-        Collection<Path> foundFiles = Arrays.asList(inputFile1, inputFile2, inputFile3, oldFile1, oldFile2, oldFile3);
-        List<SimpleJwt> unfiltered = sut.parseJwtFiles(foundFiles);
+        String[] jwtIds = {"AWkLDwrSoTPaa1Du9LQ1", "AWkLDwrSoTPaa1Du9LQ2"};
+        createJwtFiles(expired, jwtIds);
+        sut = new SessionFileRemover(sessionStore.toString(), new SessionCleanUpSettings(10, 0, 3, 1));
+        Queue<ExpirationWheel.ExpiringSession> sessions = new ArrayDeque<>();
+        for (String jwtId : jwtIds) {
+            // the service ticket files do not exist
+            sessions.add(new ExpirationWheel.ExpiringSession(jwtId, RANDOM_SERVICE_TICKET_PREFIX + jwtId, expired));
+        }
 
-        List<SimpleJwt> actual = sut.findExpiredJwts(unfiltered);
+        int actual = sut.removeSessions(sessions);
 
-        List<SimpleJwt> expected = createJwts(expired, old1, old2, old3);
-        assertThat(actual.toArray()).containsOnly(expected.toArray());
+        assertThat(actual).isEqualTo(2);
+        assertThat(sessions).isEmpty();
+        assertThat(listJwtFiles()).isEmpty();
     }
 
     @Test
-    public void convertJwtsToIdsShouldReturnListOfIds() {
-        long now = Instant.now().getEpochSecond();
-        List<SimpleJwt> input = createJwts(now, "id1", "id2");
-
-        List<String> actual = sut.convertJwtsToIds(input);
-
-        assertThat(actual).containsExactly("id1", "id2");
+    public void settingsShouldRaiseMaxDeletesPerRunToOneSession() {
+        assertThat(new SessionCleanUpSettings(10, 0, 1, 1).getMaxDeletesPerRun()).isEqualTo(2);
+        assertThat(new SessionCleanUpSettings(10, 0, 0, 1).getMaxDeletesPerRun()).isEqualTo(0);
     }
 
     @Test
-    public void convertJwtsToIdsShouldReturnEmptyList() {
-        List<String> actual = sut.convertJwtsToIds(emptyList());
+    public void removeSessionsShouldNotFollowServiceTicketsOutsideOfSessionStore() throws IOException {
+        long expired = Instant.now().minusSeconds(60).getEpochSecond();
+        Path outside = Files.createTempFile("outside", "");
+        String jwtId = "AWkLDwrSoTPaa1Du9LQ4";
+        try {
+            createJwtFiles(expired, jwtId);
 
-        assertThat(actual).isEmpty();
-    }
+            sut.removeSessions(expiredSessions(expired, "ST-../../" + outside.getFileName(), jwtId));
 
-    @Test
-    public void listServiceTicketsToBeRemovedShouldReturnMatchingTicketFiles() {
-        long timeHasNoMatter = Instant.now().getEpochSecond();
-        String jwtFile1 = "AWkLDwrSoTPaa1Du9LQ1";
-        String jwtFile2 = "AWkLDwrSoTPaa1Du9LQ2";
-        String jwtFile3 = "AWkLDwrSoTPaa1Du9LQ3";
-        String jwtDontFindMe = "AWkLDwrSoTPaa1Du9LQ4";
-        createJwtFiles(timeHasNoMatter, jwtFile1, jwtFile2, jwtFile3, jwtDontFindMe);
-        createServiceTicketFiles(jwtFile1, jwtFile2, jwtFile3, jwtDontFindMe);
-        List<String> expiredJwtIds = Arrays.asList(jwtFile1, jwtFile2, jwtFile3);
+            assertThat(Files.exists(outside)).isTrue();
+            assertThat(listJwtFiles()).isEmpty();
+        } finally {
+            Files.deleteIfExists(outside);
+        }
+    }
 
-        Collection<Path> actualFiles = sut.findServiceTicketFilesByJwtId(expiredJwtIds);
+    // utility methods
 
-        Path expected1 = sessionStore.resolve(RANDOM_SERVICE_TICKET_PREFIX + jwtFile1);
-        Path expected2 = sessionStore.resolve(RANDOM_SERVICE_TICKET_PREFIX + jwtFile2);
-        Path expected3 = sessionStore.resolve(RANDOM_SERVICE_TICKET_PREFIX + jwtFile3);
-        assertThat(actualFiles).containsOnly(expected1, expected2, expected3);
+    private Path createServiceTicketPath(String id1) {
+        return sessionStore.resolve(RANDOM_SERVICE_TICKET_PREFIX + id1);
     }
 
-    @Test
-    public void readingExceptionShouldNotThrowException() throws IOException {
-        long timeHasNoMatter = Instant.now().getEpochSecond();
-        String jwtFile1 = "AWkLDwrSoTPaa1Du9LQ1";
-        String jwtFile2 = "AWkLDwrSoTPaa1Du9LQ2";
-        String jwtFile3 = "AWkLDwrSoTPaa1Du9LQ3";
-        Collection<Path> existingFiles = createJwtFiles(timeHasNoMatter, jwtFile1, jwtFile2, jwtFile3);
-        Path bogusFile = sessionStore.resolve("AWkLDwrSoTPaa1Du9LQ4");
-        byte[] bogusInput = "<banana><potassium value=\"9001\" /></banana>".getBytes();
-        Files.write(bogusFile, bogusInput);
-        ArrayList<Path> filesList = new ArrayList<>();
-        filesList.add(bogusFile); // first file produces an exception
-        filesList.addAll(existingFiles);
-
-        // when
-        List<SimpleJwt> actualJwts = sut.parseJwtFiles(filesList);
+    private List<Path> listServiceTicketFiles() {
+        return listFiles(true);
+    }
 
-        // then no exception and correct data
-        List<SimpleJwt> expected = createJwts(timeHasNoMatter, jwtFile1, jwtFile2, jwtFile3);
-        assertThat(actualJwts.toArray()).containsOnly(expected.toArray());
+    private List<Path> listJwtFiles() {
+        return listFiles(false);
     }
 
-    // utility methods
+    private List<Path> listFiles(boolean serviceTickets) {
+        try (Stream<Path> files = Files.list(sessionStore)) {
+            return files
+                    .filter(file -> file.getFileName().toString().startsWith(SessionFileHandler.SERVICE_TICKET_PREFIX) == serviceTickets)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
     private long countExistingFiles() {
         try {
@@ -320,13 +315,13 @@ public class SessionFileRemoverTest {
         return createdJwtPaths;
     }
 
-    private List<SimpleJwt> createJwts(long expirationDate, String... jwtIds) {
-        List<SimpleJwt> list = new ArrayList<>();
+    private Queue<ExpirationWheel.ExpiringSession> expiredSessions(long expirationDate, String serviceTicket, String... jwtIds) {
+        Queue<ExpirationWheel.ExpiringSession> sessions = new ArrayDeque<>();
         for (String id : jwtIds) {
-            list.add(SimpleJwt.fromIdAndExpiration(id, expirationDate));
+            sessions.add(new ExpirationWheel.ExpiringSession(id, serviceTicket, expirationDate));
         }
 
-        return list;
+        return sessions;
     }
 
     private void createServiceTicketFiles(String... fileSuffices) {
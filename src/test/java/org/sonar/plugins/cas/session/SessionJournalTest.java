@@ -0,0 +1,62 @@
+package org.sonar.plugins.cas.session;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.plugins.cas.util.SimpleJwt;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SessionJournalTest {
+
+    private Path sessionStore;
+    private SessionJournal sut;
+
+    @Before
+    public void setUp() throws Exception {
+        sessionStore = Files.createTempDirectory("sessionStore");
+        sut = new SessionJournal(sessionStore);
+        sut.open(record -> {
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut.close();
+        FileUtils.deleteDirectory(sessionStore.toFile());
+    }
+
+    @Test
+    public void finishCompactionShouldKeepRecordsAppendedWhileTheCompactionWasWritten() throws Exception {
+        long expiration = Instant.now().plusSeconds(60).getEpochSecond();
+        sut.append(JournalRecord.store("ST-1", SimpleJwt.fromIdAndExpiration("jwt1", expiration)));
+        sut.append(JournalRecord.expire("jwt1"));
+        JournalRecord live = JournalRecord.store("ST-2", SimpleJwt.fromIdAndExpiration("jwt2", expiration));
+        sut.append(live);
+
+        SessionJournal.Compaction compaction = sut.startCompaction(Collections.singletonList(live));
+        sut.writeCompaction(compaction);
+        sut.sync(sut.append(JournalRecord.store("ST-3", SimpleJwt.fromIdAndExpiration("jwt3", expiration))));
+        sut.finishCompaction(compaction);
+        sut.sync(sut.append(JournalRecord.invalidate("jwt3")));
+
+        assertThat(sut.getRecordCount()).isEqualTo(3);
+        assertThat(replayJwtIds()).containsExactly("jwt2", "jwt3", "jwt3");
+    }
+
+    private List<String> replayJwtIds() throws Exception {
+        sut.close();
+        List<String> jwtIds = new ArrayList<>();
+        sut = new SessionJournal(sessionStore);
+        sut.open(record -> jwtIds.add(record.getJwtId()));
+        return jwtIds;
+    }
+}
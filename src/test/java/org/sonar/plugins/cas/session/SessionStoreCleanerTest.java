@@ -7,6 +7,7 @@ import org.mockito.verification.VerificationMode;
 import org.sonar.api.config.Configuration;
 import org.sonar.plugins.cas.SonarTestConfiguration;
 
+import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
 public class SessionStoreCleanerTest {
@@ -15,7 +16,9 @@ public class SessionStoreCleanerTest {
 
     @After
     public void tearDown() {
-        cleaner.cancelTimer();
+        if (cleaner != null) {
+            cleaner.shutdownScheduler();
+        }
     }
 
     @Test(timeout = 1000L)
@@ -67,4 +70,61 @@ public class SessionStoreCleanerTest {
         verify(sessionStoreFactory, atLeastOnce).getInstance();
         verify(sessionStore, atLeastOnce).removeExpiredEntries();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void cleanerTaskShouldSurviveFailingCleanUp() {
+        Configuration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.sessionStore.cleanUpIntervalInSeconds", "1000");
+        CasSessionStoreFactory sessionStoreFactory = mock(CasSessionStoreFactory.class);
+        CasSessionStore sessionStore = mock(CasSessionStore.class);
+        when(sessionStoreFactory.getInstance()).thenReturn(sessionStore);
+        when(sessionStore.removeExpiredEntries())
+                .thenThrow(new RuntimeException("Could not list files"))
+                .thenReturn(1);
+
+        cleaner = new SessionStoreCleaner(configuration, sessionStoreFactory);
+        SessionStoreCleaner.CasSessionStoreCleanerTask task = cleaner.new CasSessionStoreCleanerTask();
+
+        task.run();
+        task.run();
+
+        verify(sessionStore, times(2)).removeExpiredEntries();
+    }
+
+    @Test
+    public void cleanerTaskShouldShortenIntervalAfterBusyRun() {
+        Configuration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.sessionStore.cleanUpIntervalInSeconds", "1000")
+                .withAttribute("sonar.cas.sessionStore.cleanUp.minIntervalInSeconds", "300");
+        CasSessionStoreFactory sessionStoreFactory = mock(CasSessionStoreFactory.class);
+        CasSessionStore sessionStore = mock(CasSessionStore.class);
+        when(sessionStoreFactory.getInstance()).thenReturn(sessionStore);
+        when(sessionStore.removeExpiredEntries()).thenReturn(SessionStoreCleaner.BUSY_RUN_THRESHOLD);
+
+        cleaner = new SessionStoreCleaner(configuration, sessionStoreFactory);
+        SessionStoreCleaner.CasSessionStoreCleanerTask task = cleaner.new CasSessionStoreCleanerTask();
+
+        task.run();
+        assertThat(cleaner.getCurrentIntervalInSeconds()).isEqualTo(500L);
+        task.run();
+        assertThat(cleaner.getCurrentIntervalInSeconds()).isEqualTo(300L);
+    }
+
+    @Test
+    public void adaptIntervalShouldGrowBackToConfiguredInterval() {
+        Configuration configuration = new SonarTestConfiguration()
+                .withAttribute("sonar.cas.sessionStore.cleanUpIntervalInSeconds", "1000");
+        cleaner = new SessionStoreCleaner(configuration, mock(CasSessionStoreFactory.class));
+
+        assertThat(cleaner.adaptInterval(60, 0)).isEqualTo(120L);
+        assertThat(cleaner.adaptInterval(800, 0)).isEqualTo(1000L);
+        assertThat(cleaner.adaptInterval(100, SessionStoreCleaner.BUSY_RUN_THRESHOLD)).isEqualTo(60L);
+    }
+
+    @Test
+    public void withJitterShouldSpreadDelayByTenPercent() {
+        assertThat(SessionStoreCleaner.withJitter(10000, 0.0)).isEqualTo(9000L);
+        assertThat(SessionStoreCleaner.withJitter(10000, 0.5)).isEqualTo(10000L);
+        assertThat(SessionStoreCleaner.withJitter(10000, 0.999)).isEqualTo(10998L);
+    }
+}
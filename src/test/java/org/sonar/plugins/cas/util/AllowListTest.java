@@ -0,0 +1,65 @@
+package org.sonar.plugins.cas.util;
+
+import org.junit.Test;
+import org.sonar.plugins.cas.SonarTestConfiguration;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AllowListTest {
+
+    @Test
+    public void isAllowedShouldMatchBuiltInEntriesAnywhere() {
+        AllowList sut = AllowList.fromConfiguration(new SonarTestConfiguration());
+
+        assertThat(sut.isAllowed("/sessions/init/sonarqube")).isTrue();
+        assertThat(sut.isAllowed("/sonar/api/endpoint")).isTrue();
+        assertThat(sut.isAllowed("/ui/endpoint")).isFalse();
+        assertThat(sut.isAllowed(null)).isFalse();
+    }
+
+    @Test
+    public void isAllowedShouldMatchConfiguredGlobs() {
+        AllowList sut = AllowList.fromConfiguration(new SonarTestConfiguration()
+                .withAttribute("sonar.cas.forceCasLogin.allowList", "/health, /bundles/*.js, /scanner/**/report?.txt"));
+
+        assertThat(sut.isAllowed("/health")).isTrue();
+        assertThat(sut.isAllowed("/healthy")).isFalse();
+        assertThat(sut.isAllowed("/bundles/app.js")).isTrue();
+        assertThat(sut.isAllowed("/bundles/nested/app.js")).isFalse();
+        assertThat(sut.isAllowed("/scanner/a/b/report1.txt")).isTrue();
+        assertThat(sut.isAllowed("/scanner/a/b/report12.txt")).isFalse();
+    }
+
+    @Test
+    public void isAllowedShouldMatchConfiguredRegularExpressions() {
+        AllowList sut = AllowList.fromConfiguration(new SonarTestConfiguration()
+                .withAttribute("sonar.cas.forceCasLogin.allowList", "regex:/monitoring/(metrics|status)"));
+
+        assertThat(sut.isAllowed("/monitoring/metrics")).isTrue();
+        assertThat(sut.isAllowed("/monitoring/other")).isFalse();
+    }
+
+    @Test
+    public void isAllowedShouldPreferDenyPatterns() {
+        AllowList sut = AllowList.fromConfiguration(new SonarTestConfiguration()
+                .withAttribute("sonar.cas.forceCasLogin.allowList", "/internal/**")
+                .withAttribute("sonar.cas.forceCasLogin.denyList", "/api/system/**, /internal/admin"));
+
+        assertThat(sut.isAllowed("/api/system/info")).isFalse();
+        assertThat(sut.isAllowed("/api/projects/search")).isTrue();
+        assertThat(sut.isAllowed("/internal/admin")).isFalse();
+        assertThat(sut.isAllowed("/internal/status")).isTrue();
+    }
+
+    @Test(expected = SonarCasProperties.SonarCasPropertyMisconfigurationException.class)
+    public void fromConfigurationShouldFailOnInvalidRegularExpression() {
+        AllowList.fromConfiguration(new SonarTestConfiguration()
+                .withAttribute("sonar.cas.forceCasLogin.allowList", "regex:/api/(unclosed"));
+    }
+
+    @Test
+    public void globToRegexShouldQuoteLiterals() {
+        assertThat("/favicon.ico".matches(AllowList.globToRegex("/favicon.ico"))).isTrue();
+        assertThat("/faviconxico".matches(AllowList.globToRegex("/favicon.ico"))).isFalse();
+    }
+}
@@ -0,0 +1,108 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.base.Ticker;
+import org.jasig.cas.client.validation.Assertion;
+import org.junit.Test;
+import org.sonar.plugins.cas.SonarTestConfiguration;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AssertionCacheTest {
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test
+    public void getShouldReturnTheAssertionOfTheSameCredentials() {
+        AssertionCache sut = new AssertionCache(10, Duration.ofMinutes(1), ticker);
+        Assertion assertion = validAssertion();
+        sut.put("user", "secret", assertion);
+
+        assertThat(sut.get("user", "secret")).isSameAs(assertion);
+        assertThat(sut.get("user", "wrong")).isNull();
+        assertThat(sut.stats().hitCount()).isEqualTo(1);
+        assertThat(sut.stats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getShouldForgetAssertionsAfterTheTimeToLive() {
+        AssertionCache sut = new AssertionCache(10, Duration.ofMinutes(1), ticker);
+        sut.put("user", "secret", validAssertion());
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(1));
+
+        assertThat(sut.get("user", "secret")).isNull();
+    }
+
+    @Test
+    public void getShouldDropAssertionsWhichAreNoLongerValid() {
+        AssertionCache sut = new AssertionCache(10, Duration.ofMinutes(1), ticker);
+        Assertion assertion = validAssertion();
+        sut.put("user", "secret", assertion);
+
+        when(assertion.isValid()).thenReturn(false);
+
+        assertThat(sut.get("user", "secret")).isNull();
+        assertThat(sut.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void putShouldBeBounded() {
+        AssertionCache sut = new AssertionCache(2, Duration.ofMinutes(1), ticker);
+
+        sut.put("user1", "secret", validAssertion());
+        sut.put("user2", "secret", validAssertion());
+        sut.put("user3", "secret", validAssertion());
+
+        assertThat(sut.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void invalidateUserShouldRemoveAllAssertionsOfTheUser() {
+        AssertionCache sut = new AssertionCache(10, Duration.ofMinutes(1), ticker);
+        sut.put("user", "secret", validAssertion());
+        sut.put("user", "token", validAssertion());
+        sut.put("other", "secret", validAssertion());
+
+        sut.invalidateUser("user");
+
+        assertThat(sut.size()).isEqualTo(1);
+        assertThat(sut.get("other", "secret")).isNotNull();
+    }
+
+    @Test
+    public void invalidateUserShouldIgnoreTheCaseOfTheUsername() {
+        AssertionCache sut = new AssertionCache(10, Duration.ofMinutes(1), ticker);
+        sut.put("User", "secret", validAssertion());
+
+        sut.invalidateUser("user");
+
+        assertThat(sut.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void cacheShouldBeDisabledByDefault() {
+        AssertionCache sut = new AssertionCache(new SonarTestConfiguration());
+
+        sut.put("user", "secret", validAssertion());
+
+        assertThat(sut.get("user", "secret")).isNull();
+        assertThat(sut.size()).isEqualTo(0);
+    }
+
+    private static Assertion validAssertion() {
+        Assertion assertion = mock(Assertion.class);
+        when(assertion.isValid()).thenReturn(true);
+        return assertion;
+    }
+}
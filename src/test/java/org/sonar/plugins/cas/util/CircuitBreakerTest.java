@@ -0,0 +1,180 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+import org.sonar.plugins.cas.SonarTestConfiguration;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test
+    public void acquireShouldBeRejectedAfterTheFailureRateWasReached() throws Exception {
+        CircuitBreaker sut = new CircuitBreaker(settings(4, 4, 2), ticker);
+
+        succeedCall(sut);
+        succeedCall(sut);
+        failCall(sut);
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        failCall(sut);
+
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertRejected(sut);
+        assertThat(sut.getStatistics().getRejectedCalls()).isEqualTo(1);
+    }
+
+    @Test
+    public void acquireShouldBeRejectedAfterTheSlowCallRateWasReached() throws Exception {
+        CircuitBreaker sut = new CircuitBreaker(settings(2, 2, 1), ticker);
+
+        for (int i = 0; i < 2; i++) {
+            CircuitBreaker.Permit permit = sut.acquire();
+            nanos.addAndGet(TimeUnit.SECONDS.toNanos(5));
+            permit.onSuccess();
+        }
+
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void acquireShouldOnlyCountTheRecentCalls() throws Exception {
+        CircuitBreaker sut = new CircuitBreaker(settings(4, 4, 2), ticker);
+
+        failCall(sut);
+        for (int i = 0; i < 10; i++) {
+            succeedCall(sut);
+        }
+        failCall(sut);
+
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void halfOpenCircuitBreakerShouldCloseAfterSuccessfulTrialCalls() throws Exception {
+        CircuitBreaker sut = openCircuitBreaker();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+        CircuitBreaker.Permit first = sut.acquire();
+        CircuitBreaker.Permit second = sut.acquire();
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertRejected(sut);
+        first.onSuccess();
+        second.onSuccess();
+
+        CircuitBreaker.Statistics statistics = sut.getStatistics();
+        assertThat(statistics.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(statistics.getTransitions().get(CircuitBreaker.State.OPEN)).isEqualTo(1L);
+        assertThat(statistics.getTransitions().get(CircuitBreaker.State.HALF_OPEN)).isEqualTo(1L);
+        assertThat(statistics.getTransitions().get(CircuitBreaker.State.CLOSED)).isEqualTo(1L);
+    }
+
+    @Test
+    public void halfOpenCircuitBreakerShouldOpenAgainAfterFailedTrialCalls() throws Exception {
+        CircuitBreaker sut = openCircuitBreaker();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+        sut.acquire().onFailure();
+        sut.acquire().onSuccess();
+
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertRejected(sut);
+    }
+
+    @Test
+    public void releasedPermitsShouldFreeTheirTrialCall() throws Exception {
+        CircuitBreaker sut = openCircuitBreaker();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+        sut.acquire().release();
+        sut.acquire().release();
+        sut.acquire().onSuccess();
+        sut.acquire().onSuccess();
+
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void permitsShouldOnlyCountOnceAndNotAfterATransition() throws Exception {
+        CircuitBreaker sut = new CircuitBreaker(settings(2, 2, 2), ticker);
+        CircuitBreaker.Permit late = sut.acquire();
+        CircuitBreaker.Permit twice = sut.acquire();
+
+        twice.onFailure();
+        twice.onFailure();
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        failCall(sut);
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        sut.acquire().onSuccess();
+        late.onFailure();
+        sut.acquire().onSuccess();
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void disabledCircuitBreakerShouldNeverReject() throws Exception {
+        CircuitBreaker sut = CircuitBreaker.fromConfiguration(new SonarTestConfiguration()
+                .withAttribute("sonar.cas.circuitBreaker.enabled", "false"));
+
+        for (int i = 0; i < 100; i++) {
+            failCall(sut);
+        }
+
+        assertThat(sut.getStatistics().isEnabled()).isFalse();
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void settingsShouldRejectAMinimumNumberOfCallsAboveTheWindowSize() {
+        settings(4, 5, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void settingsShouldRejectThresholdsAbove100Percent() {
+        new CircuitBreakerSettings(true, 101, 100, Duration.ofSeconds(5), 10, 10, Duration.ofSeconds(30), 2);
+    }
+
+    private CircuitBreaker openCircuitBreaker() throws CasUnavailableException {
+        CircuitBreaker sut = new CircuitBreaker(settings(2, 2, 2), ticker);
+        failCall(sut);
+        failCall(sut);
+        assertThat(sut.getStatistics().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        return sut;
+    }
+
+    private static CircuitBreakerSettings settings(int slidingWindowSize, int minimumNumberOfCalls,
+                                                   int permittedCallsInHalfOpenState) {
+        return new CircuitBreakerSettings(true, 50, 100, Duration.ofSeconds(5), slidingWindowSize,
+                minimumNumberOfCalls, Duration.ofSeconds(30), permittedCallsInHalfOpenState);
+    }
+
+    private static void succeedCall(CircuitBreaker sut) throws CasUnavailableException {
+        sut.acquire().onSuccess();
+    }
+
+    private static void failCall(CircuitBreaker sut) throws CasUnavailableException {
+        sut.acquire().onFailure();
+    }
+
+    private static void assertRejected(CircuitBreaker sut) {
+        try {
+            sut.acquire();
+            fail("expected CasUnavailableException");
+        } catch (CasUnavailableException e) {
+            assertThat(e.getRetryAfter().isNegative()).isFalse();
+        }
+    }
+}
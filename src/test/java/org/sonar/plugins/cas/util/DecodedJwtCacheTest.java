@@ -0,0 +1,67 @@
+package org.sonar.plugins.cas.util;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DecodedJwtCacheTest {
+    private final AtomicInteger decodings = new AtomicInteger();
+
+    @Test
+    public void getShouldDecodeEachTokenOnlyOnce() {
+        DecodedJwtCache sut = new DecodedJwtCache();
+        Function<String, SimpleJwt> decoder = countingDecoder(Instant.now().plusSeconds(60).getEpochSecond());
+
+        SimpleJwt first = sut.get("token", decoder);
+        SimpleJwt second = sut.get("token", decoder);
+
+        assertThat(second).isSameAs(first);
+        assertThat(decodings.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void getShouldNotCacheExpiredJwts() {
+        DecodedJwtCache sut = new DecodedJwtCache();
+        Function<String, SimpleJwt> decoder = countingDecoder(Instant.now().minusSeconds(60).getEpochSecond());
+
+        SimpleJwt first = sut.get("token", decoder);
+        SimpleJwt second = sut.get("token", decoder);
+
+        assertThat(second).isEqualTo(first);
+        assertThat(decodings.get()).isEqualTo(2);
+        assertThat(sut.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void getShouldEvictLeastRecentlyUsedEntries() {
+        DecodedJwtCache sut = new DecodedJwtCache(2, Duration.ofMinutes(1));
+        Function<String, SimpleJwt> decoder = countingDecoder(Instant.now().plusSeconds(60).getEpochSecond());
+
+        sut.get("token1", decoder);
+        sut.get("token2", decoder);
+        sut.get("token3", decoder);
+
+        assertThat(sut.size()).isEqualTo(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getShouldPassDecoderExceptionsThrough() {
+        DecodedJwtCache sut = new DecodedJwtCache();
+
+        sut.get("token", token -> {
+            throw new IllegalArgumentException("Could not decode " + token);
+        });
+    }
+
+    private Function<String, SimpleJwt> countingDecoder(long expiration) {
+        return token -> {
+            decodings.incrementAndGet();
+            return SimpleJwt.fromIdAndExpiration(token, expiration);
+        };
+    }
+}
@@ -10,9 +10,12 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.zip.CRC32;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -82,4 +85,99 @@ public class JwtFilesTest {
         SimpleJwt jwt = SimpleJwt.fromIdAndExpiration(id, now);
         assertThat(actual).isEqualTo(jwt);
     }
+
+    @Test
+    public void marshalWritesCompactBinaryRecord() throws IOException {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration("AWjne4xYY4T-z3CxdIRY", 1L);
+        Path newFile = sessionStore.resolve("AWjne4xYY4T-z3CxdIRY");
+
+        JwtFiles.marshalIntoNewFile(newFile, jwt);
+
+        assertThat(Files.size(newFile)).isEqualTo(42L);
+        assertThat(JwtFiles.unmarshal(newFile)).isEqualTo(jwt);
+    }
+
+    @Test
+    public void marshalShouldStoreServiceTicket() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration("AWjne4xYY4T-z3CxdIRY", 1L);
+        Path file = sessionStore.resolve("AWjne4xYY4T-z3CxdIRY");
+
+        JwtFiles.marshalIntoNewFile(file, jwt, "ST-55-HqpNCMS1MO2enGkAqwMo-a20226e06c07");
+
+        JwtFiles.JwtFileContent actual = JwtFiles.unmarshalWithServiceTicket(file);
+        assertThat(actual.getJwt()).isEqualTo(jwt);
+        assertThat(actual.getServiceTicket()).isEqualTo("ST-55-HqpNCMS1MO2enGkAqwMo-a20226e06c07");
+    }
+
+    @Test
+    public void unmarshalShouldReadRecordWithoutServiceTicket() throws IOException {
+        byte[] jwtId = "1234".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(16 + jwtId.length + 4);
+        record.putInt(JwtFiles.MAGIC).put((byte) 1).put((byte) 1).putShort((short) jwtId.length).putLong(1L).put(jwtId);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        Path file = sessionStore.resolve("1234");
+        Files.write(file, record.array());
+
+        JwtFiles.JwtFileContent actual = JwtFiles.unmarshalWithServiceTicket(file);
+
+        assertThat(actual.getJwt()).isEqualTo(SimpleJwt.fromIdAndExpiration("1234", 1L).cloneAsInvalidated());
+        assertThat(actual.getServiceTicket()).isEmpty();
+    }
+
+    @Test
+    public void marshalShouldOverwriteExistingFile() {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration("1234", 1L);
+        Path file = sessionStore.resolve("1234");
+        JwtFiles.marshalIntoNewFile(file, jwt);
+
+        JwtFiles.marshalIntoNewFile(file, jwt.cloneAsInvalidated());
+
+        assertThat(JwtFiles.unmarshal(file)).isEqualTo(jwt.cloneAsInvalidated());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void unmarshalThrowsExceptionOnChecksumMismatch() throws IOException {
+        SimpleJwt jwt = SimpleJwt.fromIdAndExpiration("1234", 1L);
+        Path file = sessionStore.resolve("1234");
+        JwtFiles.marshalIntoNewFile(file, jwt);
+        byte[] content = Files.readAllBytes(file);
+        content[10] ^= 0x01;
+        Files.write(file, content);
+
+        JwtFiles.unmarshal(file);
+    }
+
+    @Test
+    public void unmarshalShouldReadLegacyXmlFile() throws IOException {
+        Path file = writeLegacyXmlFile("AWjne4xYY4T-z3CxdIRY", 1550331060L, true);
+
+        SimpleJwt actual = JwtFiles.unmarshal(file);
+
+        SimpleJwt expected = SimpleJwt.fromIdAndExpiration("AWjne4xYY4T-z3CxdIRY", 1550331060L).cloneAsInvalidated();
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    public void unmarshalWithServiceTicketShouldReportTheLegacyFormat() throws IOException {
+        Path legacyFile = writeLegacyXmlFile("AWjne4xYY4T-z3CxdIRY", 1550331060L, false);
+        Path binaryFile = sessionStore.resolve("AWkLDwrSoTPaa1Du9LQ1");
+        JwtFiles.marshalIntoNewFile(binaryFile, SimpleJwt.fromIdAndExpiration("AWkLDwrSoTPaa1Du9LQ1", 1550331060L));
+
+        assertThat(JwtFiles.unmarshalWithServiceTicket(legacyFile).isLegacyFormat()).isTrue();
+        assertThat(JwtFiles.unmarshalWithServiceTicket(binaryFile).isLegacyFormat()).isFalse();
+    }
+
+    private Path writeLegacyXmlFile(String id, long expiration, boolean invalid) throws IOException {
+        String jwtRaw = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>" +
+                "<SimpleJwt>" +
+                "<jwtId>" + id + "</jwtId>" +
+                "<expiration>" + expiration + "</expiration>" +
+                "<invalid>" + invalid + "</invalid>" +
+                "</SimpleJwt>";
+        Path file = sessionStore.resolve(id);
+        Files.write(file, jwtRaw.getBytes());
+        return file;
+    }
 }
@@ -0,0 +1,109 @@
+package org.sonar.plugins.cas.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JwtPayloadDecoderTest {
+    private static final String SONARQUBE_JWT_TOKEN = "eyJhbGciOiJIUzI1NiJ9" +
+            ".eyJqdGkiOiJBV2poSm1xc3RwTWJfYmNkRXlZQSIsInN1YiI6ImFkbWluIiwiaWF0Ijox" +
+            "NTQ5OTY1NjE3LCJleHAiOjE1NTAyMjQ4MTcsImxhc3RSZWZyZXNoVGltZSI6MTU0OTk2" +
+            "NTYxNzcyMiwieHNyZlRva2VuIjoiaHZpcGRyMzBkamdic2lwY2E0ZmZhMmdwYm4ifQ" +
+            ".QTCPErWDrzDcZBUuGje1vjbjJbp11rsBZ6z5ZBIaoR0";
+
+    @Test
+    public void decodeShouldReturnIdAndExpirationOfSonarQubeJwt() {
+        SimpleJwt actual = JwtPayloadDecoder.decode(SONARQUBE_JWT_TOKEN);
+
+        assertThat(actual).isEqualTo(SimpleJwt.fromIdAndExpiration("AWjhJmqstpMb_bcdEyYA", 1550224817L));
+        assertThat(actual).isEqualTo(JwtProcessor.parseJwtWithObjectMapper(SONARQUBE_JWT_TOKEN));
+    }
+
+    @Test
+    public void decodeShouldSkipNestedAndEscapedValues() {
+        String payload = "{ \"sub\" : \"ad\\\"min\", \"roles\": [\"a\", {\"jti\": \"nested\"}], \"obj\": {\"exp\": 1}," +
+                " \"flag\": true, \"none\": null, \"jti\": \"AWjhJmqstpMb_bcdEyYA\", \"exp\": 1550224817 }";
+
+        SimpleJwt actual = JwtPayloadDecoder.decode(jwtWithPayload(payload));
+
+        assertThat(actual).isEqualTo(SimpleJwt.fromIdAndExpiration("AWjhJmqstpMb_bcdEyYA", 1550224817L));
+    }
+
+    @Test
+    public void decodeShouldAcceptBothBase64AlphabetsAndPadding() {
+        // the payload's encoding contains characters which differ between both alphabets
+        String payload = "{\"jti\":\"???>>>\",\"exp\":1550224817}";
+        String standard = Base64.getEncoder().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        String urlSafe = Base64.getUrlEncoder().withoutPadding().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        assertThat(standard).isNotEqualTo(urlSafe);
+
+        assertThat(JwtPayloadDecoder.decode("header." + standard + ".signature").getJwtId()).isEqualTo("???>>>");
+        assertThat(JwtPayloadDecoder.decode("header." + urlSafe + ".signature").getJwtId()).isEqualTo("???>>>");
+    }
+
+    @Test
+    public void decodeShouldReturnNullForUnsupportedPayloads() {
+        assertThat(JwtPayloadDecoder.decode(jwtWithPayload("{\"jti\":\"A\\u0042\",\"exp\":1550224817}"))).isNull();
+        assertThat(JwtPayloadDecoder.decode(jwtWithPayload("{\"jti\":\"AB\",\"exp\":1.550224817E9}"))).isNull();
+        assertThat(JwtPayloadDecoder.decode(jwtWithPayload("{\"jti\":\"AB\"}"))).isNull();
+        assertThat(JwtPayloadDecoder.decode(jwtWithPayload("{\"jti\":\"AB\",\"exp\":"))).isNull();
+        assertThat(JwtPayloadDecoder.decode(jwtWithPayload("[1, 2]"))).isNull();
+        assertThat(JwtPayloadDecoder.decode("header.pay*load.signature")).isNull();
+        assertThat(JwtPayloadDecoder.decode("no-payload")).isNull();
+    }
+
+    @Test
+    public void decodeShouldHandlePayloadsLargerThanTheScratchBuffer() {
+        StringBuilder payload = new StringBuilder("{\"jti\":\"AWjhJmqstpMb_bcdEyYA\",\"padding\":\"");
+        for (int i = 0; i < 30_000; i++) {
+            payload.append('x');
+        }
+        payload.append("\",\"exp\":1550224817}");
+
+        SimpleJwt actual = JwtPayloadDecoder.decode(jwtWithPayload(payload.toString()));
+
+        assertThat(actual).isEqualTo(SimpleJwt.fromIdAndExpiration("AWjhJmqstpMb_bcdEyYA", 1550224817L));
+        assertThat(JwtPayloadDecoder.decode(SONARQUBE_JWT_TOKEN)).isNotNull();
+    }
+
+    @Test
+    @Ignore // benchmark which takes a while but can be called manually
+    public void benchmarkDecodeAgainstObjectMapper() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int iterations = 2_000_000;
+
+        for (int round = 0; round < 3; round++) {
+            long checksum = 0;
+            long start = System.nanoTime();
+            long allocated = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                checksum += JwtProcessor.parseJwtWithObjectMapper(SONARQUBE_JWT_TOKEN).getJwtId().length();
+            }
+            long objectMapperBytes = (threads.getThreadAllocatedBytes(threadId) - allocated) / iterations;
+            long objectMapperNanos = (System.nanoTime() - start) / iterations;
+
+            start = System.nanoTime();
+            allocated = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                checksum += JwtPayloadDecoder.decode(SONARQUBE_JWT_TOKEN).getJwtId().length();
+            }
+            long decoderBytes = (threads.getThreadAllocatedBytes(threadId) - allocated) / iterations;
+            long decoderNanos = (System.nanoTime() - start) / iterations;
+
+            System.out.printf("object mapper: %4d ns/op %5d B/op, payload decoder: %4d ns/op %5d B/op (checksum %d)%n",
+                    objectMapperNanos, objectMapperBytes, decoderNanos, decoderBytes, checksum);
+        }
+    }
+
+    private static String jwtWithPayload(String payload) {
+        return "eyJhbGciOiJIUzI1NiJ9." +
+                Base64.getUrlEncoder().withoutPadding().encodeToString(payload.getBytes(StandardCharsets.UTF_8)) +
+                ".signature";
+    }
+}
@@ -0,0 +1,168 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.base.Ticker;
+import org.jasig.cas.client.validation.Assertion;
+import org.junit.Test;
+import org.sonar.plugins.cas.CasHttpClientPool;
+import org.sonar.plugins.cas.SonarTestConfiguration;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ProxyTicketCacheTest {
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+    private final AtomicInteger validations = new AtomicInteger();
+
+    @Test
+    public void getShouldValidateEveryCallWithoutPolicy() {
+        SonarTestConfiguration configuration = new SonarTestConfiguration();
+        ProxyTicketCache sut = new ProxyTicketCache(configuration, new CasHttpClientPool(configuration));
+        Assertion assertion = validAssertion();
+
+        sut.get("PT-1", () -> validate(assertion));
+        sut.get("PT-1", () -> validate(assertion));
+
+        assertThat(validations.get()).isEqualTo(2);
+        assertThat(sut.getValidationStatistics().getExecutedCalls()).isEqualTo(2);
+    }
+
+    @Test
+    public void getShouldShareARunningValidation() throws Exception {
+        ProxyTicketCache sut = new ProxyTicketCache(ProxyTicketCache.Policy.IN_FLIGHT, 0, Duration.ZERO,
+                Duration.ofSeconds(5), ticker);
+        Assertion assertion = validAssertion();
+        CountDownLatch validationStarted = new CountDownLatch(1);
+        CountDownLatch finishValidation = new CountDownLatch(1);
+        SharedCallLatch sharedValidation = SharedCallLatch.of(sut.getValidations(), 1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Assertion> first = executor.submit(() -> sut.get("PT-1", () -> {
+                validationStarted.countDown();
+                await(finishValidation);
+                return validate(assertion);
+            }));
+            assertThat(validationStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<Assertion> second = executor.submit(() -> sut.get("PT-1", () -> validate(assertion)));
+            sharedValidation.await();
+            finishValidation.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS)).isSameAs(assertion);
+            assertThat(second.get(5, TimeUnit.SECONDS)).isSameAs(assertion);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(validations.get()).isEqualTo(1);
+
+        // the assertion is not kept after the validation finished
+        sut.get("PT-1", () -> validate(assertion));
+        assertThat(validations.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void getShouldReuseTheAssertionWithinTheTimeToLive() {
+        ProxyTicketCache sut = new ProxyTicketCache(ProxyTicketCache.Policy.REUSE, 10, Duration.ofSeconds(10),
+                Duration.ofSeconds(5), ticker);
+        Assertion assertion = validAssertion();
+
+        assertThat(sut.get("PT-1", () -> validate(assertion))).isSameAs(assertion);
+        assertThat(sut.get("PT-1", () -> validate(assertion))).isSameAs(assertion);
+        assertThat(validations.get()).isEqualTo(1);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        sut.get("PT-1", () -> validate(assertion));
+        assertThat(validations.get()).isEqualTo(2);
+        assertThat(sut.stats().hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getShouldNotKeepFailedValidations() {
+        ProxyTicketCache sut = new ProxyTicketCache(ProxyTicketCache.Policy.REUSE, 10, Duration.ofSeconds(10),
+                Duration.ofSeconds(5), ticker);
+
+        assertThat(sut.get("PT-1", () -> validate(null))).isNull();
+        assertThat(sut.get("PT-1", () -> validate(null))).isNull();
+
+        assertThat(validations.get()).isEqualTo(2);
+        assertThat(sut.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void getShouldDropAssertionsWhichAreNoLongerValid() {
+        ProxyTicketCache sut = new ProxyTicketCache(ProxyTicketCache.Policy.REUSE, 10, Duration.ofSeconds(10),
+                Duration.ofSeconds(5), ticker);
+        Assertion assertion = validAssertion();
+        sut.get("PT-1", () -> validate(assertion));
+
+        when(assertion.isValid()).thenReturn(false);
+        sut.get("PT-1", () -> validate(validAssertion()));
+
+        assertThat(validations.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void getShouldPassExceptionsOfTheValidation() {
+        ProxyTicketCache sut = new ProxyTicketCache(ProxyTicketCache.Policy.IN_FLIGHT, 0, Duration.ZERO,
+                Duration.ofSeconds(5), ticker);
+
+        try {
+            sut.get("PT-1", () -> {
+                throw new IllegalStateException("CAS is down");
+            });
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("CAS is down");
+        }
+
+        Assertion assertion = validAssertion();
+        assertThat(sut.get("PT-1", () -> validate(assertion))).isSameAs(assertion);
+    }
+
+    @Test
+    public void parsePolicyShouldIgnoreCase() {
+        assertThat(ProxyTicketCache.parsePolicy("inFlight")).isEqualTo(ProxyTicketCache.Policy.IN_FLIGHT);
+        assertThat(ProxyTicketCache.parsePolicy("REUSE")).isEqualTo(ProxyTicketCache.Policy.REUSE);
+        assertThat(ProxyTicketCache.parsePolicy("none")).isEqualTo(ProxyTicketCache.Policy.NONE);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parsePolicyShouldFailOnUnknownPolicy() {
+        ProxyTicketCache.parsePolicy("always");
+    }
+
+    private Assertion validate(Assertion assertion) {
+        validations.incrementAndGet();
+        return assertion;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Assertion validAssertion() {
+        Assertion assertion = mock(Assertion.class);
+        when(assertion.isValid()).thenReturn(true);
+        return assertion;
+    }
+}
@@ -0,0 +1,58 @@
+package org.sonar.plugins.cas.util;
+
+import org.junit.Test;
+import org.sonar.api.server.http.HttpRequest;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class RequestAttributesTest {
+
+    @Test
+    public void getAttributeShouldReadAttributeFromDelegate() {
+        MockHttpRequest request = new MockHttpRequest();
+        request.setAttribute("LOGIN", "admin");
+
+        assertThat(RequestAttributes.getAttribute(request, "LOGIN")).isEqualTo("admin");
+        assertThat(RequestAttributes.getAttribute(request, "unknown")).isNull();
+    }
+
+    @Test
+    public void getAttributeShouldReturnNullForRequestsWithoutDelegate() {
+        HttpRequest request = mock(HttpRequest.class);
+
+        assertThat(RequestAttributes.getAttribute(request, "LOGIN")).isNull();
+    }
+
+    @Test
+    public void getAttributeShouldReturnNullIfDelegateIsMissing() {
+        MockHttpRequest request = new MockHttpRequest() {
+            @Override
+            public HttpRequest getDelegate() {
+                return null;
+            }
+        };
+
+        assertThat(RequestAttributes.getAttribute(request, "LOGIN")).isNull();
+    }
+
+    @Test
+    public void getAttributeShouldReturnNullIfDelegateFails() {
+        MockHttpRequest request = new MockHttpRequest() {
+            @Override
+            public HttpRequest getDelegate() {
+                throw new IllegalStateException("request is already recycled");
+            }
+        };
+
+        assertThat(RequestAttributes.getAttribute(request, "LOGIN")).isNull();
+    }
+
+    @Test
+    public void getAttributeShouldTellUnsetFromUnreadableAttributes() {
+        MockHttpRequest request = new MockHttpRequest();
+
+        assertThat(RequestAttributes.getAttribute(request, "LOGIN", "")).isNull();
+        assertThat(RequestAttributes.getAttribute(mock(HttpRequest.class), "LOGIN", "")).isEqualTo("");
+    }
+}
@@ -0,0 +1,31 @@
+package org.sonar.plugins.cas.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Lets a test wait until calls joined a running call of a {@link SingleFlight}, e.g. before the test releases the
+ * running call. Create it before the joining calls start.
+ */
+public final class SharedCallLatch {
+    private final CountDownLatch sharedCalls;
+
+    private SharedCallLatch(int expectedSharedCalls) {
+        this.sharedCalls = new CountDownLatch(expectedSharedCalls);
+    }
+
+    public static SharedCallLatch of(SingleFlight<?, ?> singleFlight, int expectedSharedCalls) {
+        SharedCallLatch latch = new SharedCallLatch(expectedSharedCalls);
+        singleFlight.setSharedCallListener(latch.sharedCalls::countDown);
+        return latch;
+    }
+
+    /**
+     * Waits up to 5 seconds for the expected number of shared calls.
+     */
+    public void await() throws InterruptedException {
+        assertThat(sharedCalls.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,140 @@
+package org.sonar.plugins.cas.util;
+
+import org.junit.After;
+import org.junit.Test;
+import org.sonar.plugins.cas.SonarTestConfiguration;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch callStarted = new CountDownLatch(1);
+    private final CountDownLatch finishCall = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        finishCall.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void executeShouldShareTheResultOfARunningCall() throws Exception {
+        SingleFlight<String, String> sut = new SingleFlight<>(Duration.ofSeconds(5));
+        SharedCallLatch sharedCalls = SharedCallLatch.of(sut, 2);
+
+        Future<String> first = executor.submit(() -> sut.execute("user", this::blockingCall));
+        assertThat(callStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<String> second = executor.submit(() -> sut.execute("user", this::blockingCall));
+        Future<String> third = executor.submit(() -> sut.execute("user", this::blockingCall));
+        sharedCalls.await();
+        finishCall.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("result 1");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("result 1");
+        assertThat(third.get(5, TimeUnit.SECONDS)).isEqualTo("result 1");
+        SingleFlight.Statistics statistics = sut.getStatistics();
+        assertThat(statistics.getExecutedCalls()).isEqualTo(1);
+        assertThat(statistics.getSharedCalls()).isEqualTo(2);
+        assertThat(statistics.getDeduplicationRatio()).isEqualTo(2.0 / 3);
+    }
+
+    @Test
+    public void executeShouldRunCallsWithOtherKeysAndLaterCalls() throws Exception {
+        SingleFlight<String, String> sut = new SingleFlight<>(Duration.ofSeconds(5));
+
+        assertThat(sut.execute("user", () -> "result " + calls.incrementAndGet())).isEqualTo("result 1");
+        assertThat(sut.execute("user", () -> "result " + calls.incrementAndGet())).isEqualTo("result 2");
+        assertThat(sut.execute("other", () -> "result " + calls.incrementAndGet())).isEqualTo("result 3");
+
+        assertThat(sut.getStatistics().getSharedCalls()).isEqualTo(0);
+        assertThat(sut.getStatistics().getDeduplicationRatio()).isEqualTo(0.0);
+    }
+
+    @Test
+    public void executeShouldGiveUpWaitingAfterTheTimeout() throws Exception {
+        SingleFlight<String, String> sut = new SingleFlight<>(Duration.ofMillis(100));
+        executor.submit(() -> sut.execute("user", this::blockingCall));
+        assertThat(callStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        try {
+            sut.execute("user", this::blockingCall);
+            fail("expected TimeoutException");
+        } catch (TimeoutException e) {
+            assertThat(sut.getStatistics().getTimedOutCalls()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void executeShouldThrowTheExceptionOfTheRunningCallToAllWaitingCalls() throws Exception {
+        SingleFlight<String, String> sut = new SingleFlight<>(Duration.ofSeconds(5));
+        SharedCallLatch sharedCalls = SharedCallLatch.of(sut, 1);
+
+        Future<String> first = executor.submit(() -> sut.execute("user", () -> {
+            blockingCall();
+            throw new IllegalStateException("CAS is down");
+        }));
+        assertThat(callStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<String> second = executor.submit(() -> sut.execute("user", this::blockingCall));
+        sharedCalls.await();
+        finishCall.countDown();
+
+        assertFailure(first);
+        assertFailure(second);
+    }
+
+    @Test
+    public void executeShouldRunEveryCallWithoutTimeout() throws Exception {
+        SingleFlight<String, String> sut = new SingleFlight<>(SingleFlight.getTimeout(new SonarTestConfiguration()
+                .withAttribute("sonar.cas.singleFlight.timeoutMillis", "0"), Duration.ofSeconds(5)));
+        executor.submit(() -> sut.execute("user", this::blockingCall));
+        assertThat(callStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(sut.execute("user", () -> "own result")).isEqualTo("own result");
+        assertThat(sut.getStatistics().getExecutedCalls()).isEqualTo(2);
+    }
+
+    @Test
+    public void getTimeoutShouldDefaultToTheLongestCall() {
+        Duration actual = SingleFlight.getTimeout(new SonarTestConfiguration(), Duration.ofSeconds(35));
+
+        assertThat(actual).isEqualTo(Duration.ofSeconds(35));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldRejectNegativeTimeout() {
+        new SingleFlight<String, String>(Duration.ofMillis(-1));
+    }
+
+    private String blockingCall() {
+        int call = calls.incrementAndGet();
+        callStarted.countDown();
+        try {
+            finishCall.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "result " + call;
+    }
+
+    private static void assertFailure(Future<String> call) throws Exception {
+        try {
+            call.get(5, TimeUnit.SECONDS);
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+            assertThat(e.getCause().getMessage()).isEqualTo("CAS is down");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.sonar.plugins.cas.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SubstringMatcherTest {
+
+    @Test
+    public void containsAnyShouldFindPatternsAnywhereInTheText() {
+        SubstringMatcher sut = SubstringMatcher.of(Arrays.asList("/js/", "/api/", "/batch"));
+
+        assertThat(sut.containsAny("/js/app.js")).isTrue();
+        assertThat(sut.containsAny("/sonar/api/server/version")).isTrue();
+        assertThat(sut.containsAny("/batch")).isTrue();
+        assertThat(sut.containsAny("/ui/endpoint")).isFalse();
+        assertThat(sut.containsAny("")).isFalse();
+    }
+
+    @Test
+    public void containsAnyShouldFollowFailureLinks() {
+        SubstringMatcher sut = SubstringMatcher.of(Arrays.asList("/sessions/", "/static"));
+
+        // "/sessions/" fails at the last character, "/static" must still be found from there
+        assertThat(sut.containsAny("/session/static")).isTrue();
+        assertThat(sut.containsAny("//sessions/new")).isTrue();
+        assertThat(sut.containsAny("/sessions")).isFalse();
+    }
+
+    @Test
+    public void containsAnyShouldFindPatternsWhichAreSuffixesOfOtherPatterns() {
+        SubstringMatcher sut = SubstringMatcher.of(Arrays.asList("abcd", "bc"));
+
+        assertThat(sut.containsAny("xabcx")).isTrue();
+    }
+
+    @Test
+    public void containsAnyShouldHandleNonAsciiCharacters() {
+        SubstringMatcher sut = SubstringMatcher.of(Collections.singletonList("/über/"));
+
+        assertThat(sut.containsAny("/projects/über/")).isTrue();
+        assertThat(sut.containsAny("/projects/uber/")).isFalse();
+        assertThat(sut.containsAny("/projects/€/")).isFalse();
+    }
+
+    @Test
+    public void containsAnyShouldMatchEveryTextForEmptyPattern() {
+        SubstringMatcher sut = SubstringMatcher.of(Collections.singletonList(""));
+
+        assertThat(sut.containsAny("")).isTrue();
+        assertThat(sut.containsAny("/anything")).isTrue();
+    }
+
+    @Test
+    public void containsAnyShouldBehaveLikeStringContains() {
+        List<String> patterns = Arrays.asList("/js/", "/images/", "/favicon.ico", "/static", "/sessions/", "/api/",
+                "/batch_bootstrap/", "/deploy/", "/batch");
+        SubstringMatcher sut = SubstringMatcher.of(patterns);
+        List<String> texts = Arrays.asList("/", "/projects", "/sessions/new", "/sonar/js/x", "/bat", "/batc/h",
+                "/deploy", "/deploy/plugins", "/api", "/favicon.ic", "/favicon.ico", "/statics", "/imag/es/");
+
+        for (String text : texts) {
+            boolean expected = patterns.stream().anyMatch(text::contains);
+            assertThat(sut.containsAny(text)).as(text).isEqualTo(expected);
+        }
+    }
+}
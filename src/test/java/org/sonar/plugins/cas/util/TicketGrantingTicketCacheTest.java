@@ -0,0 +1,168 @@
+package org.sonar.plugins.cas.util;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class TicketGrantingTicketCacheTest {
+    private final AtomicInteger createdTickets = new AtomicInteger();
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test
+    public void getShouldReuseTheTicketOfTheSameCredentials() throws Exception {
+        TicketGrantingTicketCache sut = new TicketGrantingTicketCache(10, Duration.ofHours(1), ticker);
+
+        String first = sut.get("user", "secret", this::createTicket).get();
+        String second = sut.get("user", "secret", this::createTicket).get();
+
+        assertThat(first).isEqualTo("TGT-1");
+        assertThat(second).isEqualTo("TGT-1");
+        assertThat(sut.stats().hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getShouldNotReuseTheTicketForAnotherPassword() throws Exception {
+        TicketGrantingTicketCache sut = new TicketGrantingTicketCache(10, Duration.ofHours(1), ticker);
+
+        sut.get("user", "secret", this::createTicket).get();
+        String actual = sut.get("user", "wrong", this::createTicket).get();
+
+        assertThat(actual).isEqualTo("TGT-2");
+        assertThat(sut.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void getShouldCreateANewTicketAfterTheTimeToLive() throws Exception {
+        TicketGrantingTicketCache sut = new TicketGrantingTicketCache(10, Duration.ofMinutes(5), ticker);
+        sut.get("user", "secret", this::createTicket).get();
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(5));
+        String actual = sut.get("user", "secret", this::createTicket).get();
+
+        assertThat(actual).isEqualTo("TGT-2");
+    }
+
+    @Test
+    public void getShouldNotCacheFailures() throws Exception {
+        TicketGrantingTicketCache sut = new TicketGrantingTicketCache(10, Duration.ofHours(1), ticker);
+
+        try {
+            sut.get("user", "secret",
+                    () -> CompletableFuture.failedFuture(new CasAuthenticationException("wrong credentials"))).get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage()).isEqualTo("wrong credentials");
+        }
+
+        assertThat(sut.get("user", "secret", this::createTicket).get()).isEqualTo("TGT-1");
+    }
+
+    @Test
+    public void invalidateShouldOnlyRemoveTheGivenTicket() throws Exception {
+        TicketGrantingTicketCache sut = new TicketGrantingTicketCache(10, Duration.ofHours(1), ticker);
+        sut.get("user", "secret", this::createTicket).get();
+
+        sut.invalidate("user", "secret", "TGT-0");
+        assertThat(sut.size()).isEqualTo(1);
+
+        sut.invalidate("user", "secret", "TGT-1");
+        assertThat(sut.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void invalidateUserShouldRemoveAllTicketsOfTheUser() throws Exception {
+        TicketGrantingTicketCache sut = new TicketGrantingTicketCache(10, Duration.ofHours(1), ticker);
+        sut.get("user", "secret", this::createTicket).get();
+        sut.get("user", "token", this::createTicket).get();
+        sut.get("other", "secret", this::createTicket).get();
+
+        sut.invalidateUser("user");
+
+        assertThat(sut.size()).isEqualTo(1);
+        assertThat(sut.get("other", "secret", this::createTicket).get()).isEqualTo("TGT-3");
+    }
+
+    @Test
+    public void invalidateUserShouldIgnoreTheCaseOfTheUsername() throws Exception {
+        TicketGrantingTicketCache sut = new TicketGrantingTicketCache(10, Duration.ofHours(1), ticker);
+        sut.get("User", "secret", this::createTicket).get();
+
+        sut.invalidateUser("user");
+
+        assertThat(sut.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void getShouldBeBounded() throws Exception {
+        TicketGrantingTicketCache sut = new TicketGrantingTicketCache(2, Duration.ofHours(1), ticker);
+
+        sut.get("user1", "secret", this::createTicket).get();
+        sut.get("user2", "secret", this::createTicket).get();
+        sut.get("user3", "secret", this::createTicket).get();
+
+        assertThat(sut.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void disabledCacheShouldAlwaysCreateANewTicket() throws Exception {
+        TicketGrantingTicketCache sut = TicketGrantingTicketCache.disabled();
+
+        sut.get("user", "secret", this::createTicket).get();
+        String actual = sut.get("user", "secret", this::createTicket).get();
+
+        assertThat(actual).isEqualTo("TGT-2");
+        assertThat(sut.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void getShouldShareTheRequestOfConcurrentCallsWithTheSameCredentials() throws Exception {
+        TicketGrantingTicketCache sut = new TicketGrantingTicketCache(10, Duration.ofHours(1), ticker);
+        CompletableFuture<String> request = new CompletableFuture<>();
+        AtomicInteger requests = new AtomicInteger();
+        TicketGrantingTicketCache.Loader loader = () -> {
+            requests.incrementAndGet();
+            return request;
+        };
+
+        CompletableFuture<String> first = sut.get("user", "secret", loader);
+        CompletableFuture<String> second = sut.get("user", "secret", loader);
+        request.complete("TGT-1");
+
+        assertThat(first.get()).isEqualTo("TGT-1");
+        assertThat(second.get()).isEqualTo("TGT-1");
+        assertThat(requests.get()).isEqualTo(1);
+        assertThat(sut.get("user", "secret", this::createTicket).get()).isEqualTo("TGT-1");
+    }
+
+    @Test
+    public void invalidateUserShouldNotCacheTheTicketOfARunningRequest() throws Exception {
+        TicketGrantingTicketCache sut = new TicketGrantingTicketCache(10, Duration.ofHours(1), ticker);
+        CompletableFuture<String> request = new CompletableFuture<>();
+        CompletableFuture<String> running = sut.get("user", "secret", () -> request);
+
+        sut.invalidateUser("user");
+        request.complete("TGT-0");
+
+        assertThat(running.get()).isEqualTo("TGT-0");
+        assertThat(sut.size()).isEqualTo(0);
+    }
+
+    private CompletableFuture<String> createTicket() {
+        return CompletableFuture.completedFuture("TGT-" + createdTickets.incrementAndGet());
+    }
+}